@@ -0,0 +1,800 @@
+/**
+ * S3mf : Clase que permite cargar una geometría con extension *.3mf (3D
+ * Manufacturing Format, Microsoft 3D Builder). El paquete zip se lee en
+ * streaming y cada parte *.model se interpreta con un parser StAX
+ * (S3mfParser) directamente en mallas compactas indexadas, sin construir el
+ * arbol DOM ni los objetos3d. Cada <object> se guarda una sola vez: los
+ * elementos de la construccion y los componentes que lo usan solo guardan
+ * su transformacion, y las transformaciones del modelo se componen con ellas
+ * sin recorrer los vertices. Las medidas se convierten a milimetros.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import samy.scene.SScene;
+import samy.math.SMatrix;
+import samy.objects.SBox;
+import samy.objects.SInteger;
+import samy.objects.SStyle;
+import samy.objects3D.SFaces3D;
+import samy.objects3D.SLines3D;
+import samy.objects3D.SObject3D;
+import samy.objects3D.SObjects3D;
+import samy.objects3D.SPoint3D;
+import samy.objects3D.SShape3D;
+import samy.objects3D.SShapes3D;
+
+public class S3mf {
+
+    private static final String ROOT_PART = "3D/3dmodel.model"; //Si _rels/.rels no indica otra
+    private static final long PARALLEL_PART_SIZE = 8L << 20; //Partes a partir de este tamaño se leen por trozos en paralelo
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_COMPONENT_DEPTH = 32;
+
+    private ArrayList<S3mfItem> items = new ArrayList<>(); //Instancias de las mallas, en el orden de la construccion
+    private volatile ArrayList<SPackedMesh3D> meshes; //Mallas transformadas de las instancias, se construyen bajo demanda
+    private volatile SObjects3D objects3d; //Se construye bajo demanda (ver getObjects)
+    private SImportOptions options = new SImportOptions();
+    public SInteger progress;
+    private SLoadMonitor monitor = new SLoadMonitor(null, null);
+
+    /**
+     * Constructor
+     */
+    public S3mf(String path) {
+        this.load3mf(path);
+    }
+
+    /**
+     * Constructor
+     */
+    public S3mf(String path, boolean enableVertexsNormals, boolean enableEdges) {
+        this.options = new SImportOptions(enableVertexsNormals, enableEdges, SObjects3D.angleLimit);
+        this.load3mf(path);
+    }
+
+    /**
+     * Constructor
+     */
+    public S3mf(String path, SImportOptions options, SInteger progress) {
+        this.options = options.getCopy();
+        this.progress = progress;
+        this.load3mf(path);
+    }
+
+    /**
+     * Constructor sin carga (para loadAsync)
+     */
+    private S3mf(SImportOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en el executor por defecto (hilos
+     * virtuales si la JVM los tiene)
+     */
+    public static CompletableFuture<S3mf> loadAsync(String path, SImportOptions options) {
+        return loadAsync(path, options, null);
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en executor (o en el executor por
+     * defecto si es null). El CompletableFuture termina con una
+     * CancellationException si se cancela la carga y con una
+     * UncheckedIOException si no se puede leer el fichero; cancelarlo
+     * interrumpe la carga
+     */
+    public static CompletableFuture<S3mf> loadAsync(String path, SImportOptions options, Executor executor) {
+        SImportOptions copy = options.getCopy();
+        return SAsyncLoader.supply(copy.listener, executor, listener -> {
+            copy.listener = listener;
+            S3mf model = new S3mf(copy);
+            try {
+                if (!path.toLowerCase().contains(".3mf")) {
+                    throw new IOException("not a 3mf file: " + path);
+                }
+                if (!model.load3mfFile(path)) {
+                    throw new CancellationException("load cancelled: " + path);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return model;
+        });
+    }
+
+    /**
+     * Constructor de copia. Las mallas de los objetos no se modifican nunca y
+     * se comparten; solo se copian las transformaciones de las instancias
+     */
+    public S3mf(S3mf model) {
+        this.options = model.options.getCopy();
+        synchronized (model) {
+            for (S3mfItem item : model.items) {
+                this.items.add(item.getCopy());
+            }
+        }
+    }
+
+    /**
+     * Obtener una copia del objeto
+     */
+    public S3mf getCopy() {
+        return new S3mf(this);
+    }
+
+    /**
+     * Función de carga para geometrias de tipo *.3mf. Lanza
+     * UncheckedIOException con la causa si no se puede leer el fichero
+     */
+    private void load3mf(String path) {
+        String pathInLowercase = path.toLowerCase();
+        if (pathInLowercase.contains(".3mf")) {
+            try {
+                load3mfFile(path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Establecer el valor de la barra de progreso
+     */
+    public void setProgressValue(int value) {
+        if (progress != null) {
+            progress.value = value;
+        }
+    }
+
+    /**
+     * Función especifica para la carga de ficheros *.3mf. Devuelve false si
+     * se cancela la carga
+     */
+    protected boolean load3mfFile(String path) throws IOException {
+        monitor = new SLoadMonitor(options.listener, progress);
+        try (ZipFile zip = new ZipFile(path)) {
+            process3mfFile(zip);
+            return true;
+        } catch (SLoadCancelledException ex) {
+            setItems(new ArrayList<>());
+            return false;
+        } catch (IOException ex) {
+            setItems(new ArrayList<>());
+            throw ex;
+        }
+    }
+
+    /**
+     * Función especifica para procesar ficheros *.3mf: la parte principal,
+     * las partes a las que hace referencia (extension de produccion) y la
+     * construccion
+     */
+    protected void process3mfFile(ZipFile zip) throws IOException {
+        monitor.startPhase(SLoadPhase.READ, 0, 10, 1);
+        String root = null;
+        ZipEntry rels = zip.getEntry("_rels/.rels");
+        if (rels != null) {
+            try (InputStream in = zip.getInputStream(rels)) {
+                root = S3mfParser.getRootPart(in);
+            }
+        }
+        if (root == null || zip.getEntry(root) == null) {
+            root = ROOT_PART;
+        }
+        if (zip.getEntry(root) == null) {
+            throw new IOException("3mf model part not found");
+        }
+
+        ForkJoinPool pool = options.enableParallel && options.parallelism > 1 ? new ForkJoinPool(options.parallelism) : null;
+        HashMap<String, S3mfParser> parts = new HashMap<>();
+        try {
+            AtomicLong read = new AtomicLong();
+            monitor.startPhase(SLoadPhase.PARSE, 10, 90, getSize(zip, root));
+            S3mfParser main = parsePart(zip, root, pool, read);
+            parts.put(root, main);
+
+            //partes de los objetos de la extension de produccion
+            ArrayList<String> pending = main.getReferencedParts();
+            while (!pending.isEmpty()) {
+                long size = 0;
+                for (String name : pending) {
+                    size += getSize(zip, name);
+                }
+                monitor.setTotal(read.get() + size);
+                ArrayList<S3mfParser> parsed = new ArrayList<>();
+                if (pool != null && pending.size() > 1) {
+                    ArrayList<Future<S3mfParser>> results = new ArrayList<>();
+                    for (String name : pending) {
+                        results.add(pool.submit(() -> parsePart(zip, name, null, read)));
+                    }
+                    for (Future<S3mfParser> result : results) {
+                        parsed.add(get(result));
+                    }
+                } else {
+                    for (String name : pending) {
+                        parsed.add(parsePart(zip, name, pool, read));
+                    }
+                }
+                pending = new ArrayList<>();
+                for (S3mfParser parser : parsed) {
+                    parts.put(parser.part, parser);
+                }
+                for (S3mfParser parser : parsed) {
+                    for (String name : parser.getReferencedParts()) {
+                        if (!parts.containsKey(name) && !pending.contains(name)) {
+                            pending.add(name);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        //Construccion: una instancia por malla de cada elemento y componente
+        S3mfParser main = parts.get(root);
+        monitor.startPhase(SLoadPhase.BUILD, 90, 100, main.build.size());
+        STransform3D units = new STransform3D();
+        double scale = S3mfParser.getUnitScale(main.unit);
+        if (scale != 1) {
+            units.scale(scale, scale, scale);
+        }
+        SStylePalette palette = new SStylePalette();
+        for (S3mfParser parser : parts.values()) {
+            for (S3mfObject object : parser.objects.values()) {
+                if (object.mesh != null) {
+                    object.mesh.palette = palette;
+                }
+            }
+        }
+        ArrayList<S3mfItem> list = new ArrayList<>();
+        for (int i = 0; i < main.build.size(); i++) {
+            addItems(parts, root, main.build.get(i), units, 0, list);
+            monitor.worked(i + 1);
+        }
+        setItems(list);
+        monitor.finishPhase();
+    }
+
+    private static long getSize(ZipFile zip, String name) {
+        ZipEntry entry = zip.getEntry(name);
+        return entry != null ? Math.max(entry.getSize(), 0) : 0;
+    }
+
+    /**
+     * Leer una parte *.model. Si hay pool y la parte es grande, el hilo que
+     * descomprime la entrada del zip la corta en trozos de al menos
+     * PARALLEL_CHUNK_SIZE bytes que empiezan en un <object> y los trozos se
+     * interpretan en paralelo. Como mucho hay 2 * parallelism trozos en
+     * memoria a la vez (un objeto nunca se corta, asi que un trozo puede ser
+     * mayor si lo es el objeto)
+     */
+    private S3mfParser parsePart(ZipFile zip, String name, ForkJoinPool pool, AtomicLong read) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("3mf part not found: " + name);
+        }
+        Map<String, int[]> colors = new ConcurrentHashMap<>();
+        S3mfParser parser = new S3mfParser(name, colors, options);
+        try (InputStream in = new S3mfParser.SPartInputStream(zip.getInputStream(entry), monitor, read)) {
+            if (pool == null || entry.getSize() < PARALLEL_PART_SIZE) {
+                parser.parse(in);
+                parser.resolveColors(); //grupos declarados despues de usarlos
+                return parser;
+            }
+            byte[] resourcesEnd = "</resources></model>".getBytes(StandardCharsets.UTF_8);
+            byte[] prefix = null; //<model ...><resources> para abrir cada trozo
+            Semaphore chunks = new Semaphore(2 * options.parallelism);
+            ArrayList<Future<S3mfParser>> results = new ArrayList<>();
+            byte[] buffer = new byte[2 * PARALLEL_CHUNK_SIZE];
+            int length = 0;
+            int scanned = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+                int cut = -1;
+                int i = scanned;
+                while ((i = S3mfParser.indexOfObject(buffer, i, length)) >= 0) {
+                    if (prefix == null || i >= PARALLEL_CHUNK_SIZE) {
+                        cut = i;
+                        break;
+                    }
+                    i++;
+                }
+                scanned = Math.max(length - 8, 0); //una etiqueta puede quedar partida entre lecturas
+                if (cut < 0) {
+                    continue;
+                }
+                byte[] chunk = buffer;
+                int chunkLength = cut;
+                buffer = new byte[Math.max(2 * PARALLEL_CHUNK_SIZE, length - cut)];
+                System.arraycopy(chunk, cut, buffer, 0, length - cut);
+                length -= cut;
+                scanned = 1;
+                if (prefix == null) {
+                    //cabecera: unidades y materiales, antes que los objetos que los usan
+                    byte[] modelTag = S3mfParser.getModelTag(chunk, chunkLength);
+                    if (modelTag == null) {
+                        throw new IOException("3mf model element not found in " + name);
+                    }
+                    prefix = Arrays.copyOf(modelTag, modelTag.length + 11);
+                    System.arraycopy("<resources>".getBytes(StandardCharsets.UTF_8), 0, prefix, modelTag.length, 11);
+                    parseChunk(parser, null, chunk, chunkLength, resourcesEnd);
+                } else {
+                    results.add(submitChunk(pool, chunks, name, colors, prefix, chunk, chunkLength, resourcesEnd));
+                }
+            }
+            if (prefix == null) {
+                parseChunk(parser, null, buffer, length, null); //sin objetos
+            } else {
+                results.add(submitChunk(pool, chunks, name, colors, prefix, buffer, length, null)); //con la construccion
+            }
+            for (Future<S3mfParser> result : results) {
+                parser.add(get(result));
+            }
+        }
+        parser.resolveColors();
+        return parser;
+    }
+
+    private Future<S3mfParser> submitChunk(ForkJoinPool pool, Semaphore chunks, String name, Map<String, int[]> colors,
+            byte[] prefix, byte[] chunk, int length, byte[] suffix) throws IOException {
+        try {
+            chunks.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        return pool.submit(() -> {
+            try {
+                S3mfParser parser = new S3mfParser(name, colors, options);
+                parseChunk(parser, prefix, chunk, length, suffix);
+                return parser;
+            } finally {
+                chunks.release();
+            }
+        });
+    }
+
+    /**
+     * Leer un trozo de una parte, precedido por prefix y seguido por suffix
+     * para formar un documento completo
+     */
+    private static void parseChunk(S3mfParser parser, byte[] prefix, byte[] chunk, int length, byte[] suffix) throws IOException {
+        ArrayList<InputStream> streams = new ArrayList<>();
+        if (prefix != null) {
+            streams.add(new ByteArrayInputStream(prefix));
+        }
+        streams.add(new ByteArrayInputStream(chunk, 0, length));
+        if (suffix != null) {
+            streams.add(new ByteArrayInputStream(suffix));
+        }
+        parser.parse(new SequenceInputStream(Collections.enumeration(streams)));
+    }
+
+    /**
+     * Esperar el resultado de una tarea del pool
+     */
+    private static S3mfParser get(Future<S3mfParser> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Añadir las instancias de las mallas del objeto al que hace referencia
+     * component (y de sus componentes) con la transformacion de su padre
+     */
+    private void addItems(HashMap<String, S3mfParser> parts, String part, S3mfComponent component, STransform3D parent, int depth, ArrayList<S3mfItem> list) throws IOException {
+        String name = component.path != null ? S3mfParser.getPartName(component.path) : part;
+        S3mfParser parser = parts.get(name);
+        S3mfObject object = parser != null ? parser.objects.get(component.objectId) : null;
+        if (object == null) {
+            throw new IOException("3mf object not found: " + component.objectId + " in " + name);
+        }
+        if (depth > MAX_COMPONENT_DEPTH) {
+            throw new IOException("3mf components too deep (cycle?) at object " + component.objectId);
+        }
+        STransform3D transform = new STransform3D();
+        if (component.matrix != null) {
+            transform.compose(component.matrix);
+        }
+        transform.compose(parent.getMatrix());
+        if (object.mesh != null && object.mesh.getTrianglesCount() > 0) {
+            list.add(new S3mfItem(object, transform));
+        }
+        for (S3mfComponent child : object.components) {
+            addItems(parts, name, child, transform, depth + 1, list);
+        }
+    }
+
+    private synchronized void setItems(ArrayList<S3mfItem> items) {
+        this.items = items;
+        this.meshes = null;
+        this.objects3d = null;
+    }
+
+    /**
+     * Componer una transformacion con las de todas las instancias
+     */
+    private synchronized void transformItems(STransform3D transform) {
+        double[] m = transform.getMatrix();
+        for (S3mfItem item : items) {
+            item.transform.compose(m);
+        }
+        meshes = null;
+        objects3d = null;
+    }
+
+    /**
+     * Trasladar
+     */
+    public void translate(SPoint3D p) {
+        transformItems(new STransform3D().translate(p.x, p.y, p.z));
+    }
+
+    /**
+     * Trasladar
+     */
+    public void translate(double x, double y, double z) {
+        transformItems(new STransform3D().translate(x, y, z));
+    }
+
+    /**
+     * Rotar alrededor de X (En radianes)
+     */
+    public void rotateX(double rx) {
+        transformItems(new STransform3D().rotateX(rx));
+    }
+
+    /**
+     * Rotar alrededor de Y (En radianes)
+     */
+    public void rotateY(double ry) {
+        transformItems(new STransform3D().rotateY(ry));
+    }
+
+    /**
+     * Rotar alrededor de Z (En radianes)
+     */
+    public void rotateZ(double rz) {
+        transformItems(new STransform3D().rotateZ(rz));
+    }
+
+    /**
+     * Escalar
+     */
+    public void scale(double fx, double fy, double fz) {
+        transformItems(new STransform3D().scale(fx, fy, fz));
+    }
+
+    /**
+     * Aplicar una matriz de transformacion
+     */
+    public void transform(SMatrix M) {
+        transformItems(new STransform3D().transform(M));
+    }
+
+    /**
+     * Aplicar el espejo en X
+     */
+    public void mirrorX(double x) {
+        transformItems(new STransform3D().mirrorX(x));
+    }
+
+    /**
+     * Aplicar el espejo en Y
+     */
+    public void mirrorY(double y) {
+        transformItems(new STransform3D().mirrorY(y));
+    }
+
+    /**
+     * Aplicar el espejo en Z
+     */
+    public void mirrorZ(double z) {
+        transformItems(new STransform3D().mirrorZ(z));
+    }
+
+    /**
+     * Obtener el espejo en X
+     */
+    public S3mf getMirrorX(double x) {
+        S3mf object = this.getCopy();
+        object.mirrorX(x);
+        return object;
+    }
+
+    /**
+     * Obtener el espejo en Y
+     */
+    public S3mf getMirrorY(double y) {
+        S3mf object = this.getCopy();
+        object.mirrorY(y);
+        return object;
+    }
+
+    /**
+     * Obtener el espejo en Z
+     */
+    public S3mf getMirrorZ(double z) {
+        S3mf object = this.getCopy();
+        object.mirrorZ(z);
+        return object;
+    }
+
+    /**
+     * Obtener la traslacion del objeto
+     */
+    public S3mf getTranslation(double x, double y, double z) {
+        S3mf object = this.getCopy();
+        object.translate(x, y, z);
+        return object;
+    }
+
+    /**
+     * Ajustar el objeto a las dimensiones del objeto sBox
+     */
+    public void fit(SBox box) {
+        SBox thisBox = this.getBox();
+        double fx = box.getX() / thisBox.getX();
+        double fy = box.getY() / thisBox.getY();
+        double fz = box.getZ() / thisBox.getZ();
+        double f = Math.min(fx, fy);
+        f = Math.min(f, fz);
+        this.scale(f, f, f);
+        this.translate(thisBox.getPmin().getMult(-f).getAdd(box.getPmin()));
+    }
+
+    /**
+     * Ajustar el objeto a las dimensiones del objeto sBox y al centro
+     */
+    public void fitCenter(SBox box) {
+        SBox thisBox = this.getBox();
+        double fx = box.getX() / thisBox.getX();
+        double fy = box.getY() / thisBox.getY();
+        double fz = box.getZ() / thisBox.getZ();
+        double f = Math.min(fx, fy);
+        f = Math.min(f, fz);
+        this.scale(f, f, f);
+        this.translate((thisBox.getCenter().getMult(-f)).getAdd(box.getCenter()));
+    }
+
+    /**
+     * Establecer el estilo de las aristas
+     */
+    public void setStyleEdges(SStyle style) {
+        getEdges().setStyle(style);
+    }
+
+    /**
+     * Obtener la box
+     */
+    public SBox getBox() {
+        SMeshStats current = getStats(false);
+        if (!current.isEmpty()) {
+            return current.getBox();
+        }
+        return getObjects().getBox();
+    }
+
+    /**
+     * Obtener las estadisticas de la geometria (box, triangulos, area y
+     * volumen). Se acumulan al cargar cada objeto y se transforman de forma
+     * analitica para cada instancia; solo se recorren los vertices si una
+     * transformacion no lo permite
+     */
+    public SMeshStats getStats() {
+        return getStats(true);
+    }
+
+    /**
+     * Obtener las estadisticas con la box exacta y, si needArea, con el area
+     */
+    private synchronized SMeshStats getStats(boolean needArea) {
+        SMeshStats result = new SMeshStats();
+        for (S3mfItem item : items) {
+            result.add(item.getStats());
+        }
+        if (SMeshList.isComplete(result, needArea)) {
+            return result;
+        }
+        return SMeshStats.of(getMeshes());
+    }
+
+    /**
+     * Obtener un objeto3D
+     */
+    public SFaces3D getFaces3D() {
+        SObjects3D objects3d = getObjects();
+        SFaces3D faces = new SFaces3D();
+        for (int i = 0; i < objects3d.size(); i++) {
+            SObject3D object3d = objects3d.get(i);
+            if (object3d != null) {
+                faces.add(object3d.getFaces3D());
+            }
+        }
+        return faces;
+    }
+
+    /**
+     * Obtener las aristas
+     */
+    public SLines3D getEdges() {
+        SObjects3D objects3d = getObjects();
+        SLines3D edges = new SLines3D();
+        for (int i = 0; i < objects3d.size(); i++) {
+            SObject3D object3d = objects3d.get(i);
+            if (object3d != null) {
+                edges.add(object3d.getEdges());
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Obtener las aristas vivas de cada instancia para angleLimit (en grados)
+     */
+    public ArrayList<SLines3D> getEdges(double angleLimit) {
+        return SMeshList.getEdges(getMeshes(), angleLimit, options.parallelism);
+    }
+
+    /**
+     * Obtener una forma de representacion rapida
+     */
+    public SShape3D getShape3D() {
+        if (objects3d == null) {
+            SShape3D shape = new SShape3D();
+            for (SPackedMesh3D mesh : getMeshes()) {
+                shape.add(mesh.getShape3D());
+            }
+            return shape;
+        }
+        return getObjects().getShape3D();
+    }
+
+    /**
+     * Obtener las formas de representacion rapida (una por instancia)
+     */
+    public SShapes3D getShapes3D() {
+        SShapes3D shapes = new SShapes3D();
+        for (SPackedMesh3D mesh : getMeshes()) {
+            shapes.add(mesh.getShape3D());
+        }
+        return shapes;
+    }
+
+    /**
+     * Obtener los objetos 3D (uno por instancia). Se construyen (calculando
+     * normales y aristas) la primera vez que se piden; es seguro llamarlo
+     * desde varios hilos
+     */
+    public SObjects3D getObjects() {
+        SObjects3D objects = objects3d;
+        if (objects == null) {
+            synchronized (this) {
+                if (objects3d == null) {
+                    objects3d = buildObjects();
+                }
+                objects = objects3d;
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Construir los objetos 3D a partir de las mallas de las instancias
+     */
+    private SObjects3D buildObjects() {
+        SObjects3D objects = new SObjects3D();
+        for (SPackedMesh3D mesh : getMeshes()) {
+            objects.add(getObject3D(mesh));
+        }
+        return objects;
+    }
+
+    /**
+     * Obtener el objeto3D de una malla compacta, con SEdgeAdjacency si
+     * options.enableEdgeAdjacency o hay cache
+     */
+    private SObject3D getObject3D(SPackedMesh3D mesh) {
+        if (options.isEdgeAdjacency()) {
+            return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit, options.parallelism);
+        }
+        return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit);
+    }
+
+    /**
+     * Obtener las mallas compactas de las instancias, ya transformadas. Las
+     * instancias sin transformacion devuelven la malla del objeto, que
+     * comparten con las copias y no se debe modificar
+     */
+    public ArrayList<SPackedMesh3D> getMeshes() {
+        ArrayList<SPackedMesh3D> result = meshes;
+        if (result == null) {
+            synchronized (this) {
+                if (meshes == null) {
+                    ArrayList<SPackedMesh3D> list = new ArrayList<>();
+                    for (S3mfItem item : items) {
+                        list.add(item.getMesh());
+                    }
+                    meshes = list;
+                }
+                result = meshes;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Obtener el nombre del objeto de cada instancia (null si no tiene)
+     */
+    public synchronized ArrayList<String> getNames() {
+        ArrayList<String> names = new ArrayList<>();
+        for (S3mfItem item : items) {
+            names.add(item.object.name);
+        }
+        return names;
+    }
+
+    /**
+     * Guardar la geometria en un *.stl binario
+     */
+    public boolean saveStl(String path) {
+        return new SStlWriter().writeMeshes(path, getMeshes());
+    }
+
+    /**
+     * Dibuja la geometría 3d
+     */
+    public void draw(SScene scene) {
+        getObjects().draw(scene);
+    }
+
+    /**
+     * Imprimir los datos
+     */
+    public void print() {
+        getObjects().print();
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * S3mfComponent : Referencia de un 3mf a un objeto (componente de otro objeto
+ * o elemento de la construccion) con su transformacion. path es la parte del
+ * paquete donde esta el objeto (extension de produccion) o null si esta en
+ * la misma parte.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+class S3mfComponent {
+
+    final String objectId;
+    final String path; //null = la parte que contiene la referencia
+    final double[] matrix; //3x4 por filas, null = identidad
+
+    /**
+     * Constructor
+     */
+    S3mfComponent(String objectId, String path, double[] matrix) {
+        this.objectId = objectId;
+        this.path = path;
+        this.matrix = matrix;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * S3mfItem : Instancia de la malla de un objeto en la construccion de un 3mf.
+ * Las instancias del mismo objeto comparten la malla y sus estadisticas; cada
+ * una solo guarda su transformacion.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+class S3mfItem {
+
+    final S3mfObject object;
+    final STransform3D transform;
+
+    /**
+     * Constructor
+     */
+    S3mfItem(S3mfObject object, STransform3D transform) {
+        this.object = object;
+        this.transform = transform;
+    }
+
+    /**
+     * Obtener una copia (comparte la malla)
+     */
+    S3mfItem getCopy() {
+        return new S3mfItem(object, transform.getCopy());
+    }
+
+    /**
+     * Obtener las estadisticas de la instancia sin recorrer la malla
+     */
+    SMeshStats getStats() {
+        SMeshStats stats = object.stats.getCopy();
+        if (!transform.isIdentity()) {
+            stats.transform(transform);
+        }
+        return stats;
+    }
+
+    /**
+     * Obtener la malla de la instancia: la compartida si la transformacion es
+     * la identidad, o una copia transformada
+     */
+    SPackedMesh3D getMesh() {
+        if (transform.isIdentity()) {
+            return object.mesh;
+        }
+        SPackedMesh3D mesh = object.mesh.getCopy();
+        transform.apply(mesh);
+        return mesh;
+    }
+}
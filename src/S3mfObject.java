@@ -0,0 +1,28 @@
+/**
+ * S3mfObject : Recurso <object> de un 3mf. Tiene una malla indexada (con sus
+ * estadisticas, en las coordenadas del objeto) o una lista de componentes que
+ * hacen referencia a otros objetos. La malla se comparte entre todas las
+ * instancias del objeto y no se modifica despues de la carga.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.ArrayList;
+
+class S3mfObject {
+
+    final String id;
+    final String name;
+    SPackedMesh3D mesh; //null si el objeto solo tiene componentes
+    SMeshStats stats;
+    final ArrayList<S3mfComponent> components = new ArrayList<>();
+
+    /**
+     * Constructor
+     */
+    S3mfObject(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+}
@@ -0,0 +1,497 @@
+/**
+ * S3mfParser : Lectura de una parte *.model de un 3mf (o de un trozo de sus
+ * recursos) con un parser StAX, sin construir el arbol DOM. Los vertices y
+ * triangulos de cada <mesh> se guardan directamente en un SPackedMesh3D
+ * indexado y las estadisticas se acumulan en la misma pasada. Los colores
+ * de <basematerials> y <m:colorgroup> se guardan en un mapa compartido por
+ * todos los trozos de la parte; si un trozo usa un grupo que aun no esta en
+ * el mapa (declarado en otro trozo), el color del triangulo se resuelve al
+ * terminar todos los trozos (resolveColors).
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+class S3mfParser {
+
+    static final String PRODUCTION_NS = "http://schemas.microsoft.com/3dmanufacturing/production/2015/06";
+    private static final String MODEL_RELATIONSHIP = "/3dmodel";
+    private static final XMLInputFactory FACTORY = createFactory();
+    private static final byte[] OBJECT_TAG = {'<', 'o', 'b', 'j', 'e', 'c', 't'};
+    private static final byte[] MODEL_TAG = {'<', 'm', 'o', 'd', 'e', 'l'};
+
+    final String part; //Nombre de la parte en el zip (sin la barra inicial)
+    final LinkedHashMap<String, S3mfObject> objects = new LinkedHashMap<>();
+    final ArrayList<S3mfComponent> build = new ArrayList<>();
+    String unit = "millimeter";
+    private final Map<String, int[]> colors; //rgba de cada grupo de propiedades por id
+    private final ArrayList<SPendingColor> pendingColors = new ArrayList<>(); //triangulos con grupos aun no leidos
+    private final SImportOptions options;
+
+    /**
+     * Constructor
+     */
+    S3mfParser(String part, Map<String, int[]> colors, SImportOptions options) {
+        this.part = part;
+        this.colors = colors;
+        this.options = options;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Leer la parte (o el trozo) de in
+     */
+    void parse(InputStream in) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(in, "UTF-8");
+            parse(reader);
+        } catch (XMLStreamException ex) {
+            throw new IOException("invalid 3mf part " + part + ": " + ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    //el stream lo cierra quien lo ha abierto
+                }
+            }
+        }
+    }
+
+    private void parse(XMLStreamReader reader) throws XMLStreamException, IOException {
+        S3mfObject object = null;
+        SPackedMesh3D mesh = null;
+        SMeshStats stats = null;
+        String objectPid = null; //propiedad por defecto de los triangulos del objeto
+        int objectIndex = 0;
+        String groupId = null;
+        ArrayList<Integer> group = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "vertex": {
+                        float x = parseFloat(reader, "x");
+                        float y = parseFloat(reader, "y");
+                        float z = parseFloat(reader, "z");
+                        if (mesh != null) {
+                            mesh.addVertex(x, y, z, 0, 0, 0);
+                            stats.addVertex(x, y, z);
+                        }
+                        break;
+                    }
+                    case "triangle": {
+                        if (mesh == null) {
+                            break;
+                        }
+                        int n = mesh.getVertexsCount();
+                        int v1 = parseIndex(reader, "v1", n);
+                        int v2 = parseIndex(reader, "v2", n);
+                        int v3 = parseIndex(reader, "v3", n);
+                        mesh.addTriangle(v1, v2, v3);
+                        float[] p = mesh.getPositions();
+                        stats.addTriangle(p[3 * v1], p[3 * v1 + 1], p[3 * v1 + 2],
+                                p[3 * v2], p[3 * v2 + 1], p[3 * v2 + 2],
+                                p[3 * v3], p[3 * v3 + 1], p[3 * v3 + 2]);
+                        if (options.enableColors) {
+                            String pid = reader.getAttributeValue(null, "pid");
+                            String p1 = reader.getAttributeValue(null, "p1");
+                            setColor(mesh, pid != null ? pid : objectPid, p1 != null ? parseInt(p1) : objectIndex);
+                        }
+                        break;
+                    }
+                    case "object":
+                        object = new S3mfObject(reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "name"));
+                        objectPid = reader.getAttributeValue(null, "pid");
+                        String pindex = reader.getAttributeValue(null, "pindex");
+                        objectIndex = pindex != null ? parseInt(pindex) : 0;
+                        break;
+                    case "mesh":
+                        mesh = new SPackedMesh3D(1024, true);
+                        mesh.setCompactNormals(options.enableCompactNormals);
+                        stats = new SMeshStats();
+                        break;
+                    case "component":
+                        if (object != null) {
+                            object.components.add(new S3mfComponent(reader.getAttributeValue(null, "objectid"),
+                                    reader.getAttributeValue(PRODUCTION_NS, "path"), parseMatrix(reader.getAttributeValue(null, "transform"))));
+                        }
+                        break;
+                    case "item":
+                        build.add(new S3mfComponent(reader.getAttributeValue(null, "objectid"),
+                                reader.getAttributeValue(PRODUCTION_NS, "path"), parseMatrix(reader.getAttributeValue(null, "transform"))));
+                        break;
+                    case "basematerials":
+                    case "colorgroup":
+                        groupId = reader.getAttributeValue(null, "id");
+                        group = new ArrayList<>();
+                        break;
+                    case "base":
+                        if (group != null) {
+                            group.add(parseColor(reader.getAttributeValue(null, "displaycolor")));
+                        }
+                        break;
+                    case "color":
+                        if (group != null) {
+                            group.add(parseColor(reader.getAttributeValue(null, "color")));
+                        }
+                        break;
+                    case "model":
+                        String value = reader.getAttributeValue(null, "unit");
+                        if (value != null) {
+                            unit = value;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "object":
+                        if (object != null) {
+                            if (mesh != null) {
+                                mesh.trim();
+                                object.mesh = mesh;
+                                object.stats = stats;
+                            }
+                            objects.put(object.id, object);
+                        }
+                        object = null;
+                        mesh = null;
+                        stats = null;
+                        break;
+                    case "basematerials":
+                    case "colorgroup":
+                        if (groupId != null && group != null) {
+                            int[] rgba = new int[group.size()];
+                            for (int i = 0; i < rgba.length; i++) {
+                                rgba[i] = group.get(i);
+                            }
+                            colors.put(groupId, rgba);
+                        }
+                        group = null;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Añadir los objetos y la construccion de otro trozo de la misma parte
+     */
+    void add(S3mfParser parser) {
+        objects.putAll(parser.objects);
+        build.addAll(parser.build);
+        pendingColors.addAll(parser.pendingColors);
+    }
+
+    /**
+     * Resolver los colores de los triangulos que usan grupos declarados en
+     * otros trozos, cuando ya estan todos en el mapa
+     */
+    void resolveColors() {
+        for (SPendingColor pending : pendingColors) {
+            pending.mesh.setColor(pending.triangle, getColor(pending.pid, pending.index));
+        }
+        pendingColors.clear();
+    }
+
+    /**
+     * Obtener las partes de la construccion y de los componentes que estan
+     * en otras partes del paquete (extension de produccion)
+     */
+    ArrayList<String> getReferencedParts() {
+        ArrayList<String> parts = new ArrayList<>();
+        for (S3mfComponent item : build) {
+            addPart(parts, item.path);
+        }
+        for (S3mfObject object : objects.values()) {
+            for (S3mfComponent component : object.components) {
+                addPart(parts, component.path);
+            }
+        }
+        return parts;
+    }
+
+    private void addPart(ArrayList<String> parts, String path) {
+        if (path != null) {
+            String name = getPartName(path);
+            if (!name.equals(part) && !parts.contains(name)) {
+                parts.add(name);
+            }
+        }
+    }
+
+    /**
+     * Nombre de la entrada del zip de una parte ("/3D/3dmodel.model" ->
+     * "3D/3dmodel.model")
+     */
+    static String getPartName(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * Obtener la parte del modelo principal de _rels/.rels (null si no esta)
+     */
+    static String getRootPart(InputStream in) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Relationship")) {
+                    String type = reader.getAttributeValue(null, "Type");
+                    String target = reader.getAttributeValue(null, "Target");
+                    if (type != null && type.endsWith(MODEL_RELATIONSHIP) && target != null) {
+                        return getPartName(target);
+                    }
+                }
+            }
+            return null;
+        } catch (XMLStreamException ex) {
+            throw new IOException("invalid 3mf relationships: " + ex.getMessage(), ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    //el stream lo cierra quien lo ha abierto
+                }
+            }
+        }
+    }
+
+    /**
+     * Milimetros de la unidad del modelo
+     */
+    static double getUnitScale(String unit) {
+        switch (unit) {
+            case "micron":
+                return 0.001;
+            case "centimeter":
+                return 10;
+            case "inch":
+                return 25.4;
+            case "foot":
+                return 304.8;
+            case "meter":
+                return 1000;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Buscar en buffer[from, to) el inicio de una etiqueta <object (-1 si no
+     * esta). Se mira el caracter que sigue, que debe estar antes de to
+     */
+    static int indexOfObject(byte[] buffer, int from, int to) {
+        for (int i = from; i + OBJECT_TAG.length < to; i++) {
+            if (buffer[i] == '<' && startsWith(buffer, i, OBJECT_TAG) && isSpace(buffer[i + OBJECT_TAG.length])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtener la etiqueta de apertura de <model>, con sus espacios de
+     * nombres, de la cabecera de la parte (null si no esta)
+     */
+    static byte[] getModelTag(byte[] header, int length) {
+        for (int i = 0; i + MODEL_TAG.length < length; i++) {
+            if (header[i] == '<' && startsWith(header, i, MODEL_TAG) && isSpace(header[i + MODEL_TAG.length])) {
+                for (int j = i; j < length; j++) {
+                    if (header[j] == '>') {
+                        return Arrays.copyOfRange(header, i, j + 1);
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] buffer, int offset, byte[] prefix) {
+        for (int k = 0; k < prefix.length; k++) {
+            if (buffer[offset + k] != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static float parseFloat(XMLStreamReader reader, String name) throws IOException {
+        String value = reader.getAttributeValue(null, name);
+        try {
+            return Float.parseFloat(value);
+        } catch (NullPointerException | NumberFormatException ex) {
+            throw new IOException("invalid vertex coordinate " + name + "=" + value, ex);
+        }
+    }
+
+    private static int parseIndex(XMLStreamReader reader, String name, int nvertexs) throws IOException {
+        String value = reader.getAttributeValue(null, name);
+        int index = value != null ? parseInt(value) : -1;
+        if (index < 0 || index >= nvertexs) {
+            throw new IOException("invalid triangle vertex " + name + "=" + value);
+        }
+        return index;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Leer una matriz "m00 m01 m02 m10 ... m32" (el 3mf multiplica vectores
+     * fila) como matriz 3x4 por filas para vectores columna
+     */
+    static double[] parseMatrix(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        String[] terms = value.trim().split("\\s+");
+        if (terms.length != 12) {
+            throw new IOException("invalid transform: " + value);
+        }
+        double[] m = new double[12];
+        try {
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 4; j++) {
+                    m[4 * i + j] = Double.parseDouble(terms[3 * j + i]);
+                }
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("invalid transform: " + value, ex);
+        }
+        return m;
+    }
+
+    /**
+     * Leer un color "#RRGGBB" o "#RRGGBBAA" como rgba (0 si no es valido)
+     */
+    static int parseColor(String value) {
+        if (value == null || value.length() != 7 && value.length() != 9 || value.charAt(0) != '#') {
+            return 0;
+        }
+        try {
+            int rgb = (int) Long.parseLong(value.substring(1), 16);
+            return value.length() == 7 ? (rgb << 8) | 0xFF : rgb;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private int getColor(String pid, int index) {
+        int[] group = pid != null ? colors.get(pid) : null;
+        return group != null && index >= 0 && index < group.length ? group[index] : 0;
+    }
+
+    /**
+     * Establecer el color del ultimo triangulo de mesh, o dejarlo pendiente
+     * si el grupo pid aun no se ha leido
+     */
+    private void setColor(SPackedMesh3D mesh, String pid, int index) {
+        if (pid == null) {
+            return;
+        }
+        if (colors.containsKey(pid)) {
+            mesh.setLastColor(getColor(pid, index));
+        } else {
+            pendingColors.add(new SPendingColor(mesh, mesh.getTrianglesCount() - 1, pid, index));
+        }
+    }
+
+    /**
+     * Color de un triangulo que se resuelve al terminar la parte
+     */
+    private static class SPendingColor {
+
+        final SPackedMesh3D mesh;
+        final int triangle;
+        final String pid;
+        final int index;
+
+        SPendingColor(SPackedMesh3D mesh, int triangle, String pid, int index) {
+            this.mesh = mesh;
+            this.triangle = triangle;
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    /**
+     * InputStream que suma los bytes leidos a read para informar del
+     * progreso (y poder cancelar) con el SLoadMonitor
+     */
+    static class SPartInputStream extends FilterInputStream {
+
+        private final SLoadMonitor monitor;
+        private final AtomicLong read;
+
+        /**
+         * Constructor
+         */
+        SPartInputStream(InputStream in, SLoadMonitor monitor, AtomicLong read) {
+            super(in);
+            this.monitor = monitor;
+            this.read = read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                monitor.worked(read.incrementAndGet());
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                monitor.worked(read.addAndGet(n));
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            monitor.worked(read.addAndGet(skipped));
+            return skipped;
+        }
+    }
+}
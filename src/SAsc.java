@@ -5,6 +5,14 @@
  */
 package samy.cad; //Computer Aided design
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import samy.scene.SScene;
 import samy.math.SMatrix;
 import samy.math.SNumeric;
@@ -26,36 +34,110 @@ import samy.objects3D.SShapes3D;
 
 public class SAsc {
 
-    private SObjects3D objects3d;
+    private volatile SObjects3D objects3d; //Se construye bajo demanda (ver getObjects)
+    private volatile ArrayList<SFacesIndexed3D> solids; //Objetos pendientes de calcular normales y aristas (options.enableLazyNormals)
+    private volatile ArrayList<SVertex3D[]> solidsVertexs; //Vertices de los objetos pendientes
+    private ArrayList<SPackedMesh3D> meshes; //Solo si options.enablePacked, enableEdgeAdjacency o cache, un elemento por objeto
+    private volatile SEdgeAdjacency[] adjacencies; //Angulos de las aristas de los objetos si no hay mallas compactas
+    private SImportOptions options = new SImportOptions();
+    private boolean shared; //meshes y objects3d se comparten con otras instancias (getSharedCopy)
+    private volatile STransform3D transform3d; //Transformacion pendiente de aplicar (ver applyTransform)
+    private SMeshStats stats; //Estadisticas de la geometria sin la transformacion pendiente (null = se calculan bajo demanda)
+    private SStylePalette palette = new SStylePalette(); //Un estilo por color, compartido entre caras y con las copias
     public SInteger progress;
+    private SLoadMonitor monitor = new SLoadMonitor(null, null);
 
     /**
      * Constructor
      */
     public SAsc(String path) {
-        this.loadAsc(path, true, true, SObjects3D.angleLimit);
+        this.loadAsc(path);
     }
 
     /**
      * Constructor
      */
     public SAsc(String path, boolean enableVertexsNormals, boolean enableEdges) {
-        this.loadAsc(path, enableVertexsNormals, enableEdges, SObjects3D.angleLimit);
+        this.options = new SImportOptions(enableVertexsNormals, enableEdges, SObjects3D.angleLimit);
+        this.loadAsc(path);
     }
 
     /**
      * Constructor
      */
     public SAsc(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit, SInteger progress) {
+        this.options = new SImportOptions(enableVertexsNormals, enableEdges, angleLimit);
         this.progress = progress;
-        this.loadAsc(path, enableVertexsNormals, enableEdges, angleLimit);
+        this.loadAsc(path);
+    }
+
+    /**
+     * Constructor
+     */
+    public SAsc(String path, SImportOptions options, SInteger progress) {
+        this.options = options.getCopy();
+        this.progress = progress;
+        this.loadAsc(path);
+    }
+
+    /**
+     * Constructor sin carga (para loadAsync)
+     */
+    private SAsc(SImportOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en el executor por defecto (hilos
+     * virtuales si la JVM los tiene)
+     */
+    public static CompletableFuture<SAsc> loadAsync(String path, SImportOptions options) {
+        return loadAsync(path, options, null);
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en executor (o en el executor por
+     * defecto si es null). El CompletableFuture termina con una
+     * CancellationException si se cancela la carga y con una
+     * UncheckedIOException con la causa si no se puede leer el fichero;
+     * cancelarlo interrumpe la carga
+     */
+    public static CompletableFuture<SAsc> loadAsync(String path, SImportOptions options, Executor executor) {
+        SImportOptions copy = options.getCopy();
+        return SAsyncLoader.supply(copy.listener, executor, listener -> {
+            copy.listener = listener;
+            SAsc asc = new SAsc(copy);
+            try {
+                if (!path.toLowerCase().contains(".asc")) {
+                    throw new IOException("not an asc file: " + path);
+                }
+                if (!asc.readAscFile(path)) {
+                    throw new CancellationException("load cancelled: " + path);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return asc;
+        });
     }
 
     /**
      * Constructor de copia
      */
     public SAsc(SAsc asc) {
-        this.objects3d = asc.objects3d.getCopy();
+        asc.applyTransform();
+        this.options = asc.options.getCopy();
+        this.palette = asc.palette;
+        SMeshStats statsToCopy = asc.stats;
+        this.stats = statsToCopy != null ? statsToCopy.getCopy() : null;
+        if (asc.meshes != null) {
+            this.meshes = new ArrayList<>();
+            for (SPackedMesh3D mesh : asc.meshes) {
+                this.meshes.add(mesh.getCopy());
+            }
+        } else {
+            this.objects3d = asc.getObjects().getCopy();
+        }
     }
 
     /**
@@ -65,13 +147,49 @@ public class SAsc {
         return new SAsc(this);
     }
 
+    /**
+     * Obtener una copia ligera que comparte la geometria (mallas y objetos3d)
+     * con este objeto. La geometria solo se copia cuando una de las
+     * instancias la transforma
+     */
+    public synchronized SAsc getSharedCopy() {
+        SAsc asc = new SAsc(options.getCopy());
+        applyTransform();
+        asc.objects3d = meshes != null ? objects3d : getObjects(); //los objetos de las mallas se construyen bajo demanda
+        asc.meshes = meshes;
+        asc.palette = palette;
+        asc.stats = stats != null ? stats.getCopy() : null;
+        asc.shared = true;
+        this.shared = true;
+        return asc;
+    }
+
+    /**
+     * Copiar la geometria compartida antes de modificarla
+     */
+    private synchronized void copyOnWrite() {
+        if (!shared) {
+            return;
+        }
+        if (meshes != null) {
+            meshes = SMeshList.getCopy(meshes);
+            if (objects3d != null) {
+                objects3d = objects3d.getCopy();
+            }
+        } else {
+            objects3d = getObjects().getCopy();
+        }
+        adjacencies = null;
+        shared = false;
+    }
+
     /**
      * Función de carga para geometrias de tipo *.asc
      */
-    private void loadAsc(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+    private void loadAsc(String path) {
         String pathInLowercase = path.toLowerCase();
         if (pathInLowercase.contains(".asc")) {
-            loadAscFile(path, enableVertexsNormals, enableEdges, angleLimit);
+            loadAscFile(path);
         }
     }
 
@@ -85,27 +203,100 @@ public class SAsc {
     }
     
     /**
-     * Función especifica para la carga de ficheros *.asc
+     * Función especifica para la carga de ficheros *.asc. Devuelve false si
+     * no se puede leer el fichero o se cancela la carga
+     */
+    protected boolean loadAscFile(String path) {
+        try {
+            return readAscFile(path);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Leer un fichero *.asc. Devuelve false si se cancela la carga y lanza
+     * el error de lectura si no se puede leer
      */
-    protected boolean loadAscFile(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
-        setProgressValue(10);
-        String[] lines = SJava.loadStrings(path);
-        setProgressValue(20);
-        if (lines != null) {
-            processAscFile(lines, enableVertexsNormals, enableEdges, angleLimit);
+    private boolean readAscFile(String path) throws IOException {
+        monitor = new SLoadMonitor(options.listener, progress);
+        try {
+            monitor.startPhase(SLoadPhase.READ, 0, 20, 1);
+            String key = options.cache != null ? getCacheKey(path) : null;
+            if (key != null && loadCache(key)) {
+                return true;
+            }
+            if (!new File(path).isFile()) {
+                throw new FileNotFoundException(path);
+            }
+            String[] lines = SJava.loadStrings(path);
+            if (lines == null) {
+                throw new IOException("cannot read " + path);
+            }
+            processAscFile(lines);
+            if (key != null && meshes != null) {
+                options.cache.write(key, meshes, options.parallelism);
+            }
             return true;
-        } else {
-            System.out.println("file" + path + "not found");
+        } catch (SLoadCancelledException ex) {
+            objects3d = new SObjects3D();
+            meshes = null;
+            stats = null;
             return false;
         }
     }
 
+    /**
+     * Obtener la clave del fichero en options.cache (null si no se puede)
+     */
+    private String getCacheKey(String path) {
+        try {
+            return options.cache.getKey(path, options);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Cargar las mallas ya procesadas de options.cache. Devuelve false si el
+     * fichero no esta en la cache
+     */
+    private boolean loadCache(String key) {
+        ArrayList<SPackedMesh3D> cached = options.cache.read(key, options.parallelism);
+        if (cached == null) {
+            return false;
+        }
+        monitor.startPhase(SLoadPhase.BUILD, 20, 100, cached.size());
+        for (SPackedMesh3D mesh : cached) {
+            mesh.setCompactNormals(options.enableCompactNormals);
+            mesh.palette = palette;
+        }
+        this.meshes = cached;
+        this.solids = null;
+        this.solidsVertexs = null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.stats = SMeshStats.of(cached);
+        this.objects3d = null; //se construye bajo demanda a partir de las mallas
+        monitor.finishPhase();
+        return true;
+    }
+
     /**
      * Función especifica para procesar ficheros *.asc
      */
-    protected void processAscFile(String[] lines, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+    protected void processAscFile(String[] lines) {
         this.objects3d = new SObjects3D();
+        this.meshes = options.isPacked() ? new ArrayList<>() : null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.solids = null;
+        this.solidsVertexs = null;
+        this.stats = new SMeshStats();
+        ArrayList<SFacesIndexed3D> solids = new ArrayList<>();
+        ArrayList<SVertex3D[]> solidsVertexs = new ArrayList<>();
         int lineIndex = 0;
+        monitor.startPhase(SLoadPhase.PARSE, 20, 70, lines.length);
         while (true) {
             if (lineIndex > lines.length - 1) {
                 break;
@@ -133,7 +324,12 @@ public class SAsc {
             int nfaces = Integer.parseInt(line.substring(indexNfaces + 7));
 
             //2. Cargamos los vertices
-            SVertex3D[] vertexsArrray = new SVertex3D[nvertexs];
+            SVertex3D[] vertexsArrray = meshes == null ? new SVertex3D[nvertexs] : null;
+            SPackedMesh3D mesh = meshes != null ? new SPackedMesh3D(nvertexs, true) : null;
+            if (mesh != null) {
+                mesh.setCompactNormals(options.enableCompactNormals);
+                mesh.palette = palette;
+            }
             lineIndex++;//Vertex list:                          
             for (int i = 0; i < nvertexs; i++) {
                 line = lines[lineIndex];
@@ -147,17 +343,21 @@ public class SAsc {
                 float x = (float) SNumeric.eval(strX);
                 float y = (float) SNumeric.eval(strY);
                 float z = (float) SNumeric.eval(strZ);
-                SVertex3D vertex = new SVertex3D(x, y, z);
-                vertexsArrray[i] = vertex;
-                setProgressValue((int)(20 + 20*(float)((float)i/(float)nvertexs)));
+                stats.addVertex(x, y, z);
+                if (mesh != null) {
+                    mesh.addVertex(x, y, z, 0, 0, 0);
+                } else {
+                    SVertex3D vertex = new SVertex3D(x, y, z);
+                    vertexsArrray[i] = vertex;
+                }
+                monitor.worked(lineIndex);
             }
 
             //3. Cargamos las caras indexadas
             SFacesIndexed facesIndexed = new SFacesIndexed();
+            float[] positions = mesh != null ? mesh.getPositions() : null;
             lineIndex++;//Face list:    
             for (int i = 0; i < nfaces; i++) {
-                SFaceIndexed faceIndexed = new SFaceIndexed();
-
                 //Recogemos los indices
                 line = lines[lineIndex];
                 lineIndex++;
@@ -165,9 +365,17 @@ public class SAsc {
                 int indexV2 = line.indexOf("B:");
                 int indexV3 = line.indexOf("C:");
                 int indexV4 = line.indexOf("AB:");
-                faceIndexed.add(Integer.parseInt(line.substring(indexV1 + 2, indexV2 - 1)));
-                faceIndexed.add(Integer.parseInt(line.substring(indexV2 + 2, indexV3 - 1)));
-                faceIndexed.add(Integer.parseInt(line.substring(indexV3 + 2, indexV4 - 1)));
+                int v1 = Integer.parseInt(line.substring(indexV1 + 2, indexV2 - 1));
+                int v2 = Integer.parseInt(line.substring(indexV2 + 2, indexV3 - 1));
+                int v3 = Integer.parseInt(line.substring(indexV3 + 2, indexV4 - 1));
+                if (positions != null) {
+                    stats.addTriangle(positions[3 * v1], positions[3 * v1 + 1], positions[3 * v1 + 2],
+                            positions[3 * v2], positions[3 * v2 + 1], positions[3 * v2 + 2],
+                            positions[3 * v3], positions[3 * v3 + 1], positions[3 * v3 + 2]);
+                } else {
+                    SVertex3D a = vertexsArrray[v1], b = vertexsArrray[v2], c = vertexsArrray[v3];
+                    stats.addTriangle(a.x, a.y, a.z, b.x, b.y, b.z, c.x, c.y, c.z);
+                }
 
                 //Recogemos los sombreados de las caras            
                 line = lines[lineIndex];
@@ -183,31 +391,102 @@ public class SAsc {
                 int g = Integer.parseInt(myLine.substring(indexG + 1, indexB)); //g
                 int b = Integer.parseInt(myLine.substring(indexB + 1, indexA)); //b
                 int a = 255 - Integer.parseInt(myLine.substring(indexA + 1, indexE)); //a
-                faceIndexed.styleFill = new SStyle(r, g, b, a);
-
-                facesIndexed.add(faceIndexed);
+                if (mesh != null) {
+                    mesh.addTriangle(v1, v2, v3);
+                    mesh.setLastColor(r, g, b, a);
+                } else {
+                    SFaceIndexed faceIndexed = new SFaceIndexed();
+                    faceIndexed.add(v1);
+                    faceIndexed.add(v2);
+                    faceIndexed.add(v3);
+                    faceIndexed.styleFill = palette.getStyle(r, g, b, a);
+                    facesIndexed.add(faceIndexed);
+                }
 
                 lineIndex++;
-                setProgressValue((int)(40 + 30*(float)((float)i/(float)nvertexs)));
+                monitor.worked(lineIndex);
+            }
+
+            //4. Las mallas compactas calculan normales y aristas al construir los objetos3d
+            if (mesh != null) {
+                mesh.trim();
+                meshes.add(mesh);
+                continue;
             }
 
             //4. Construimos un grupo de caras indexadas
-            SFacesIndexed3D facesIndexed3D = new SFacesIndexed3D(vertexsArrray, facesIndexed);
-            setProgressValue(70);
+            solids.add(new SFacesIndexed3D(vertexsArrray, facesIndexed));
+            solidsVertexs.add(vertexsArrray);
+        }
+        if (options.enableLazyNormals) {
+            //5. Las normales de vertices y las aristas se calculan al pedir los objetos3d
+            monitor.startPhase(SLoadPhase.BUILD, 90, 100, solids.size());
+            this.solidsVertexs = solidsVertexs;
+            this.solids = solids;
+            this.objects3d = null;
+            monitor.finishPhase();
+            return;
+        }
+
+        //5. Calculamos las normales y aristas
+        monitor.startPhase(SLoadPhase.NORMALS_EDGES, 70, 90, solids.size());
+        SLines3D[] edges = new SLines3D[solids.size()];
+        for (int i = 0; i < solids.size(); i++) {
+            edges[i] = solids.get(i).computeNormalsAndEdges(options.enableEdges, options.enableVertexsNormals, options.angleLimit);
+            edges[i].setStyle(new SStyle(0, 0, 0, 255, 2));
+            monitor.worked(i + 1);
+        }
 
-            //5. Calculamos las normales y aristas
-            SLines3D edges = facesIndexed3D.computeNormalsAndEdges(enableEdges, enableVertexsNormals, angleLimit);
-            edges.setStyle(new SStyle(0, 0, 0, 255, 2));
-            setProgressValue(80);
+        //6. Calculamos las caras y construimos los objetos3D
+        monitor.startPhase(SLoadPhase.BUILD, 90, 100, solids.size());
+        for (int i = 0; i < solids.size(); i++) {
+            SFaces3D faces = solids.get(i).getFaces3D();
+            objects3d.add(new SObject3D(faces, edges[i]));
+            monitor.worked(i + 1);
+        }
+        monitor.finishPhase();
+        if (meshes != null) {
+            objects3d = null; //se construye bajo demanda a partir de las mallas
+        }
+    }
 
-            //6. Calculamos las caras
-            SFaces3D faces = facesIndexed3D.getFaces3D();
-            setProgressValue(90);
+    /**
+     * Obtener la transformacion pendiente para componer una nueva. Las
+     * transformaciones no recorren los vertices: se acumulan y se aplican
+     * en una sola pasada cuando se lee la geometria (applyTransform), que
+     * es cuando se copia la geometria compartida
+     */
+    private synchronized STransform3D deferTransform() {
+        if (transform3d == null) {
+            transform3d = new STransform3D();
+        }
+        return transform3d;
+    }
 
-            //7. Construimos el objeto3D
-            SObject3D object3d = new SObject3D(faces, edges);
-            objects3d.add(object3d);
-            setProgressValue(100);
+    /**
+     * Aplicar a la geometria la transformacion pendiente en una unica pasada
+     */
+    private synchronized void applyTransform() {
+        STransform3D transform = transform3d;
+        if (transform == null) {
+            return;
+        }
+        transform3d = null;
+        if (transform.isIdentity()) {
+            return;
+        }
+        copyOnWrite();
+        if (stats != null) {
+            stats.transform(transform);
+        }
+        if (meshes != null) {
+            SMeshList.transform(transform, meshes, objects3d);
+        } else {
+            if (objects3d == null) {
+                objects3d = buildObjects();
+            }
+            objects3d.transform(transform.getSMatrix());
+            adjacencies = null;
         }
     }
 
@@ -215,77 +494,113 @@ public class SAsc {
      * Trasladar
      */
     public void translate(SPoint3D p) {
-        this.objects3d.translate(p.x, p.y, p.z);
+        deferTransform().translate(p.x, p.y, p.z);
     }
 
     /**
      * Trasladar
      */
     public void translate(double x, double y, double z) {
-        this.objects3d.translate(x, y, z);
+        deferTransform().translate(x, y, z);
     }
 
     /**
      * Rotar alrededor de X (En radianes)
      */
     public void rotateX(double rx) {
-        this.objects3d.rotateX(rx);
+        deferTransform().rotateX(rx);
     }
 
     /**
      * Rotar alrededor de Y (En radianes)
      */
     public void rotateY(double ry) {
-        this.objects3d.rotateY(ry);
+        deferTransform().rotateY(ry);
     }
 
     /**
      * Rotar alrededor de Z (En radianes)
      */
     public void rotateZ(double rz) {
-        this.objects3d.rotateZ(rz);
+        deferTransform().rotateZ(rz);
     }
 
     /**
      * Escalar
      */
     public void scale(double fx, double fy, double fz) {
-        this.objects3d.scale(fx, fy, fz);
+        deferTransform().scale(fx, fy, fz);
     }
 
     /**
      * Aplicar una matriz de transformacion
      */
     public void transform(SMatrix M) {
-        this.objects3d.transform(M);
+        deferTransform().transform(M);
     }
 
     /**
      * Aplicar el espejo en X
      */
     public void mirrorX(double x) {
-        this.objects3d.mirrorX(x);
+        if (meshes != null) {
+            deferTransform().mirrorX(x);
+        } else {
+            synchronized (this) {
+                copyOnWrite();
+                getObjects().mirrorX(x);
+                mirrored(new STransform3D().mirrorX(x));
+            }
+        }
     }
 
     /**
      * Aplicar el espejo en Y
      */
     public void mirrorY(double y) {
-        this.objects3d.mirrorY(y);
+        if (meshes != null) {
+            deferTransform().mirrorY(y);
+        } else {
+            synchronized (this) {
+                copyOnWrite();
+                getObjects().mirrorY(y);
+                mirrored(new STransform3D().mirrorY(y));
+            }
+        }
     }
 
     /**
      * Aplicar el espejo en Z
      */
     public void mirrorZ(double z) {
-        this.objects3d.mirrorZ(z);
+        if (meshes != null) {
+            deferTransform().mirrorZ(z);
+        } else {
+            synchronized (this) {
+                copyOnWrite();
+                getObjects().mirrorZ(z);
+                mirrored(new STransform3D().mirrorZ(z));
+            }
+        }
+    }
+
+    /**
+     * Actualizar el estado tras aplicar un espejo directamente sobre los
+     * objetos 3D: las estadisticas se transforman de forma analitica y las
+     * adyacencias se recalculan bajo demanda
+     */
+    private void mirrored(STransform3D mirror) {
+        if (stats != null) {
+            stats.transform(mirror);
+        }
+        adjacencies = null;
     }
 
     /**
      * Obtener el espejo en X
      */
     public SAsc getMirrorX(double x) {
-        SAsc object = this.getCopy();
+        SAsc object = this.getSharedCopy();
         object.mirrorX(x);
         return object;
     }
@@ -294,7 +609,7 @@ public class SAsc {
      * Obtener el espejo en Y
      */
     public SAsc getMirrorY(double y) {
-        SAsc object = this.getCopy();
+        SAsc object = this.getSharedCopy();
         object.mirrorY(y);
         return object;
     }
@@ -303,7 +618,7 @@ public class SAsc {
      * Obtener el espejo en Z
      */
     public SAsc getMirrorZ(double z) {
-        SAsc object = this.getCopy();
+        SAsc object = this.getSharedCopy();
         object.mirrorZ(z);
         return object;
     }
@@ -312,7 +627,7 @@ public class SAsc {
      * Obtener la traslacion del objeto
      */
     public SAsc getTranslation(double x, double y, double z) {
-        SAsc object = this.getCopy();
+        SAsc object = this.getSharedCopy();
         object.translate(x, y, z);
         return object;
     }
@@ -349,6 +664,7 @@ public class SAsc {
      * Establecer el estilo de las aristas
      */
     public void setStyleEdges(SStyle style) {
+        copyOnWrite();
         getEdges().setStyle(style);
     }
 
@@ -356,13 +672,72 @@ public class SAsc {
      * Obtener la box
      */
     public SBox getBox() {
-        return objects3d.getBox();
+        SMeshStats current = getStats(false);
+        if (!current.isEmpty()) {
+            return current.getBox();
+        }
+        if (meshes != null) {
+            return SPackedMesh3D.getBox(meshes);
+        }
+        ArrayList<SVertex3D[]> pending = solidsVertexs;
+        if (pending != null) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+            for (SVertex3D[] vertexs : pending) {
+                for (SVertex3D v : vertexs) {
+                    minX = Math.min(minX, v.x);
+                    minY = Math.min(minY, v.y);
+                    minZ = Math.min(minZ, v.z);
+                    maxX = Math.max(maxX, v.x);
+                    maxY = Math.max(maxY, v.y);
+                    maxZ = Math.max(maxZ, v.z);
+                }
+            }
+            return new SBox(new SPoint3D(minX, minY, minZ), new SPoint3D(maxX, maxY, maxZ));
+        }
+        return getObjects().getBox();
+    }
+
+    /**
+     * Obtener las estadisticas de la geometria (box, triangulos, area y
+     * volumen). Se acumulan al cargar el fichero y las transformaciones
+     * pendientes se aplican de forma analitica; solo se recorren los vertices
+     * si una transformacion no lo permite
+     */
+    public SMeshStats getStats() {
+        return getStats(true);
+    }
+
+    /**
+     * Obtener las estadisticas con la box exacta y, si needArea, con el area
+     */
+    private synchronized SMeshStats getStats(boolean needArea) {
+        SMeshStats result = SMeshList.getStats(stats, transform3d, needArea);
+        if (result != null) {
+            return result;
+        }
+        applyTransform();
+        if (!SMeshList.isComplete(stats, needArea)) {
+            stats = computeStats();
+        }
+        return stats.getCopy();
+    }
+
+    /**
+     * Calcular las estadisticas recorriendo la geometria
+     */
+    private SMeshStats computeStats() {
+        if (meshes != null) {
+            return SMeshStats.of(meshes);
+        }
+        return SMeshList.getStats(getObjects());
     }
 
     /**
      * Obtener un objeto3D
      */
     public SFaces3D getFaces3D() {
+        SObjects3D objects3d = getObjects();
         SFaces3D faces = new SFaces3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -377,6 +752,7 @@ public class SAsc {
      * Obtener las aristas
      */
     public SLines3D getEdges() {
+        SObjects3D objects3d = getObjects();
         SLines3D edges = new SLines3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -391,13 +767,30 @@ public class SAsc {
      * Obtener una forma de representacion rapida
      */
     public SShape3D getShape3D() {
-        return objects3d.getShape3D();
+        applyTransform();
+        if (meshes != null && objects3d == null) {
+            SShape3D shape = new SShape3D();
+            for (SPackedMesh3D mesh : meshes) {
+                shape.add(mesh.getShape3D());
+            }
+            return shape;
+        }
+        return getObjects().getShape3D();
     }
 
     /**
      * Obtener las formas de representacion rapida
      */
     public SShapes3D getShapes3D() {
+        applyTransform();
+        if (meshes != null && objects3d == null) {
+            SShapes3D shapes = new SShapes3D();
+            for (SPackedMesh3D mesh : meshes) {
+                shapes.add(mesh.getShape3D());
+            }
+            return shapes;
+        }
+        SObjects3D objects3d = getObjects();
         SShapes3D shapes = new SShapes3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -409,23 +802,146 @@ public class SAsc {
     }
 
     /**
-     * Obtener los objetos 3D
+     * Obtener los objetos 3D. Si se han cargado como mallas compactas o con
+     * options.enableLazyNormals se construyen (calculando normales y aristas)
+     * la primera vez que se piden; es seguro llamarlo desde varios hilos
      */
     public SObjects3D getObjects() {
-        return this.objects3d;
+        SObjects3D objects = objects3d;
+        if (objects == null || transform3d != null) {
+            synchronized (this) {
+                applyTransform();
+                if (objects3d == null) {
+                    objects3d = buildObjects();
+                }
+                objects = objects3d;
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Construir los objetos 3D a partir de las mallas compactas o de los
+     * objetos pendientes
+     */
+    private SObjects3D buildObjects() {
+        SObjects3D objects = new SObjects3D();
+        if (meshes != null) {
+            for (SPackedMesh3D mesh : meshes) {
+                objects.add(getObject3D(mesh));
+            }
+        } else if (solids != null) {
+            for (SFacesIndexed3D facesIndexed3D : solids) {
+                SLines3D edges = facesIndexed3D.computeNormalsAndEdges(options.enableEdges, options.enableVertexsNormals, options.angleLimit);
+                edges.setStyle(new SStyle(0, 0, 0, 255, 2));
+                objects.add(new SObject3D(facesIndexed3D.getFaces3D(), edges));
+            }
+            solids = null;
+            solidsVertexs = null;
+        }
+        return objects;
+    }
+
+    /**
+     * Obtener el objeto3D de una malla compacta, con SEdgeAdjacency si
+     * options.enableEdgeAdjacency o hay cache
+     */
+    private SObject3D getObject3D(SPackedMesh3D mesh) {
+        if (options.isEdgeAdjacency()) {
+            return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit, options.parallelism);
+        }
+        return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit);
+    }
+
+    /**
+     * Obtener las aristas vivas de cada objeto para angleLimit (en grados)
+     * sin volver a leer el fichero. Los angulos diedros de las aristas se
+     * calculan una sola vez (SEdgeAdjacency) y cada llamada solo los filtra
+     */
+    public ArrayList<SLines3D> getEdges(double angleLimit) {
+        applyTransform();
+        if (meshes != null) {
+            return SMeshList.getEdges(meshes, angleLimit, options.parallelism);
+        }
+        return SMeshList.getEdges(getEdgeAdjacencies(), angleLimit);
+    }
+
+    /**
+     * Cambiar el angulo limite (en grados) de las aristas vivas. Si los
+     * objetos ya estan construidos se sustituyen solo sus aristas
+     */
+    public synchronized void setAngleLimit(double angleLimit) {
+        applyTransform();
+        options.angleLimit = angleLimit;
+        SObjects3D objects = objects3d;
+        if (objects == null || !options.enableEdges) {
+            return; //se usara el nuevo angulo al construir los objetos
+        }
+        objects3d = SMeshList.setEdges(objects, getEdges(angleLimit));
+    }
+
+    /**
+     * Obtener la adyacencia de aristas de cada objeto cuando no se han
+     * cargado mallas compactas. Se calcula la primera vez a partir de las
+     * caras de los objetos y se descarta al transformarlos
+     */
+    private SEdgeAdjacency[] getEdgeAdjacencies() {
+        SEdgeAdjacency[] result = adjacencies;
+        if (result == null) {
+            synchronized (this) {
+                if (adjacencies == null) {
+                    adjacencies = SMeshList.getEdgeAdjacencies(getObjects(), options.parallelism);
+                }
+                result = adjacencies;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Obtener las mallas compactas (una por objeto). Solo estan disponibles
+     * si se ha cargado con options.enablePacked (o enableEdgeAdjacency o
+     * cache), en otro caso devuelve null
+     */
+    public ArrayList<SPackedMesh3D> getMeshes() {
+        applyTransform();
+        return this.meshes;
+    }
+
+    /**
+     * Guardar la geometria en un *.stl binario. Los objetos pendientes
+     * (options.enableLazyNormals) se guardan sin calcular sus normales de
+     * vertices ni sus aristas
+     */
+    public boolean saveStl(String path) {
+        applyTransform();
+        SStlWriter writer = new SStlWriter();
+        writer.palette = palette;
+        if (meshes != null) {
+            return writer.writeMeshes(path, meshes);
+        }
+        ArrayList<SFacesIndexed3D> pending = solids;
+        if (pending != null) {
+            ArrayList<SFaces3D> faces = new ArrayList<>();
+            for (SFacesIndexed3D facesIndexed3D : pending) {
+                faces.add(facesIndexed3D.getFaces3D());
+            }
+            return writer.writeFaces(path, faces);
+        }
+        return writer.write(path, getObjects());
     }
 
     /**
      * Dibuja la geometría 3d
      */
     public void draw(SScene scene) {
-        objects3d.draw(scene);
+        getObjects().draw(scene);
     }
 
     /**
      * Imprimir los datos
      */
     public void print() {
-        objects3d.print();
+        getObjects().print();
     }
 }
@@ -0,0 +1,159 @@
+/**
+ * SAsyncLoader : Carga asincrona de SStl, SAsc, S3mf y SDxf con CompletableFuture.
+ * Por defecto las cargas se lanzan en un executor de hilos virtuales (un
+ * hilo por carga) si la JVM lo tiene; en otro caso en un pool de hilos
+ * daemon que crece bajo demanda. Cancelar el CompletableFuture interrumpe la
+ * carga a traves del SLoadListener.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+final class SAsyncLoader {
+
+    private static volatile Executor defaultExecutor;
+
+    private SAsyncLoader() {
+    }
+
+    /**
+     * Obtener el executor por defecto de las cargas asincronas. Se usa
+     * Executors.newVirtualThreadPerTaskExecutor si existe (Java 21 o
+     * superior) y un pool de hilos daemon en otro caso
+     */
+    static Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (SAsyncLoader.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = createDefaultExecutor();
+                }
+                executor = defaultExecutor;
+            }
+        }
+        return executor;
+    }
+
+    private static Executor createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // sin hilos virtuales en esta JVM
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "samy-load-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * Lanzar loader en executor (o en el executor por defecto si es null).
+     * loader recibe el observador que debe usar la carga: avisa a listener
+     * y cancela la carga cuando se cancela el CompletableFuture o cuando
+     * listener lo pide
+     */
+    static <T> CompletableFuture<T> supply(SLoadListener listener, Executor executor, Function<SLoadListener, T> loader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        SLoadListener cancellable = new SCancellableListener(listener, future);
+        Runnable task = () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(loader.apply(cancellable));
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        };
+        try {
+            (executor != null ? executor : getDefaultExecutor()).execute(task);
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Lanzar la carga de un fichero (*.stl, *.asc, *.3mf o *.dxf) con su importador
+     */
+    static CompletableFuture<?> load(String path, SImportOptions options, Executor executor) {
+        String pathInLowercase = path.toLowerCase();
+        if (pathInLowercase.endsWith(".stl")) {
+            return SStl.loadAsync(path, options, executor);
+        } else if (pathInLowercase.endsWith(".asc")) {
+            return SAsc.loadAsync(path, options, executor);
+        } else if (pathInLowercase.endsWith(".3mf")) {
+            return S3mf.loadAsync(path, options, executor);
+        } else {
+            return SDxf.loadAsync(path, options, executor);
+        }
+    }
+
+    /**
+     * Obtener la causa de un error de un CompletableFuture. Los errores de
+     * lectura (UncheckedIOException) se devuelven como la IOException
+     * original
+     */
+    static Throwable getCause(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof UncheckedIOException) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Observador que reenvia los avisos y se cancela con el CompletableFuture
+     */
+    private static class SCancellableListener implements SLoadListener {
+
+        private final SLoadListener listener;
+        private final CompletableFuture<?> future;
+
+        SCancellableListener(SLoadListener listener, CompletableFuture<?> future) {
+            this.listener = listener;
+            this.future = future;
+        }
+
+        @Override
+        public void phaseStarted(SLoadPhase phase) {
+            if (listener != null) {
+                listener.phaseStarted(phase);
+            }
+        }
+
+        @Override
+        public void phaseFinished(SLoadPhase phase) {
+            if (listener != null) {
+                listener.phaseFinished(phase);
+            }
+        }
+
+        @Override
+        public void progress(SLoadPhase phase, long done, long total) {
+            if (listener != null) {
+                listener.progress(phase, done, total);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled() || (listener != null && listener.isCancelled());
+        }
+    }
+}
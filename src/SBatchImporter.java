@@ -0,0 +1,147 @@
+/**
+ * SBatchImporter : Carga concurrente de una lista de ficheros (*.stl, *.asc,
+ * *.3mf y *.dxf) como los de una bandeja de impresion. Cada fichero se envia
+ * a su importador con loadAsync y se cargan a la vez como mucho parallelism
+ * ficheros, sin superar memoryBudget bytes de memoria estimada (tamaño del
+ * fichero por memoryFactor). Los ficheros se lanzan de mayor a menor para
+ * que el mas lento empiece cuanto antes, pero los resultados se devuelven en
+ * el orden de la lista, con el error de cada fichero que no se ha podido
+ * cargar.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class SBatchImporter {
+
+    public SImportOptions options = new SImportOptions(); //Opciones de SStl y SAsc (el listener recibe los avisos de todas las cargas)
+    public int parallelism = Runtime.getRuntime().availableProcessors(); //Ficheros cargandose a la vez
+    public long memoryBudget = Runtime.getRuntime().maxMemory() / 2; //Memoria estimada maxima de las cargas en curso
+    public double memoryFactor = 8; //Bytes de memoria estimados por byte de fichero
+    public Executor executor = null; //null = executor por defecto de loadAsync
+
+    /**
+     * Constructor
+     */
+    public SBatchImporter() {
+    }
+
+    /**
+     * Constructor
+     */
+    public SBatchImporter(SImportOptions options) {
+        this.options = options.getCopy();
+    }
+
+    /**
+     * Indica si el fichero tiene un formato que se puede importar
+     */
+    public static boolean isSupported(String path) {
+        String pathInLowercase = path.toLowerCase();
+        return pathInLowercase.endsWith(".stl") || pathInLowercase.endsWith(".asc") || pathInLowercase.endsWith(".3mf")
+                || pathInLowercase.endsWith(".dxf");
+    }
+
+    /**
+     * Cargar todos los ficheros soportados de un directorio (ordenados por
+     * nombre)
+     */
+    public ArrayList<SBatchResult> loadDirectory(String directory) {
+        File[] files = new File(directory).listFiles(file -> file.isFile() && isSupported(file.getName()));
+        ArrayList<String> paths = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                paths.add(file.getPath());
+            }
+        }
+        return load(paths);
+    }
+
+    /**
+     * Cargar los ficheros. Devuelve un resultado por fichero en el mismo
+     * orden que paths. Si el hilo se interrumpe se cancelan las cargas
+     * pendientes
+     */
+    public ArrayList<SBatchResult> load(List<String> paths) {
+        int n = paths.size();
+        AtomicReferenceArray<SBatchResult> results = new AtomicReferenceArray<>(n);
+        ArrayList<CompletableFuture<?>> loads = new ArrayList<>();
+        ArrayList<CompletableFuture<?>> done = new ArrayList<>();
+        int budget = (int) Math.max(1, Math.min(memoryBudget >> 10, Integer.MAX_VALUE)); //en KB
+        Semaphore slots = new Semaphore(Math.max(parallelism, 1));
+        Semaphore memory = new Semaphore(budget);
+
+        //De mayor a menor
+        Integer[] order = new Integer[n];
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            sizes[i] = new File(paths.get(i)).length();
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> sizes[i]).reversed());
+
+        try {
+            for (int i : order) {
+                String path = paths.get(i);
+                if (!isSupported(path)) {
+                    results.set(i, new SBatchResult(path, null, new IllegalArgumentException("unknown format: " + path), 0));
+                    continue;
+                }
+                if (!new File(path).isFile()) {
+                    results.set(i, new SBatchResult(path, null, new FileNotFoundException(path), 0));
+                    continue;
+                }
+                int weight = (int) Math.min(Math.max((long) (memoryFactor * sizes[i]) >> 10, 1), budget);
+                slots.acquire();
+                try {
+                    memory.acquire(weight);
+                } catch (InterruptedException ex) {
+                    slots.release();
+                    throw ex;
+                }
+                long start = System.nanoTime();
+                CompletableFuture<?> load = SAsyncLoader.load(path, options, executor);
+                loads.add(load);
+                done.add(load.handle((model, error) -> {
+                    memory.release(weight);
+                    slots.release();
+                    long time = (System.nanoTime() - start) / 1000000;
+                    results.set(i, new SBatchResult(path, error == null ? model : null, SAsyncLoader.getCause(error), time));
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException ex) {
+            for (CompletableFuture<?> load : loads) {
+                load.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // handle() no termina con error
+        }
+
+        ArrayList<SBatchResult> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            SBatchResult result = results.get(i);
+            if (result == null) {
+                result = new SBatchResult(paths.get(i), null, new CancellationException("load cancelled: " + paths.get(i)), 0);
+            }
+            list.add(result);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * SBatchResult : Resultado de la carga de un fichero en SBatchImporter. Si la
+ * carga ha ido bien model es el importador (SStl, SAsc, S3mf o SDxf) y error es
+ * null; en otro caso model es null y error indica la causa.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public class SBatchResult {
+
+    public final String path;
+    public final Object model;
+    public final Throwable error;
+    public final long time; //milisegundos de carga
+
+    /**
+     * Constructor
+     */
+    public SBatchResult(String path, Object model, Throwable error, long time) {
+        this.path = path;
+        this.model = model;
+        this.error = error;
+        this.time = time;
+    }
+
+    /**
+     * Indica si el fichero se ha cargado
+     */
+    public boolean isLoaded() {
+        return error == null;
+    }
+
+    /**
+     * Obtener el modelo si es un SStl (null en otro caso)
+     */
+    public SStl getStl() {
+        return model instanceof SStl ? (SStl) model : null;
+    }
+
+    /**
+     * Obtener el modelo si es un SAsc (null en otro caso)
+     */
+    public SAsc getAsc() {
+        return model instanceof SAsc ? (SAsc) model : null;
+    }
+
+    /**
+     * Obtener el modelo si es un S3mf (null en otro caso)
+     */
+    public S3mf get3mf() {
+        return model instanceof S3mf ? (S3mf) model : null;
+    }
+
+    /**
+     * Obtener el modelo si es un SDxf (null en otro caso)
+     */
+    public SDxf getDxf() {
+        return model instanceof SDxf ? (SDxf) model : null;
+    }
+
+    @Override
+    public String toString() {
+        return path + (error == null ? " loaded in " + time + " ms" : " failed: " + error);
+    }
+}
@@ -8,9 +8,14 @@ package samy.cad; //Computer Aided design
 import java.awt.Font;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import samy.objects.SObject;
 import samy.scene.SScene;
 import samy.graph.SGraph;
@@ -61,6 +66,8 @@ public class SDxf {
     public boolean enableTexts = true;
     public boolean enableBlocks = false;
     public SInteger progress;
+    public SLoadListener listener; //Fases, progreso y cancelacion de la carga
+    private SLoadMonitor monitor = new SLoadMonitor(null, null);
 
     /**
      * Constructor
@@ -98,6 +105,39 @@ public class SDxf {
         this.loadDxf(path);
     }
 
+    /**
+     * Cargar el fichero de forma asincrona en el executor por defecto (hilos
+     * virtuales si la JVM los tiene)
+     */
+    public static CompletableFuture<SDxf> loadAsync(String path, SImportOptions options) {
+        return loadAsync(path, options, null);
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en executor (o en el executor por
+     * defecto si es null) en un SDxf nuevo con la configuracion por defecto
+     * y el listener de options. El CompletableFuture termina con una
+     * CancellationException si se cancela la carga y con una
+     * UncheckedIOException si no se puede leer el fichero
+     */
+    public static CompletableFuture<SDxf> loadAsync(String path, SImportOptions options, Executor executor) {
+        SLoadListener observer = options.listener;
+        return SAsyncLoader.supply(observer, executor, cancellable -> {
+            if (!new File(path).isFile()) {
+                throw new UncheckedIOException(new FileNotFoundException(path));
+            }
+            SDxf dxf = new SDxf();
+            dxf.listener = observer;
+            if (!dxf.loadDxf(path, cancellable)) {
+                if (cancellable.isCancelled()) {
+                    throw new CancellationException("load cancelled: " + path);
+                }
+                throw new UncheckedIOException(new IOException("cannot load " + path));
+            }
+            return dxf;
+        });
+    }
+
     /**
      * Establecer la barra de progreso
      */
@@ -112,6 +152,20 @@ public class SDxf {
         return this.progress;
     }
 
+    /**
+     * Establecer el observador de la carga
+     */
+    public void setListener(SLoadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Obtener el observador de la carga
+     */
+    public SLoadListener getListener() {
+        return this.listener;
+    }
+
     /**
      * Establecer el valor de la barra de progreso
      */
@@ -125,26 +179,43 @@ public class SDxf {
      * Constructor
      */
     private void loadDxf(String path) {
+        loadDxf(path, listener);
+    }
+
+    /**
+     * Función de carga de ficheros *.dxf con el observador indicado. Devuelve
+     * false si el formato no es dxf o si se ha cancelado la carga
+     */
+    private boolean loadDxf(String path, SLoadListener listener) {
         setProgressValue(0);
         String pathLower = path.toLowerCase();
         if (!pathLower.contains(".dxf")) {
             System.out.println("Formato desconocido");
+            return false;
         } else {
-            setProgressValue(10);
-
-            //Cargamos la sección de entidades
-            this.loadEntitiesSection(path, graph.getRoot());
-            setProgressValue(20);
+            monitor = new SLoadMonitor(listener, progress);
+            try {
+                monitor.startPhase(SLoadPhase.READ, 0, 10, 1);
+                long length = new File(path).length();
+
+                //Cargamos la sección de entidades (y la de bloques, que vuelve a leer el fichero)
+                monitor.startPhase(SLoadPhase.PARSE, 10, 60, enableBlocks ? 2 * length : length);
+                this.loadEntitiesSection(path, graph.getRoot());
+
+                if (enableBlocks) {
+                    //Cargamos la seccion de bloques
+                    this.loadBlocksSection(path, graph.getRoot(), length);
+                }
 
-            if (enableBlocks) {
-                //Cargamos la seccion de bloques
-                this.loadBlocksSection(path, graph.getRoot());
+                //Cargamos la traslación global del dxf
+                monitor.startPhase(SLoadPhase.BUILD, 60, 100, 1);
+                this.loadGlobalTraslation(path);
+                monitor.finishPhase();
+            } catch (SLoadCancelledException ex) {
+                graph = new SGraph();
+                return false;
             }
-            setProgressValue(60);
-
-            //Cargamos la traslación global del dxf
-            this.loadGlobalTraslation(path);
-            setProgressValue(100);
+            return true;
         }
     }
 
@@ -152,7 +223,7 @@ public class SDxf {
      * Cargar la seccion de entidades
      */
     private void loadEntitiesSection(String path, SGraphNode parent) {
-        BufferedReader reader = SJava.createReader(new File(path));
+        BufferedReader reader = new SProgressReader(SJava.createReader(new File(path)), monitor, 0);
         try {
             String str = "";
 
@@ -170,8 +241,8 @@ public class SDxf {
     /**
      * Cargar la seccion de bloques
      */
-    private void loadBlocksSection(String path, SGraphNode parent) {
-        BufferedReader reader = SJava.createReader(new File(path));
+    private void loadBlocksSection(String path, SGraphNode parent, long offset) {
+        BufferedReader reader = new SProgressReader(SJava.createReader(new File(path)), monitor, offset);
         try {
             String str = "";
 
@@ -1500,6 +1571,13 @@ public class SDxf {
         return new SObject3D(faces, edges);
     }
 
+    /**
+     * Guardar los triangulos en un *.stl binario
+     */
+    public boolean saveStl(String path) {
+        return new SStlWriter().write(path, getObject3D());
+    }
+
     /**
      * Obtener una forma de representacion rapida
      */
@@ -0,0 +1,595 @@
+/**
+ * SEdgeAdjacency : Adyacencia de aristas de una malla de triangulos calculada
+ * en paralelo y con estructuras primitivas. Cada arista no dirigida se
+ * codifica en un long con sus dos indices de vertice ordenados; las aristas
+ * se reparten por particiones segun su hash y cada particion se resuelve con
+ * su propia tabla hash de direccionamiento abierto, sin crear objetos por
+ * arista.
+ *
+ * De la adyacencia se obtienen el angulo diedro de cada arista (en grados,
+ * infinito en los bordes y en las aristas no manifold), las aristas vivas
+ * para un angleLimit y las normales de vertice. En las sopas de triangulos
+ * (sin indices) los vertices se identifican por su posicion exacta.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import samy.objects3D.SLine3D;
+import samy.objects3D.SLines3D;
+import samy.objects3D.SPoint3D;
+
+public class SEdgeAdjacency {
+
+    private final float[] positions;
+    private final int ntriangles;
+    private final int parallelism;
+    private int[] corners; //indice de vertice de cada esquina (3 por triangulo)
+    private int nvertexs;
+    private int[] representative; //en las sopas, una esquina por vertice (null si es indexada)
+    private float[] faceNormals; //normal unitaria de cada triangulo
+    private float[] faceAreas; //doble del area de cada triangulo
+    private int[] edgeVertexs; //2 vertices por arista
+    private float[] edgeAngles; //angulo diedro en grados por arista
+    private int nedges;
+    private int[] vertexFacesStart; //triangulos de cada vertice (CSR), bajo demanda
+    private int[] vertexFaces;
+
+    /**
+     * Constructor
+     */
+    public SEdgeAdjacency(SPackedMesh3D mesh, int parallelism) {
+        this(mesh.getPositions(), mesh.getIndices(), mesh.getTrianglesCount(), parallelism);
+    }
+
+    /**
+     * Constructor. Si indices es null las posiciones son una sopa de
+     * triangulos (9 floats por triangulo)
+     */
+    public SEdgeAdjacency(float[] positions, int[] indices, int ntriangles, int parallelism) {
+        this.positions = positions;
+        this.ntriangles = ntriangles;
+        this.parallelism = Math.max(parallelism, 1);
+        if (indices != null) {
+            this.corners = indices;
+            int max = -1;
+            for (int i = 0; i < 3 * ntriangles; i++) {
+                max = Math.max(max, indices[i]);
+            }
+            this.nvertexs = max + 1;
+        } else {
+            weldExact();
+        }
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            computeFaceNormals(pool);
+            computeEdges(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Constructor a partir de una adyacencia ya calculada (SMeshCache). En
+     * las mallas indexadas corners son los indices de la malla y
+     * representative es null
+     */
+    SEdgeAdjacency(float[] positions, int ntriangles, int parallelism, int[] corners, int nvertexs, int[] representative,
+            float[] faceNormals, float[] faceAreas, int[] edgeVertexs, float[] edgeAngles) {
+        this.positions = positions;
+        this.ntriangles = ntriangles;
+        this.parallelism = Math.max(parallelism, 1);
+        this.corners = corners;
+        this.nvertexs = nvertexs;
+        this.representative = representative;
+        this.faceNormals = faceNormals;
+        this.faceAreas = faceAreas;
+        this.edgeVertexs = edgeVertexs;
+        this.edgeAngles = edgeAngles;
+        this.nedges = edgeAngles.length;
+    }
+
+    /**
+     * Obtener el numero de triangulos
+     */
+    public int getTrianglesCount() {
+        return ntriangles;
+    }
+
+    /**
+     * Obtener el numero de vertices distintos
+     */
+    public int getVertexsCount() {
+        return nvertexs;
+    }
+
+    /**
+     * Obtener el numero de aristas distintas
+     */
+    public int getEdgesCount() {
+        return nedges;
+    }
+
+    /**
+     * Obtener los indices de vertice de las aristas (2 por arista)
+     */
+    public int[] getEdgeVertexs() {
+        return edgeVertexs;
+    }
+
+    /**
+     * Obtener el angulo diedro de cada arista en grados. Los bordes y las
+     * aristas compartidas por mas de dos triangulos tienen angulo infinito
+     */
+    public float[] getEdgeAngles() {
+        return edgeAngles;
+    }
+
+    /**
+     * Obtener el indice de vertice de cada esquina (3 por triangulo)
+     */
+    public int[] getCorners() {
+        return corners;
+    }
+
+    /**
+     * Obtener la normal unitaria de cada triangulo
+     */
+    public float[] getFaceNormals() {
+        return faceNormals;
+    }
+
+    /**
+     * Doble del area de cada triangulo
+     */
+    float[] getFaceAreas() {
+        return faceAreas;
+    }
+
+    /**
+     * Esquina representante de cada vertice en las sopas (null si la malla
+     * es indexada)
+     */
+    int[] getRepresentatives() {
+        return representative;
+    }
+
+    /**
+     * Actualizar la adyacencia despues de aplicar a la malla la
+     * transformacion m (3x4 por filas). Si m es una semejanza (giros,
+     * espejos, traslaciones y escalas uniformes) los angulos diedros no
+     * cambian y las posiciones son las de la malla, ya transformadas: solo se
+     * giran las normales de los triangulos y se escalan sus areas. Devuelve
+     * false si m no es una semejanza y hay que volver a calcularla
+     */
+    boolean transform(double[] m) {
+        double s2 = SMeshStats.getSimilarityFactor(m);
+        if (Double.isNaN(s2) || s2 == 0) {
+            return false;
+        }
+        double[] n = SPackedMesh3D.getNormalMatrix(m);
+        for (int t = 0; t < ntriangles; t++) {
+            double nx = faceNormals[3 * t], ny = faceNormals[3 * t + 1], nz = faceNormals[3 * t + 2];
+            double tx = n[0] * nx + n[1] * ny + n[2] * nz;
+            double ty = n[3] * nx + n[4] * ny + n[5] * nz;
+            double tz = n[6] * nx + n[7] * ny + n[8] * nz;
+            double d = Math.sqrt(tx * tx + ty * ty + tz * tz);
+            if (d > 0) {
+                faceNormals[3 * t] = (float) (tx / d);
+                faceNormals[3 * t + 1] = (float) (ty / d);
+                faceNormals[3 * t + 2] = (float) (tz / d);
+            }
+            faceAreas[t] *= (float) s2;
+        }
+        if (representative != null && SPackedMesh3D.getDeterminant(m) < 0) {
+            //la sopa ha intercambiado las esquinas 1 y 2 de cada triangulo
+            //(en las indexadas corners son los indices de la malla)
+            for (int t = 0; t < ntriangles; t++) {
+                int tmp = corners[3 * t + 1];
+                corners[3 * t + 1] = corners[3 * t + 2];
+                corners[3 * t + 2] = tmp;
+            }
+            for (int v = 0; v < nvertexs; v++) {
+                int c = representative[v];
+                representative[v] = c % 3 == 1 ? c + 1 : c % 3 == 2 ? c - 1 : c;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtener las aristas vivas: bordes, aristas no manifold y aristas cuyo
+     * angulo diedro supera angleLimit (en grados)
+     */
+    public SLines3D getEdges(double angleLimit) {
+        SLines3D edges = new SLines3D();
+        for (int e = 0; e < nedges; e++) {
+            if (edgeAngles[e] > angleLimit) {
+                int a = 3 * vertexPosition(edgeVertexs[2 * e]);
+                int b = 3 * vertexPosition(edgeVertexs[2 * e + 1]);
+                edges.add(new SLine3D(new SPoint3D(positions[a], positions[a + 1], positions[a + 2]),
+                        new SPoint3D(positions[b], positions[b + 1], positions[b + 2])));
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Obtener el numero de aristas vivas para angleLimit (en grados)
+     */
+    public int getEdgesCount(double angleLimit) {
+        int n = 0;
+        for (int e = 0; e < nedges; e++) {
+            if (edgeAngles[e] > angleLimit) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Obtener una normal por vertice: media de las normales de sus
+     * triangulos ponderada por el area
+     */
+    public float[] getVertexNormals() {
+        float[] normals = new float[3 * nvertexs];
+        for (int t = 0; t < ntriangles; t++) {
+            float nx = faceNormals[3 * t] * faceAreas[t];
+            float ny = faceNormals[3 * t + 1] * faceAreas[t];
+            float nz = faceNormals[3 * t + 2] * faceAreas[t];
+            for (int k = 0; k < 3; k++) {
+                int v = 3 * corners[3 * t + k];
+                normals[v] += nx;
+                normals[v + 1] += ny;
+                normals[v + 2] += nz;
+            }
+        }
+        normalize(normals);
+        return normals;
+    }
+
+    /**
+     * Obtener una normal por esquina (9 floats por triangulo): media de las
+     * normales de los triangulos del vertice que forman con el triangulo un
+     * angulo menor o igual que angleLimit (en grados), ponderada por el area.
+     * Asi las aristas vivas conservan la discontinuidad de normales
+     */
+    public float[] getCornerNormals(double angleLimit) {
+        buildVertexFaces();
+        float cosLimit = (float) Math.cos(Math.toRadians(Math.min(angleLimit, 180)));
+        float[] normals = new float[9 * ntriangles];
+        parallel(getChunksCount(), chunk -> {
+            int end = getChunkEnd(chunk);
+            for (int t = getChunkStart(chunk); t < end; t++) {
+                float tx = faceNormals[3 * t], ty = faceNormals[3 * t + 1], tz = faceNormals[3 * t + 2];
+                for (int k = 0; k < 3; k++) {
+                    int v = corners[3 * t + k];
+                    float nx = 0, ny = 0, nz = 0;
+                    for (int i = vertexFacesStart[v]; i < vertexFacesStart[v + 1]; i++) {
+                        int f = vertexFaces[i];
+                        float fx = faceNormals[3 * f], fy = faceNormals[3 * f + 1], fz = faceNormals[3 * f + 2];
+                        if (f == t || fx * tx + fy * ty + fz * tz >= cosLimit) {
+                            nx += fx * faceAreas[f];
+                            ny += fy * faceAreas[f];
+                            nz += fz * faceAreas[f];
+                        }
+                    }
+                    int c = 9 * t + 3 * k;
+                    normals[c] = nx;
+                    normals[c + 1] = ny;
+                    normals[c + 2] = nz;
+                }
+            }
+        });
+        normalize(normals);
+        return normals;
+    }
+
+    /**
+     * Identificar los vertices de una sopa de triangulos por su posicion
+     * exacta (bits de los floats) con una tabla hash de direccionamiento
+     * abierto
+     */
+    private void weldExact() {
+        int ncorners = 3 * ntriangles;
+        corners = new int[ncorners];
+        int capacity = Integer.highestOneBit(Math.max(16, 2 * ncorners - 1)) << 1;
+        int[] table = new int[capacity]; //esquina representante + 1
+        int mask = capacity - 1;
+        int[] representative = new int[ncorners];
+        nvertexs = 0;
+        for (int c = 0; c < ncorners; c++) {
+            int x = Float.floatToIntBits(positions[3 * c] + 0.0f);
+            int y = Float.floatToIntBits(positions[3 * c + 1] + 0.0f);
+            int z = Float.floatToIntBits(positions[3 * c + 2] + 0.0f);
+            int slot = mix(((long) x << 32) ^ ((long) y << 16) ^ z) & mask;
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    table[slot] = c + 1;
+                    representative[nvertexs] = c;
+                    corners[c] = nvertexs++;
+                    break;
+                }
+                int r = 3 * (entry - 1);
+                if (Float.floatToIntBits(positions[r] + 0.0f) == x
+                        && Float.floatToIntBits(positions[r + 1] + 0.0f) == y
+                        && Float.floatToIntBits(positions[r + 2] + 0.0f) == z) {
+                    corners[c] = corners[entry - 1];
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        this.representative = representative;
+    }
+
+    /**
+     * Indice en positions (en vertices) del vertice v
+     */
+    private int vertexPosition(int v) {
+        return representative != null ? representative[v] : v;
+    }
+
+    /**
+     * Calcular en paralelo la normal unitaria y el area de cada triangulo
+     */
+    private void computeFaceNormals(ForkJoinPool pool) {
+        faceNormals = new float[3 * ntriangles];
+        faceAreas = new float[ntriangles];
+        parallel(pool, getChunksCount(), chunk -> {
+            int end = getChunkEnd(chunk);
+            for (int t = getChunkStart(chunk); t < end; t++) {
+                int a = 3 * vertexPosition(corners[3 * t]);
+                int b = 3 * vertexPosition(corners[3 * t + 1]);
+                int c = 3 * vertexPosition(corners[3 * t + 2]);
+                float ux = positions[b] - positions[a], uy = positions[b + 1] - positions[a + 1], uz = positions[b + 2] - positions[a + 2];
+                float vx = positions[c] - positions[a], vy = positions[c + 1] - positions[a + 1], vz = positions[c + 2] - positions[a + 2];
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float d = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (d > 0) {
+                    faceNormals[3 * t] = nx / d;
+                    faceNormals[3 * t + 1] = ny / d;
+                    faceNormals[3 * t + 2] = nz / d;
+                }
+                faceAreas[t] = d;
+            }
+        });
+    }
+
+    /**
+     * Construir las aristas: las semiaristas se reparten por particiones
+     * (recuento, suma de prefijos y volcado en paralelo) y cada particion
+     * agrupa sus semiaristas en una tabla hash propia
+     */
+    private void computeEdges(ForkJoinPool pool) {
+        final int nchunks = getChunksCount();
+        final int bits = 32 - Integer.numberOfLeadingZeros(4 * parallelism - 1);
+        final int npartitions = 1 << bits;
+        final int shift = 32 - bits;
+
+        //1. Recuento de semiaristas por trozo y particion
+        final int[][] counts = new int[nchunks][npartitions];
+        parallel(pool, nchunks, chunk -> {
+            int end = getChunkEnd(chunk);
+            int[] count = counts[chunk];
+            for (int t = getChunkStart(chunk); t < end; t++) {
+                for (int k = 0; k < 3; k++) {
+                    count[mix(getEdgeKey(t, k)) >>> shift]++;
+                }
+            }
+        });
+
+        //2. Suma de prefijos: posicion de cada trozo dentro de cada particion
+        final int[] partitionStart = new int[npartitions + 1];
+        final int[][] offsets = new int[nchunks][npartitions];
+        int position = 0;
+        for (int p = 0; p < npartitions; p++) {
+            partitionStart[p] = position;
+            for (int chunk = 0; chunk < nchunks; chunk++) {
+                offsets[chunk][p] = position;
+                position += counts[chunk][p];
+            }
+        }
+        partitionStart[npartitions] = position;
+
+        //3. Volcado de las semiaristas ordenadas por particion
+        final long[] keys = new long[position];
+        final int[] halfEdges = new int[position];
+        parallel(pool, nchunks, chunk -> {
+            int end = getChunkEnd(chunk);
+            int[] offset = offsets[chunk];
+            for (int t = getChunkStart(chunk); t < end; t++) {
+                for (int k = 0; k < 3; k++) {
+                    long key = getEdgeKey(t, k);
+                    int i = offset[mix(key) >>> shift]++;
+                    keys[i] = key;
+                    halfEdges[i] = 3 * t + k;
+                }
+            }
+        });
+
+        //4. Cada particion agrupa sus semiaristas y calcula los angulos
+        final int[][] partitionVertexs = new int[npartitions][];
+        final float[][] partitionAngles = new float[npartitions][];
+        parallel(pool, npartitions, p -> {
+            int start = partitionStart[p];
+            int length = partitionStart[p + 1] - start;
+            int capacity = Integer.highestOneBit(Math.max(16, 2 * length - 1)) << 1;
+            int mask = capacity - 1;
+            long[] tableKeys = new long[capacity];
+            int[] tableFirst = new int[capacity]; //primera semiarista + 1, 0 = libre
+            int[] tableSecond = new int[capacity];
+            byte[] tableCount = new byte[capacity];
+            int[] slots = new int[length];
+            int n = 0;
+            for (int i = start; i < start + length; i++) {
+                long key = keys[i];
+                int slot = (int) (key ^ (key >>> 29) ^ (key >>> 47)) * 0x9E3779B9 & mask;
+                while (tableFirst[slot] != 0 && tableKeys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                if (tableFirst[slot] == 0) {
+                    tableKeys[slot] = key;
+                    tableFirst[slot] = halfEdges[i] + 1;
+                    tableCount[slot] = 1;
+                    slots[n++] = slot;
+                } else {
+                    if (tableCount[slot] == 1) {
+                        tableSecond[slot] = halfEdges[i];
+                    }
+                    if (tableCount[slot] < 3) {
+                        tableCount[slot]++;
+                    }
+                }
+            }
+            int[] vertexs = new int[2 * n];
+            float[] angles = new float[n];
+            for (int e = 0; e < n; e++) {
+                int slot = slots[e];
+                long key = tableKeys[slot];
+                vertexs[2 * e] = (int) (key >>> 32);
+                vertexs[2 * e + 1] = (int) key;
+                if (tableCount[slot] == 2) {
+                    int f1 = 3 * ((tableFirst[slot] - 1) / 3);
+                    int f2 = 3 * (tableSecond[slot] / 3);
+                    double dot = faceNormals[f1] * faceNormals[f2] + faceNormals[f1 + 1] * faceNormals[f2 + 1] + faceNormals[f1 + 2] * faceNormals[f2 + 2];
+                    angles[e] = (float) Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, dot))));
+                } else {
+                    angles[e] = Float.POSITIVE_INFINITY;
+                }
+            }
+            partitionVertexs[p] = vertexs;
+            partitionAngles[p] = angles;
+        });
+
+        //5. Unimos las particiones
+        nedges = 0;
+        for (int p = 0; p < npartitions; p++) {
+            nedges += partitionAngles[p].length;
+        }
+        edgeVertexs = new int[2 * nedges];
+        edgeAngles = new float[nedges];
+        int e = 0;
+        for (int p = 0; p < npartitions; p++) {
+            System.arraycopy(partitionVertexs[p], 0, edgeVertexs, 2 * e, partitionVertexs[p].length);
+            System.arraycopy(partitionAngles[p], 0, edgeAngles, e, partitionAngles[p].length);
+            e += partitionAngles[p].length;
+        }
+    }
+
+    /**
+     * Clave de la arista k del triangulo t: indices de vertice ordenados
+     */
+    private long getEdgeKey(int t, int k) {
+        int a = corners[3 * t + k];
+        int b = corners[3 * t + (k + 1) % 3];
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**
+     * Construir la lista de triangulos de cada vertice (CSR)
+     */
+    private synchronized void buildVertexFaces() {
+        if (vertexFaces != null) {
+            return;
+        }
+        int[] start = new int[nvertexs + 1];
+        for (int c = 0; c < 3 * ntriangles; c++) {
+            start[corners[c] + 1]++;
+        }
+        for (int v = 0; v < nvertexs; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] fill = Arrays.copyOf(start, nvertexs);
+        int[] faces = new int[3 * ntriangles];
+        for (int c = 0; c < 3 * ntriangles; c++) {
+            faces[fill[corners[c]]++] = c / 3;
+        }
+        vertexFacesStart = start;
+        vertexFaces = faces;
+    }
+
+    private int getChunksCount() {
+        return Math.max(1, Math.min(4 * parallelism, ntriangles / 4096));
+    }
+
+    private int getChunkStart(int chunk) {
+        return (int) ((long) ntriangles * chunk / getChunksCount());
+    }
+
+    private int getChunkEnd(int chunk) {
+        return (int) ((long) ntriangles * (chunk + 1) / getChunksCount());
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    private static void normalize(float[] normals) {
+        for (int i = 0; i < normals.length; i += 3) {
+            double d = Math.sqrt(normals[i] * normals[i] + normals[i + 1] * normals[i + 1] + normals[i + 2] * normals[i + 2]);
+            if (d > 0) {
+                normals[i] /= d;
+                normals[i + 1] /= d;
+                normals[i + 2] /= d;
+            }
+        }
+    }
+
+    /**
+     * Ejecutar task(0..n-1) en un ForkJoinPool nuevo
+     */
+    private void parallel(int n, IntConsumer task) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            parallel(pool, n, task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Ejecutar task(0..n-1) en el pool y esperar a que terminen todas
+     */
+    private static void parallel(ForkJoinPool pool, int n, IntConsumer task) {
+        if (n == 1) {
+            task.accept(0);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                task.accept(index);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+}
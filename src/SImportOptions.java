@@ -0,0 +1,91 @@
+/**
+ * SImportOptions : Opciones de carga comunes a los importadores de samy.cad
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import samy.objects3D.SObjects3D;
+
+public class SImportOptions {
+
+    public boolean enableVertexsNormals = true;
+    public boolean enableEdges = true;
+    public double angleLimit = SObjects3D.angleLimit;
+    public boolean enableParallel = false; //Decodificacion en paralelo (ForkJoinPool)
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+    public boolean enablePacked = false; //Cargar en SPackedMesh3D (arrays primitivos)
+    public boolean enableWelding = false; //Soldar vertices y generar una malla indexada
+    public double weldTolerance = 1e-5; //Tamaño de celda de la soldadura
+    public boolean enableLazyNormals = true; //Calcular normales y aristas al pedir los objetos, no al cargar
+    public boolean enableColors = true; //Colores VisCAM/SolidView del atributo del STL binario
+    public boolean enableEdgeAdjacency = false; //Normales y aristas con SEdgeAdjacency en paralelo (carga en mallas compactas)
+    public SLoadListener listener = null; //Fases, progreso y cancelacion de la carga
+    public SMeshCache cache = null; //Cache en disco de las mallas ya procesadas (carga en mallas compactas)
+    public boolean enableOffHeap = false; //Guardar los stl binarios fuera del heap (SOffHeapMesh3D), salvo con soldadura
+    public boolean enableCompactNormals = false; //Normales codificadas en 4 bytes por vertice (carga en mallas compactas)
+
+    /**
+     * Constructor
+     */
+    public SImportOptions() {
+    }
+
+    /**
+     * Constructor
+     */
+    public SImportOptions(boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+        this.enableVertexsNormals = enableVertexsNormals;
+        this.enableEdges = enableEdges;
+        this.angleLimit = angleLimit;
+    }
+
+    /**
+     * Constructor de copia
+     */
+    public SImportOptions(SImportOptions options) {
+        this.enableVertexsNormals = options.enableVertexsNormals;
+        this.enableEdges = options.enableEdges;
+        this.angleLimit = options.angleLimit;
+        this.enableParallel = options.enableParallel;
+        this.parallelism = options.parallelism;
+        this.enablePacked = options.enablePacked;
+        this.enableWelding = options.enableWelding;
+        this.weldTolerance = options.weldTolerance;
+        this.enableLazyNormals = options.enableLazyNormals;
+        this.enableColors = options.enableColors;
+        this.enableEdgeAdjacency = options.enableEdgeAdjacency;
+        this.listener = options.listener;
+        this.cache = options.cache;
+        this.enableOffHeap = options.enableOffHeap;
+        this.enableCompactNormals = options.enableCompactNormals;
+    }
+
+    /**
+     * Obtener una copia de las opciones
+     */
+    public SImportOptions getCopy() {
+        return new SImportOptions(this);
+    }
+
+    /**
+     * Indica si la geometria se guarda en mallas compactas
+     */
+    boolean isPacked() {
+        return enablePacked || enableEdgeAdjacency || enableCompactNormals || cache != null;
+    }
+
+    /**
+     * Indica si los stl binarios se guardan fuera del heap
+     */
+    boolean isOffHeap() {
+        return enableOffHeap && !enableWelding;
+    }
+
+    /**
+     * Indica si las normales y aristas se calculan con SEdgeAdjacency
+     */
+    boolean isEdgeAdjacency() {
+        return enableEdgeAdjacency || cache != null;
+    }
+}
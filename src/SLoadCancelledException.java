@@ -0,0 +1,20 @@
+/**
+ * SLoadCancelledException : Se lanza dentro de los bucles de carga cuando el
+ * SLoadListener pide cancelar. Los importadores la capturan y terminan la
+ * carga sin resultado.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public class SLoadCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     */
+    public SLoadCancelledException() {
+        super("load cancelled");
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * SLoadListener : Observador de la carga de SStl, SAsc y SDxf. Recibe el
+ * inicio y el fin de cada fase y el progreso dentro de ella (como maximo un
+ * aviso por cada 1% del trabajo de la fase), y puede cancelar la carga
+ * devolviendo true en isCancelled(). Con la carga en paralelo los avisos
+ * pueden llegar desde otros hilos.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public interface SLoadListener {
+
+    /**
+     * Inicio de una fase
+     */
+    default void phaseStarted(SLoadPhase phase) {
+    }
+
+    /**
+     * Fin de una fase
+     */
+    default void phaseFinished(SLoadPhase phase) {
+    }
+
+    /**
+     * Progreso de la fase: done unidades de trabajo (bytes, lineas,
+     * triangulos o solidos) de un total de total
+     */
+    default void progress(SLoadPhase phase, long done, long total) {
+    }
+
+    /**
+     * Se consulta durante la carga: si devuelve true la carga se interrumpe
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
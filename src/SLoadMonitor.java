@@ -0,0 +1,108 @@
+/**
+ * SLoadMonitor : Reparte el progreso de una carga entre su SLoadListener y la
+ * barra de progreso (SInteger). Cada fase ocupa un tramo [from, to] de la
+ * barra; worked() se puede llamar en cada unidad de trabajo porque solo
+ * avisa (y comprueba la cancelacion) cuando se supera el siguiente 1%.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import samy.objects.SInteger;
+
+class SLoadMonitor {
+
+    private static final int STEPS = 100; //avisos por fase
+
+    private final SLoadListener listener;
+    private final SInteger progress;
+    private SLoadPhase phase;
+    private int from;
+    private int to;
+    private long total;
+    private long step;
+    private volatile long next; //siguiente valor de done que genera aviso
+
+    /**
+     * Constructor
+     */
+    SLoadMonitor(SLoadListener listener, SInteger progress) {
+        this.listener = listener;
+        this.progress = progress;
+    }
+
+    /**
+     * Terminar la fase actual y empezar otra que ocupa [from, to] en la barra
+     * de progreso y tiene total unidades de trabajo
+     */
+    synchronized void startPhase(SLoadPhase phase, int from, int to, long total) {
+        finishPhase();
+        this.phase = phase;
+        this.from = from;
+        this.to = to;
+        setTotal(total);
+        setValue(from);
+        if (listener != null) {
+            listener.phaseStarted(phase);
+        }
+        checkCancelled();
+    }
+
+    /**
+     * Establecer el total de unidades de trabajo de la fase actual
+     */
+    synchronized void setTotal(long total) {
+        this.total = Math.max(total, 1);
+        this.step = Math.max(this.total / STEPS, 1);
+        this.next = step;
+    }
+
+    /**
+     * Indicar que se han completado done unidades de trabajo de la fase
+     */
+    void worked(long done) {
+        if (done >= next) {
+            report(done);
+        }
+    }
+
+    private synchronized void report(long done) {
+        if (done < next) {
+            return;
+        }
+        next = done + step;
+        setValue(from + (int) ((to - from) * Math.min(done, total) / total));
+        if (listener != null) {
+            listener.progress(phase, done, total);
+        }
+        checkCancelled();
+    }
+
+    /**
+     * Terminar la fase actual
+     */
+    synchronized void finishPhase() {
+        if (phase != null) {
+            setValue(to);
+            if (listener != null) {
+                listener.phaseFinished(phase);
+            }
+            phase = null;
+        }
+    }
+
+    /**
+     * Lanzar SLoadCancelledException si el listener pide cancelar
+     */
+    void checkCancelled() {
+        if (listener != null && listener.isCancelled()) {
+            throw new SLoadCancelledException();
+        }
+    }
+
+    private void setValue(int value) {
+        if (progress != null) {
+            progress.value = value;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * SLoadPhase : Fases de la carga de un fichero que se notifican a un
+ * SLoadListener
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public enum SLoadPhase {
+    READ, //Apertura y lectura del fichero
+    PARSE, //Interpretacion de vertices, caras y entidades
+    NORMALS_EDGES, //Calculo de normales de vertices y aristas
+    BUILD //Construccion de los objetos finales
+}
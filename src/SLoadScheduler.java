@@ -0,0 +1,211 @@
+/**
+ * SLoadScheduler : Planificador de cargas con presupuesto de memoria para
+ * servidores que importan varios ficheros a la vez. Estima la memoria de
+ * cada carga con SModelInspector (o, si no se puede, con el tamaño del
+ * fichero por memoryFactor) y la admite contra un semaforo con pesos de
+ * memoryBudget bytes: las que no caben esperan en una cola por orden de
+ * llegada, y se rechazan (RejectedExecutionException) las que superan el
+ * presupuesto completo o no caben en la cola. La reserva dura mientras vive
+ * el modelo: se devuelve al cerrar su SLoadTicket o cuando el modelo se
+ * libera.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+public class SLoadScheduler {
+
+    public SImportOptions options = new SImportOptions(); //Opciones de SStl y SAsc (el listener recibe los avisos de todas las cargas)
+    public double memoryFactor = 8; //Bytes de memoria estimados por byte de fichero si no se puede inspeccionar
+    public int maxQueued = Integer.MAX_VALUE; //Cargas que pueden esperar en la cola
+    public Executor executor = null; //null = executor por defecto de loadAsync
+
+    private final long memoryBudget;
+    private final int budget; //en KB
+    private final Semaphore memory;
+    private final ArrayDeque<SLoadJob> queue = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     */
+    public SLoadScheduler(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.budget = (int) Math.max(1, Math.min(memoryBudget >> 10, Integer.MAX_VALUE));
+        this.memory = new Semaphore(budget);
+    }
+
+    /**
+     * Constructor
+     */
+    public SLoadScheduler(long memoryBudget, SImportOptions options) {
+        this(memoryBudget);
+        this.options = options.getCopy();
+    }
+
+    /**
+     * Pedir la carga de un fichero. El CompletableFuture termina con el
+     * ticket del modelo cuando se ha cargado, con una
+     * RejectedExecutionException si no se admite y con el error de la carga
+     * si falla. Cancelarlo la saca de la cola o interrumpe la carga
+     */
+    public CompletableFuture<SLoadTicket> submit(String path) {
+        CompletableFuture<SLoadTicket> result = new CompletableFuture<>();
+        if (!SBatchImporter.isSupported(path)) {
+            result.completeExceptionally(new IllegalArgumentException("unknown format: " + path));
+            return result;
+        }
+        long bytes;
+        try {
+            bytes = estimate(path);
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+        int weight = (int) Math.min(Math.max((bytes + 1023) >> 10, 1), Integer.MAX_VALUE);
+        if (weight > budget) {
+            result.completeExceptionally(new RejectedExecutionException(path + " needs " + bytes + " bytes, budget is " + memoryBudget));
+            return result;
+        }
+        SLoadJob job = new SLoadJob(path, bytes, weight, result);
+        boolean admitted;
+        synchronized (this) {
+            //sin adelantar a las que ya esperan
+            admitted = queue.isEmpty() && memory.tryAcquire(weight);
+            if (!admitted) {
+                if (queue.size() >= maxQueued) {
+                    result.completeExceptionally(new RejectedExecutionException("load queue is full: " + path));
+                    return result;
+                }
+                queue.add(job);
+            }
+        }
+        result.whenComplete((ticket, error) -> {
+            if (result.isCancelled()) {
+                cancel(job);
+            }
+        });
+        if (admitted) {
+            start(job);
+        } else {
+            admit();
+        }
+        return result;
+    }
+
+    /**
+     * Estimar la memoria de la carga de un fichero
+     */
+    public long estimate(String path) throws IOException {
+        SModelInfo info = SModelInspector.inspect(path, options);
+        if (info.estimatedBytes >= 0) {
+            return info.estimatedBytes;
+        }
+        return (long) (memoryFactor * info.fileSize);
+    }
+
+    /**
+     * Presupuesto de memoria
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Memoria reservada por las cargas en curso y los modelos cargados
+     */
+    public long getUsedBytes() {
+        return (long) (budget - memory.availablePermits()) << 10;
+    }
+
+    /**
+     * Numero de cargas esperando en la cola
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Lanzar las cargas de la cabeza de la cola que caben en el presupuesto.
+     * La cola se atiende por orden para que una carga grande no espere
+     * indefinidamente detras de las pequeñas
+     */
+    private void admit() {
+        ArrayList<SLoadJob> admitted = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.isEmpty() && memory.tryAcquire(queue.peek().weight)) {
+                admitted.add(queue.poll());
+            }
+        }
+        for (SLoadJob job : admitted) {
+            start(job);
+        }
+    }
+
+    private void start(SLoadJob job) {
+        if (job.result.isDone()) {
+            release(job.weight);
+            return;
+        }
+        CompletableFuture<?> load = SAsyncLoader.load(job.path, options, executor);
+        job.load = load;
+        load.whenComplete((model, error) -> {
+            if (error != null || model == null) {
+                release(job.weight);
+                job.result.completeExceptionally(error != null ? SAsyncLoader.getCause(error) : new IOException("cannot load " + job.path));
+                return;
+            }
+            int weight = job.weight;
+            SLoadTicket ticket = new SLoadTicket(job.path, model, job.bytes, () -> release(weight));
+            if (!job.result.complete(ticket)) {
+                ticket.release(); //cancelada mientras se cargaba
+            }
+        });
+        if (job.result.isCancelled()) {
+            load.cancel(true);
+        }
+    }
+
+    private void cancel(SLoadJob job) {
+        boolean queued;
+        synchronized (this) {
+            queued = queue.remove(job);
+        }
+        if (queued) {
+            admit(); //la siguiente de la cola puede caber ahora
+        } else if (job.load != null) {
+            job.load.cancel(true);
+        }
+    }
+
+    private void release(int weight) {
+        memory.release(weight);
+        admit();
+    }
+
+    /**
+     * Carga pendiente o en curso
+     */
+    private static class SLoadJob {
+
+        final String path;
+        final long bytes;
+        final int weight; //en KB
+        final CompletableFuture<SLoadTicket> result;
+        volatile CompletableFuture<?> load;
+
+        SLoadJob(String path, long bytes, int weight, CompletableFuture<SLoadTicket> result) {
+            this.path = path;
+            this.bytes = bytes;
+            this.weight = weight;
+            this.result = result;
+        }
+    }
+}
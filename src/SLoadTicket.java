@@ -0,0 +1,96 @@
+/**
+ * SLoadTicket : Modelo cargado por SLoadScheduler junto con la memoria que
+ * tiene reservada en su presupuesto. La reserva se devuelve al llamar a
+ * close (o release) o, si se pierden el ticket y el modelo, cuando el
+ * recolector libera el modelo.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.lang.ref.Cleaner;
+
+public class SLoadTicket implements AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    public final String path;
+    public final long bytes; //Memoria reservada en el presupuesto
+    private volatile Object model;
+    private final Cleaner.Cleanable cleanable;
+
+    /**
+     * Constructor. release no puede hacer referencia al modelo
+     */
+    SLoadTicket(String path, Object model, long bytes, Runnable release) {
+        this.path = path;
+        this.model = model;
+        this.bytes = bytes;
+        this.cleanable = CLEANER.register(model, release);
+    }
+
+    /**
+     * Obtener el modelo (SStl, SAsc, S3mf o SDxf), null si ya se ha liberado
+     */
+    public Object getModel() {
+        return model;
+    }
+
+    /**
+     * Obtener el modelo si es un SStl (null en otro caso)
+     */
+    public SStl getStl() {
+        Object current = model;
+        return current instanceof SStl ? (SStl) current : null;
+    }
+
+    /**
+     * Obtener el modelo si es un SAsc (null en otro caso)
+     */
+    public SAsc getAsc() {
+        Object current = model;
+        return current instanceof SAsc ? (SAsc) current : null;
+    }
+
+    /**
+     * Obtener el modelo si es un S3mf (null en otro caso)
+     */
+    public S3mf get3mf() {
+        Object current = model;
+        return current instanceof S3mf ? (S3mf) current : null;
+    }
+
+    /**
+     * Obtener el modelo si es un SDxf (null en otro caso)
+     */
+    public SDxf getDxf() {
+        Object current = model;
+        return current instanceof SDxf ? (SDxf) current : null;
+    }
+
+    /**
+     * Indica si la reserva ya se ha devuelto
+     */
+    public boolean isReleased() {
+        return model == null;
+    }
+
+    /**
+     * Devolver la reserva al presupuesto. El modelo deja de estar disponible
+     * en el ticket (quien lo siga usando debe liberarlo despues)
+     */
+    public void release() {
+        model = null;
+        cleanable.clean();
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + bytes + " bytes" + (isReleased() ? ", released)" : ")");
+    }
+}
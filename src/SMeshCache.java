@@ -0,0 +1,416 @@
+/**
+ * SMeshCache : Cache en disco de las mallas ya procesadas por SStl y SAsc.
+ * Cada entrada es un fichero binario compacto con las mallas de un fichero
+ * (posiciones, normales, indices y colores) y su adyacencia de aristas
+ * (angulos diedros y normales de cara), de modo que al volver a abrir el
+ * fichero no hay que leerlo ni calcular normales y aristas: los arrays se
+ * leen de una proyeccion en memoria del fichero de cache.
+ *
+ * La clave combina la ruta, el tamaño y la fecha del fichero (o un hash de
+ * su contenido si enableContentHash) con las opciones que cambian la
+ * geometria. Cuando la cache supera maxBytes se borran las entradas usadas
+ * hace mas tiempo.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class SMeshCache {
+
+    private static final int MAGIC = 0x31434D53; // "SMC1"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".smc";
+    private static final int FLAG_INDEXED = 1;
+    private static final int FLAG_COLORS = 2;
+    private static final int FLAG_ADJACENCY = 4;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MESH_HEADER_SIZE = 12; // flags, vertices y triangulos
+
+    public final String directory;
+    public long maxBytes = 1L << 30; //Tamaño maximo de la cache (1GB)
+    public boolean enableContentHash = false; //Clave con el hash del contenido en lugar de tamaño y fecha
+
+    /**
+     * Constructor
+     */
+    public SMeshCache(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Constructor
+     */
+    public SMeshCache(String directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Obtener la clave del fichero con las opciones de carga. angleLimit,
+     * enableVertexsNormals y enableEdges no forman parte de la clave porque
+     * la entrada guarda los angulos de todas las aristas
+     */
+    public String getKey(String path, SImportOptions options) throws IOException {
+        File file = new File(path);
+        MessageDigest digest = getDigest();
+        StringBuilder text = new StringBuilder();
+        text.append(VERSION).append('|').append(file.getCanonicalPath()).append('|').append(file.length());
+        if (enableContentHash) {
+            digestContent(digest, file.toPath());
+        } else {
+            text.append('|').append(file.lastModified());
+        }
+        text.append('|').append(options.enableWelding).append('|').append(options.weldTolerance);
+        text.append('|').append(options.enableColors);
+        digest.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Leer las mallas de la entrada key (con su adyacencia si se guardo).
+     * Devuelve null si no existe o no se puede leer
+     */
+    public ArrayList<SPackedMesh3D> read(String key, int parallelism) {
+        Path path = getPath(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            SCacheReader reader = new SCacheReader(channel);
+            if (reader.getInt() != MAGIC || reader.getInt() != VERSION) {
+                throw new IOException("invalid cache file " + path);
+            }
+            int nmeshes = reader.getCount(MESH_HEADER_SIZE);
+            ArrayList<SPackedMesh3D> meshes = new ArrayList<>(nmeshes);
+            for (int i = 0; i < nmeshes; i++) {
+                meshes.add(readMesh(reader, parallelism));
+            }
+            path.toFile().setLastModified(System.currentTimeMillis()); //para el desalojo
+            return meshes;
+        } catch (IOException | RuntimeException ex) {
+            delete(path);
+            return null;
+        }
+    }
+
+    /**
+     * Guardar las mallas en la entrada key calculando su adyacencia de
+     * aristas si no la tienen. La entrada se escribe en un fichero temporal
+     * y se renombra, asi nunca se lee una entrada a medias
+     */
+    public boolean write(String key, List<SPackedMesh3D> meshes, int parallelism) {
+        Path path = getPath(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), key, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                SCacheWriter writer = new SCacheWriter(channel);
+                writer.putInt(MAGIC);
+                writer.putInt(VERSION);
+                writer.putInt(meshes.size());
+                for (SPackedMesh3D mesh : meshes) {
+                    writeMesh(writer, mesh, mesh.getEdgeAdjacency(parallelism));
+                }
+                writer.flush();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            if (temporary != null) {
+                delete(temporary);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Borrar las entradas usadas hace mas tiempo hasta que la cache ocupe
+     * como mucho maxBytes
+     */
+    public void evict() {
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Borrar todas las entradas
+     */
+    public void clear() {
+        File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private Path getPath(String key) {
+        return Paths.get(directory, key + EXTENSION);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            // nothing to do here
+        }
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void digestContent(MessageDigest digest, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Escribir una malla y su adyacencia
+     */
+    private static void writeMesh(SCacheWriter writer, SPackedMesh3D mesh, SEdgeAdjacency adjacency) throws IOException {
+        int nvertexs = mesh.getVertexsCount();
+        int ntriangles = mesh.getTrianglesCount();
+        int[] colors = mesh.getColors();
+        int flags = (mesh.isIndexed() ? FLAG_INDEXED : 0) | (colors != null ? FLAG_COLORS : 0) | (adjacency != null ? FLAG_ADJACENCY : 0);
+        writer.putInt(flags);
+        writer.putInt(nvertexs);
+        writer.putInt(ntriangles);
+        writer.putFloats(mesh.getPositions(), 3 * nvertexs);
+        writer.putFloats(mesh.getNormals(), 3 * nvertexs);
+        if (mesh.isIndexed()) {
+            writer.putInts(mesh.getIndices(), 3 * ntriangles);
+        }
+        if (colors != null) {
+            writer.putInts(colors, ntriangles);
+        }
+        if (adjacency != null) {
+            writer.putInt(adjacency.getVertexsCount());
+            writer.putInt(adjacency.getEdgesCount());
+            if (!mesh.isIndexed()) {
+                writer.putInts(adjacency.getCorners(), 3 * ntriangles);
+                writer.putInts(adjacency.getRepresentatives(), adjacency.getVertexsCount());
+            }
+            writer.putFloats(adjacency.getFaceNormals(), 3 * ntriangles);
+            writer.putFloats(adjacency.getFaceAreas(), ntriangles);
+            writer.putInts(adjacency.getEdgeVertexs(), 2 * adjacency.getEdgesCount());
+            writer.putFloats(adjacency.getEdgeAngles(), adjacency.getEdgesCount());
+        }
+    }
+
+    /**
+     * Leer una malla y su adyacencia
+     */
+    private static SPackedMesh3D readMesh(SCacheReader reader, int parallelism) throws IOException {
+        int flags = reader.getInt();
+        int nvertexs = reader.getCount(24); //posicion y normal
+        int ntriangles = reader.getInt();
+        if (ntriangles < 0 || ((flags & FLAG_INDEXED) == 0 && 3L * ntriangles != nvertexs)) {
+            throw new IOException("invalid triangles count in cache file: " + ntriangles);
+        }
+        float[] positions = reader.getFloats(3L * nvertexs);
+        float[] normals = reader.getFloats(3L * nvertexs);
+        int[] indices = (flags & FLAG_INDEXED) != 0 ? reader.getInts(3L * ntriangles) : null;
+        int[] colors = (flags & FLAG_COLORS) != 0 ? reader.getInts(ntriangles) : null;
+        SPackedMesh3D mesh = new SPackedMesh3D(positions, normals, indices, colors, nvertexs, ntriangles);
+        if ((flags & FLAG_ADJACENCY) != 0) {
+            int adjacencyVertexs = reader.getInt();
+            int nedges = reader.getCount(12); //vertices y angulo
+            int[] corners = indices;
+            int[] representative = null;
+            if (indices == null) {
+                corners = reader.getInts(3L * ntriangles);
+                representative = reader.getInts(adjacencyVertexs);
+            }
+            float[] faceNormals = reader.getFloats(3L * ntriangles);
+            float[] faceAreas = reader.getFloats(ntriangles);
+            int[] edgeVertexs = reader.getInts(2L * nedges);
+            float[] edgeAngles = reader.getFloats(nedges);
+            mesh.setEdgeAdjacency(new SEdgeAdjacency(positions, ntriangles, parallelism, corners, adjacencyVertexs,
+                    representative, faceNormals, faceAreas, edgeVertexs, edgeAngles));
+        }
+        return mesh;
+    }
+
+    /**
+     * Escritura secuencial little endian a traves de un ByteBuffer directo
+     */
+    private static class SCacheWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        SCacheWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        void putFloats(float[] values, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                int count = Math.min(n - i, buffer.remaining() / 4);
+                buffer.asFloatBuffer().put(values, i, count);
+                buffer.position(buffer.position() + 4 * count);
+                i += count;
+            }
+        }
+
+        void putInts(int[] values, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                int count = Math.min(n - i, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, i, count);
+                buffer.position(buffer.position() + 4 * count);
+                i += count;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Lectura secuencial little endian: cada array se lee de una proyeccion
+     * en memoria de su tramo del fichero
+     */
+    private static class SCacheReader {
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+
+        SCacheReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private MappedByteBuffer map(long length) throws IOException {
+            if (length < 0 || position + length > size) {
+                throw new IOException("truncated cache file");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            position += length;
+            return buffer;
+        }
+
+        int getInt() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            if (position + 4 > size || channel.read(buffer, position) != 4) {
+                throw new IOException("truncated cache file");
+            }
+            position += 4;
+            return buffer.getInt(0);
+        }
+
+        /**
+         * Leer un numero de elementos que ocupan al menos bytes cada uno en
+         * lo que queda del fichero. Una entrada corrupta falla aqui, antes
+         * de reservar los arrays
+         */
+        int getCount(int bytes) throws IOException {
+            int n = getInt();
+            if (n < 0 || (long) n * bytes > size - position) {
+                throw new IOException("invalid count in cache file: " + n);
+            }
+            return n;
+        }
+
+        /**
+         * Comprobar que quedan n valores de 4 bytes antes de reservarlos
+         */
+        private int check(long n) throws IOException {
+            if (n < 0 || n > Integer.MAX_VALUE - 8 || 4 * n > size - position) {
+                throw new IOException("truncated cache file");
+            }
+            return (int) n;
+        }
+
+        float[] getFloats(long n) throws IOException {
+            float[] values = new float[check(n)];
+            if (n > 0) {
+                map(4L * n).asFloatBuffer().get(values);
+            }
+            return values;
+        }
+
+        int[] getInts(long n) throws IOException {
+            int[] values = new int[check(n)];
+            if (n > 0) {
+                map(4L * n).asIntBuffer().get(values);
+            }
+            return values;
+        }
+    }
+}
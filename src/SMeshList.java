@@ -0,0 +1,135 @@
+/**
+ * SMeshList : Operaciones comunes de SStl, SAsc y S3mf sobre su lista de
+ * mallas compactas y sus objetos 3D: aristas vivas para un angulo limite,
+ * adyacencia de aristas de los objetos, estadisticas con la transformacion
+ * pendiente y copia y transformacion de las mallas compartidas. Cada
+ * importador guarda su estado y su sincronizacion; aqui solo se calcula.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.ArrayList;
+import java.util.List;
+import samy.objects.SStyle;
+import samy.objects3D.SLines3D;
+import samy.objects3D.SObject3D;
+import samy.objects3D.SObjects3D;
+
+final class SMeshList {
+
+    private SMeshList() {
+    }
+
+    /**
+     * Obtener las aristas vivas de cada malla para angleLimit (en grados).
+     * Los angulos diedros se calculan una sola vez por malla
+     */
+    static ArrayList<SLines3D> getEdges(List<SPackedMesh3D> meshes, double angleLimit, int parallelism) {
+        ArrayList<SLines3D> edges = new ArrayList<>();
+        for (SPackedMesh3D mesh : meshes) {
+            edges.add(mesh.getEdges(angleLimit, parallelism));
+        }
+        return edges;
+    }
+
+    /**
+     * Obtener las aristas vivas de cada adyacencia para angleLimit (en
+     * grados), con el estilo de las aristas de los objetos
+     */
+    static ArrayList<SLines3D> getEdges(SEdgeAdjacency[] adjacencies, double angleLimit) {
+        ArrayList<SLines3D> edges = new ArrayList<>();
+        for (SEdgeAdjacency adjacency : adjacencies) {
+            SLines3D lines = adjacency.getEdges(angleLimit);
+            lines.setStyle(new SStyle(0, 0, 0, 255, 2));
+            edges.add(lines);
+        }
+        return edges;
+    }
+
+    /**
+     * Calcular la adyacencia de aristas de las caras de cada objeto
+     */
+    static SEdgeAdjacency[] getEdgeAdjacencies(SObjects3D objects, int parallelism) {
+        SEdgeAdjacency[] list = new SEdgeAdjacency[objects.size()];
+        for (int i = 0; i < list.length; i++) {
+            SPackedMesh3D mesh = SPackedMesh3D.fromFaces(objects.get(i).getFaces3D());
+            list[i] = mesh.getEdgeAdjacency(parallelism);
+        }
+        return list;
+    }
+
+    /**
+     * Obtener los objetos con las caras de objects y las aristas de edges
+     * (una por objeto)
+     */
+    static SObjects3D setEdges(SObjects3D objects, List<SLines3D> edges) {
+        SObjects3D result = new SObjects3D();
+        for (int i = 0; i < objects.size(); i++) {
+            result.add(new SObject3D(objects.get(i).getFaces3D(), edges.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Obtener las estadisticas con la transformacion pendiente aplicada de
+     * forma analitica, o null si no tienen la box exacta (o el area si
+     * needArea) y hay que recorrer la geometria
+     */
+    static SMeshStats getStats(SMeshStats stats, STransform3D transform, boolean needArea) {
+        if (stats == null) {
+            return null;
+        }
+        SMeshStats result = stats.getCopy();
+        if (transform != null) {
+            result.transform(transform);
+        }
+        return isComplete(result, needArea) ? result : null;
+    }
+
+    /**
+     * Indica si las estadisticas tienen la box exacta y, si needArea, el area
+     */
+    static boolean isComplete(SMeshStats stats, boolean needArea) {
+        return stats != null && stats.isBoxExact() && (!needArea || stats.isAreaKnown());
+    }
+
+    /**
+     * Calcular las estadisticas recorriendo las caras de los objetos
+     */
+    static SMeshStats getStats(SObjects3D objects) {
+        SMeshStats result = new SMeshStats();
+        for (int i = 0; i < objects.size(); i++) {
+            SObject3D object3d = objects.get(i);
+            if (object3d != null) {
+                result.add(object3d.getFaces3D());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copiar las mallas compartidas antes de modificarlas
+     */
+    static ArrayList<SPackedMesh3D> getCopy(List<SPackedMesh3D> meshes) {
+        ArrayList<SPackedMesh3D> copy = new ArrayList<>(meshes.size());
+        for (SPackedMesh3D mesh : meshes) {
+            copy.add(mesh.getCopy());
+        }
+        return copy;
+    }
+
+    /**
+     * Aplicar la transformacion a las mallas en una unica pasada y a los
+     * objetos ya construidos (null si aun no se han construido), que
+     * conservan sus estilos
+     */
+    static void transform(STransform3D transform, List<SPackedMesh3D> meshes, SObjects3D objects) {
+        for (SPackedMesh3D mesh : meshes) {
+            transform.apply(mesh);
+        }
+        if (objects != null) {
+            objects.transform(transform.getSMatrix());
+        }
+    }
+}
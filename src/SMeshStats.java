@@ -0,0 +1,305 @@
+/**
+ * SMeshStats : Estadisticas geometricas de un modelo (box, numero de
+ * triangulos, area de la superficie y volumen con signo) que los importadores
+ * acumulan en la misma pasada en la que decodifican los vertices. Las
+ * transformaciones se aplican de forma analitica: el volumen se multiplica
+ * por el determinante (manteniendo el signo en los espejos, que invierten el
+ * orden de los triangulos), el area solo se conoce tras semejanzas (giros,
+ * espejos y escalados uniformes) y la box es exacta mientras la
+ * transformacion mantenga los ejes (traslaciones, escalados, espejos y giros
+ * de 90 grados); en otro caso es la box de las esquinas transformadas, que
+ * contiene al modelo pero puede ser mayor.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.List;
+import samy.objects.SBox;
+import samy.objects3D.SFace3D;
+import samy.objects3D.SFaces3D;
+import samy.objects3D.SPoint3D;
+import samy.objects3D.SVertex3D;
+
+public class SMeshStats {
+
+    private static final double EPSILON = 1e-9;
+
+    public double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+    public double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+    public long triangles;
+    public double area; //NaN si una transformacion no permite conocerla
+    public double volume; //con signo, positivo si las caras miran hacia fuera
+    public double areaX, areaY, areaZ; //area vectorial (0 en mallas cerradas), para trasladar el volumen de mallas abiertas
+    private boolean exactBox = true;
+
+    /**
+     * Constructor
+     */
+    public SMeshStats() {
+    }
+
+    /**
+     * Constructor de copia
+     */
+    public SMeshStats(SMeshStats stats) {
+        add(stats);
+        this.exactBox = stats.exactBox;
+    }
+
+    /**
+     * Obtener una copia
+     */
+    public SMeshStats getCopy() {
+        return new SMeshStats(this);
+    }
+
+    /**
+     * Añadir un vertice a la box
+     */
+    public void addVertex(double x, double y, double z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Añadir el area y el volumen de un triangulo (sin tocar la box)
+     */
+    public void addTriangle(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3) {
+        double ux = x2 - x1, uy = y2 - y1, uz = z2 - z1;
+        double vx = x3 - x1, vy = y3 - y1, vz = z3 - z1;
+        double cx = uy * vz - uz * vy;
+        double cy = uz * vx - ux * vz;
+        double cz = ux * vy - uy * vx;
+        area += 0.5 * Math.sqrt(cx * cx + cy * cy + cz * cz);
+        areaX += 0.5 * cx;
+        areaY += 0.5 * cy;
+        areaZ += 0.5 * cz;
+        //tetraedro con el origen: v1 . (v2 x v3) / 6
+        volume += (x1 * (y2 * z3 - z2 * y3) + y1 * (z2 * x3 - x2 * z3) + z1 * (x2 * y3 - y2 * x3)) / 6;
+        triangles++;
+    }
+
+    /**
+     * Añadir un triangulo (box, area y volumen)
+     */
+    public void add(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3) {
+        addVertex(x1, y1, z1);
+        addVertex(x2, y2, z2);
+        addVertex(x3, y3, z3);
+        addTriangle(x1, y1, z1, x2, y2, z2, x3, y3, z3);
+    }
+
+    /**
+     * Añadir una cara (triangulada en abanico)
+     */
+    public void add(SFace3D face) {
+        int n = face.size();
+        for (int k = 0; k < n; k++) {
+            SVertex3D v = face.get(k);
+            addVertex(v.x, v.y, v.z);
+        }
+        SVertex3D a = n > 0 ? face.get(0) : null;
+        for (int k = 1; k < n - 1; k++) {
+            SVertex3D b = face.get(k);
+            SVertex3D c = face.get(k + 1);
+            addTriangle(a.x, a.y, a.z, b.x, b.y, b.z, c.x, c.y, c.z);
+        }
+    }
+
+    /**
+     * Añadir un grupo de caras
+     */
+    public void add(SFaces3D faces) {
+        for (int i = 0; i < faces.size(); i++) {
+            add(faces.get(i));
+        }
+    }
+
+    /**
+     * Añadir una malla compacta
+     */
+    public void add(SPackedMesh3D mesh) {
+        float[] p = mesh.getPositions();
+        for (int i = 0; i < 3 * mesh.getVertexsCount(); i += 3) {
+            addVertex(p[i], p[i + 1], p[i + 2]);
+        }
+        for (int i = 0; i < mesh.getTrianglesCount(); i++) {
+            int a = 3 * mesh.getVertexIndex(i, 0);
+            int b = 3 * mesh.getVertexIndex(i, 1);
+            int c = 3 * mesh.getVertexIndex(i, 2);
+            addTriangle(p[a], p[a + 1], p[a + 2], p[b], p[b + 1], p[b + 2], p[c], p[c + 1], p[c + 2]);
+        }
+    }
+
+    /**
+     * Unir las estadisticas de otra parte del modelo
+     */
+    public void add(SMeshStats stats) {
+        minX = Math.min(minX, stats.minX);
+        minY = Math.min(minY, stats.minY);
+        minZ = Math.min(minZ, stats.minZ);
+        maxX = Math.max(maxX, stats.maxX);
+        maxY = Math.max(maxY, stats.maxY);
+        maxZ = Math.max(maxZ, stats.maxZ);
+        triangles += stats.triangles;
+        area += stats.area;
+        volume += stats.volume;
+        areaX += stats.areaX;
+        areaY += stats.areaY;
+        areaZ += stats.areaZ;
+        exactBox &= stats.exactBox;
+    }
+
+    /**
+     * Obtener las estadisticas de varias mallas
+     */
+    public static SMeshStats of(List<SPackedMesh3D> meshes) {
+        SMeshStats stats = new SMeshStats();
+        for (SPackedMesh3D mesh : meshes) {
+            stats.add(mesh);
+        }
+        return stats;
+    }
+
+    /**
+     * Indica si no hay vertices
+     */
+    public boolean isEmpty() {
+        return minX > maxX;
+    }
+
+    /**
+     * Indica si la box es exactamente la de los vertices
+     */
+    public boolean isBoxExact() {
+        return exactBox;
+    }
+
+    /**
+     * Indica si el area es conocida
+     */
+    public boolean isAreaKnown() {
+        return !Double.isNaN(area);
+    }
+
+    /**
+     * Obtener la box
+     */
+    public SBox getBox() {
+        return new SBox(new SPoint3D(minX, minY, minZ), new SPoint3D(maxX, maxY, maxZ));
+    }
+
+    /**
+     * Obtener el volumen encerrado (sin signo)
+     */
+    public double getVolume() {
+        return Math.abs(volume);
+    }
+
+    /**
+     * Aplicar la transformacion
+     */
+    public void transform(STransform3D transform) {
+        transform(transform.getMatrix());
+    }
+
+    /**
+     * Aplicar la transformacion afin m (3x4 por filas) sin recorrer los
+     * vertices
+     */
+    public void transform(double[] m) {
+        //el area vectorial se transforma con la matriz de cofactores y el
+        //volumen de cada tetraedro con el origen cambia con la traslacion
+        double[] c = {
+            m[5] * m[10] - m[6] * m[9], m[6] * m[8] - m[4] * m[10], m[4] * m[9] - m[5] * m[8],
+            m[2] * m[9] - m[1] * m[10], m[0] * m[10] - m[2] * m[8], m[1] * m[8] - m[0] * m[9],
+            m[1] * m[6] - m[2] * m[5], m[2] * m[4] - m[0] * m[6], m[0] * m[5] - m[1] * m[4]};
+        double ax = c[0] * areaX + c[1] * areaY + c[2] * areaZ;
+        double ay = c[3] * areaX + c[4] * areaY + c[5] * areaZ;
+        double az = c[6] * areaX + c[7] * areaY + c[8] * areaZ;
+        double det = SPackedMesh3D.getDeterminant(m);
+        volume = volume * det + (m[3] * ax + m[7] * ay + m[11] * az) / 3;
+        areaX = ax;
+        areaY = ay;
+        areaZ = az;
+        if (det < 0) {
+            //los espejos invierten el orden de los triangulos (ver SPackedMesh3D.transform)
+            volume = -volume;
+            areaX = -areaX;
+            areaY = -areaY;
+            areaZ = -areaZ;
+        }
+        area *= getSimilarityFactor(m);
+        if (isEmpty()) {
+            return;
+        }
+        exactBox &= isAxisAligned(m);
+        double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int corner = 0; corner < 8; corner++) {
+            double x = (corner & 1) == 0 ? minX : maxX;
+            double y = (corner & 2) == 0 ? minY : maxY;
+            double z = (corner & 4) == 0 ? minZ : maxZ;
+            for (int i = 0; i < 3; i++) {
+                double t = m[4 * i] * x + m[4 * i + 1] * y + m[4 * i + 2] * z + m[4 * i + 3];
+                min[i] = Math.min(min[i], t);
+                max[i] = Math.max(max[i], t);
+            }
+        }
+        minX = min[0];
+        minY = min[1];
+        minZ = min[2];
+        maxX = max[0];
+        maxY = max[1];
+        maxZ = max[2];
+    }
+
+    /**
+     * Factor de las areas si la parte lineal de m es una semejanza (M^t M =
+     * s^2 I); NaN en otro caso
+     */
+    static double getSimilarityFactor(double[] m) {
+        double s2 = m[0] * m[0] + m[4] * m[4] + m[8] * m[8];
+        double tolerance = EPSILON * Math.max(s2, 1);
+        for (int i = 0; i < 3; i++) {
+            for (int j = i; j < 3; j++) {
+                double dot = m[i] * m[j] + m[4 + i] * m[4 + j] + m[8 + i] * m[8 + j];
+                if (Math.abs(dot - (i == j ? s2 : 0)) > tolerance) {
+                    return Double.NaN;
+                }
+            }
+        }
+        return s2;
+    }
+
+    /**
+     * Indica si cada fila de la parte lineal de m tiene un solo termino (la
+     * transformacion lleva ejes a ejes)
+     */
+    private static boolean isAxisAligned(double[] m) {
+        for (int i = 0; i < 3; i++) {
+            int nonZero = 0;
+            double max = Math.max(Math.abs(m[4 * i]), Math.max(Math.abs(m[4 * i + 1]), Math.abs(m[4 * i + 2])));
+            for (int j = 0; j < 3; j++) {
+                if (Math.abs(m[4 * i + j]) > EPSILON * max) {
+                    nonZero++;
+                }
+            }
+            if (nonZero > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "triangles: " + triangles + " box: [" + minX + ", " + minY + ", " + minZ + "] - [" + maxX + ", " + maxY + ", " + maxZ
+                + "] area: " + area + " volume: " + volume;
+    }
+}
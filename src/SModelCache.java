@@ -0,0 +1,216 @@
+/**
+ * SModelCache : Cache en memoria de modelos importados (SStl, SAsc y S3mf). La
+ * clave combina la ruta, el tamaño y la fecha del fichero con las opciones
+ * de importacion; cada fichero se carga una sola vez y se entregan copias
+ * ligeras (getSharedCopy) que comparten la geometria y solo la copian al
+ * transformarla. Cuando la memoria estimada de los modelos (tamaño del
+ * fichero por memoryFactor) supera maxBytes se descartan los usados hace mas
+ * tiempo; los stl descartados se cierran (close) para liberar la memoria fuera
+ * del heap, que siguen usando las copias ya entregadas hasta que se cierran.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class SModelCache {
+
+    public long maxBytes = Runtime.getRuntime().maxMemory() / 4; //Memoria estimada maxima de los modelos
+    public double memoryFactor = 8; //Bytes de memoria estimados por byte de fichero
+
+    private final LinkedHashMap<String, SModelCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true); //orden de uso
+    private long bytes;
+
+    /**
+     * Constructor
+     */
+    public SModelCache() {
+    }
+
+    /**
+     * Constructor
+     */
+    public SModelCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Obtener una copia ligera del stl. Lanza UncheckedIOException si no se
+     * puede cargar
+     */
+    public SStl getStl(String path, SImportOptions options) {
+        return get(path, options, () -> SStl.loadAsync(path, options, Runnable::run), model -> ((SStl) model).getSharedCopy());
+    }
+
+    /**
+     * Obtener una copia ligera del asc. Lanza UncheckedIOException si no se
+     * puede cargar
+     */
+    public SAsc getAsc(String path, SImportOptions options) {
+        return get(path, options, () -> SAsc.loadAsync(path, options, Runnable::run), model -> ((SAsc) model).getSharedCopy());
+    }
+
+    /**
+     * Obtener una copia del 3mf (las copias comparten las mallas). Lanza
+     * UncheckedIOException si no se puede cargar
+     */
+    public S3mf get3mf(String path, SImportOptions options) {
+        return get(path, options, () -> S3mf.loadAsync(path, options, Runnable::run), model -> ((S3mf) model).getCopy());
+    }
+
+    /**
+     * Numero de modelos en la cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Memoria estimada de los modelos de la cache
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Descartar todos los modelos (los stl se cierran)
+     */
+    public void clear() {
+        List<SModelCacheEntry> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+            bytes = 0;
+        }
+        for (SModelCacheEntry entry : removed) {
+            close(entry);
+        }
+    }
+
+    /**
+     * Obtener el modelo de la cache o cargarlo. Las cargas de ficheros
+     * distintos no se bloquean entre si; si dos hilos piden a la vez el mismo
+     * fichero solo uno lo carga. La copia se obtiene antes de soltar la
+     * entrada, de forma que un descarte no puede cerrar el modelo mientras se
+     * copia
+     */
+    private <T> T get(String path, SImportOptions options, Supplier<CompletableFuture<?>> loader, Function<Object, T> copier) {
+        String key = getKey(path, options);
+        SModelCacheEntry entry;
+        synchronized (this) {
+            entry = entries.computeIfAbsent(key, k -> new SModelCacheEntry());
+        }
+        List<SModelCacheEntry> evicted = Collections.emptyList();
+        T copy;
+        synchronized (entry) {
+            if (entry.model == null) {
+                Object model;
+                try {
+                    model = loader.get().join();
+                } catch (CompletionException ex) {
+                    remove(key, entry);
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw ex;
+                }
+                if (model instanceof SStl) {
+                    ((SStl) model).getObjects(); //los objetos3d tambien se comparten
+                } else if (model instanceof SAsc) {
+                    ((SAsc) model).getObjects();
+                }
+                entry.model = model;
+                entry.bytes = (long) (memoryFactor * new File(path).length());
+                evicted = add(key, entry);
+            }
+            copy = copier.apply(entry.model);
+        }
+        //fuera de la entrada: cerrar otra entrada con esta tomada podria bloquear dos cargas
+        for (SModelCacheEntry oldest : evicted) {
+            close(oldest);
+        }
+        return copy;
+    }
+
+    /**
+     * Añadir la entrada cargada y descartar las usadas hace mas tiempo.
+     * Devuelve las entradas descartadas, que se cierran despues
+     */
+    private synchronized List<SModelCacheEntry> add(String key, SModelCacheEntry entry) {
+        if (entries.get(key) != entry) {
+            return Collections.emptyList();
+        }
+        bytes += entry.bytes;
+        List<SModelCacheEntry> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, SModelCacheEntry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            SModelCacheEntry oldest = iterator.next().getValue();
+            if (oldest.model != null) {
+                bytes -= oldest.bytes;
+                iterator.remove();
+                evicted.add(oldest);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Cerrar el modelo de una entrada descartada. Las copias ligeras ya
+     * entregadas mantienen su propia referencia a la memoria fuera del heap;
+     * quien aun tenga la entrada la vuelve a cargar
+     */
+    private static void close(SModelCacheEntry entry) {
+        synchronized (entry) {
+            if (entry.model instanceof SStl) {
+                ((SStl) entry.model).close();
+            }
+            entry.model = null;
+        }
+    }
+
+    private synchronized void remove(String key, SModelCacheEntry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Clave del fichero con las opciones que cambian el modelo
+     */
+    private static String getKey(String path, SImportOptions options) {
+        File file = new File(path);
+        String name;
+        try {
+            name = file.getCanonicalPath();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return name + '|' + file.length() + '|' + file.lastModified()
+                + '|' + options.enableVertexsNormals + '|' + options.enableEdges + '|' + options.angleLimit
+                + '|' + options.enablePacked + '|' + options.enableWelding + '|' + options.weldTolerance
+                + '|' + options.enableColors + '|' + options.enableEdgeAdjacency + '|' + options.enableOffHeap
+                + '|' + options.enableCompactNormals;
+    }
+
+    /**
+     * Modelo de la cache y su memoria estimada
+     */
+    private static class SModelCacheEntry {
+
+        volatile Object model;
+        long bytes;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * SModelFormat : Formatos de fichero que se pueden importar
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public enum SModelFormat {
+    STL_BINARY, //*.stl binario
+    STL_ASCII, //*.stl ascii
+    ASC, //*.asc de 3D Studio
+    DXF, //*.dxf de Autocad
+    THREE_MF, //*.3mf (3D Manufacturing Format)
+    UNKNOWN //Formato no soportado
+}
@@ -0,0 +1,46 @@
+/**
+ * SModelInfo : Resultado de SModelInspector.inspect: formato, numero de
+ * elementos, memoria estimada de la importacion y, si el fichero la guarda
+ * en la cabecera, la box. Los campos que no se conocen valen -1 (o null la
+ * box).
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import samy.objects.SBox;
+
+public class SModelInfo {
+
+    public final String path;
+    public final SModelFormat format;
+    public final long fileSize;
+    public long triangles = -1; //Triangulos (o caras) del fichero
+    public long vertexs = -1; //Vertices del fichero (3 por triangulo en stl)
+    public long objects = -1; //Solidos, objetos o entidades
+    public boolean exact = true; //false si los conteos se han estimado por muestreo
+    public SBox box; //null si el fichero no la guarda en la cabecera
+    public long estimatedBytes = -1; //Memoria estimada de la importacion
+
+    /**
+     * Constructor
+     */
+    public SModelInfo(String path, SModelFormat format, long fileSize) {
+        this.path = path;
+        this.format = format;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Indica si la importacion cabe en bytes de memoria
+     */
+    public boolean fits(long bytes) {
+        return estimatedBytes >= 0 && estimatedBytes <= bytes;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + format + " triangles: " + triangles + " vertexs: " + vertexs + " objects: " + objects
+                + (exact ? "" : " (estimated)") + " memory: " + estimatedBytes + (box != null ? " box: " + box : "");
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * SModelInspector : Inspeccion previa de un fichero sin importarlo, para
+ * decidir si se carga (o se encola) antes de reservar memoria. Solo lee lo
+ * imprescindible: la cabecera y el numero de triangulos de un stl binario,
+ * las palabras "endfacet" de un stl ascii (todas o, en ficheros grandes, las
+ * de unas muestras repartidas por el fichero), las lineas "Tri-mesh" de un
+ * asc, las etiquetas <vertex>, <triangle> y <object> de las partes de un 3mf
+ * (descomprimidas en streaming) y las variables $EXTMIN/$EXTMAX de la
+ * cabecera de un dxf.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import samy.external.SJava;
+import samy.objects.SBox;
+import samy.objects3D.SPoint3D;
+
+public class SModelInspector {
+
+    private static final long ASCII_COUNT_LIMIT = 64L << 20; //Hasta este tamaño se cuentan todas las caras
+    private static final int ASCII_SAMPLES = 16;
+    private static final int ASCII_SAMPLE_SIZE = 1 << 20;
+    private static final byte[] ENDFACET = "endfacet".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENDSOLID = "endsolid".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] THREE_MF_TAGS = {
+        "<vertex ".getBytes(StandardCharsets.US_ASCII),
+        "<triangle ".getBytes(StandardCharsets.US_ASCII),
+        "<object ".getBytes(StandardCharsets.US_ASCII)};
+
+    //Memoria estimada por elemento
+    private static final long PACKED_BYTES_PER_TRIANGLE = 72; //3 vertices con posicion y normal en float
+    private static final long COMPACT_BYTES_PER_TRIANGLE = 48; //3 vertices con posicion en float y normal codificada
+    private static final long COLOR_BYTES_PER_TRIANGLE = 4;
+    private static final long ADJACENCY_BYTES_PER_TRIANGLE = 64;
+    private static final long OBJECT_BYTES_PER_TRIANGLE = 400; //SFace3D con sus SVertex3D, normales y aristas
+    private static final long PACKED_BYTES_PER_VERTEX = 24;
+    private static final long COMPACT_BYTES_PER_VERTEX = 16;
+    private static final long OBJECT_BYTES_PER_VERTEX = 64;
+    private static final long LINE_BYTES = 48; //String de cada linea de SJava.loadStrings
+    private static final long DXF_BYTES_PER_ENTITY = 512;
+
+    private SModelInspector() {
+    }
+
+    /**
+     * Inspeccionar el fichero con las opciones de importacion por defecto
+     */
+    public static SModelInfo inspect(String path) throws IOException {
+        return inspect(path, new SImportOptions());
+    }
+
+    /**
+     * Inspeccionar el fichero estimando la memoria para las opciones de
+     * importacion indicadas
+     */
+    public static SModelInfo inspect(String path, SImportOptions options) throws IOException {
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(path);
+        }
+        String pathInLowercase = path.toLowerCase();
+        if (pathInLowercase.endsWith(".stl")) {
+            return inspectStl(path, options);
+        } else if (pathInLowercase.endsWith(".asc")) {
+            return inspectAsc(path, options);
+        } else if (pathInLowercase.endsWith(".3mf")) {
+            return inspect3mf(path, options);
+        } else if (pathInLowercase.endsWith(".dxf")) {
+            return inspectDxf(path);
+        }
+        return new SModelInfo(path, SModelFormat.UNKNOWN, file.length());
+    }
+
+    /**
+     * Inspeccionar un *.stl
+     */
+    private static SModelInfo inspectStl(String path, SImportOptions options) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            SModelInfo info;
+            if (SStl.isBinary(channel)) {
+                info = new SModelInfo(path, SModelFormat.STL_BINARY, size);
+                if (size >= 84) { //80 de cabecera + 4 del numero de triangulos
+                    ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                    channel.read(header, 80);
+                    info.triangles = Math.min(header.getInt(0) & 0xFFFFFFFFL, (size - 84) / 50); //registros de 50 bytes
+                } else {
+                    info.triangles = 0;
+                }
+                info.objects = 1;
+            } else {
+                info = new SModelInfo(path, SModelFormat.STL_ASCII, size);
+                if (size <= ASCII_COUNT_LIMIT) {
+                    info.triangles = count(channel, 0, size, ENDFACET);
+                    info.objects = count(channel, 0, size, ENDSOLID);
+                } else {
+                    //Densidad de caras en unas muestras repartidas por el fichero
+                    long facets = 0;
+                    long step = size / ASCII_SAMPLES;
+                    for (int i = 0; i < ASCII_SAMPLES; i++) {
+                        long start = i * step;
+                        facets += count(channel, start, start + ASCII_SAMPLE_SIZE, ENDFACET);
+                    }
+                    info.triangles = Math.round((double) facets * size / ((long) ASCII_SAMPLES * ASCII_SAMPLE_SIZE));
+                    info.exact = false;
+                }
+            }
+            info.vertexs = 3 * info.triangles;
+            long bytesPerTriangle = OBJECT_BYTES_PER_TRIANGLE;
+            if (info.format == SModelFormat.STL_BINARY && options.isOffHeap()) {
+                bytesPerTriangle = SOffHeapMesh3D.RECORD_SIZE; //fuera del heap
+            } else if (options.isPacked() || options.enableWelding) {
+                bytesPerTriangle = options.enableCompactNormals ? COMPACT_BYTES_PER_TRIANGLE : PACKED_BYTES_PER_TRIANGLE;
+                if (options.enableColors) {
+                    bytesPerTriangle += COLOR_BYTES_PER_TRIANGLE;
+                }
+                if (options.isEdgeAdjacency()) {
+                    bytesPerTriangle += ADJACENCY_BYTES_PER_TRIANGLE;
+                }
+            }
+            info.estimatedBytes = bytesPerTriangle * info.triangles;
+            return info;
+        }
+    }
+
+    /**
+     * Contar las apariciones de pattern entre start y end (se leen bloques
+     * que se solapan para no perder palabras partidas)
+     */
+    private static long count(FileChannel channel, long start, long end, byte[] pattern) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        byte[] bytes = buffer.array();
+        long count = 0;
+        long position = start;
+        end = Math.min(end, channel.size());
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(bytes.length, end - position));
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i + pattern.length <= n; i++) {
+                if (bytes[i] == pattern[0]) {
+                    int k = 1;
+                    while (k < pattern.length && bytes[i + k] == pattern[k]) {
+                        k++;
+                    }
+                    if (k == pattern.length) {
+                        count++;
+                        i += k - 1;
+                    }
+                }
+            }
+            if (position + n >= end) {
+                break;
+            }
+            position += n - (pattern.length - 1);
+        }
+        return count;
+    }
+
+    /**
+     * Inspeccionar un *.asc leyendo las lineas "Tri-mesh, Vertices: N Faces: M"
+     */
+    private static SModelInfo inspectAsc(String path, SImportOptions options) throws IOException {
+        SModelInfo info = new SModelInfo(path, SModelFormat.ASC, new File(path).length());
+        long vertexs = 0;
+        long faces = 0;
+        long objects = 0;
+        long lines = 0;
+        try (BufferedReader reader = openReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                int indexNvertexs = line.indexOf("Vertices: ");
+                int indexNfaces = line.indexOf("Faces: ");
+                if (line.contains("Tri-mesh") && indexNvertexs != -1 && indexNfaces > indexNvertexs) {
+                    vertexs += Long.parseLong(line.substring(indexNvertexs + 10, indexNfaces).trim());
+                    faces += Long.parseLong(line.substring(indexNfaces + 7).trim());
+                    objects++;
+                }
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("invalid Tri-mesh line in " + path, ex);
+        }
+        info.vertexs = vertexs;
+        info.triangles = faces;
+        info.objects = objects;
+        //SAsc lee el fichero entero como lineas antes de procesarlo
+        long bytes = info.fileSize + LINE_BYTES * lines;
+        if (options.isPacked()) {
+            bytes += (options.enableCompactNormals ? COMPACT_BYTES_PER_VERTEX : PACKED_BYTES_PER_VERTEX) * vertexs + (12 + COLOR_BYTES_PER_TRIANGLE) * faces;
+            if (options.isEdgeAdjacency()) {
+                bytes += ADJACENCY_BYTES_PER_TRIANGLE * faces;
+            }
+        } else {
+            bytes += OBJECT_BYTES_PER_VERTEX * vertexs + OBJECT_BYTES_PER_TRIANGLE * faces;
+        }
+        info.estimatedBytes = bytes;
+        return info;
+    }
+
+    /**
+     * Inspeccionar un *.3mf contando las etiquetas de todas sus partes
+     * *.model. Se cuentan los objetos una sola vez aunque la construccion
+     * los use varias (S3mf comparte sus mallas)
+     */
+    private static SModelInfo inspect3mf(String path, SImportOptions options) throws IOException {
+        SModelInfo info = new SModelInfo(path, SModelFormat.THREE_MF, new File(path).length());
+        long[] counts = new long[THREE_MF_TAGS.length];
+        try (ZipFile zip = new ZipFile(path)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().toLowerCase().endsWith(".model")) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        count(in, THREE_MF_TAGS, counts);
+                    }
+                }
+            }
+        }
+        info.vertexs = counts[0];
+        info.triangles = counts[1];
+        info.objects = counts[2];
+        long bytes = (options.enableCompactNormals ? COMPACT_BYTES_PER_VERTEX : PACKED_BYTES_PER_VERTEX) * info.vertexs
+                + (12 + COLOR_BYTES_PER_TRIANGLE) * info.triangles;
+        if (options.isEdgeAdjacency()) {
+            bytes += ADJACENCY_BYTES_PER_TRIANGLE * info.triangles;
+        }
+        info.estimatedBytes = bytes;
+        return info;
+    }
+
+    /**
+     * Sumar a counts las apariciones de cada patron en in (los patrones
+     * empiezan por '<', que no aparece dentro de ninguno)
+     */
+    private static void count(InputStream in, byte[][] patterns, long[] counts) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int n = 0;
+        int i = 0;
+        while (true) {
+            if (i + 16 > n) {
+                System.arraycopy(buffer, i, buffer, 0, n - i);
+                n -= i;
+                i = 0;
+                int read = in.read(buffer, n, buffer.length - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+                continue;
+            }
+            if (buffer[i] == '<') {
+                for (int p = 0; p < patterns.length; p++) {
+                    byte[] pattern = patterns[p];
+                    int k = 1;
+                    while (k < pattern.length && buffer[i + k] == pattern[k]) {
+                        k++;
+                    }
+                    if (k == pattern.length) {
+                        counts[p]++;
+                        break;
+                    }
+                }
+            }
+            i++;
+        }
+    }
+
+    private static BufferedReader openReader(String path) throws IOException {
+        BufferedReader reader = SJava.createReader(new File(path));
+        if (reader == null) {
+            throw new FileNotFoundException(path);
+        }
+        return reader;
+    }
+
+    /**
+     * Inspeccionar un *.dxf: box de $EXTMIN/$EXTMAX y numero de entidades
+     */
+    private static SModelInfo inspectDxf(String path) throws IOException {
+        SModelInfo info = new SModelInfo(path, SModelFormat.DXF, new File(path).length());
+        double[] min = null;
+        double[] max = null;
+        long entities = 0;
+        try (BufferedReader reader = openReader(path)) {
+            String section = null;
+            double[] point = null; //variable de la cabecera que se esta leyendo
+            String code;
+            while ((code = reader.readLine()) != null) {
+                String value = reader.readLine();
+                if (value == null) {
+                    break;
+                }
+                code = code.trim();
+                value = value.trim();
+                if (code.equals("0")) {
+                    if (value.equals("SECTION")) {
+                        section = "";
+                    } else if (value.equals("ENDSEC")) {
+                        section = null;
+                    } else if ("ENTITIES".equals(section)) {
+                        entities++;
+                    }
+                    point = null;
+                } else if (code.equals("2") && "".equals(section)) {
+                    section = value;
+                } else if (code.equals("9") && "HEADER".equals(section)) {
+                    if (value.equals("$EXTMIN")) {
+                        point = min = new double[3];
+                    } else if (value.equals("$EXTMAX")) {
+                        point = max = new double[3];
+                    } else {
+                        point = null;
+                    }
+                } else if (point != null && (code.equals("10") || code.equals("20") || code.equals("30"))) {
+                    try {
+                        point[code.charAt(0) - '1'] = Double.parseDouble(value);
+                    } catch (NumberFormatException ex) {
+                        point = null;
+                    }
+                }
+            }
+        }
+        info.objects = entities;
+        //Autocad guarda extensiones invertidas (1e20, -1e20) si el dibujo esta vacio
+        if (min != null && max != null && min[0] <= max[0] && min[1] <= max[1] && min[2] <= max[2]) {
+            info.box = new SBox(new SPoint3D(min[0], min[1], min[2]), new SPoint3D(max[0], max[1], max[2]));
+        }
+        info.estimatedBytes = DXF_BYTES_PER_ENTITY * entities;
+        return info;
+    }
+}
@@ -0,0 +1,411 @@
+/**
+ * SOffHeapMesh3D : Sopa de triangulos guardada fuera del heap, en bloques de
+ * ByteBuffer directos, para que las mallas de decenas de millones de
+ * triangulos no pesen en las pausas del recolector. Cada triangulo ocupa un
+ * registro de 50 bytes con la misma disposicion que el STL binario (normal,
+ * tres vertices y el atributo de 2 bytes), de modo que se copia directamente
+ * desde el fichero mapeado y hacia el fichero al guardarla. Los triangulos se leen con los
+ * accesores, sin crear objetos; getPackedMesh crea una copia en el heap para
+ * dibujarla. Las copias ligeras (getSharedCopy) comparten los bloques hasta
+ * que una de ellas se modifica. Al cerrar (close) la ultima malla que usa los
+ * bloques se sueltan las referencias y el recolector libera la memoria de
+ * los ByteBuffer directos; una malla no se puede cerrar mientras otro hilo
+ * la esta leyendo.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SOffHeapMesh3D implements AutoCloseable {
+
+    static final int RECORD_SIZE = 50; // 12*4+2, como el STL binario
+    private static final int BLOCK_TRIANGLES = 1 << 22; // ~208MB por bloque
+    private static final ByteBuffer[] NO_BLOCKS = new ByteBuffer[0];
+
+    private ByteBuffer[] blocks = NO_BLOCKS;
+    private AtomicInteger holders = new AtomicInteger(1); //Mallas abiertas que usan los bloques (getSharedCopy)
+    private long capacity;
+    private long ntriangles;
+    private volatile boolean closed;
+
+    /**
+     * Constructor
+     */
+    public SOffHeapMesh3D() {
+    }
+
+    /**
+     * Constructor con ntriangles triangulos (a cero) ya reservados
+     */
+    public SOffHeapMesh3D(long ntriangles) {
+        ensureCapacity(ntriangles, true);
+        this.ntriangles = ntriangles;
+    }
+
+    /**
+     * Constructor de copia
+     */
+    public SOffHeapMesh3D(SOffHeapMesh3D mesh) {
+        synchronized (mesh) {
+            mesh.checkOpen();
+            copyBlocks(mesh.blocks, mesh.ntriangles);
+        }
+    }
+
+    /**
+     * Obtener una copia (tambien fuera del heap)
+     */
+    public SOffHeapMesh3D getCopy() {
+        return new SOffHeapMesh3D(this);
+    }
+
+    /**
+     * Obtener una copia ligera que comparte los bloques con esta malla. Los
+     * bloques se copian cuando una de las dos se modifica y se liberan al
+     * cerrar la ultima de las que los usan
+     */
+    public synchronized SOffHeapMesh3D getSharedCopy() {
+        checkOpen();
+        SOffHeapMesh3D mesh = new SOffHeapMesh3D();
+        holders.incrementAndGet();
+        mesh.holders = holders;
+        mesh.blocks = blocks;
+        mesh.capacity = capacity;
+        mesh.ntriangles = ntriangles;
+        return mesh;
+    }
+
+    /**
+     * Reservar bloques propios y copiar en ellos los n primeros triangulos
+     * de source
+     */
+    private void copyBlocks(ByteBuffer[] source, long n) {
+        ensureCapacity(n, true);
+        this.ntriangles = n;
+        long copied = 0;
+        for (int b = 0; copied < n; b++) {
+            int count = (int) Math.min(BLOCK_TRIANGLES, n - copied);
+            ByteBuffer from = source[b].duplicate();
+            from.limit(count * RECORD_SIZE).position(0);
+            ByteBuffer target = blocks[b].duplicate();
+            target.position(0);
+            target.put(from);
+            copied += count;
+        }
+    }
+
+    /**
+     * Copiar los bloques compartidos antes de modificarlos
+     */
+    private synchronized void copyOnWrite() {
+        checkOpen();
+        if (holders.get() == 1) {
+            return;
+        }
+        ByteBuffer[] shared = blocks;
+        AtomicInteger sharedHolders = holders;
+        blocks = NO_BLOCKS;
+        capacity = 0;
+        holders = new AtomicInteger(1);
+        copyBlocks(shared, ntriangles);
+        sharedHolders.decrementAndGet();
+    }
+
+    /**
+     * Reservar espacio para n triangulos. Si exact el ultimo bloque tiene el
+     * tamaño justo (mallas que no van a crecer)
+     */
+    private void ensureCapacity(long n, boolean exact) {
+        if (n <= capacity) {
+            return;
+        }
+        int nblocks = (int) ((n + BLOCK_TRIANGLES - 1) / BLOCK_TRIANGLES);
+        ByteBuffer[] grown = Arrays.copyOf(blocks, nblocks);
+        int last = blocks.length - 1;
+        if (last >= 0 && blocks[last].capacity() < BLOCK_TRIANGLES * RECORD_SIZE) {
+            //el ultimo bloque era exacto: se sustituye por uno completo
+            grown[last] = allocate(nblocks - 1 == last && exact ? n - (long) last * BLOCK_TRIANGLES : BLOCK_TRIANGLES);
+            ByteBuffer source = blocks[last].duplicate();
+            source.position(0);
+            grown[last].duplicate().put(source);
+        }
+        for (int b = blocks.length; b < nblocks; b++) {
+            grown[b] = allocate(b == nblocks - 1 && exact ? n - (long) b * BLOCK_TRIANGLES : BLOCK_TRIANGLES);
+        }
+        blocks = grown;
+        capacity = (long) (nblocks - 1) * BLOCK_TRIANGLES + blocks[nblocks - 1].capacity() / RECORD_SIZE;
+    }
+
+    private static ByteBuffer allocate(long triangles) {
+        return ByteBuffer.allocateDirect((int) (triangles * RECORD_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("off-heap mesh is closed");
+        }
+    }
+
+    /**
+     * Comprobar que la malla esta abierta y copiar los bloques si se
+     * comparten, antes de escribir un triangulo
+     */
+    private void checkWritable() {
+        if (closed || holders.get() > 1) {
+            copyOnWrite();
+        }
+    }
+
+    /**
+     * Bloque del triangulo t
+     */
+    private ByteBuffer getBlock(long t) {
+        return blocks[(int) (t / BLOCK_TRIANGLES)];
+    }
+
+    /**
+     * Posicion del registro del triangulo t en su bloque
+     */
+    private static int getOffset(long t) {
+        return (int) (t % BLOCK_TRIANGLES) * RECORD_SIZE;
+    }
+
+    /**
+     * Añadir un triangulo
+     */
+    public void addTriangle(float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3,
+            int attribute) {
+        copyOnWrite();
+        ensureCapacity(ntriangles + 1, false);
+        setTriangle(ntriangles++, nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attribute);
+    }
+
+    /**
+     * Escribir el triangulo t (ya reservado). Se puede llamar desde varios
+     * hilos para triangulos distintos
+     */
+    public void setTriangle(long t, float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3,
+            int attribute) {
+        checkWritable();
+        ByteBuffer block = getBlock(t);
+        int p = getOffset(t);
+        block.putFloat(p, nx).putFloat(p + 4, ny).putFloat(p + 8, nz);
+        block.putFloat(p + 12, x1).putFloat(p + 16, y1).putFloat(p + 20, z1);
+        block.putFloat(p + 24, x2).putFloat(p + 28, y2).putFloat(p + 32, z2);
+        block.putFloat(p + 36, x3).putFloat(p + 40, y3).putFloat(p + 44, z3);
+        block.putShort(p + 48, (short) attribute);
+    }
+
+    /**
+     * Copiar el triangulo t del registro de STL binario (50 bytes) que
+     * empieza en la posicion indicada de in, añadiendolo a las estadisticas
+     */
+    void setBinaryRecord(long t, ByteBuffer in, int position, SMeshStats stats) {
+        checkWritable();
+        ByteBuffer block = getBlock(t);
+        int p = getOffset(t);
+        block.put(p, in, position, RECORD_SIZE);
+        stats.add(block.getFloat(p + 12), block.getFloat(p + 16), block.getFloat(p + 20),
+                block.getFloat(p + 24), block.getFloat(p + 28), block.getFloat(p + 32),
+                block.getFloat(p + 36), block.getFloat(p + 40), block.getFloat(p + 44));
+    }
+
+    /**
+     * Copiar en out, a partir de su posicion, los registros de STL binario
+     * de count triangulos desde first: un bloque de bytes por cada bloque de
+     * la malla
+     */
+    void getBinaryRecords(long first, int count, ByteBuffer out) {
+        checkOpen();
+        long end = first + count;
+        for (long t = first; t < end;) {
+            int n = (int) Math.min(end - t, BLOCK_TRIANGLES - t % BLOCK_TRIANGLES);
+            int length = n * RECORD_SIZE;
+            out.put(out.position(), getBlock(t), getOffset(t), length);
+            out.position(out.position() + length);
+            t += n;
+        }
+    }
+
+    /**
+     * Numero de triangulos
+     */
+    public long getTrianglesCount() {
+        return ntriangles;
+    }
+
+    /**
+     * Bytes reservados fuera del heap
+     */
+    public long getBytes() {
+        checkOpen();
+        long bytes = 0;
+        for (ByteBuffer block : blocks) {
+            bytes += block.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Obtener la componente i del triangulo t: 0..2 normal, 3..5 primer
+     * vertice, 6..8 segundo y 9..11 tercero
+     */
+    public float getFloat(long t, int i) {
+        checkOpen();
+        return getBlock(t).getFloat(getOffset(t) + 4 * i);
+    }
+
+    /**
+     * Obtener la normal del triangulo t en out (x,y,z)
+     */
+    public void getNormal(long t, float[] out) {
+        checkOpen();
+        ByteBuffer block = getBlock(t);
+        int p = getOffset(t);
+        out[0] = block.getFloat(p);
+        out[1] = block.getFloat(p + 4);
+        out[2] = block.getFloat(p + 8);
+    }
+
+    /**
+     * Obtener el vertice k (0,1,2) del triangulo t en out (x,y,z)
+     */
+    public void getVertex(long t, int k, float[] out) {
+        checkOpen();
+        ByteBuffer block = getBlock(t);
+        int p = getOffset(t) + 12 + 12 * k;
+        out[0] = block.getFloat(p);
+        out[1] = block.getFloat(p + 4);
+        out[2] = block.getFloat(p + 8);
+    }
+
+    /**
+     * Obtener los 2 bytes de atributo del STL binario del triangulo t
+     */
+    public int getAttribute(long t) {
+        checkOpen();
+        return getBlock(t).getShort(getOffset(t) + 48) & 0xFFFF;
+    }
+
+    /**
+     * Recorrer los triangulos
+     */
+    public void visitTriangles(STriangleVisitor visitor) {
+        checkOpen();
+        for (long t = 0; t < ntriangles; t++) {
+            ByteBuffer block = getBlock(t);
+            int p = getOffset(t);
+            visitor.visit(block.getFloat(p), block.getFloat(p + 4), block.getFloat(p + 8),
+                    block.getFloat(p + 12), block.getFloat(p + 16), block.getFloat(p + 20),
+                    block.getFloat(p + 24), block.getFloat(p + 28), block.getFloat(p + 32),
+                    block.getFloat(p + 36), block.getFloat(p + 40), block.getFloat(p + 44),
+                    block.getShort(p + 48) & 0xFFFF);
+        }
+    }
+
+    /**
+     * Obtener las estadisticas (box, area y volumen)
+     */
+    public SMeshStats getStats() {
+        SMeshStats stats = new SMeshStats();
+        visitTriangles((nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attribute)
+                -> stats.add(x1, y1, z1, x2, y2, z2, x3, y3, z3));
+        return stats;
+    }
+
+    /**
+     * Aplicar la transformacion afin m (3x4 por filas) en una unica pasada.
+     * Las normales se transforman con la inversa traspuesta y los espejos
+     * invierten el orden de los vertices
+     */
+    public void transform(double[] m) {
+        copyOnWrite();
+        double[] n = SPackedMesh3D.getNormalMatrix(m);
+        boolean flip = SPackedMesh3D.getDeterminant(m) < 0;
+        for (long t = 0; t < ntriangles; t++) {
+            ByteBuffer block = getBlock(t);
+            int p = getOffset(t);
+            double nx = block.getFloat(p), ny = block.getFloat(p + 4), nz = block.getFloat(p + 8);
+            double tx = n[0] * nx + n[1] * ny + n[2] * nz;
+            double ty = n[3] * nx + n[4] * ny + n[5] * nz;
+            double tz = n[6] * nx + n[7] * ny + n[8] * nz;
+            double d = Math.sqrt(tx * tx + ty * ty + tz * tz);
+            if (d > 0) {
+                block.putFloat(p, (float) (tx / d)).putFloat(p + 4, (float) (ty / d)).putFloat(p + 8, (float) (tz / d));
+            }
+            for (int q = p + 12; q < p + 48; q += 12) {
+                double x = block.getFloat(q), y = block.getFloat(q + 4), z = block.getFloat(q + 8);
+                block.putFloat(q, (float) (m[0] * x + m[1] * y + m[2] * z + m[3]));
+                block.putFloat(q + 4, (float) (m[4] * x + m[5] * y + m[6] * z + m[7]));
+                block.putFloat(q + 8, (float) (m[8] * x + m[9] * y + m[10] * z + m[11]));
+            }
+            if (flip) {
+                for (int q = p + 24; q < p + 36; q += 4) {
+                    float tmp = block.getFloat(q);
+                    block.putFloat(q, block.getFloat(q + 12));
+                    block.putFloat(q + 12, tmp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtener una copia en el heap como malla compacta (sopa de triangulos)
+     * para dibujarla o exportarla. Si colors el atributo se interpreta como
+     * color VisCAM/SolidView
+     */
+    public SPackedMesh3D getPackedMesh(boolean colors) {
+        checkOpen();
+        if (ntriangles > Integer.MAX_VALUE / 9) {
+            throw new IllegalStateException("too many triangles for a packed mesh: " + ntriangles);
+        }
+        SPackedMesh3D mesh = new SPackedMesh3D(3 * (int) ntriangles, false);
+        for (long t = 0; t < ntriangles; t++) {
+            ByteBuffer block = getBlock(t);
+            int p = getOffset(t);
+            mesh.addTriangle(block.getFloat(p), block.getFloat(p + 4), block.getFloat(p + 8),
+                    block.getFloat(p + 12), block.getFloat(p + 16), block.getFloat(p + 20),
+                    block.getFloat(p + 24), block.getFloat(p + 28), block.getFloat(p + 32),
+                    block.getFloat(p + 36), block.getFloat(p + 40), block.getFloat(p + 44));
+            if (colors) {
+                mesh.setLastColor(SStylePalette.getAttributeColor(block.getShort(p + 48) & 0xFFFF));
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * Indica si la malla ya se ha cerrado
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Cerrar la malla, que deja de poder usarse. Suelta los bloques; el
+     * recolector libera la memoria fuera del heap cuando ninguna copia ligera
+     * los sigue usando
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        blocks = NO_BLOCKS;
+        capacity = 0;
+        ntriangles = 0;
+        holders.decrementAndGet();
+    }
+}
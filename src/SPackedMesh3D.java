@@ -0,0 +1,951 @@
+/**
+ * SPackedMesh3D : Malla de triangulos compacta guardada en arrays primitivos
+ * (estructura de arrays). Las posiciones y las normales se guardan como float
+ * (x,y,z por vertice) y opcionalmente un buffer de indices (a,b,c por
+ * triangulo). Sin indices la malla es una sopa de triangulos: el triangulo i
+ * usa los vertices 3i, 3i+1 y 3i+2. En modo compacto las normales se guardan
+ * codificadas en octaedro (dos componentes de 16 bits en un int por vertice)
+ * y se decodifican al leerlas; las posiciones se mantienen en float y se
+ * pueden leer como double con getVertex.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import samy.math.SMatrix;
+import samy.objects.SBox;
+import samy.objects.SFaceIndexed;
+import samy.objects.SFacesIndexed;
+import samy.objects.SStyle;
+import samy.objects3D.SFace3D;
+import samy.objects3D.SFaces3D;
+import samy.objects3D.SFacesIndexed3D;
+import samy.objects3D.SLines3D;
+import samy.objects3D.SObject3D;
+import samy.objects3D.SPoint3D;
+import samy.objects3D.SShape3D;
+import samy.objects3D.SVertex3D;
+
+public class SPackedMesh3D {
+
+    private static final int NULL_NORMAL = 0x8000; //x = -32768 no lo genera encodeNormal
+
+    private float[] positions;
+    private float[] normals; //null en modo compacto
+    private int[] packedNormals; //normales codificadas en octaedro, solo en modo compacto
+    private int[] indices; //null si es una sopa de triangulos
+    private int[] colors; //rgba por triangulo (0 = styleFill), null si todas las caras usan styleFill
+    private int nvertexs;
+    private int ntriangles;
+    public SStyle styleFill = new SStyle(128, 218, 128, 255);
+    public SStylePalette palette; //Estilos de los colores por triangulo (null = una paleta nueva en cada conversion)
+    private volatile SEdgeAdjacency adjacency; //Bajo demanda, se descarta al modificar la malla (salvo semejanzas, ver transform)
+
+    /**
+     * Constructor
+     */
+    public SPackedMesh3D() {
+        this(1024, false);
+    }
+
+    /**
+     * Constructor. Reserva espacio para nvertexs vertices
+     */
+    public SPackedMesh3D(int nvertexs, boolean indexed) {
+        int capacity = Math.max(nvertexs, 3);
+        this.positions = new float[3 * capacity];
+        this.normals = new float[3 * capacity];
+        if (indexed) {
+            this.indices = new int[3 * capacity];
+        }
+    }
+
+    /**
+     * Constructor de copia
+     */
+    public SPackedMesh3D(SPackedMesh3D mesh) {
+        this.positions = Arrays.copyOf(mesh.positions, 3 * mesh.nvertexs);
+        this.normals = mesh.normals != null ? Arrays.copyOf(mesh.normals, 3 * mesh.nvertexs) : null;
+        this.packedNormals = mesh.packedNormals != null ? Arrays.copyOf(mesh.packedNormals, mesh.nvertexs) : null;
+        this.indices = mesh.indices != null ? Arrays.copyOf(mesh.indices, 3 * mesh.ntriangles) : null;
+        this.colors = mesh.colors != null ? Arrays.copyOf(mesh.colors, mesh.ntriangles) : null;
+        this.nvertexs = mesh.nvertexs;
+        this.ntriangles = mesh.ntriangles;
+        this.styleFill = mesh.styleFill;
+        this.palette = mesh.palette;
+    }
+
+    /**
+     * Constructor a partir de arrays ya ajustados al tamaño de la malla
+     * (SMeshCache). Los arrays no se copian
+     */
+    SPackedMesh3D(float[] positions, float[] normals, int[] indices, int[] colors, int nvertexs, int ntriangles) {
+        this.positions = positions;
+        this.normals = normals;
+        this.indices = indices;
+        this.colors = colors;
+        this.nvertexs = nvertexs;
+        this.ntriangles = ntriangles;
+    }
+
+    /**
+     * Crear una sopa de ntriangles triangulos ya reservados, que se rellenan
+     * con setTriangle en cualquier orden (SStl decodifica asi los rangos de
+     * un STL binario en paralelo sin unir partes)
+     */
+    static SPackedMesh3D createSoup(int ntriangles, boolean compactNormals) {
+        if (ntriangles > (Integer.MAX_VALUE - 8) / 9) {
+            throw new IllegalArgumentException("Demasiados triangulos para una malla compacta: " + ntriangles);
+        }
+        float[] normals = compactNormals ? null : new float[9 * ntriangles];
+        SPackedMesh3D mesh = new SPackedMesh3D(new float[9 * ntriangles], normals, null, null, 3 * ntriangles, ntriangles);
+        if (compactNormals) {
+            mesh.packedNormals = new int[3 * ntriangles];
+        }
+        return mesh;
+    }
+
+    /**
+     * Escribir el triangulo t de una sopa creada con createSoup. Se puede
+     * llamar desde varios hilos para triangulos distintos
+     */
+    void setTriangle(int t, float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3) {
+        int i = 9 * t;
+        positions[i] = x1;
+        positions[i + 1] = y1;
+        positions[i + 2] = z1;
+        positions[i + 3] = x2;
+        positions[i + 4] = y2;
+        positions[i + 5] = z2;
+        positions[i + 6] = x3;
+        positions[i + 7] = y3;
+        positions[i + 8] = z3;
+        if (packedNormals != null) {
+            int code = encodeNormal(nx, ny, nz);
+            packedNormals[3 * t] = code;
+            packedNormals[3 * t + 1] = code;
+            packedNormals[3 * t + 2] = code;
+        } else {
+            for (int k = i; k < i + 9; k += 3) {
+                normals[k] = nx;
+                normals[k + 1] = ny;
+                normals[k + 2] = nz;
+            }
+        }
+    }
+
+    /**
+     * Obtener el array de colores para escribirlo desde varios hilos con
+     * setTriangle (se crea la primera vez)
+     */
+    synchronized int[] getColorsForWrite() {
+        if (colors == null) {
+            colors = new int[Math.max(ntriangles, 16)];
+        }
+        return colors;
+    }
+
+    /**
+     * Obtener una copia de la malla
+     */
+    public SPackedMesh3D getCopy() {
+        return new SPackedMesh3D(this);
+    }
+
+    /**
+     * Añadir un vertice. Devuelve su indice
+     */
+    public int addVertex(float x, float y, float z, float nx, float ny, float nz) {
+        adjacency = null;
+        if (3 * nvertexs + 3 > positions.length) {
+            int capacity = Math.max(2 * positions.length, 3 * nvertexs + 3);
+            positions = Arrays.copyOf(positions, capacity);
+            if (packedNormals != null) {
+                packedNormals = Arrays.copyOf(packedNormals, capacity / 3);
+            } else {
+                normals = Arrays.copyOf(normals, capacity);
+            }
+        }
+        int i = 3 * nvertexs;
+        positions[i] = x;
+        positions[i + 1] = y;
+        positions[i + 2] = z;
+        if (packedNormals != null) {
+            packedNormals[nvertexs] = encodeNormal(nx, ny, nz);
+        } else {
+            normals[i] = nx;
+            normals[i + 1] = ny;
+            normals[i + 2] = nz;
+        }
+        return nvertexs++;
+    }
+
+    /**
+     * Añadir un triangulo indexado
+     */
+    public void addTriangle(int a, int b, int c) {
+        if (indices == null) {
+            throw new IllegalStateException("La malla no es indexada");
+        }
+        adjacency = null;
+        if (3 * ntriangles + 3 > indices.length) {
+            indices = Arrays.copyOf(indices, Math.max(2 * indices.length, 3 * ntriangles + 3));
+        }
+        int i = 3 * ntriangles;
+        indices[i] = a;
+        indices[i + 1] = b;
+        indices[i + 2] = c;
+        ntriangles++;
+        if (colors != null) {
+            ensureColorsCapacity();
+        }
+    }
+
+    /**
+     * Añadir un triangulo con su normal de cara (sopa de triangulos)
+     */
+    public void addTriangle(float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3) {
+        int a = addVertex(x1, y1, z1, nx, ny, nz);
+        int b = addVertex(x2, y2, z2, nx, ny, nz);
+        int c = addVertex(x3, y3, z3, nx, ny, nz);
+        if (indices != null) {
+            addTriangle(a, b, c);
+        } else {
+            ntriangles++;
+            if (colors != null) {
+                ensureColorsCapacity();
+            }
+        }
+    }
+
+    /**
+     * Establecer el color (rgba) del ultimo triangulo añadido
+     */
+    public void setLastColor(int r, int g, int b, int a) {
+        setLastColor((r << 24) | (g << 16) | (b << 8) | a);
+    }
+
+    /**
+     * Establecer el color rgba (r en el byte alto, 0 = styleFill) del ultimo
+     * triangulo añadido
+     */
+    public void setLastColor(int rgba) {
+        setColor(ntriangles - 1, rgba);
+    }
+
+    /**
+     * Establecer el color rgba (0 = styleFill) del triangulo i
+     */
+    public void setColor(int i, int rgba) {
+        if (colors == null) {
+            if (rgba == 0) {
+                return;
+            }
+            colors = new int[Math.max(ntriangles, 16)];
+        }
+        ensureColorsCapacity();
+        colors[i] = rgba;
+    }
+
+    private void ensureColorsCapacity() {
+        if (ntriangles > colors.length) {
+            colors = Arrays.copyOf(colors, Math.max(2 * colors.length, ntriangles));
+        }
+    }
+
+    /**
+     * Añadir al final los triangulos de otra malla del mismo tipo. Los
+     * arrays crecen al menos al doble, asi unir muchas partes es lineal
+     */
+    public void add(SPackedMesh3D mesh) {
+        if ((indices == null) != (mesh.indices == null)) {
+            throw new IllegalArgumentException("No se pueden mezclar mallas indexadas y no indexadas");
+        }
+        adjacency = null;
+        int offset = nvertexs;
+        if (positions.length < 3 * (nvertexs + mesh.nvertexs)) {
+            int capacity = Math.max(2 * positions.length, 3 * (nvertexs + mesh.nvertexs));
+            positions = Arrays.copyOf(positions, capacity);
+            if (packedNormals != null) {
+                packedNormals = Arrays.copyOf(packedNormals, capacity / 3);
+            } else {
+                normals = Arrays.copyOf(normals, capacity);
+            }
+        }
+        System.arraycopy(mesh.positions, 0, positions, 3 * nvertexs, 3 * mesh.nvertexs);
+        if (packedNormals != null && mesh.packedNormals != null) {
+            System.arraycopy(mesh.packedNormals, 0, packedNormals, nvertexs, mesh.nvertexs);
+        } else if (packedNormals != null) {
+            float[] n = mesh.normals;
+            for (int i = 0; i < mesh.nvertexs; i++) {
+                packedNormals[nvertexs + i] = encodeNormal(n[3 * i], n[3 * i + 1], n[3 * i + 2]);
+            }
+        } else if (mesh.packedNormals != null) {
+            for (int i = 0; i < mesh.nvertexs; i++) {
+                decodeNormal(mesh.packedNormals[i], normals, 3 * (nvertexs + i));
+            }
+        } else {
+            System.arraycopy(mesh.normals, 0, normals, 3 * nvertexs, 3 * mesh.nvertexs);
+        }
+        nvertexs += mesh.nvertexs;
+        if (indices != null) {
+            if (indices.length < 3 * (ntriangles + mesh.ntriangles)) {
+                indices = Arrays.copyOf(indices, Math.max(2 * indices.length, 3 * (ntriangles + mesh.ntriangles)));
+            }
+            for (int i = 0; i < 3 * mesh.ntriangles; i++) {
+                indices[3 * ntriangles + i] = mesh.indices[i] + offset;
+            }
+        }
+        int first = ntriangles;
+        ntriangles += mesh.ntriangles;
+        if (mesh.colors != null) {
+            if (colors == null) {
+                colors = new int[Math.max(ntriangles, 16)];
+            }
+            ensureColorsCapacity();
+            System.arraycopy(mesh.colors, 0, colors, first, mesh.ntriangles);
+        } else if (colors != null) {
+            ensureColorsCapacity();
+        }
+    }
+
+    /**
+     * Ajustar los arrays al tamaño real de la malla
+     */
+    public void trim() {
+        adjacency = null;
+        positions = trim(positions, 3 * nvertexs);
+        if (packedNormals != null) {
+            packedNormals = trim(packedNormals, nvertexs);
+        } else {
+            normals = trim(normals, 3 * nvertexs);
+        }
+        if (indices != null) {
+            indices = trim(indices, 3 * ntriangles);
+        }
+        if (colors != null) {
+            colors = trim(colors, ntriangles);
+        }
+    }
+
+    private static float[] trim(float[] array, int length) {
+        return array.length != length ? Arrays.copyOf(array, length) : array;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        return array.length != length ? Arrays.copyOf(array, length) : array;
+    }
+
+    /**
+     * Obtener el numero de vertices
+     */
+    public int getVertexsCount() {
+        return nvertexs;
+    }
+
+    /**
+     * Obtener el numero de triangulos
+     */
+    public int getTrianglesCount() {
+        return ntriangles;
+    }
+
+    /**
+     * Indica si la malla tiene buffer de indices
+     */
+    public boolean isIndexed() {
+        return indices != null;
+    }
+
+    /**
+     * Obtener las posiciones (x,y,z por vertice). El array puede ser mas
+     * largo que 3*getVertexsCount()
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Obtener las normales (x,y,z por vertice). En modo compacto se
+     * decodifican en un array nuevo; para recorrerlas sin crearlo usar
+     * getNormal
+     */
+    public float[] getNormals() {
+        if (packedNormals == null) {
+            return normals;
+        }
+        float[] decoded = new float[3 * nvertexs];
+        for (int i = 0; i < nvertexs; i++) {
+            decodeNormal(packedNormals[i], decoded, 3 * i);
+        }
+        return decoded;
+    }
+
+    /**
+     * Obtener la normal del vertice i
+     */
+    public void getNormal(int i, float[] normal) {
+        if (packedNormals != null) {
+            decodeNormal(packedNormals[i], normal, 0);
+        } else {
+            normal[0] = normals[3 * i];
+            normal[1] = normals[3 * i + 1];
+            normal[2] = normals[3 * i + 2];
+        }
+    }
+
+    /**
+     * Obtener la posicion del vertice i en double
+     */
+    public void getVertex(int i, double[] vertex) {
+        vertex[0] = positions[3 * i];
+        vertex[1] = positions[3 * i + 1];
+        vertex[2] = positions[3 * i + 2];
+    }
+
+    /**
+     * Indica si las normales se guardan codificadas (modo compacto)
+     */
+    public boolean isCompactNormals() {
+        return packedNormals != null;
+    }
+
+    /**
+     * Activar o desactivar el modo compacto: las normales pasan de 12 a 4
+     * bytes por vertice (error angular del orden de 0.01 grados)
+     */
+    public void setCompactNormals(boolean compact) {
+        if (compact == (packedNormals != null)) {
+            return;
+        }
+        if (compact) {
+            int[] encoded = new int[positions.length / 3];
+            for (int i = 0; i < nvertexs; i++) {
+                encoded[i] = encodeNormal(normals[3 * i], normals[3 * i + 1], normals[3 * i + 2]);
+            }
+            packedNormals = encoded;
+            normals = null;
+        } else {
+            float[] decoded = new float[positions.length];
+            for (int i = 0; i < nvertexs; i++) {
+                decodeNormal(packedNormals[i], decoded, 3 * i);
+            }
+            normals = decoded;
+            packedNormals = null;
+        }
+    }
+
+    /**
+     * Codificar una normal en octaedro: se proyecta sobre el octaedro
+     * |x|+|y|+|z| = 1, el hemisferio inferior se pliega sobre el superior y
+     * x,y se guardan como enteros de 16 bits con signo. La normal nula se
+     * guarda con un codigo reservado
+     */
+    static int encodeNormal(float nx, float ny, float nz) {
+        double d = Math.abs(nx) + Math.abs(ny) + Math.abs(nz);
+        if (!(d > 0)) {
+            return NULL_NORMAL;
+        }
+        double x = nx / d, y = ny / d;
+        if (nz < 0) {
+            double fx = (1 - Math.abs(y)) * (x < 0 ? -1 : 1);
+            double fy = (1 - Math.abs(x)) * (y < 0 ? -1 : 1);
+            x = fx;
+            y = fy;
+        }
+        int qx = (int) Math.round(Math.max(-1, Math.min(1, x)) * 32767);
+        int qy = (int) Math.round(Math.max(-1, Math.min(1, y)) * 32767);
+        return (qx & 0xFFFF) | (qy << 16);
+    }
+
+    /**
+     * Decodificar una normal de encodeNormal en normal[offset..offset+2]
+     */
+    static void decodeNormal(int code, float[] normal, int offset) {
+        if (code == NULL_NORMAL) {
+            normal[offset] = normal[offset + 1] = normal[offset + 2] = 0;
+            return;
+        }
+        double x = (short) code / 32767.0;
+        double y = (code >> 16) / 32767.0;
+        double z = 1 - Math.abs(x) - Math.abs(y);
+        if (z < 0) {
+            double fx = (1 - Math.abs(y)) * (x < 0 ? -1 : 1);
+            double fy = (1 - Math.abs(x)) * (y < 0 ? -1 : 1);
+            x = fx;
+            y = fy;
+        }
+        double d = Math.sqrt(x * x + y * y + z * z);
+        normal[offset] = (float) (x / d);
+        normal[offset + 1] = (float) (y / d);
+        normal[offset + 2] = (float) (z / d);
+    }
+
+    /**
+     * Obtener los indices (a,b,c por triangulo) o null
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Obtener los colores rgba por triangulo (0 = styleFill) o null
+     */
+    public int[] getColors() {
+        return colors;
+    }
+
+    /**
+     * Obtener el indice del vertice k (0,1,2) del triangulo i
+     */
+    public int getVertexIndex(int i, int k) {
+        return indices != null ? indices[3 * i + k] : 3 * i + k;
+    }
+
+    /**
+     * Estimacion de los bytes ocupados por la malla
+     */
+    public long getBytes() {
+        long bytes = 4L * (positions.length + (packedNormals != null ? packedNormals.length : normals.length));
+        if (indices != null) {
+            bytes += 4L * indices.length;
+        }
+        if (colors != null) {
+            bytes += 4L * colors.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Trasladar
+     */
+    public void translate(double x, double y, double z) {
+        transform(new double[]{1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z});
+    }
+
+    /**
+     * Rotar alrededor de X (En radianes)
+     */
+    public void rotateX(double rx) {
+        double c = Math.cos(rx), s = Math.sin(rx);
+        transform(new double[]{1, 0, 0, 0, 0, c, -s, 0, 0, s, c, 0});
+    }
+
+    /**
+     * Rotar alrededor de Y (En radianes)
+     */
+    public void rotateY(double ry) {
+        double c = Math.cos(ry), s = Math.sin(ry);
+        transform(new double[]{c, 0, s, 0, 0, 1, 0, 0, -s, 0, c, 0});
+    }
+
+    /**
+     * Rotar alrededor de Z (En radianes)
+     */
+    public void rotateZ(double rz) {
+        double c = Math.cos(rz), s = Math.sin(rz);
+        transform(new double[]{c, -s, 0, 0, s, c, 0, 0, 0, 0, 1, 0});
+    }
+
+    /**
+     * Escalar
+     */
+    public void scale(double fx, double fy, double fz) {
+        transform(new double[]{fx, 0, 0, 0, 0, fy, 0, 0, 0, 0, fz, 0});
+    }
+
+    /**
+     * Aplicar el espejo en X
+     */
+    public void mirrorX(double x) {
+        transform(new double[]{-1, 0, 0, 2 * x, 0, 1, 0, 0, 0, 0, 1, 0});
+    }
+
+    /**
+     * Aplicar el espejo en Y
+     */
+    public void mirrorY(double y) {
+        transform(new double[]{1, 0, 0, 0, 0, -1, 0, 2 * y, 0, 0, 1, 0});
+    }
+
+    /**
+     * Aplicar el espejo en Z
+     */
+    public void mirrorZ(double z) {
+        transform(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, -1, 2 * z});
+    }
+
+    /**
+     * Aplicar una matriz de transformacion homogenea 4x4
+     */
+    public void transform(SMatrix M) {
+        double[] m = new double[12];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                m[4 * i + j] = M.get(i, j);
+            }
+        }
+        transform(m);
+    }
+
+    /**
+     * Aplicar una transformacion afin 3x4 (por filas) en una unica pasada.
+     * Las normales se transforman con la inversa traspuesta y se normalizan;
+     * si la transformacion invierte la orientacion se invierte el orden de
+     * los vertices de cada triangulo. La adyacencia de aristas se conserva
+     * si la transformacion es una semejanza.
+     */
+    public void transform(double[] m) {
+        SEdgeAdjacency current = adjacency;
+        adjacency = null;
+        double[] n = getNormalMatrix(m);
+        float[] normal = packedNormals != null ? new float[3] : normals;
+        for (int i = 0; i < 3 * nvertexs; i += 3) {
+            double x = positions[i], y = positions[i + 1], z = positions[i + 2];
+            positions[i] = (float) (m[0] * x + m[1] * y + m[2] * z + m[3]);
+            positions[i + 1] = (float) (m[4] * x + m[5] * y + m[6] * z + m[7]);
+            positions[i + 2] = (float) (m[8] * x + m[9] * y + m[10] * z + m[11]);
+
+            int j = i;
+            if (packedNormals != null) {
+                decodeNormal(packedNormals[i / 3], normal, 0);
+                j = 0;
+            }
+            double nx = normal[j], ny = normal[j + 1], nz = normal[j + 2];
+            double tx = n[0] * nx + n[1] * ny + n[2] * nz;
+            double ty = n[3] * nx + n[4] * ny + n[5] * nz;
+            double tz = n[6] * nx + n[7] * ny + n[8] * nz;
+            double d = Math.sqrt(tx * tx + ty * ty + tz * tz);
+            if (d > 0) {
+                normal[j] = (float) (tx / d);
+                normal[j + 1] = (float) (ty / d);
+                normal[j + 2] = (float) (tz / d);
+                if (packedNormals != null) {
+                    packedNormals[i / 3] = encodeNormal(normal[0], normal[1], normal[2]);
+                }
+            }
+        }
+        if (getDeterminant(m) < 0) {
+            flipWinding();
+        }
+        if (current != null && current.transform(m)) {
+            adjacency = current; //las semejanzas no cambian los angulos diedros
+        }
+    }
+
+    /**
+     * Determinante de la parte lineal de una transformacion afin 3x4
+     */
+    static double getDeterminant(double[] m) {
+        return m[0] * (m[5] * m[10] - m[6] * m[9])
+                - m[1] * (m[4] * m[10] - m[6] * m[8])
+                + m[2] * (m[4] * m[9] - m[5] * m[8]);
+    }
+
+    /**
+     * Matriz 3x3 (inversa traspuesta salvo escala) para transformar normales
+     */
+    static double[] getNormalMatrix(double[] m) {
+        // cofactores de la parte lineal = det * inversa traspuesta
+        double[] n = new double[9];
+        n[0] = m[5] * m[10] - m[6] * m[9];
+        n[1] = m[6] * m[8] - m[4] * m[10];
+        n[2] = m[4] * m[9] - m[5] * m[8];
+        n[3] = m[2] * m[9] - m[1] * m[10];
+        n[4] = m[0] * m[10] - m[2] * m[8];
+        n[5] = m[1] * m[8] - m[0] * m[9];
+        n[6] = m[1] * m[6] - m[2] * m[5];
+        n[7] = m[2] * m[4] - m[0] * m[6];
+        n[8] = m[0] * m[5] - m[1] * m[4];
+        if (getDeterminant(m) < 0) {
+            for (int i = 0; i < 9; i++) {
+                n[i] = -n[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Invertir el orden de los vertices de todos los triangulos
+     */
+    private void flipWinding() {
+        for (int t = 0; t < ntriangles; t++) {
+            if (indices != null) {
+                int tmp = indices[3 * t + 1];
+                indices[3 * t + 1] = indices[3 * t + 2];
+                indices[3 * t + 2] = tmp;
+            } else {
+                int b = 3 * (3 * t + 1), c = 3 * (3 * t + 2);
+                for (int k = 0; k < 3; k++) {
+                    float tmp = positions[b + k];
+                    positions[b + k] = positions[c + k];
+                    positions[c + k] = tmp;
+                    if (normals != null) {
+                        tmp = normals[b + k];
+                        normals[b + k] = normals[c + k];
+                        normals[c + k] = tmp;
+                    }
+                }
+                if (packedNormals != null) {
+                    int tmp = packedNormals[3 * t + 1];
+                    packedNormals[3 * t + 1] = packedNormals[3 * t + 2];
+                    packedNormals[3 * t + 2] = tmp;
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtener la box
+     */
+    public SBox getBox() {
+        return getBox(Collections.singletonList(this));
+    }
+
+    /**
+     * Obtener la box de un conjunto de mallas
+     */
+    public static SBox getBox(List<SPackedMesh3D> meshes) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (SPackedMesh3D mesh : meshes) {
+            float[] positions = mesh.positions;
+            for (int i = 0; i < 3 * mesh.nvertexs; i += 3) {
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+        }
+        return new SBox(new SPoint3D(minX, minY, minZ), new SPoint3D(maxX, maxY, maxZ));
+    }
+
+    /**
+     * Obtener el estilo de relleno del triangulo i. Los estilos se comparten
+     * entre las caras con el mismo color a traves de la paleta
+     */
+    private SStyle getStyle(int i, SStylePalette palette) {
+        if (colors == null || colors[i] == 0) {
+            return styleFill;
+        }
+        return palette.getStyle(colors[i]);
+    }
+
+    /**
+     * Obtener la paleta con la que se convierten los colores en estilos
+     */
+    private SStylePalette getPalette() {
+        return palette != null ? palette : new SStylePalette();
+    }
+
+    /**
+     * Obtener las caras (adaptador para SObject3D). En las sopas de
+     * triangulos cada vertice lleva la normal de su cara, igual que al
+     * cargar un STL.
+     */
+    public SFaces3D getFaces3D() {
+        if (indices != null) {
+            return getFacesIndexed3D().getFaces3D();
+        }
+        return getFaces3D(getNormals());
+    }
+
+    /**
+     * Obtener las caras de una sopa de triangulos con las normales de
+     * vertice indicadas (9 floats por triangulo). La normal de cada cara es
+     * la de la malla
+     */
+    private SFaces3D getFaces3D(float[] vertexNormals) {
+        SStylePalette styles = getPalette();
+        SFaces3D faces = new SFaces3D();
+        float[] faceNormal = new float[3];
+        for (int t = 0; t < ntriangles; t++) {
+            int i = 9 * t;
+            SFace3D face = new SFace3D();
+            SPoint3D normal = new SPoint3D();
+            getNormal(3 * t, faceNormal);
+            normal.x = faceNormal[0];
+            normal.y = faceNormal[1];
+            normal.z = faceNormal[2];
+            for (int k = 0; k < 9; k += 3) {
+                face.add(new SVertex3D(positions[i + k], positions[i + k + 1], positions[i + k + 2],
+                        vertexNormals[i + k], vertexNormals[i + k + 1], vertexNormals[i + k + 2]));
+            }
+            face.normal = normal;
+            face.styleFill = getStyle(t, styles);
+            faces.add(face);
+        }
+        return faces;
+    }
+
+    /**
+     * Obtener las caras indexadas (solo para mallas indexadas)
+     */
+    public SFacesIndexed3D getFacesIndexed3D() {
+        return getFacesIndexed3D(null);
+    }
+
+    /**
+     * Obtener las caras indexadas con las normales de vertice indicadas (3
+     * floats por vertice, o null para no asignarlas)
+     */
+    private SFacesIndexed3D getFacesIndexed3D(float[] vertexNormals) {
+        if (indices == null) {
+            throw new IllegalStateException("La malla no es indexada");
+        }
+        SVertex3D[] vertexs = new SVertex3D[nvertexs];
+        for (int v = 0; v < nvertexs; v++) {
+            int i = 3 * v;
+            if (vertexNormals != null) {
+                vertexs[v] = new SVertex3D(positions[i], positions[i + 1], positions[i + 2],
+                        vertexNormals[i], vertexNormals[i + 1], vertexNormals[i + 2]);
+            } else {
+                vertexs[v] = new SVertex3D(positions[i], positions[i + 1], positions[i + 2]);
+            }
+        }
+        SStylePalette styles = getPalette();
+        SFacesIndexed facesIndexed = new SFacesIndexed();
+        for (int t = 0; t < ntriangles; t++) {
+            SFaceIndexed faceIndexed = new SFaceIndexed();
+            faceIndexed.add(indices[3 * t]);
+            faceIndexed.add(indices[3 * t + 1]);
+            faceIndexed.add(indices[3 * t + 2]);
+            faceIndexed.styleFill = getStyle(t, styles);
+            facesIndexed.add(faceIndexed);
+        }
+        return new SFacesIndexed3D(vertexs, facesIndexed);
+    }
+
+    /**
+     * Obtener un objeto3D (adaptador). Si procede calcula las normales de
+     * vertices y las aristas
+     */
+    public SObject3D getObject3D(boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+        SFaces3D faces;
+        SLines3D edges;
+        if (indices != null) {
+            SFacesIndexed3D facesIndexed3D = getFacesIndexed3D();
+            edges = facesIndexed3D.computeNormalsAndEdges(enableEdges, enableVertexsNormals, angleLimit);
+            faces = facesIndexed3D.getFaces3D();
+        } else {
+            faces = getFaces3D();
+            edges = faces.computeNormalsAndEdges(enableEdges, enableVertexsNormals, angleLimit);
+        }
+        edges.setStyle(new SStyle(0, 0, 0, 255, 2));
+        return new SObject3D(faces, edges);
+    }
+
+    /**
+     * Obtener un objeto3D calculando las normales de vertices y las aristas
+     * con SEdgeAdjacency (en paralelo) en lugar de computeNormalsAndEdges
+     */
+    public SObject3D getObject3D(boolean enableVertexsNormals, boolean enableEdges, double angleLimit, int parallelism) {
+        return getObject3D(getEdgeAdjacency(parallelism), enableVertexsNormals, enableEdges, angleLimit);
+    }
+
+    /**
+     * Obtener la adyacencia de aristas de la malla. Se calcula la primera vez
+     * y se reutiliza hasta que la malla se modifica
+     */
+    public SEdgeAdjacency getEdgeAdjacency(int parallelism) {
+        SEdgeAdjacency result = adjacency;
+        if (result == null) {
+            synchronized (this) {
+                if (adjacency == null) {
+                    adjacency = new SEdgeAdjacency(this, parallelism);
+                }
+                result = adjacency;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Establecer una adyacencia ya calculada sobre los arrays de esta malla
+     */
+    void setEdgeAdjacency(SEdgeAdjacency adjacency) {
+        this.adjacency = adjacency;
+    }
+
+    /**
+     * Obtener las aristas vivas para angleLimit (en grados) a partir de los
+     * angulos diedros ya calculados, sin rehacer la adyacencia
+     */
+    public SLines3D getEdges(double angleLimit, int parallelism) {
+        SLines3D edges = getEdgeAdjacency(parallelism).getEdges(angleLimit);
+        edges.setStyle(new SStyle(0, 0, 0, 255, 2));
+        return edges;
+    }
+
+    /**
+     * Obtener un objeto3D a partir de la adyacencia ya calculada de esta
+     * malla. En las sopas de triangulos las normales se suavizan solo entre
+     * triangulos que forman un angulo menor que angleLimit; en las mallas
+     * indexadas cada vertice tiene una unica normal
+     */
+    public SObject3D getObject3D(SEdgeAdjacency adjacency, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+        SFaces3D faces;
+        if (indices != null) {
+            faces = getFacesIndexed3D(enableVertexsNormals ? adjacency.getVertexNormals() : getNormals()).getFaces3D();
+        } else {
+            faces = getFaces3D(enableVertexsNormals ? adjacency.getCornerNormals(angleLimit) : getNormals());
+        }
+        SLines3D edges = enableEdges ? adjacency.getEdges(angleLimit) : new SLines3D();
+        edges.setStyle(new SStyle(0, 0, 0, 255, 2));
+        return new SObject3D(faces, edges);
+    }
+
+    /**
+     * Obtener una forma de representacion rapida (sin aristas)
+     */
+    public SShape3D getShape3D() {
+        return new SObject3D(getFaces3D(), new SLines3D()).getShape3D();
+    }
+
+    /**
+     * Construir una malla (sopa de triangulos) a partir de un grupo de caras.
+     * Las caras poligonales se triangulan en abanico
+     */
+    public static SPackedMesh3D fromFaces(SFaces3D faces) {
+        SPackedMesh3D mesh = new SPackedMesh3D(3 * faces.size(), false);
+        for (int i = 0; i < faces.size(); i++) {
+            SFace3D face = faces.get(i);
+            if (face == null || face.size() < 3) {
+                continue;
+            }
+            SPoint3D n = face.normal != null ? face.normal : face.get(0).normal;
+            float nx = n != null ? (float) n.x : 0;
+            float ny = n != null ? (float) n.y : 0;
+            float nz = n != null ? (float) n.z : 0;
+            SVertex3D a = face.get(0);
+            for (int k = 1; k < face.size() - 1; k++) {
+                SVertex3D b = face.get(k);
+                SVertex3D c = face.get(k + 1);
+                mesh.addTriangle(nx, ny, nz,
+                        (float) a.x, (float) a.y, (float) a.z,
+                        (float) b.x, (float) b.y, (float) b.z,
+                        (float) c.x, (float) c.y, (float) c.z);
+            }
+        }
+        mesh.trim();
+        return mesh;
+    }
+
+    /**
+     * Imprimir los datos
+     */
+    public void print() {
+        System.out.println("SPackedMesh3D vertices: " + nvertexs + " triangulos: " + ntriangles + (indices != null ? " (indexada)" : ""));
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * SProgressReader : BufferedReader que cuenta los caracteres leidos con
+ * readLine() y los notifica a un SLoadMonitor, de forma que los cargadores
+ * basados en lineas informan del progreso (y se pueden cancelar) sin
+ * modificar sus bucles.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+class SProgressReader extends BufferedReader {
+
+    private final SLoadMonitor monitor;
+    private long read; //caracteres leidos, incluido el desplazamiento inicial
+
+    /**
+     * Constructor. offset es el trabajo ya realizado en la fase antes de este
+     * lector
+     */
+    SProgressReader(Reader reader, SLoadMonitor monitor, long offset) {
+        super(reader);
+        this.monitor = monitor;
+        this.read = offset;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        String line = super.readLine();
+        if (line != null) {
+            read += line.length() + 1;
+            monitor.worked(read);
+        }
+        return line;
+    }
+}
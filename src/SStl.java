@@ -5,17 +5,28 @@
  */
 package samy.cad; //Computer Aided design
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import samy.scene.SScene;
 import samy.math.SMatrix;
 import samy.math.SNumeric;
 import samy.objects.SBox;
 import samy.objects.SInteger;
-import samy.external.SJava;
 import samy.objects.SStyle;
 import samy.objects2D.SPoint2D;
 import samy.objects3D.SFace3D;
@@ -28,40 +39,129 @@ import samy.objects3D.SShape3D;
 import samy.objects3D.SShapes3D;
 import samy.objects3D.SVertex3D;
 
-public class SStl {
+public class SStl implements AutoCloseable {
 
-    private SObjects3D objects3d;
+    private static final int BINARY_HEADER_SIZE = 84; // 80 de cabecera + 4 del numero de triangulos
+    private static final int BINARY_RECORD_SIZE = 50; // 12*4+2
+    private static final int BINARY_WINDOW_TRIANGLES = 1 << 18; // ~13MB por ventana mapeada
+    private static final long ASCII_CHUNK_SIZE = 4L << 20; // tamaño minimo de cada trozo ascii en paralelo
+
+    private volatile SObjects3D objects3d; //Se construye bajo demanda (ver getObjects)
+    private volatile ArrayList<SFaces3D> solids; //Solidos pendientes de calcular normales y aristas (options.enableLazyNormals)
+    private ArrayList<SPackedMesh3D> meshes; //Solo si options.enablePacked, enableEdgeAdjacency o cache, un elemento por solido
+    private SOffHeapMesh3D offHeap; //Solo si options.enableOffHeap y el stl es binario
+    private volatile SEdgeAdjacency[] adjacencies; //Angulos de las aristas de los objetos si no hay mallas compactas
     private SStyle style = new SStyle(128, 218, 128, 255);
+    private SStylePalette palette = new SStylePalette(); //Colores del atributo de los triangulos, compartida con las copias
+    private SImportOptions options = new SImportOptions();
+    private boolean shared; //meshes y objects3d se comparten con otras instancias (getSharedCopy)
+    private volatile STransform3D transform3d; //Transformacion pendiente de aplicar (ver applyTransform)
+    private SMeshStats stats; //Estadisticas de la geometria sin la transformacion pendiente (null = se calculan bajo demanda)
+    private final AtomicLong decodedTriangles = new AtomicLong();
+    SLoadMonitor monitor = new SLoadMonitor(null, null);
     public SInteger progress;
 
     /**
      * Constructor
      */
     public SStl(String path) {
-        this.loadStl(path, true, true, SObjects3D.angleLimit);
+        this.loadStl(path);
     }
 
     /**
      * Constructor
      */
     public SStl(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit, SInteger progress) {
+        this.options = new SImportOptions(enableVertexsNormals, enableEdges, angleLimit);
+        this.progress = progress;
+        this.loadStl(path);
+    }
+
+    /**
+     * Constructor
+     */
+    public SStl(String path, SImportOptions options, SInteger progress) {
+        this.options = options.getCopy();
         this.progress = progress;
-        this.loadStl(path, enableVertexsNormals, enableEdges, angleLimit);
+        this.loadStl(path);
     }
 
     /**
      * Constructor
      */
     public SStl(String[] lines, boolean enableVertexsNormals, boolean enableEdges, double angleLimit, SInteger progress) {
+        this.options = new SImportOptions(enableVertexsNormals, enableEdges, angleLimit);
         this.progress = progress;
-        this.processStlFile(lines, enableVertexsNormals, enableEdges, angleLimit);
+        this.monitor = new SLoadMonitor(options.listener, progress);
+        try {
+            this.processStlFile(lines);
+        } catch (SLoadCancelledException ex) {
+            this.objects3d = new SObjects3D();
+            this.meshes = null;
+            this.stats = null;
+        }
+    }
+
+    /**
+     * Constructor sin carga (para loadAsync)
+     */
+    private SStl(SImportOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en el executor por defecto (hilos
+     * virtuales si la JVM los tiene)
+     */
+    public static CompletableFuture<SStl> loadAsync(String path, SImportOptions options) {
+        return loadAsync(path, options, null);
+    }
+
+    /**
+     * Cargar el fichero de forma asincrona en executor (o en el executor por
+     * defecto si es null). El CompletableFuture termina con una
+     * CancellationException si se cancela la carga y con una
+     * UncheckedIOException con la causa si no se puede leer el fichero;
+     * cancelarlo interrumpe la carga
+     */
+    public static CompletableFuture<SStl> loadAsync(String path, SImportOptions options, Executor executor) {
+        SImportOptions copy = options.getCopy();
+        return SAsyncLoader.supply(copy.listener, executor, listener -> {
+            copy.listener = listener;
+            SStl stl = new SStl(copy);
+            try {
+                if (!path.toLowerCase().contains(".stl")) {
+                    throw new IOException("not a stl file: " + path);
+                }
+                if (!stl.readStlFile(path)) {
+                    throw new CancellationException("load cancelled: " + path);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return stl;
+        });
     }
 
     /**
      * Constructor de copia
      */
     public SStl(SStl stl) {
-        this.objects3d = stl.objects3d.getCopy();
+        stl.applyTransform();
+        this.options = stl.options.getCopy();
+        this.palette = stl.palette;
+        SMeshStats statsToCopy = stl.stats;
+        this.stats = statsToCopy != null ? statsToCopy.getCopy() : null;
+        if (stl.meshes != null) {
+            this.meshes = new ArrayList<>();
+            for (SPackedMesh3D mesh : stl.meshes) {
+                this.meshes.add(mesh.getCopy());
+            }
+        } else if (stl.offHeap != null) {
+            this.offHeap = stl.offHeap.getCopy();
+        } else {
+            this.objects3d = stl.getObjects().getCopy();
+        }
     }
 
     /**
@@ -78,6 +178,49 @@ public class SStl {
         return new SStl(this);
     }
 
+    /**
+     * Obtener una copia ligera que comparte la geometria (mallas y objetos3d)
+     * con este objeto. La geometria solo se copia cuando una de las
+     * instancias la transforma
+     */
+    public synchronized SStl getSharedCopy() {
+        SStl stl = new SStl(options.getCopy());
+        stl.style = style;
+        applyTransform();
+        stl.objects3d = offHeap != null ? objects3d : getObjects(); //sin construir los objetos de una malla fuera del heap
+        stl.meshes = meshes;
+        stl.offHeap = offHeap != null ? offHeap.getSharedCopy() : null;
+        stl.palette = palette;
+        stl.stats = stats != null ? stats.getCopy() : null;
+        stl.shared = true;
+        this.shared = true;
+        return stl;
+    }
+
+    /**
+     * Copiar la geometria compartida antes de modificarla
+     */
+    private synchronized void copyOnWrite() {
+        if (!shared) {
+            return;
+        }
+        if (meshes != null) {
+            meshes = SMeshList.getCopy(meshes);
+            if (objects3d != null) {
+                objects3d = objects3d.getCopy();
+            }
+        } else if (offHeap != null) {
+            //la malla fuera del heap copia sus bloques al modificarla
+            if (objects3d != null) {
+                objects3d = objects3d.getCopy();
+            }
+        } else {
+            objects3d = getObjects().getCopy();
+        }
+        adjacencies = null;
+        shared = false;
+    }
+
     /**
      * Establecer el valor de la barra de progreso
      */
@@ -90,42 +233,369 @@ public class SStl {
     /**
      * Función de carga para geometrias de tipo *.stl
      */
-    private void loadStl(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+    private void loadStl(String path) {
         String pathInLowercase = path.toLowerCase();
         if (pathInLowercase.contains(".stl")) {
-            loadStlFile(path, enableVertexsNormals, enableEdges, angleLimit);
+            loadStlFile(path);
         }
     }
 
     /**
-     * Función especifica para la carga de ficheros *.stl
+     * Función especifica para la carga de ficheros *.stl. Devuelve false si
+     * no se puede leer el fichero o se cancela la carga
      */
-    protected boolean loadStlFile(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
-        setProgressValue(0);
-        String[] lines = SJava.loadStrings(path);
-        setProgressValue(10);
-        if (lines != null) {
-            if (isBinary(path)) {
-                return processBinaryFile(path, enableVertexsNormals, enableEdges, angleLimit);
-            } else {
-                processStlFile(lines, enableVertexsNormals, enableEdges, angleLimit);
+    protected boolean loadStlFile(String path) {
+        try {
+            return readStlFile(path);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Leer un fichero *.stl. Devuelve false si se cancela la carga y lanza
+     * el error de lectura si no se puede leer
+     */
+    private boolean readStlFile(String path) throws IOException {
+        monitor = new SLoadMonitor(options.listener, progress);
+        FileChannel channel = null;
+        try {
+            // el fichero se abre una sola vez y se pasa al parser que corresponda
+            monitor.startPhase(SLoadPhase.READ, 0, 10, 1);
+            String key = options.cache != null && !options.isOffHeap() ? getCacheKey(path) : null;
+            if (key != null && loadCache(key)) {
                 return true;
             }
-        } else {
-            System.out.println("file" + path + "not found");
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            if (!isBinary(channel)) {
+                processStlFile(channel);
+            } else if (options.isOffHeap()) {
+                processOffHeapFile(channel);
+            } else {
+                processBinaryFile(channel);
+            }
+            if (key != null && meshes != null) {
+                options.cache.write(key, meshes, options.parallelism);
+            }
+            return true;
+        } catch (SLoadCancelledException ex) {
+            objects3d = new SObjects3D();
+            meshes = null;
+            stats = null;
+            return false;
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // nothing to do here
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtener la clave del fichero en options.cache (null si no se puede)
+     */
+    private String getCacheKey(String path) {
+        try {
+            return options.cache.getKey(path, options);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Cargar las mallas ya procesadas de options.cache. Devuelve false si el
+     * fichero no esta en la cache
+     */
+    private boolean loadCache(String key) {
+        ArrayList<SPackedMesh3D> cached = options.cache.read(key, options.parallelism);
+        if (cached == null) {
             return false;
         }
+        monitor.startPhase(SLoadPhase.BUILD, 10, 100, cached.size());
+        for (SPackedMesh3D mesh : cached) {
+            mesh.setCompactNormals(options.enableCompactNormals);
+            mesh.styleFill = style;
+            mesh.palette = palette;
+        }
+        this.meshes = cached;
+        this.solids = null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.stats = SMeshStats.of(cached);
+        this.objects3d = null; //se construye bajo demanda a partir de las mallas
+        monitor.finishPhase();
+        return true;
+    }
+
+    /**
+     * Función especifica para procesar ficheros *.stl ascii leyendo los bytes
+     * del canal con SStlAsciiParser. Si options.enableParallel y el fichero es
+     * grande se reparte en trozos que se procesan en paralelo
+     */
+    private void processStlFile(FileChannel channel) throws IOException {
+        this.objects3d = new SObjects3D();
+        this.meshes = options.isPacked() ? new ArrayList<>() : null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.solids = null;
+        this.stats = new SMeshStats();
+        boolean packed = meshes != null || options.enableWelding;
+        ArrayList<SFaces3D> solids = new ArrayList<>();
+        ArrayList<SPackedMesh3D> packedSolids = new ArrayList<>();
+        long size = channel.size();
+        monitor.startPhase(SLoadPhase.PARSE, 10, 80, size);
+        if (options.enableParallel && options.parallelism > 1 && size >= 2 * ASCII_CHUNK_SIZE) {
+            processStlChunks(channel, size, packed, solids, packedSolids);
+        } else {
+            SStlAsciiParser parser = new SStlAsciiParser(channel, 0, size);
+            SMeshStats parsed = new SMeshStats();
+
+            //Recorremos los solidos del fichero
+            while (parser.nextSolid()) {
+                SFaces3D faces = packed ? null : new SFaces3D();
+                SPackedMesh3D mesh = packed ? new SPackedMesh3D() : null;
+                int nfacets = 0;
+                int nvertexs;
+                while ((nvertexs = parser.nextFacet()) >= 0) {
+                    if (mesh != null) {
+                        addFacet(parser, nvertexs, mesh, parsed);
+                    } else {
+                        faces.add(getFacet(parser, nvertexs, parsed));
+                    }
+                    if ((++nfacets & 0x3FF) == 0) {
+                        monitor.worked(parser.getPosition());
+                    }
+                }
+                if (mesh != null) {
+                    packedSolids.add(mesh);
+                } else {
+                    solids.add(faces);
+                }
+            }
+            addStats(parsed);
+        }
+        if (packed) {
+            addPackedSolids(packedSolids, options.enableWelding);
+        } else {
+            addSolids(solids);
+        }
+    }
+
+    /**
+     * Procesar un *.stl ascii en paralelo: el fichero se corta en trozos de
+     * al menos ASCII_CHUNK_SIZE bytes que empiezan en una palabra "facet", se
+     * procesan en un ForkJoinPool y sus piezas se unen en el orden del fichero,
+     * abriendo un solido nuevo en cada "solid"
+     */
+    private void processStlChunks(FileChannel channel, long size, boolean packed,
+            ArrayList<SFaces3D> solids, ArrayList<SPackedMesh3D> packedSolids) throws IOException {
+        long chunkSize = Math.max(ASCII_CHUNK_SIZE, size / (4L * options.parallelism));
+        ArrayList<SStlAsciiChunk> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : SStlAsciiChunk.alignToFacet(channel, start + chunkSize, size);
+            chunks.add(new SStlAsciiChunk(this, channel, start, end, packed));
+            start = end;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(options.parallelism);
+        ArrayList<Future<SStlAsciiChunk>> results = new ArrayList<>();
+        try {
+            for (SStlAsciiChunk chunk : chunks) {
+                results.add(pool.submit(chunk));
+            }
+            SFaces3D faces = null;
+            SPackedMesh3D mesh = null;
+            long done = 0;
+            for (Future<SStlAsciiChunk> result : results) {
+                SStlAsciiChunk chunk = result.get();
+                for (int i = 0; i < chunk.startsSolid.size(); i++) {
+                    if (chunk.startsSolid.get(i)) {
+                        //empezamos un solido nuevo
+                        if (packed) {
+                            mesh = chunk.meshes.get(i);
+                            packedSolids.add(mesh);
+                        } else {
+                            faces = chunk.faces.get(i);
+                            solids.add(faces);
+                        }
+                    } else if (mesh != null) {
+                        mesh.add(chunk.meshes.get(i));
+                    } else if (faces != null) {
+                        faces.add(chunk.faces.get(i));
+                    }
+                }
+                addStats(chunk.stats);
+                done += chunk.getLength();
+                monitor.worked(done);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Construir la cara leida por el parser y añadirla a las estadisticas.
+     * Como en processStlFile(String[]) la normal se comparte entre la cara y
+     * sus vertices
+     */
+    SFace3D getFacet(SStlAsciiParser parser, int nvertexs, SMeshStats stats) {
+        SFace3D face = new SFace3D();
+        SPoint3D normal = new SPoint3D();
+        normal.x = parser.normal[0];
+        normal.y = parser.normal[1];
+        normal.z = parser.normal[2];
+        double[] v = parser.vertexs;
+        for (int i = 0; i < nvertexs; i++) {
+            SVertex3D vertex = new SVertex3D();
+            vertex.x = v[3 * i];
+            vertex.y = v[3 * i + 1];
+            vertex.z = v[3 * i + 2];
+            vertex.normal = normal;
+            face.add(vertex);
+            face.normal = normal;
+            stats.addVertex(vertex.x, vertex.y, vertex.z);
+        }
+        for (int i = 1; i < nvertexs - 1; i++) {
+            stats.addTriangle(v[0], v[1], v[2],
+                    v[3 * i], v[3 * i + 1], v[3 * i + 2],
+                    v[3 * i + 3], v[3 * i + 4], v[3 * i + 5]);
+        }
+        face.styleFill = style;
+        return face;
+    }
+
+    /**
+     * Añadir la cara leida por el parser a la malla (triangulada en abanico)
+     * y a las estadisticas
+     */
+    void addFacet(SStlAsciiParser parser, int nvertexs, SPackedMesh3D mesh, SMeshStats stats) {
+        float nx = (float) parser.normal[0];
+        float ny = (float) parser.normal[1];
+        float nz = (float) parser.normal[2];
+        double[] v = parser.vertexs;
+        float x1 = (float) v[0], y1 = (float) v[1], z1 = (float) v[2];
+        for (int i = 1; i < nvertexs - 1; i++) {
+            float x2 = (float) v[3 * i], y2 = (float) v[3 * i + 1], z2 = (float) v[3 * i + 2];
+            float x3 = (float) v[3 * i + 3], y3 = (float) v[3 * i + 4], z3 = (float) v[3 * i + 5];
+            mesh.addTriangle(nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3);
+            stats.add(x1, y1, z1, x2, y2, z2, x3, y3, z3);
+        }
+    }
+
+    /**
+     * Añadir los solidos cargados como caras: si procede calculamos las
+     * normales de vertices y las aristas y creamos los objetos3d
+     */
+    private void addSolids(ArrayList<SFaces3D> solids) {
+        if (meshes != null || options.enableWelding) {
+            ArrayList<SPackedMesh3D> packedSolids = new ArrayList<>();
+            for (SFaces3D faces : solids) {
+                packedSolids.add(SPackedMesh3D.fromFaces(faces));
+            }
+            addPackedSolids(packedSolids, options.enableWelding);
+            return;
+        }
+        if (options.enableLazyNormals) {
+            //6. Las normales de vertices y las aristas se calculan al pedir los objetos3d
+            monitor.startPhase(SLoadPhase.BUILD, 90, 100, solids.size());
+            this.solids = solids;
+            this.objects3d = null;
+            monitor.finishPhase();
+            return;
+        }
+
+        //6. Si procede calculamos las normales de vertices y las aristas
+        monitor.startPhase(SLoadPhase.NORMALS_EDGES, 80, 90, solids.size());
+        SLines3D[] edges = new SLines3D[solids.size()];
+        for (int i = 0; i < solids.size(); i++) {
+            edges[i] = solids.get(i).computeNormalsAndEdges(options.enableEdges, options.enableVertexsNormals, options.angleLimit);
+            edges[i].setStyle(new SStyle(0, 0, 0, 255, 2));
+            monitor.worked(i + 1);
+        }
+
+        //7.Creamos los objetos3d
+        monitor.startPhase(SLoadPhase.BUILD, 90, 100, solids.size());
+        for (int i = 0; i < solids.size(); i++) {
+            objects3d.add(new SObject3D(solids.get(i), edges[i]));
+        }
+        monitor.finishPhase();
+    }
+
+    /**
+     * Añadir los solidos cargados como mallas compactas, soldando sus
+     * vertices si procede. Se guardan como mallas si options.enablePacked, o
+     * como objetos3d (calculando normales y aristas) en otro caso
+     */
+    private void addPackedSolids(ArrayList<SPackedMesh3D> solids, boolean weld) {
+        monitor.startPhase(SLoadPhase.NORMALS_EDGES, 80, 90, solids.size());
+        SObject3D[] objects = new SObject3D[solids.size()];
+        boolean welded = options.enableWelding;
+        for (int i = 0; i < solids.size(); i++) {
+            SPackedMesh3D mesh = solids.get(i);
+            if (weld) {
+                SVertexWelder welder = new SVertexWelder(options.weldTolerance, mesh.getVertexsCount() / 6);
+                welder.add(mesh);
+                mesh = welder.getMesh();
+                solids.set(i, mesh);
+                welded = true;
+            } else {
+                mesh.trim();
+            }
+            mesh.setCompactNormals(options.enableCompactNormals);
+            mesh.styleFill = style;
+            mesh.palette = palette;
+            if (meshes == null) {
+                objects[i] = getObject3D(mesh);
+            }
+            monitor.worked(i + 1);
+        }
+
+        monitor.startPhase(SLoadPhase.BUILD, 90, 100, solids.size());
+        for (int i = 0; i < solids.size(); i++) {
+            if (meshes != null) {
+                meshes.add(solids.get(i));
+            } else {
+                objects3d.add(objects[i]);
+            }
+        }
+        if (meshes != null) {
+            objects3d = null; //se construye bajo demanda a partir de las mallas
+        }
+        if (welded) {
+            //la soldadura mueve los vertices hasta tolerance: recalculamos sobre las mallas soldadas
+            stats = SMeshStats.of(solids);
+        }
+        monitor.finishPhase();
     }
 
     /**
      * Función especifica para procesar ficheros *.stl
      */
-    private void processStlFile(String[] lines, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
+    private void processStlFile(String[] lines) {
         this.objects3d = new SObjects3D();
+        this.meshes = options.isPacked() ? new ArrayList<>() : null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.solids = null;
+        this.stats = new SMeshStats();
 
+        ArrayList<SFaces3D> solids = new ArrayList<>();
         String line;
         int lineIndex = 0;
         int nlines = lines.length;
+        monitor.startPhase(SLoadPhase.PARSE, 10, 80, nlines);
 
         //Recorremos el fichero
         while (true) {
@@ -144,7 +614,7 @@ public class SStl {
                     }
                     line = lines[lineIndex];
                     lineIndex++;
-                    setProgressValue((int) (10 + 70 * (float) ((float) lineIndex / (float) nlines)));
+                    monitor.worked(lineIndex);
 
                     //Recorremos la cara
                     SFace3D face = new SFace3D();
@@ -165,7 +635,7 @@ public class SStl {
                             }
                             line = lines[lineIndex];
                             lineIndex++;
-                            setProgressValue((int) (10 + 70 * (float) ((float) lineIndex / (float) nlines)));
+                            monitor.worked(lineIndex);
 
                             //Recorremos los vertices de la cara
                             if (line.contains("outer loop")) {
@@ -193,6 +663,7 @@ public class SStl {
                                     if (line.contains("endloop")) {
                                         face.styleFill = style;
                                         faces.add(face);
+                                        stats.add(face);
                                         break;
                                     }
                                 }
@@ -206,20 +677,10 @@ public class SStl {
                         break;
                     }
                 }
-                //5. Recorremos las lineas
-                setProgressValue(80);
-
-                //6. Si procede calculamos las normales de vertices y las aristas
-                SLines3D edges = faces.computeNormalsAndEdges(enableEdges, enableVertexsNormals, angleLimit);
-                edges.setStyle(new SStyle(0, 0, 0, 255, 2));
-                setProgressValue(90);
-
-                //7.Creamos el objeto3d
-                SObject3D object3d = new SObject3D(faces, edges);
-                objects3d.add(object3d);
-                setProgressValue(100);
+                solids.add(faces);
             }
         }
+        addSolids(solids);
     }
 
     /**
@@ -229,23 +690,16 @@ public class SStl {
      *
      */
     boolean isBinary(String path) {
-        InputStream in = null;
+        FileChannel channel = null;
         try {
-            in = new FileInputStream(path);
-            byte[] header = new byte[80];
-            int readed = in.read(header);
-            in.close();
-            if (readed != 80) {
-                return false;
-            }
-            String solid = new String(header, 0, 5);
-            return !solid.equals("solid");
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            return isBinary(channel);
         } catch (IOException ex) {
             return false;
         } finally {
-            if (in != null) {
+            if (channel != null) {
                 try {
-                    in.close();
+                    channel.close();
                 } catch (IOException ex) {
                     // nothing to do here
                 }
@@ -254,101 +708,478 @@ public class SStl {
     }
 
     /**
-     * Importacion de STL binario la definicion del formato esta en :
-     * https://en.wikipedia.org/wiki/STL_(file_format)
-     *
-     * @param file
-     * @param enableVertexsNormals
-     * @param enableEdges
-     * @param edgesAngleLimit
-     * @param progress
-     * @return
+     * Evalua si el fichero STL es binario leyendo solo la cabecera. Un
+     * fichero cuyo tamaño es exactamente 84 + 50*n (siendo n el numero de
+     * triangulos de la cabecera) es binario aunque su cabecera empiece por
+     * "solid", como hacen algunos exportadores. En otro caso es ascii si
+     * empieza por "solid" y binario (posiblemente truncado) si no.
      */
-    protected boolean processBinaryFile(String path, boolean enableVertexsNormals, boolean enableEdges, double angleLimit) {
-        double nx, ny, nz;
-        double x1, y1, z1;
-        double x2, y2, z2;
-        double x3, y3, z3;
-        byte[] attribute = new byte[2];
-        int ntriangles = 0;
-        int n = 0;
-        this.objects3d = new SObjects3D();
+    static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        int readed = header.position();
+        if (readed == BINARY_HEADER_SIZE) {
+            long ntriangles = header.getInt(80) & 0xFFFFFFFFL;
+            if (BINARY_HEADER_SIZE + BINARY_RECORD_SIZE * ntriangles == channel.size()) {
+                return true;
+            }
+        }
+        if (readed < 5) {
+            return false;
+        }
+        String solid = new String(header.array(), 0, 5, StandardCharsets.US_ASCII);
+        return !solid.equals("solid") && readed == BINARY_HEADER_SIZE;
+    }
 
-        SFaces3D faces = new SFaces3D();
-        InputStream is = null;
+    /**
+     * Recorrer los triangulos de un *.stl (binario o ascii) sin construir
+     * objetos: cada triangulo se pasa al visitor directamente desde el
+     * decodificador, con memoria constante. Las caras ascii de mas de tres
+     * vertices se triangulan en abanico. Devuelve false si el fichero no se
+     * puede leer
+     */
+    public static boolean visitTriangles(String path, STriangleVisitor visitor) {
+        return visitTriangles(path, visitor, null);
+    }
+
+    /**
+     * Recorrer los triangulos de un *.stl notificando el progreso al listener,
+     * que puede cancelar el recorrido (en ese caso devuelve false)
+     */
+    public static boolean visitTriangles(String path, STriangleVisitor visitor, SLoadListener listener) {
+        SLoadMonitor monitor = new SLoadMonitor(listener, null);
+        FileChannel channel = null;
         try {
-            is = new FileInputStream(path);
-            Long skipped = is.skip(80L); // pasamos de la cabecera. 
+            monitor.startPhase(SLoadPhase.READ, 0, 10, 1);
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            boolean result = isBinary(channel) ? visitBinary(channel, visitor, monitor) : visitAscii(channel, visitor, monitor);
+            monitor.finishPhase();
+            return result;
+        } catch (SLoadCancelledException | IOException ex) {
+            return false;
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // nothing to do here
+                }
+            }
+        }
+    }
 
-            ByteBuffer in = ByteBuffer.allocate(4);
+    /**
+     * Recorrer los triangulos de un STL binario por ventanas mapeadas
+     */
+    private static boolean visitBinary(FileChannel channel, STriangleVisitor visitor, SLoadMonitor monitor) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        long ntriangles = header.getInt(80) & 0xFFFFFFFFL;
+        if ((size - BINARY_HEADER_SIZE) / BINARY_RECORD_SIZE != ntriangles) {
+            return false;
+        }
+        monitor.startPhase(SLoadPhase.PARSE, 10, 100, ntriangles);
+        long n = 0;
+        while (n < ntriangles) {
+            int count = (int) Math.min(BINARY_WINDOW_TRIANGLES, ntriangles - n);
+            long offset = BINARY_HEADER_SIZE + n * BINARY_RECORD_SIZE;
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * BINARY_RECORD_SIZE);
             in.order(ByteOrder.LITTLE_ENDIAN);
-            int l = is.read(in.array());
-            ntriangles = in.getInt();
+            for (int i = 0; i < count; i++) {
+                int position = i * BINARY_RECORD_SIZE;
+                visitor.visit(in.getFloat(position), in.getFloat(position + 4), in.getFloat(position + 8),
+                        in.getFloat(position + 12), in.getFloat(position + 16), in.getFloat(position + 20),
+                        in.getFloat(position + 24), in.getFloat(position + 28), in.getFloat(position + 32),
+                        in.getFloat(position + 36), in.getFloat(position + 40), in.getFloat(position + 44),
+                        in.getShort(position + 48) & 0xFFFF);
+                if ((i & 0xFFF) == 0xFFF) {
+                    monitor.worked(n + i + 1);
+                }
+            }
+            n += count;
+            monitor.worked(n);
+        }
+        return true;
+    }
 
-            in = ByteBuffer.allocate(50); // 12*4+2
-            in.order(ByteOrder.LITTLE_ENDIAN);
-            // lee cada triangulo   
-
-            while (is.read(in.array()) == 50) {
-                nx = in.getFloat();
-                ny = in.getFloat();
-                nz = in.getFloat();
-                x1 = in.getFloat();
-                y1 = in.getFloat();
-                z1 = in.getFloat();
-                x2 = in.getFloat();
-                y2 = in.getFloat();
-                z2 = in.getFloat();
-                x3 = in.getFloat();
-                y3 = in.getFloat();
-                z3 = in.getFloat();
-                in.get(attribute);
-                in.position(0);
-                // si ha leido todo, lo metemos en los triangulos.  
-                SFace3D face = new SFace3D();
-                SPoint3D normal = new SPoint3D();
-                normal.x = nx;
-                normal.y = ny;
-                normal.z = nz;
-                SVertex3D vertex1 = new SVertex3D(x1, y1, z1, nx, ny, nz); //TODO: ¿NO sobran las normales dentro de los vertices?
-                SVertex3D vertex2 = new SVertex3D(x2, y2, z2, nx, ny, nz);
-                SVertex3D vertex3 = new SVertex3D(x3, y3, z3, nx, ny, nz);
-                face.add(vertex1);
-                face.add(vertex2);
-                face.add(vertex3);
-                face.normal = normal;
-                face.styleFill = style;
-                faces.add(face);
-                n++;
-                setProgressValue((int) (10 + 70 * (float) ((float) n / (float) ntriangles)));
+    /**
+     * Recorrer los triangulos de un STL ascii con SStlAsciiParser
+     */
+    private static boolean visitAscii(FileChannel channel, STriangleVisitor visitor, SLoadMonitor monitor) throws IOException {
+        long size = channel.size();
+        SStlAsciiParser parser = new SStlAsciiParser(channel, 0, size);
+        monitor.startPhase(SLoadPhase.PARSE, 10, 100, size);
+        int nfacets = 0;
+        while (parser.nextSolid()) {
+            int nvertexs;
+            while ((nvertexs = parser.nextFacet()) >= 0) {
+                float nx = (float) parser.normal[0];
+                float ny = (float) parser.normal[1];
+                float nz = (float) parser.normal[2];
+                double[] v = parser.vertexs;
+                for (int i = 1; i < nvertexs - 1; i++) {
+                    visitor.visit(nx, ny, nz,
+                            (float) v[0], (float) v[1], (float) v[2],
+                            (float) v[3 * i], (float) v[3 * i + 1], (float) v[3 * i + 2],
+                            (float) v[3 * i + 3], (float) v[3 * i + 4], (float) v[3 * i + 5],
+                            0);
+                }
+                if ((++nfacets & 0x3FF) == 0) {
+                    monitor.worked(parser.getPosition());
+                }
             }
+        }
+        return true;
+    }
+
+    /**
+     * Importacion de STL binario la definicion del formato esta en :
+     * https://en.wikipedia.org/wiki/STL_(file_format)
+     *
+     * El fichero se mapea en memoria por ventanas de BINARY_WINDOW_TRIANGLES
+     * triangulos, lo que permite leer ficheros de mas de 2GB. Si
+     * options.enableParallel esta activo los rangos de triangulos se
+     * decodifican en un ForkJoinPool y se unen en el orden del fichero.
+     *
+     * @param path
+     * @return
+     */
+    protected boolean processBinaryFile(String path) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            processBinaryFile(channel);
+            return true;
         } catch (IOException ex) {
             return false;
         } finally {
-            if (is != null) {
+            if (channel != null) {
                 try {
-                    is.close();
+                    channel.close();
                 } catch (IOException ex) {
                     // nothing to do here
                 }
             }
         }
+    }
 
-        setProgressValue(80);
-        if (n != ntriangles) { // el resultado tiene que ser consistente entre los triangulos que declara el fichero y los obtenidos.			
-            return false;
+    /**
+     * Importacion de STL binario desde un canal ya abierto. El canal no se
+     * cierra
+     */
+    private void processBinaryFile(FileChannel channel) throws IOException {
+        this.objects3d = new SObjects3D();
+        this.meshes = options.isPacked() ? new ArrayList<>() : null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.solids = null;
+        this.stats = new SMeshStats();
+
+        SFaces3D faces = null;
+        SPackedMesh3D mesh = null;
+        SVertexWelder welder = null;
+        long size = channel.size();
+        if (size < BINARY_HEADER_SIZE) {
+            throw new IOException("truncated binary stl: " + size + " bytes");
         }
 
-        //6. Si procede calculamos las normales de vertices y las aristas
-        SLines3D edges = faces.computeNormalsAndEdges(enableEdges, enableVertexsNormals, angleLimit);
-        edges.setStyle(new SStyle(0, 0, 0, 255, 2));
-        setProgressValue(90);
-
-        //7.Creamos el objeto3d
-        SObject3D object3d = new SObject3D(faces, edges);
-        objects3d.add(object3d);
-        setProgressValue(100);
-        return true;
+        // pasamos de la cabecera y leemos el numero de triangulos (uint32)
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        long ntriangles = header.getInt(80) & 0xFFFFFFFFL;
+
+        // el resultado tiene que ser consistente entre los triangulos que declara el fichero y los obtenidos.
+        long nrecords = (size - BINARY_HEADER_SIZE) / BINARY_RECORD_SIZE;
+        if (nrecords != ntriangles) {
+            throw new IOException("truncated binary stl: " + ntriangles + " triangles declared, " + nrecords + " found");
+        }
+
+        // destino de los triangulos: soldadura, malla compacta o caras
+        if (options.enableWelding) {
+            welder = new SVertexWelder(options.weldTolerance, (int) Math.min(ntriangles / 2, 1 << 20)); //la tabla y la malla crecen si hace falta
+        } else if (meshes != null) {
+            //la cabecera da el tamaño final: cada rango se escribe en su sitio
+            mesh = SPackedMesh3D.createSoup((int) Math.min(ntriangles, Integer.MAX_VALUE), options.enableCompactNormals);
+            mesh.palette = palette;
+        } else {
+            faces = new SFaces3D();
+        }
+
+        decodedTriangles.set(0);
+        monitor.startPhase(SLoadPhase.PARSE, 10, 80, ntriangles);
+        if (options.enableParallel && ntriangles > SStlBinaryTask.LEAF_TRIANGLES) {
+            // decodificamos los rangos en paralelo: en la malla compacta
+            // cada hoja escribe en su sitio; las caras y la soldadura se
+            // unen en orden
+            int nparts = SStlBinaryTask.getPartsCount(ntriangles);
+            SPackedMesh3D[] meshParts = mesh == null && faces == null ? new SPackedMesh3D[nparts] : null;
+            SFaces3D[] faceParts = faces != null ? new SFaces3D[nparts] : null;
+            ForkJoinPool pool = new ForkJoinPool(options.parallelism);
+            try {
+                pool.invoke(new SStlBinaryTask(this, channel, mesh, meshParts, faceParts, 0, nparts, ntriangles));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            } finally {
+                pool.shutdown();
+            }
+            for (int i = 0; i < nparts && mesh == null; i++) {
+                if (faces != null) {
+                    faces.add(faceParts[i]);
+                } else {
+                    welder.add(meshParts[i]);
+                    meshParts[i] = null;
+                }
+            }
+        } else {
+            // lee cada ventana de triangulos de forma secuencial
+            long n = 0;
+            while (n < ntriangles) {
+                int count = (int) Math.min(BINARY_WINDOW_TRIANGLES, ntriangles - n);
+                if (mesh != null) {
+                    decodeBinaryRange(channel, n, count, mesh, (int) n);
+                } else {
+                    collectBinaryPart(decodeBinaryRange(channel, n, count), welder, faces);
+                }
+                n += count;
+            }
+        }
+        if (welder != null) {
+            mesh = welder.getMesh();
+        }
+        if (mesh != null) {
+            ArrayList<SPackedMesh3D> solids = new ArrayList<>();
+            solids.add(mesh);
+            addPackedSolids(solids, false);
+        } else {
+            ArrayList<SFaces3D> solids = new ArrayList<>();
+            solids.add(faces);
+            addSolids(solids);
+        }
+    }
+
+    /**
+     * Añade un bloque de triangulos decodificado a su destino
+     */
+    private void collectBinaryPart(SPackedMesh3D part, SVertexWelder welder, SFaces3D faces) {
+        if (welder != null) {
+            welder.add(part);
+        } else {
+            faces.add(part.getFaces3D());
+        }
+    }
+
+    /**
+     * Decodifica count triangulos a partir del triangulo first en una malla
+     * nueva. Es seguro llamarlo desde varios hilos sobre el mismo canal.
+     */
+    SPackedMesh3D decodeBinaryRange(FileChannel channel, long first, int count) throws IOException {
+        SPackedMesh3D mesh = SPackedMesh3D.createSoup(count, false);
+        mesh.styleFill = style;
+        mesh.palette = palette;
+        decodeBinaryRange(channel, first, count, mesh, 0);
+        return mesh;
+    }
+
+    /**
+     * Decodifica count triangulos a partir del triangulo first en los
+     * triangulos [offset, offset + count) de una sopa creada con
+     * SPackedMesh3D.createSoup. Es seguro llamarlo desde varios hilos sobre
+     * el mismo canal y la misma malla con rangos distintos.
+     */
+    void decodeBinaryRange(FileChannel channel, long first, int count, SPackedMesh3D mesh, int offset) throws IOException {
+        SMeshStats part = new SMeshStats();
+        int[] colors = null;
+        long position = BINARY_HEADER_SIZE + first * BINARY_RECORD_SIZE;
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * BINARY_RECORD_SIZE);
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            if ((i & 0xFFF) == 0xFFF) {
+                // avisamos cada 4096 triangulos
+                monitor.checkCancelled();
+                monitor.worked(decodedTriangles.addAndGet(0x1000));
+            }
+            decodeBinaryTriangle(in, i * BINARY_RECORD_SIZE, mesh, offset + i, part);
+            if (options.enableColors) {
+                int rgba = SStylePalette.getAttributeColor(in.getShort(i * BINARY_RECORD_SIZE + 48) & 0xFFFF);
+                if (rgba != 0) {
+                    if (colors == null) {
+                        colors = mesh.getColorsForWrite();
+                    }
+                    colors[offset + i] = rgba;
+                }
+            }
+        }
+        monitor.worked(decodedTriangles.addAndGet(count & 0xFFF));
+        addStats(part);
+    }
+
+    /**
+     * Decodifica el registro de 50 bytes (12 floats + 2 bytes de atributo)
+     * que empieza en la posicion indicada del buffer, lo escribe en el
+     * triangulo t de la malla y lo añade a las estadisticas
+     */
+    private void decodeBinaryTriangle(ByteBuffer in, int position, SPackedMesh3D mesh, int t, SMeshStats stats) {
+        float x1 = in.getFloat(position + 12), y1 = in.getFloat(position + 16), z1 = in.getFloat(position + 20);
+        float x2 = in.getFloat(position + 24), y2 = in.getFloat(position + 28), z2 = in.getFloat(position + 32);
+        float x3 = in.getFloat(position + 36), y3 = in.getFloat(position + 40), z3 = in.getFloat(position + 44);
+        mesh.setTriangle(t, in.getFloat(position), in.getFloat(position + 4), in.getFloat(position + 8),
+                x1, y1, z1, x2, y2, z2, x3, y3, z3);
+        stats.add(x1, y1, z1, x2, y2, z2, x3, y3, z3);
+    }
+
+    /**
+     * Importacion de STL binario fuera del heap (options.enableOffHeap): los
+     * registros de las ventanas mapeadas se copian directamente en un
+     * SOffHeapMesh3D, en paralelo si options.enableParallel. Los objetos3d se
+     * construyen solo si se piden
+     */
+    private void processOffHeapFile(FileChannel channel) throws IOException {
+        this.objects3d = null;
+        this.meshes = null;
+        this.adjacencies = null;
+        this.transform3d = null;
+        this.solids = null;
+        this.stats = new SMeshStats();
+
+        long size = channel.size();
+        if (size < BINARY_HEADER_SIZE) {
+            throw new IOException("truncated binary stl: " + size + " bytes");
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        long ntriangles = header.getInt(80) & 0xFFFFFFFFL;
+        long nrecords = (size - BINARY_HEADER_SIZE) / BINARY_RECORD_SIZE;
+        if (nrecords != ntriangles) {
+            throw new IOException("truncated binary stl: " + ntriangles + " triangles declared, " + nrecords + " found");
+        }
+
+        SOffHeapMesh3D mesh = new SOffHeapMesh3D(ntriangles);
+        decodedTriangles.set(0);
+        monitor.startPhase(SLoadPhase.PARSE, 10, 100, ntriangles);
+        boolean loaded = false;
+        try {
+            if (options.enableParallel && options.parallelism > 1 && ntriangles > BINARY_WINDOW_TRIANGLES) {
+                ForkJoinPool pool = new ForkJoinPool(options.parallelism);
+                ArrayList<Future<?>> results = new ArrayList<>();
+                try {
+                    for (long first = 0; first < ntriangles; first += BINARY_WINDOW_TRIANGLES) {
+                        long start = first;
+                        int count = (int) Math.min(BINARY_WINDOW_TRIANGLES, ntriangles - first);
+                        results.add(pool.submit(() -> {
+                            copyOffHeapRange(channel, mesh, start, count);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> result : results) {
+                        result.get();
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ex);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+                } finally {
+                    pool.shutdownNow();
+                }
+            } else {
+                for (long first = 0; first < ntriangles; first += BINARY_WINDOW_TRIANGLES) {
+                    copyOffHeapRange(channel, mesh, first, (int) Math.min(BINARY_WINDOW_TRIANGLES, ntriangles - first));
+                }
+            }
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                mesh.close();
+            }
+        }
+        if (offHeap != null) {
+            offHeap.close();
+        }
+        offHeap = mesh;
+        monitor.finishPhase();
+    }
+
+    /**
+     * Copiar count registros a partir del triangulo first en la malla fuera
+     * del heap. Es seguro llamarlo desde varios hilos para rangos distintos
+     */
+    private void copyOffHeapRange(FileChannel channel, SOffHeapMesh3D mesh, long first, int count) throws IOException {
+        SMeshStats part = new SMeshStats();
+        long offset = BINARY_HEADER_SIZE + first * BINARY_RECORD_SIZE;
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * BINARY_RECORD_SIZE);
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            if ((i & 0xFFF) == 0xFFF) {
+                monitor.checkCancelled();
+                monitor.worked(decodedTriangles.addAndGet(0x1000));
+            }
+            mesh.setBinaryRecord(first + i, in, i * BINARY_RECORD_SIZE, part);
+        }
+        monitor.worked(decodedTriangles.addAndGet(count & 0xFFF));
+        addStats(part);
+    }
+
+    /**
+     * Unir las estadisticas de una parte decodificada (desde cualquier hilo)
+     */
+    private synchronized void addStats(SMeshStats part) {
+        if (stats != null) {
+            stats.add(part);
+        }
+    }
+
+    /**
+     * Obtener la transformacion pendiente para componer una nueva. Las
+     * transformaciones no recorren los vertices: se acumulan y se aplican
+     * en una sola pasada cuando se lee la geometria (applyTransform)
+     */
+    private synchronized STransform3D deferTransform() {
+        copyOnWrite();
+        if (transform3d == null) {
+            transform3d = new STransform3D();
+        }
+        return transform3d;
+    }
+
+    /**
+     * Aplicar a la geometria la transformacion pendiente en una unica pasada
+     */
+    private synchronized void applyTransform() {
+        STransform3D transform = transform3d;
+        if (transform == null) {
+            return;
+        }
+        transform3d = null;
+        if (transform.isIdentity()) {
+            return;
+        }
+        if (stats != null) {
+            stats.transform(transform);
+        }
+        if (meshes != null) {
+            SMeshList.transform(transform, meshes, objects3d);
+        } else if (offHeap != null) {
+            offHeap.transform(transform.getMatrix());
+            if (objects3d != null) {
+                objects3d.transform(transform.getSMatrix());
+            }
+            adjacencies = null;
+        } else {
+            if (objects3d == null) {
+                objects3d = buildObjects();
+            }
+            objects3d.transform(transform.getSMatrix());
+            adjacencies = null;
+        }
     }
 
     /**
@@ -376,42 +1207,42 @@ public class SStl {
      * Trasladar
      */
     public void translate(double x, double y, double z) {
-        this.objects3d.translate(x, y, z);
+        deferTransform().translate(x, y, z);
     }
 
     /**
      * Rotar alrededor de X (En radianes)
      */
     public void rotateX(double rx) {
-        this.objects3d.rotateX(rx);
+        deferTransform().rotateX(rx);
     }
 
     /**
      * Rotar alrededor de Y (En radianes)
      */
     public void rotateY(double ry) {
-        this.objects3d.rotateY(ry);
+        deferTransform().rotateY(ry);
     }
 
     /**
      * Rotar alrededor de Z (En radianes)
      */
     public void rotateZ(double rz) {
-        this.objects3d.rotateZ(rz);
+        deferTransform().rotateZ(rz);
     }
 
     /**
      * Escalar
      */
     public void scale(double fx, double fy, double fz) {
-        this.objects3d.scale(fx, fy, fz);
+        deferTransform().scale(fx, fy, fz);
     }
 
     /**
      * Aplicar una matriz de transformacion
      */
     public void transform(SMatrix M) {
-        this.objects3d.transform(M);
+        deferTransform().transform(M);
     }
 
     /**
@@ -446,20 +1277,103 @@ public class SStl {
      * Establecer el estilo de las aristas
      */
     public void setStyleEdges(SStyle style) {
-        objects3d.setStyleEdges(style);
+        copyOnWrite();
+        getObjects().setStyleEdges(style);
     }
 
     /**
      * Obtener la box
      */
     public SBox getBox() {
-        return objects3d.getBox();
+        SMeshStats current = getStats(false);
+        if (!current.isEmpty()) {
+            return current.getBox();
+        }
+        if (meshes != null) {
+            return SPackedMesh3D.getBox(meshes);
+        }
+        ArrayList<SFaces3D> pending = solids;
+        if (pending != null) {
+            return getBox(pending);
+        }
+        return getObjects().getBox();
+    }
+
+    /**
+     * Obtener las estadisticas de la geometria (box, triangulos, area y
+     * volumen). Se acumulan al cargar el fichero y las transformaciones
+     * pendientes se aplican de forma analitica; solo se recorren los vertices
+     * si una transformacion no lo permite (giros que no son de 90 grados o
+     * escalados no uniformes)
+     */
+    public SMeshStats getStats() {
+        return getStats(true);
+    }
+
+    /**
+     * Obtener las estadisticas con la box exacta y, si needArea, con el area
+     */
+    private synchronized SMeshStats getStats(boolean needArea) {
+        SMeshStats result = SMeshList.getStats(stats, transform3d, needArea);
+        if (result != null) {
+            return result;
+        }
+        applyTransform();
+        if (!SMeshList.isComplete(stats, needArea)) {
+            stats = computeStats();
+        }
+        return stats.getCopy();
+    }
+
+    /**
+     * Calcular las estadisticas recorriendo la geometria
+     */
+    private SMeshStats computeStats() {
+        if (meshes != null) {
+            return SMeshStats.of(meshes);
+        }
+        if (offHeap != null) {
+            return offHeap.getStats();
+        }
+        ArrayList<SFaces3D> pending = solids;
+        if (pending != null) {
+            SMeshStats result = new SMeshStats();
+            for (SFaces3D faces : pending) {
+                result.add(faces);
+            }
+            return result;
+        }
+        return SMeshList.getStats(getObjects());
+    }
+
+    /**
+     * Obtener la box de los vertices de varios grupos de caras
+     */
+    private static SBox getBox(ArrayList<SFaces3D> solids) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        for (SFaces3D faces : solids) {
+            for (int i = 0; i < faces.size(); i++) {
+                SFace3D face = faces.get(i);
+                for (int k = 0; k < face.size(); k++) {
+                    SVertex3D v = face.get(k);
+                    minX = Math.min(minX, v.x);
+                    minY = Math.min(minY, v.y);
+                    minZ = Math.min(minZ, v.z);
+                    maxX = Math.max(maxX, v.x);
+                    maxY = Math.max(maxY, v.y);
+                    maxZ = Math.max(maxZ, v.z);
+                }
+            }
+        }
+        return new SBox(new SPoint3D(minX, minY, minZ), new SPoint3D(maxX, maxY, maxZ));
     }
 
     /**
      * Obtener un objeto3D
      */
     public SFaces3D getFaces3D() {
+        SObjects3D objects3d = getObjects();
         SFaces3D faces = new SFaces3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -474,6 +1388,7 @@ public class SStl {
      * Obtener las aristas
      */
     public SLines3D getEdges() {
+        SObjects3D objects3d = getObjects();
         SLines3D edges = new SLines3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -488,13 +1403,39 @@ public class SStl {
      * Obtener una forma de representacion rapida
      */
     public SShape3D getShape3D() {
-        return objects3d.getShape3D();
+        applyTransform();
+        if (meshes != null && objects3d == null) {
+            SShape3D shape = new SShape3D();
+            for (SPackedMesh3D mesh : meshes) {
+                shape.add(mesh.getShape3D());
+            }
+            return shape;
+        }
+        ArrayList<SFaces3D> pending = solids;
+        if (pending != null) {
+            //sin aristas, no hace falta calcularlas para la vista previa
+            SShape3D shape = new SShape3D();
+            for (SFaces3D faces : pending) {
+                shape.add(new SObject3D(faces, new SLines3D()).getShape3D());
+            }
+            return shape;
+        }
+        return getObjects().getShape3D();
     }
 
     /**
      * Obtener las formas de representacion rapida
      */
     public SShapes3D getShapes3D() {
+        applyTransform();
+        if (meshes != null && objects3d == null) {
+            SShapes3D shapes = new SShapes3D();
+            for (SPackedMesh3D mesh : meshes) {
+                shapes.add(mesh.getShape3D());
+            }
+            return shapes;
+        }
+        SObjects3D objects3d = getObjects();
         SShapes3D shapes = new SShapes3D();
         for (int i = 0; i < objects3d.size(); i++) {
             SObject3D object3d = objects3d.get(i);
@@ -506,23 +1447,174 @@ public class SStl {
     }
 
     /**
-     * Obtener los objetos 3D
+     * Obtener los objetos 3D. Si se han cargado como mallas compactas o con
+     * options.enableLazyNormals se construyen (calculando normales y aristas)
+     * la primera vez que se piden; es seguro llamarlo desde varios hilos
      */
     public SObjects3D getObjects() {
-        return this.objects3d;
+        SObjects3D objects = objects3d;
+        if (objects == null || transform3d != null) {
+            synchronized (this) {
+                applyTransform();
+                if (objects3d == null) {
+                    objects3d = buildObjects();
+                }
+                objects = objects3d;
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Construir los objetos 3D a partir de las mallas compactas o de los
+     * solidos pendientes
+     */
+    private SObjects3D buildObjects() {
+        SObjects3D objects = new SObjects3D();
+        if (meshes != null) {
+            for (SPackedMesh3D mesh : meshes) {
+                objects.add(getObject3D(mesh));
+            }
+        } else if (offHeap != null) {
+            SPackedMesh3D mesh = offHeap.getPackedMesh(options.enableColors);
+            mesh.styleFill = style;
+            mesh.palette = palette;
+            objects.add(getObject3D(mesh));
+        } else if (solids != null) {
+            for (SFaces3D faces : solids) {
+                SLines3D edges = faces.computeNormalsAndEdges(options.enableEdges, options.enableVertexsNormals, options.angleLimit);
+                edges.setStyle(new SStyle(0, 0, 0, 255, 2));
+                objects.add(new SObject3D(faces, edges));
+            }
+            solids = null;
+        }
+        return objects;
+    }
+
+    /**
+     * Obtener el objeto3D de una malla compacta, con SEdgeAdjacency si
+     * options.enableEdgeAdjacency o hay cache
+     */
+    private SObject3D getObject3D(SPackedMesh3D mesh) {
+        if (options.isEdgeAdjacency()) {
+            return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit, options.parallelism);
+        }
+        return mesh.getObject3D(options.enableVertexsNormals, options.enableEdges, options.angleLimit);
+    }
+
+    /**
+     * Obtener las aristas vivas de cada objeto para angleLimit (en grados)
+     * sin volver a leer el fichero. Los angulos diedros de las aristas se
+     * calculan una sola vez (SEdgeAdjacency) y cada llamada solo los filtra
+     */
+    public ArrayList<SLines3D> getEdges(double angleLimit) {
+        applyTransform();
+        if (meshes != null) {
+            return SMeshList.getEdges(meshes, angleLimit, options.parallelism);
+        }
+        return SMeshList.getEdges(getEdgeAdjacencies(), angleLimit);
+    }
+
+    /**
+     * Cambiar el angulo limite (en grados) de las aristas vivas. Si los
+     * objetos ya estan construidos se sustituyen solo sus aristas
+     */
+    public synchronized void setAngleLimit(double angleLimit) {
+        applyTransform();
+        options.angleLimit = angleLimit;
+        SObjects3D objects = objects3d;
+        if (objects == null || !options.enableEdges) {
+            return; //se usara el nuevo angulo al construir los objetos
+        }
+        objects3d = SMeshList.setEdges(objects, getEdges(angleLimit));
+    }
+
+    /**
+     * Obtener la adyacencia de aristas de cada objeto cuando no se han
+     * cargado mallas compactas. Se calcula la primera vez a partir de las
+     * caras de los objetos y se descarta al transformarlos
+     */
+    private SEdgeAdjacency[] getEdgeAdjacencies() {
+        SEdgeAdjacency[] result = adjacencies;
+        if (result == null) {
+            synchronized (this) {
+                if (adjacencies == null) {
+                    adjacencies = SMeshList.getEdgeAdjacencies(getObjects(), options.parallelism);
+                }
+                result = adjacencies;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Obtener las mallas compactas (una por solido). Solo estan disponibles
+     * si se ha cargado con options.enablePacked (o enableEdgeAdjacency o
+     * cache), en otro caso devuelve null
+     */
+    public ArrayList<SPackedMesh3D> getMeshes() {
+        applyTransform();
+        return this.meshes;
+    }
+
+    /**
+     * Guardar la geometria en un *.stl binario
+     */
+    public boolean saveStl(String path) {
+        applyTransform();
+        SStlWriter writer = new SStlWriter();
+        writer.palette = palette;
+        if (meshes != null) {
+            return writer.writeMeshes(path, meshes);
+        }
+        if (offHeap != null) {
+            return writer.write(path, offHeap);
+        }
+        ArrayList<SFaces3D> pending = solids;
+        if (pending != null) {
+            return writer.writeFaces(path, pending);
+        }
+        return writer.write(path, getObjects());
+    }
+
+    /**
+     * Obtener la malla fuera del heap (null si no se ha cargado con
+     * options.enableOffHeap)
+     */
+    public SOffHeapMesh3D getOffHeapMesh() {
+        applyTransform();
+        return offHeap;
+    }
+
+    /**
+     * Soltar la malla fuera del heap (options.enableOffHeap) para que el
+     * recolector libere su memoria. Si la malla se comparte con copias ligeras
+     * (getSharedCopy) la memoria sigue en uso hasta cerrar la ultima
+     */
+    @Override
+    public synchronized void close() {
+        if (offHeap == null) {
+            return;
+        }
+        offHeap.close();
+        offHeap = null;
+        objects3d = new SObjects3D();
+        adjacencies = null;
+        transform3d = null;
+        stats = null;
     }
 
     /**
      * Dibuja la geometría 3d
      */
     public void draw(SScene scene) {
-        objects3d.draw(scene);
+        getObjects().draw(scene);
     }
 
     /**
      * Imprimir los datos
      */
     public void print() {
-        objects3d.print();
+        getObjects().print();
     }
 }
@@ -0,0 +1,130 @@
+/**
+ * SStlAsciiChunk : Trozo de un STL ascii que se procesa en paralelo. El trozo
+ * empieza en una palabra "facet" (salvo el primero, que empieza en el inicio
+ * del fichero) y se divide en piezas: cada "solid" que aparece dentro del
+ * trozo abre una pieza nueva. La primera pieza de los trozos siguientes
+ * continua el solido del trozo anterior.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import samy.objects3D.SFaces3D;
+
+class SStlAsciiChunk implements Callable<SStlAsciiChunk> {
+
+    private final SStl stl;
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final boolean packed;
+
+    final ArrayList<SFaces3D> faces = new ArrayList<>();
+    final ArrayList<SPackedMesh3D> meshes = new ArrayList<>();
+    final ArrayList<Boolean> startsSolid = new ArrayList<>();
+    final SMeshStats stats = new SMeshStats();
+
+    /**
+     * Constructor
+     */
+    SStlAsciiChunk(SStl stl, FileChannel channel, long start, long end, boolean packed) {
+        this.stl = stl;
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.packed = packed;
+    }
+
+    /**
+     * Numero de bytes del trozo
+     */
+    long getLength() {
+        return end - start;
+    }
+
+    @Override
+    public SStlAsciiChunk call() throws IOException {
+        SStlAsciiParser parser = new SStlAsciiParser(channel, start, end);
+        if (start == 0) {
+            //El primer trozo empieza fuera de cualquier solido
+            if (!parser.nextSolid()) {
+                return this;
+            }
+            addPiece(true);
+        } else {
+            addPiece(false);
+        }
+        int nfacets = 0;
+        while (true) {
+            if ((++nfacets & 0x3FF) == 0) {
+                stl.monitor.checkCancelled();
+            }
+            int nvertexs = parser.nextFacet();
+            if (nvertexs >= 0) {
+                if (packed) {
+                    stl.addFacet(parser, nvertexs, meshes.get(meshes.size() - 1), stats);
+                } else {
+                    faces.get(faces.size() - 1).add(stl.getFacet(parser, nvertexs, stats));
+                }
+            } else if (parser.isFinished() || !parser.nextSolid()) {
+                break;
+            } else {
+                addPiece(true);
+            }
+        }
+        return this;
+    }
+
+    private void addPiece(boolean newSolid) {
+        startsSolid.add(newSolid);
+        if (packed) {
+            meshes.add(new SPackedMesh3D());
+        } else {
+            faces.add(new SFaces3D());
+        }
+    }
+
+    /**
+     * Buscar a partir de offset el inicio de la siguiente palabra "facet"
+     * (precedida de un espacio, para no confundirla con "endfacet"). Devuelve
+     * size si no hay ninguna
+     */
+    static long alignToFacet(FileChannel channel, long offset, long size) throws IOException {
+        final byte[] facet = {'f', 'a', 'c', 'e', 't'};
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position = Math.max(offset - 1, 0);
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 1; i + facet.length <= n; i++) {
+                if (bytes[i] == 'f' && isSpace(bytes[i - 1])) {
+                    int k = 1;
+                    while (k < facet.length && bytes[i + k] == facet[k]) {
+                        k++;
+                    }
+                    if (k == facet.length && (i + k == n || isSpace(bytes[i + k]))) {
+                        return position + i;
+                    }
+                }
+            }
+            if (position + n >= size) {
+                break;
+            }
+            position += n - facet.length; //solapamos para no perder palabras partidas
+        }
+        return size;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
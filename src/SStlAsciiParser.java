@@ -0,0 +1,282 @@
+/**
+ * SStlAsciiParser : Tokenizador de STL ascii que trabaja directamente sobre
+ * los bytes del fichero. Reconoce las palabras clave (solid, facet normal,
+ * outer loop, vertex, endloop, endsolid) separadas por cualquier combinacion
+ * de espacios, tabuladores y saltos de linea, y convierte los numeros sin
+ * crear Strings. Lee un rango [start, end) del canal, lo que permite repartir
+ * el fichero en trozos.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class SStlAsciiParser {
+
+    private static final byte[] SOLID = "solid".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENDSOLID = "endsolid".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FACET = "facet".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NORMAL = "normal".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VERTEX = "vertex".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENDLOOP = "endloop".getBytes(StandardCharsets.US_ASCII);
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final FileChannel channel;
+    private final long end;
+    private final ByteBuffer buffer;
+    private long position; //posicion en el fichero del siguiente bloque a leer
+    private final byte[] word = new byte[64];
+    private int wordLength;
+    private int delimiter; //caracter que termino la ultima palabra
+
+    final double[] normal = new double[3];
+    double[] vertexs = new double[9]; //x,y,z de cada vertice de la ultima cara
+
+    /**
+     * Constructor
+     */
+    SStlAsciiParser(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.end = end;
+        this.position = start;
+        this.buffer = ByteBuffer.allocate(1 << 16);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Posicion en el fichero del siguiente byte por procesar
+     */
+    long getPosition() {
+        return position - buffer.remaining();
+    }
+
+    /**
+     * Indica si se ha llegado al final del rango
+     */
+    boolean isFinished() {
+        return position >= end && !buffer.hasRemaining();
+    }
+
+    /**
+     * Avanza hasta el siguiente "solid". Devuelve false al final del rango
+     */
+    boolean nextSolid() throws IOException {
+        while (nextWord()) {
+            if (isWord(SOLID)) {
+                skipLine(); //nombre del solido
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lee la siguiente cara del solido actual (hasta su "endloop"). Deja la
+     * normal en normal y los vertices en vertexs y devuelve el numero de
+     * vertices, o -1 al llegar a "endsolid" o al final del rango
+     */
+    int nextFacet() throws IOException {
+        int nvertexs = 0;
+        boolean inFacet = false;
+        while (nextWord()) {
+            if (isWord(FACET)) {
+                inFacet = true;
+                nvertexs = 0;
+                normal[0] = 0;
+                normal[1] = 0;
+                normal[2] = 0;
+                if (nextWord() && isWord(NORMAL)) {
+                    double nx = nextNumber(), ny = nextNumber(), nz = nextNumber();
+                    if (!Double.isNaN(nx) && !Double.isNaN(ny) && !Double.isNaN(nz)) {
+                        normal[0] = nx;
+                        normal[1] = ny;
+                        normal[2] = nz;
+                    }
+                }
+            } else if (inFacet && isWord(VERTEX)) {
+                if (3 * nvertexs + 3 > vertexs.length) {
+                    vertexs = Arrays.copyOf(vertexs, 2 * vertexs.length);
+                }
+                double x = nextNumber(), y = nextNumber(), z = nextNumber();
+                if (!Double.isNaN(x) && !Double.isNaN(y) && !Double.isNaN(z)) {
+                    vertexs[3 * nvertexs] = x;
+                    vertexs[3 * nvertexs + 1] = y;
+                    vertexs[3 * nvertexs + 2] = z;
+                    nvertexs++;
+                }
+            } else if (inFacet && isWord(ENDLOOP)) {
+                return nvertexs;
+            } else if (isWord(ENDSOLID)) {
+                skipLine();
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Leer el siguiente byte o -1 al final del rango
+     */
+    private int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            if (position >= end) {
+                return -1;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            buffer.flip();
+            if (n <= 0) {
+                return -1;
+            }
+            position += n;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Saltar hasta el final de la linea
+     */
+    private void skipLine() throws IOException {
+        if (delimiter == '\n' || delimiter == -1) {
+            return;
+        }
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != '\n');
+    }
+
+    /**
+     * Leer la siguiente palabra en word. Devuelve false al final del rango
+     */
+    private boolean nextWord() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && isSpace(c));
+        if (c == -1) {
+            wordLength = 0;
+            delimiter = -1;
+            return false;
+        }
+        int n = 0;
+        while (c != -1 && !isSpace(c)) {
+            if (n < word.length) {
+                word[n] = (byte) c;
+            }
+            n++;
+            c = read();
+        }
+        wordLength = Math.min(n, word.length);
+        delimiter = c;
+        return true;
+    }
+
+    private boolean isWord(byte[] keyword) {
+        if (wordLength != keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (word[i] != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Leer la siguiente palabra como numero (NaN si no es un numero)
+     */
+    private double nextNumber() throws IOException {
+        if (!nextWord()) {
+            return Double.NaN;
+        }
+        return parseDouble(word, wordLength);
+    }
+
+    /**
+     * Convertir los bytes en double sin crear Strings. Si la mantisa cabe en
+     * 53 bits y el exponente decimal en [-22, 22] el resultado es exacto
+     * (igual que Double.parseDouble); en otro caso se usa Double.parseDouble.
+     */
+    static double parseDouble(byte[] bytes, int length) {
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int ndigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+            if (ndigits < 18) {
+                mantissa = 10 * mantissa + (bytes[i] - '0');
+                if (mantissa != 0) {
+                    ndigits++;
+                }
+            } else {
+                exponent++;
+            }
+            digits = true;
+            i++;
+        }
+        if (i < length && bytes[i] == '.') {
+            i++;
+            while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+                if (ndigits < 18) {
+                    mantissa = 10 * mantissa + (bytes[i] - '0');
+                    if (mantissa != 0) {
+                        ndigits++;
+                    }
+                    exponent--;
+                }
+                digits = true;
+                i++;
+            }
+        }
+        if (digits && i < length && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int e = 0;
+            boolean exponentDigits = false;
+            while (i < length && bytes[i] >= '0' && bytes[i] <= '9') {
+                if (e < 100000) {
+                    e = 10 * e + (bytes[i] - '0');
+                }
+                exponentDigits = true;
+                i++;
+            }
+            if (!exponentDigits) {
+                digits = false;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (digits && i == length && ndigits < 18 && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(bytes, 0, length, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+}
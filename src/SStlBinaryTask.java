@@ -0,0 +1,81 @@
+/**
+ * SStlBinaryTask : Tarea fork-join que decodifica un rango de triangulos de
+ * un STL binario. Si hay malla destino (una sopa ya reservada para todos los
+ * triangulos) cada hoja escribe sus triangulos en su sitio, sin mallas
+ * intermedias ni union. En otro caso cada hoja deja su resultado en la
+ * posicion que le corresponde de meshParts (o de faceParts si no es null,
+ * convertido a caras), de forma que la union se hace en el orden del fichero.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveAction;
+import samy.objects3D.SFaces3D;
+
+class SStlBinaryTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    static final int LEAF_TRIANGLES = 1 << 16;
+
+    private final transient SStl stl;
+    private final transient FileChannel channel;
+    private final transient SPackedMesh3D target;
+    private final transient SPackedMesh3D[] meshParts;
+    private final transient SFaces3D[] faceParts;
+    private final int firstPart;
+    private final int nparts;
+    private final long ntriangles;
+
+    /**
+     * Constructor. target es la sopa destino (o null para dejar las partes
+     * en meshParts o faceParts)
+     */
+    SStlBinaryTask(SStl stl, FileChannel channel, SPackedMesh3D target, SPackedMesh3D[] meshParts, SFaces3D[] faceParts,
+            int firstPart, int nparts, long ntriangles) {
+        this.stl = stl;
+        this.channel = channel;
+        this.target = target;
+        this.meshParts = meshParts;
+        this.faceParts = faceParts;
+        this.firstPart = firstPart;
+        this.nparts = nparts;
+        this.ntriangles = ntriangles;
+    }
+
+    /**
+     * Numero de hojas necesarias para ntriangles
+     */
+    static int getPartsCount(long ntriangles) {
+        return (int) ((ntriangles + LEAF_TRIANGLES - 1) / LEAF_TRIANGLES);
+    }
+
+    @Override
+    protected void compute() {
+        if (nparts == 1) {
+            long first = (long) firstPart * LEAF_TRIANGLES;
+            int count = (int) Math.min(LEAF_TRIANGLES, ntriangles - first);
+            try {
+                if (target != null) {
+                    stl.decodeBinaryRange(channel, first, count, target, (int) first);
+                    return;
+                }
+                SPackedMesh3D mesh = stl.decodeBinaryRange(channel, first, count);
+                if (faceParts != null) {
+                    faceParts[firstPart] = mesh.getFaces3D();
+                } else {
+                    meshParts[firstPart] = mesh;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        } else {
+            int half = nparts / 2;
+            invokeAll(new SStlBinaryTask(stl, channel, target, meshParts, faceParts, firstPart, half, ntriangles),
+                    new SStlBinaryTask(stl, channel, target, meshParts, faceParts, firstPart + half, nparts - half, ntriangles));
+        }
+    }
+}
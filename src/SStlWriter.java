@@ -0,0 +1,310 @@
+/**
+ * SStlWriter : Clase que permite guardar geometrias en formato *.stl binario.
+ * El numero de triangulos se calcula antes de escribir, las caras de mas de
+ * tres vertices se triangulan en abanico y los registros se escriben a traves
+ * de un ByteBuffer directo de gran tamaño sobre un FileChannel.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import samy.objects3D.SFace3D;
+import samy.objects3D.SFaces3D;
+import samy.objects3D.SObject3D;
+import samy.objects3D.SObjects3D;
+import samy.objects3D.SPoint3D;
+import samy.objects3D.SVertex3D;
+
+public class SStlWriter {
+
+    private static final int HEADER_SIZE = 84; // 80 de cabecera + 4 del numero de triangulos
+    private static final int RECORD_SIZE = 50; // 12*4+2
+    private static final int BUFFER_RECORDS = 1 << 16; // ~3.2MB por escritura
+
+    public String header = "samy.cad SStlWriter"; //Texto de la cabecera (80 bytes como maximo)
+    public SStylePalette palette; //Paleta de los estilos de las caras para guardar su color (null = caras sin color)
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor
+     */
+    public SStlWriter() {
+    }
+
+    /**
+     * Guardar los objetos3d
+     */
+    public boolean write(String path, SObjects3D objects3d) {
+        List<SFaces3D> list = new ArrayList<>();
+        for (int i = 0; i < objects3d.size(); i++) {
+            list.add(objects3d.get(i).getFaces3D());
+        }
+        return writeFaces(path, list);
+    }
+
+    /**
+     * Guardar un objeto3d
+     */
+    public boolean write(String path, SObject3D object3d) {
+        List<SFaces3D> list = new ArrayList<>();
+        list.add(object3d.getFaces3D());
+        return writeFaces(path, list);
+    }
+
+    /**
+     * Guardar un grupo de caras
+     */
+    public boolean write(String path, SFaces3D faces) {
+        List<SFaces3D> list = new ArrayList<>();
+        list.add(faces);
+        return writeFaces(path, list);
+    }
+
+    /**
+     * Guardar una malla compacta
+     */
+    public boolean write(String path, SPackedMesh3D mesh) {
+        List<SPackedMesh3D> list = new ArrayList<>();
+        list.add(mesh);
+        return writeMeshes(path, list);
+    }
+
+    /**
+     * Guardar una malla fuera del heap. Sus registros tienen el formato del
+     * STL binario y se copian al buffer por bloques, sin leer cada float
+     */
+    public boolean write(String path, SOffHeapMesh3D mesh) {
+        try {
+            long ntriangles = mesh.getTrianglesCount();
+            open(path, ntriangles);
+            for (long t = 0; t < ntriangles;) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    flush();
+                }
+                int count = (int) Math.min(buffer.remaining() / RECORD_SIZE, ntriangles - t);
+                mesh.getBinaryRecords(t, count, buffer);
+                t += count;
+            }
+            close();
+            return true;
+        } catch (IOException ex) {
+            abort();
+            return false;
+        }
+    }
+
+    /**
+     * Guardar varios grupos de caras en un unico fichero
+     */
+    public boolean writeFaces(String path, List<SFaces3D> list) {
+        long ntriangles = 0;
+        for (SFaces3D faces : list) {
+            for (int i = 0; i < faces.size(); i++) {
+                ntriangles += Math.max(faces.get(i).size() - 2, 0);
+            }
+        }
+        try {
+            open(path, ntriangles);
+            for (SFaces3D faces : list) {
+                for (int i = 0; i < faces.size(); i++) {
+                    writeFace(faces.get(i));
+                }
+            }
+            close();
+            return true;
+        } catch (IOException ex) {
+            abort();
+            return false;
+        }
+    }
+
+    /**
+     * Guardar varias mallas compactas en un unico fichero
+     */
+    public boolean writeMeshes(String path, List<SPackedMesh3D> list) {
+        long ntriangles = 0;
+        for (SPackedMesh3D mesh : list) {
+            ntriangles += mesh.getTrianglesCount();
+        }
+        try {
+            open(path, ntriangles);
+            for (SPackedMesh3D mesh : list) {
+                writeMesh(mesh);
+            }
+            close();
+            return true;
+        } catch (IOException ex) {
+            abort();
+            return false;
+        }
+    }
+
+    /**
+     * Crear el fichero y escribir la cabecera
+     */
+    private void open(String path, long ntriangles) throws IOException {
+        if (ntriangles > 0xFFFFFFFFL) {
+            throw new IOException("too many triangles for a binary stl: " + ntriangles);
+        }
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] text = header.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 80; i++) {
+            buffer.put(i < text.length ? text[i] : (byte) ' ');
+        }
+        buffer.putInt((int) ntriangles);
+    }
+
+    /**
+     * Escribir lo que queda en el buffer y cerrar el fichero
+     */
+    private void close() throws IOException {
+        flush();
+        channel.close();
+        channel = null;
+        buffer = null;
+    }
+
+    /**
+     * Cerrar el fichero tras un error
+     */
+    private void abort() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing to do here
+            }
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    /**
+     * Escribir el contenido del buffer en el canal
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Escribir un registro de 50 bytes
+     */
+    private void writeTriangle(float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3,
+            int attribute) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+        buffer.putFloat(x1).putFloat(y1).putFloat(z1);
+        buffer.putFloat(x2).putFloat(y2).putFloat(z2);
+        buffer.putFloat(x3).putFloat(y3).putFloat(z3);
+        buffer.putShort((short) attribute);
+    }
+
+    /**
+     * Escribir una cara triangulada en abanico. Si la cara no tiene normal se
+     * calcula a partir de sus tres primeros vertices. Si su estilo de relleno
+     * es de la paleta, el color se guarda en el atributo (VisCAM/SolidView)
+     */
+    private void writeFace(SFace3D face) throws IOException {
+        int n = face.size();
+        if (n < 3) {
+            return;
+        }
+        SVertex3D v0 = face.get(0);
+        double nx, ny, nz;
+        SPoint3D normal = face.normal;
+        if (normal != null) {
+            nx = normal.x;
+            ny = normal.y;
+            nz = normal.z;
+        } else {
+            SVertex3D v1 = face.get(1);
+            SVertex3D v2 = face.get(2);
+            double ax = v1.x - v0.x, ay = v1.y - v0.y, az = v1.z - v0.z;
+            double bx = v2.x - v0.x, by = v2.y - v0.y, bz = v2.z - v0.z;
+            nx = ay * bz - az * by;
+            ny = az * bx - ax * bz;
+            nz = ax * by - ay * bx;
+            double d = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (d > 0) {
+                nx /= d;
+                ny /= d;
+                nz /= d;
+            }
+        }
+        int attribute = palette != null ? SStylePalette.getColorAttribute(palette.getColor(face.styleFill)) : 0;
+        for (int i = 1; i < n - 1; i++) {
+            SVertex3D a = face.get(i);
+            SVertex3D b = face.get(i + 1);
+            writeTriangle((float) nx, (float) ny, (float) nz,
+                    (float) v0.x, (float) v0.y, (float) v0.z,
+                    (float) a.x, (float) a.y, (float) a.z,
+                    (float) b.x, (float) b.y, (float) b.z,
+                    attribute);
+        }
+    }
+
+    /**
+     * Escribir los triangulos de una malla compacta. En una sopa de
+     * triangulos se conserva la normal de la cara; en una malla indexada las
+     * normales son de vertice y la de la cara se calcula. Los colores de los
+     * triangulos se guardan en el atributo (VisCAM/SolidView)
+     */
+    private void writeMesh(SPackedMesh3D mesh) throws IOException {
+        float[] p = mesh.getPositions();
+        float[] normal = new float[3];
+        int[] colors = mesh.getColors();
+        boolean indexed = mesh.isIndexed();
+        for (int t = 0; t < mesh.getTrianglesCount(); t++) {
+            int a = 3 * mesh.getVertexIndex(t, 0);
+            int b = 3 * mesh.getVertexIndex(t, 1);
+            int c = 3 * mesh.getVertexIndex(t, 2);
+            float nx, ny, nz;
+            if (!indexed) {
+                mesh.getNormal(a / 3, normal);
+                nx = normal[0];
+                ny = normal[1];
+                nz = normal[2];
+            } else {
+                float ax = p[b] - p[a], ay = p[b + 1] - p[a + 1], az = p[b + 2] - p[a + 2];
+                float bx = p[c] - p[a], by = p[c + 1] - p[a + 1], bz = p[c + 2] - p[a + 2];
+                nx = ay * bz - az * by;
+                ny = az * bx - ax * bz;
+                nz = ax * by - ay * bx;
+                float d = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (d > 0) {
+                    nx /= d;
+                    ny /= d;
+                    nz /= d;
+                }
+            }
+            writeTriangle(nx, ny, nz,
+                    p[a], p[a + 1], p[a + 2],
+                    p[b], p[b + 1], p[b + 2],
+                    p[c], p[c + 1], p[c + 2],
+                    colors != null ? SStylePalette.getColorAttribute(colors[t]) : 0);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * SStylePalette : Paleta de estilos compartidos. Cada color rgba tiene un
+ * unico SStyle, de forma que las caras del mismo color comparten el estilo en
+ * lugar de crear uno por cara. Se puede usar desde varios hilos.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.concurrent.ConcurrentHashMap;
+import samy.objects.SStyle;
+
+public class SStylePalette {
+
+    private final ConcurrentHashMap<Integer, SStyle> styles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SStyle, Integer> colors = new ConcurrentHashMap<>(); //color rgba de cada estilo de la paleta
+
+    /**
+     * Constructor
+     */
+    public SStylePalette() {
+    }
+
+    /**
+     * Obtener el estilo del color rgba (r en el byte alto, a en el bajo)
+     */
+    public SStyle getStyle(int rgba) {
+        SStyle style = styles.get(rgba);
+        if (style == null) {
+            style = styles.computeIfAbsent(rgba, c -> {
+                SStyle created = new SStyle(c >>> 24, (c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+                colors.put(created, c);
+                return created;
+            });
+        }
+        return style;
+    }
+
+    /**
+     * Obtener el color rgba de un estilo creado por la paleta (0 si el estilo
+     * no es de la paleta, por ejemplo el styleFill por defecto)
+     */
+    public int getColor(SStyle style) {
+        Integer rgba = style != null ? colors.get(style) : null;
+        return rgba != null ? rgba : 0;
+    }
+
+    /**
+     * Obtener el estilo del color r, g, b, a
+     */
+    public SStyle getStyle(int r, int g, int b, int a) {
+        return getStyle((r << 24) | (g << 16) | (b << 8) | a);
+    }
+
+    /**
+     * Obtener el numero de colores de la paleta
+     */
+    public int size() {
+        return styles.size();
+    }
+
+    /**
+     * Convertir el atributo de un STL binario en color rgba segun el formato
+     * de VisCAM/SolidView: bit 15 a 1 si el color es valido y 5 bits para el
+     * azul (bits 0-4), el verde (5-9) y el rojo (10-14). Devuelve 0 si el
+     * atributo no tiene color
+     */
+    public static int getAttributeColor(int attribute) {
+        if ((attribute & 0x8000) == 0) {
+            return 0;
+        }
+        int b = attribute & 0x1F;
+        int g = (attribute >> 5) & 0x1F;
+        int r = (attribute >> 10) & 0x1F;
+        r = (r << 3) | (r >> 2);
+        g = (g << 3) | (g >> 2);
+        b = (b << 3) | (b >> 2);
+        return (r << 24) | (g << 16) | (b << 8) | 0xFF;
+    }
+
+    /**
+     * Convertir un color rgba en el atributo de un STL binario
+     * (VisCAM/SolidView). El color 0 devuelve el atributo 0 (sin color)
+     */
+    public static int getColorAttribute(int rgba) {
+        if (rgba == 0) {
+            return 0;
+        }
+        int r = (rgba >>> 24) >> 3;
+        int g = ((rgba >> 16) & 0xFF) >> 3;
+        int b = ((rgba >> 8) & 0xFF) >> 3;
+        return 0x8000 | (r << 10) | (g << 5) | b;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * STransform3D : Transformacion afin 3D acumulada en una matriz 3x4 (por
+ * filas). Cada operacion se compone con las anteriores en O(1), de modo que
+ * una serie de traslaciones, giros, escalados y espejos se aplica despues a
+ * la geometria en una unica pasada.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.util.Arrays;
+import samy.math.SMatrix;
+import samy.objects3D.SPoint3D;
+
+public class STransform3D {
+
+    private final double[] m = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+
+    /**
+     * Constructor (identidad)
+     */
+    public STransform3D() {
+    }
+
+    /**
+     * Constructor de copia
+     */
+    public STransform3D(STransform3D transform) {
+        System.arraycopy(transform.m, 0, m, 0, 12);
+    }
+
+    /**
+     * Obtener una copia de la transformacion
+     */
+    public STransform3D getCopy() {
+        return new STransform3D(this);
+    }
+
+    /**
+     * Trasladar
+     */
+    public STransform3D translate(double x, double y, double z) {
+        return compose(new double[]{1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z});
+    }
+
+    /**
+     * Rotar alrededor de X (En radianes)
+     */
+    public STransform3D rotateX(double rx) {
+        double c = Math.cos(rx), s = Math.sin(rx);
+        return compose(new double[]{1, 0, 0, 0, 0, c, -s, 0, 0, s, c, 0});
+    }
+
+    /**
+     * Rotar alrededor de Y (En radianes)
+     */
+    public STransform3D rotateY(double ry) {
+        double c = Math.cos(ry), s = Math.sin(ry);
+        return compose(new double[]{c, 0, s, 0, 0, 1, 0, 0, -s, 0, c, 0});
+    }
+
+    /**
+     * Rotar alrededor de Z (En radianes)
+     */
+    public STransform3D rotateZ(double rz) {
+        double c = Math.cos(rz), s = Math.sin(rz);
+        return compose(new double[]{c, -s, 0, 0, s, c, 0, 0, 0, 0, 1, 0});
+    }
+
+    /**
+     * Escalar
+     */
+    public STransform3D scale(double fx, double fy, double fz) {
+        return compose(new double[]{fx, 0, 0, 0, 0, fy, 0, 0, 0, 0, fz, 0});
+    }
+
+    /**
+     * Espejo en X
+     */
+    public STransform3D mirrorX(double x) {
+        return compose(new double[]{-1, 0, 0, 2 * x, 0, 1, 0, 0, 0, 0, 1, 0});
+    }
+
+    /**
+     * Espejo en Y
+     */
+    public STransform3D mirrorY(double y) {
+        return compose(new double[]{1, 0, 0, 0, 0, -1, 0, 2 * y, 0, 0, 1, 0});
+    }
+
+    /**
+     * Espejo en Z
+     */
+    public STransform3D mirrorZ(double z) {
+        return compose(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, -1, 2 * z});
+    }
+
+    /**
+     * Aplicar una matriz de transformacion homogenea 4x4
+     */
+    public STransform3D transform(SMatrix M) {
+        double[] a = new double[12];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                a[4 * i + j] = M.get(i, j);
+            }
+        }
+        return compose(a);
+    }
+
+    /**
+     * Componer la transformacion afin a (3x4 por filas) despues de la actual
+     */
+    public STransform3D compose(double[] a) {
+        double[] r = new double[12];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                r[4 * i + j] = a[4 * i] * m[j] + a[4 * i + 1] * m[4 + j] + a[4 * i + 2] * m[8 + j];
+            }
+            r[4 * i + 3] += a[4 * i + 3];
+        }
+        System.arraycopy(r, 0, m, 0, 12);
+        return this;
+    }
+
+    /**
+     * Indica si la transformacion es la identidad
+     */
+    public boolean isIdentity() {
+        return Arrays.equals(m, new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0});
+    }
+
+    /**
+     * Indica si la transformacion invierte la orientacion (espejos)
+     */
+    public boolean isMirror() {
+        return SPackedMesh3D.getDeterminant(m) < 0;
+    }
+
+    /**
+     * Obtener la matriz 3x4 por filas
+     */
+    public double[] getMatrix() {
+        return m.clone();
+    }
+
+    /**
+     * Obtener la matriz homogenea 4x4
+     */
+    public SMatrix getSMatrix() {
+        return new SMatrix(new double[][]{
+            {m[0], m[1], m[2], m[3]},
+            {m[4], m[5], m[6], m[7]},
+            {m[8], m[9], m[10], m[11]},
+            {0, 0, 0, 1}});
+    }
+
+    /**
+     * Transformar un punto
+     */
+    public SPoint3D getPoint(SPoint3D p) {
+        return new SPoint3D(m[0] * p.x + m[1] * p.y + m[2] * p.z + m[3],
+                m[4] * p.x + m[5] * p.y + m[6] * p.z + m[7],
+                m[8] * p.x + m[9] * p.y + m[10] * p.z + m[11]);
+    }
+
+    /**
+     * Aplicar la transformacion a una malla compacta en una unica pasada
+     */
+    public void apply(SPackedMesh3D mesh) {
+        mesh.transform(m);
+    }
+}
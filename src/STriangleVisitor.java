@@ -0,0 +1,23 @@
+/**
+ * STriangleVisitor : Recibe los triangulos de un fichero a medida que se
+ * decodifican (ver SStl.visitTriangles), sin construir caras ni objetos. Los
+ * parametros son primitivos para que el recorrido no cree objetos por
+ * triangulo.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+@FunctionalInterface
+public interface STriangleVisitor {
+
+    /**
+     * Visitar un triangulo: normal, tres vertices y los 2 bytes de atributo
+     * del STL binario (0 en los ficheros ascii)
+     */
+    void visit(float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3,
+            int attribute);
+}
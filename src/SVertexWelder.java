@@ -0,0 +1,168 @@
+/**
+ * SVertexWelder : Suelda los vertices repetidos de una sopa de triangulos y
+ * construye una malla indexada (SPackedMesh3D). Las coordenadas se cuantizan
+ * con la tolerancia indicada y se buscan en una tabla hash de direccionamiento
+ * abierto que solo guarda el indice del vertice (int), sin claves en objetos:
+ * la clave de cada vertice se recalcula a partir de sus posiciones.
+ *
+ * Dos vertices se sueldan si caen en la misma celda de tamaño tolerance; los
+ * triangulos que quedan degenerados al soldar se descartan.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+public class SVertexWelder {
+
+    private final double invTolerance;
+    private final SPackedMesh3D mesh;
+    private int[] table; //indice del vertice + 1, 0 = celda libre
+    private int mask;
+    private int nvertexs;
+
+    /**
+     * Constructor
+     */
+    public SVertexWelder(double tolerance, int expectedVertexs) {
+        this.invTolerance = 1.0 / tolerance;
+        this.mesh = new SPackedMesh3D(expectedVertexs, true);
+        int capacity = Integer.highestOneBit(Math.max(16, 2 * expectedVertexs - 1)) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Soldar un vertice. Devuelve el indice del vertice en la malla; la normal
+     * se acumula y se normaliza al obtener la malla
+     */
+    public int addVertex(float x, float y, float z, float nx, float ny, float nz) {
+        long qx = Math.round(x * invTolerance);
+        long qy = Math.round(y * invTolerance);
+        long qz = Math.round(z * invTolerance);
+        int slot = hash(qx, qy, qz) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                break;
+            }
+            int index = entry - 1;
+            float[] positions = mesh.getPositions();
+            if (Math.round(positions[3 * index] * invTolerance) == qx
+                    && Math.round(positions[3 * index + 1] * invTolerance) == qy
+                    && Math.round(positions[3 * index + 2] * invTolerance) == qz) {
+                float[] normals = mesh.getNormals();
+                normals[3 * index] += nx;
+                normals[3 * index + 1] += ny;
+                normals[3 * index + 2] += nz;
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = mesh.addVertex(x, y, z, nx, ny, nz);
+        table[slot] = index + 1;
+        nvertexs++;
+        if (2 * nvertexs > table.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    /**
+     * Soldar y añadir un triangulo
+     */
+    public void addTriangle(float nx, float ny, float nz,
+            float x1, float y1, float z1,
+            float x2, float y2, float z2,
+            float x3, float y3, float z3) {
+        int a = addVertex(x1, y1, z1, nx, ny, nz);
+        int b = addVertex(x2, y2, z2, nx, ny, nz);
+        int c = addVertex(x3, y3, z3, nx, ny, nz);
+        if (a != b && b != c && c != a) {
+            mesh.addTriangle(a, b, c);
+        }
+    }
+
+    /**
+     * Soldar y añadir todos los triangulos de una sopa de triangulos
+     */
+    public void add(SPackedMesh3D soup) {
+        float[] p = soup.getPositions();
+        float[] n = soup.getNormals();
+        int[] colors = soup.getColors();
+        if (colors != null && mesh.palette == null) {
+            mesh.palette = soup.palette;
+        }
+        for (int t = 0; t < soup.getTrianglesCount(); t++) {
+            int a = soup.getVertexIndex(t, 0);
+            int b = soup.getVertexIndex(t, 1);
+            int c = soup.getVertexIndex(t, 2);
+            int ntriangles = mesh.getTrianglesCount();
+            addTriangle(n[3 * a], n[3 * a + 1], n[3 * a + 2],
+                    p[3 * a], p[3 * a + 1], p[3 * a + 2],
+                    p[3 * b], p[3 * b + 1], p[3 * b + 2],
+                    p[3 * c], p[3 * c + 1], p[3 * c + 2]);
+            if (colors != null && mesh.getTrianglesCount() > ntriangles) {
+                mesh.setLastColor(colors[t]);
+            }
+        }
+    }
+
+    /**
+     * Obtener el numero de vertices soldados
+     */
+    public int getVertexsCount() {
+        return nvertexs;
+    }
+
+    /**
+     * Obtener la malla indexada. Normaliza las normales acumuladas y ajusta
+     * los arrays a su tamaño
+     */
+    public SPackedMesh3D getMesh() {
+        float[] normals = mesh.getNormals();
+        for (int i = 0; i < 3 * nvertexs; i += 3) {
+            double d = Math.sqrt(normals[i] * normals[i] + normals[i + 1] * normals[i + 1] + normals[i + 2] * normals[i + 2]);
+            if (d > 0) {
+                normals[i] /= d;
+                normals[i + 1] /= d;
+                normals[i + 2] /= d;
+            }
+        }
+        mesh.trim();
+        return mesh;
+    }
+
+    /**
+     * Duplicar la tabla y recolocar los vertices
+     */
+    private void rehash() {
+        int[] old = table;
+        table = new int[2 * old.length];
+        mask = table.length - 1;
+        float[] positions = mesh.getPositions();
+        for (int entry : old) {
+            if (entry != 0) {
+                int index = entry - 1;
+                int slot = hash(Math.round(positions[3 * index] * invTolerance),
+                        Math.round(positions[3 * index + 1] * invTolerance),
+                        Math.round(positions[3 * index + 2] * invTolerance)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = entry;
+            }
+        }
+    }
+
+    /**
+     * Hash de las coordenadas cuantizadas
+     */
+    private static int hash(long qx, long qy, long qz) {
+        long h = qx * 0x9E3779B97F4A7C15L;
+        h ^= qy * 0xC2B2AE3D27D4EB4FL;
+        h ^= qz * 0x165667B19E3779F9L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * S3mfTest : Pruebas de lectura de ficheros *.3mf: unidades, instancias,
+ * componentes, colores, partes de la extension de produccion y lectura de
+ * partes grandes en paralelo
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class S3mfTest {
+
+    private static final String ROOT = "3D/3dmodel.model";
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("s3mf");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private Path write(Map<String, String> entries) throws IOException {
+        Path file = directory.resolve("model.3mf");
+        STestFiles.write3mf(file, entries);
+        return file;
+    }
+
+    private Path write(String model) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put(ROOT, model);
+        return write(entries);
+    }
+
+    private static String object(String id, String attributes, String content) {
+        return "<object id=\"" + id + "\" type=\"model\"" + attributes + ">" + content + "</object>\n";
+    }
+
+    @Test
+    void unitsAndItems() throws IOException {
+        String mesh = STestFiles.getMeshXml(STestFiles.cube(1), null);
+        String build = "<item objectid=\"1\" transform=\"1 0 0 0 1 0 0 0 1 5 0 0\"/><item objectid=\"1\"/>";
+        Path file = write(STestFiles.getModel("centimeter", object("1", " name=\"cube\"", mesh), build));
+        S3mf model = new S3mf(file.toString(), new SImportOptions(), null);
+        assertEquals(Arrays.asList("cube", "cube"), model.getNames());
+        SMeshStats stats = model.getStats();
+        assertEquals(24, stats.triangles);
+        assertEquals(2000, stats.volume, 1e-6); //dos cubos de 10 mm
+        assertEquals(1200, stats.area, 1e-6);
+        assertEquals(0, stats.minX, 1e-6);
+        assertEquals(60, stats.maxX, 1e-6);
+        assertEquals(10, stats.maxZ, 1e-6);
+
+        float[] soup = STestFiles.soup(model.getMeshes());
+        float[] expected = STestFiles.cube(10);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] + (i % 3 == 0 ? 50 : 0), soup[i], 1e-5);
+            assertEquals(expected[i], soup[expected.length + i], 1e-5);
+        }
+    }
+
+    @Test
+    void components() throws IOException {
+        String resources = object("1", "", STestFiles.getMeshXml(STestFiles.cube(1), null))
+                + object("2", "", "<components><component objectid=\"1\"/>"
+                        + "<component objectid=\"1\" transform=\"1 0 0 0 1 0 0 0 1 0 0 2\"/></components>")
+                + object("3", "", "<components><component objectid=\"2\" transform=\"2 0 0 0 2 0 0 0 2 0 0 0\"/></components>");
+        Path file = write(STestFiles.getModel("millimeter", resources, "<item objectid=\"3\"/>"));
+        S3mf model = new S3mf(file.toString(), new SImportOptions(), null);
+        assertEquals(2, model.getMeshes().size());
+        SMeshStats stats = model.getStats();
+        assertEquals(16, stats.volume, 1e-6);
+        assertEquals(6, stats.maxZ, 1e-6);
+        assertEquals(2, stats.maxX, 1e-6);
+    }
+
+    @Test
+    void colors() throws IOException {
+        String[] attributes = new String[12];
+        attributes[1] = "p1=\"1\"";
+        attributes[2] = "pid=\"7\" p1=\"2\"";
+        attributes[3] = "pid=\"9\" p1=\"0\""; //grupo definido despues del objeto
+        String resources = "<basematerials id=\"5\"><base name=\"red\" displaycolor=\"#FF0000\"/>"
+                + "<base name=\"green\" displaycolor=\"#00FF0080\"/></basematerials>\n"
+                + "<m:colorgroup id=\"7\"><m:color color=\"#000001\"/><m:color color=\"#000002\"/><m:color color=\"#000003\"/></m:colorgroup>\n"
+                + object("1", " pid=\"5\" pindex=\"0\"", STestFiles.getMeshXml(STestFiles.cube(1), attributes))
+                + "<m:colorgroup id=\"9\"><m:color color=\"#0000FFFF\"/></m:colorgroup>\n";
+        Path file = write(STestFiles.getModel("millimeter", resources, "<item objectid=\"1\"/>"));
+        S3mf model = new S3mf(file.toString(), new SImportOptions(), null);
+        int[] colors = STestFiles.colors(model.getMeshes());
+        int[] expected = new int[12];
+        Arrays.fill(expected, 0xFF0000FF);
+        expected[1] = 0x00FF0080;
+        expected[2] = 0x000003FF;
+        expected[3] = 0x0000FFFF;
+        assertArrayEquals(expected, colors);
+    }
+
+    @Test
+    void productionParts() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("_rels/.rels", STestFiles.getRelationships("/3D/main.model"));
+        entries.put("3D/main.model", STestFiles.getModel("millimeter",
+                object("1", "", "<components><component p:path=\"/3D/parts/cube.model\" objectid=\"4\" "
+                        + "transform=\"1 0 0 0 1 0 0 0 1 0 3 0\"/></components>"),
+                "<item objectid=\"1\"/>"));
+        entries.put("3D/parts/cube.model", STestFiles.getModel("millimeter",
+                object("4", "", STestFiles.getMeshXml(STestFiles.cube(1), null)), ""));
+        Path file = write(entries);
+        S3mf model = new S3mf(file.toString(), new SImportOptions(), null);
+        SMeshStats stats = model.getStats();
+        assertEquals(12, stats.triangles);
+        assertEquals(3, stats.minY, 1e-6);
+        assertEquals(4, stats.maxY, 1e-6);
+    }
+
+    @Test
+    void parallelPartMatchesSequential() throws IOException {
+        //mas de 8 MB en una parte para leerla por trozos en paralelo
+        float[] soup = STestFiles.grid(25);
+        int ntriangles = soup.length / 9;
+        StringBuilder resources = new StringBuilder();
+        StringBuilder build = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            String[] attributes = new String[ntriangles];
+            for (int t = 0; t < ntriangles; t++) {
+                attributes[t] = "p1=\"" + (t + i) % 3 + "\"";
+            }
+            resources.append(object(Integer.toString(i + 1), " pid=\"" + (1000 + i % 7) + "\" pindex=\"0\"",
+                    STestFiles.getMeshXml(soup, attributes)));
+            build.append("<item objectid=\"").append(i + 1).append("\" transform=\"1 0 0 0 1 0 0 0 1 ").append(30 * i).append(" 0 0\"/>");
+        }
+        for (int g = 0; g < 7; g++) {
+            resources.append("<m:colorgroup id=\"").append(1000 + g).append("\"><m:color color=\"#").append(g).append("00000\"/>")
+                    .append("<m:color color=\"#00").append(g).append("000\"/><m:color color=\"#0000").append(g).append("0\"/></m:colorgroup>\n");
+        }
+        String part = STestFiles.getModel("millimeter", resources.toString(), build.toString());
+        assertTrue(part.length() > 8 << 20);
+        Path file = write(part);
+
+        S3mf sequential = new S3mf(file.toString(), new SImportOptions(), null);
+        SImportOptions options = new SImportOptions();
+        options.enableParallel = true;
+        options.parallelism = 4;
+        S3mf parallel = new S3mf(file.toString(), options, null);
+        assertEquals(120, parallel.getMeshes().size());
+        assertArrayEquals(STestFiles.soup(sequential.getMeshes()), STestFiles.soup(parallel.getMeshes()), 0);
+        int[] colors = STestFiles.colors(parallel.getMeshes());
+        assertArrayEquals(STestFiles.colors(sequential.getMeshes()), colors);
+        assertEquals(0x000010FF, colors[ntriangles + 1]); //objeto 2, grupo 1001, color 2
+        assertEquals(120L * ntriangles, parallel.getStats().triangles);
+        assertEquals(sequential.getStats().area, parallel.getStats().area, 1e-6);
+    }
+
+    @Test
+    void loadErrors() throws IOException {
+        String missing = directory.resolve("missing.3mf").toString();
+        assertThrows(UncheckedIOException.class, () -> new S3mf(missing, new SImportOptions(), null));
+
+        Path file = write(STestFiles.getModel("millimeter", "", "<item objectid=\"1\"/>")); //objeto que no existe
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> S3mf.loadAsync(file.toString(), new SImportOptions()).get());
+        assertTrue(ex.getCause() instanceof UncheckedIOException);
+
+        ex = assertThrows(ExecutionException.class, () -> S3mf.loadAsync(directory.resolve("model.stl").toString(), new SImportOptions()).get());
+        assertTrue(ex.getCause() instanceof UncheckedIOException);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * SAsyncLoaderTest : Pruebas de la carga asincrona con CompletableFuture. La
+ * carga termina con el modelo en el executor indicado, avisa al listener de
+ * cada fase en orden y se interrumpe al cancelar el CompletableFuture o
+ * cuando el listener lo pide
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SAsyncLoaderTest {
+
+    private Path directory;
+    private Path stl;
+    private float[] grid;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sasyncloader");
+        grid = STestFiles.grid(40);
+        stl = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(stl, grid, null);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private static SImportOptions packed(SLoadListener listener) {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        options.listener = listener;
+        return options;
+    }
+
+    /**
+     * Observador que guarda los avisos de inicio y fin de fase
+     */
+    private static class SPhaseRecorder implements SLoadListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void phaseStarted(SLoadPhase phase) {
+            events.add("+" + phase);
+        }
+
+        @Override
+        public void phaseFinished(SLoadPhase phase) {
+            events.add("-" + phase);
+        }
+
+        @Override
+        public void progress(SLoadPhase phase, long done, long total) {
+            assertTrue(done <= total, phase + " " + done + "/" + total);
+        }
+    }
+
+    @Test
+    void loadsInTheDefaultExecutor() throws Exception {
+        SStl result = SStl.loadAsync(stl.toString(), packed(null)).get();
+        assertArrayEquals(grid, STestFiles.soup(result.getMeshes()), 0);
+
+        Path asc = directory.resolve("cube.asc");
+        STestFiles.writeAsc(asc, Arrays.asList(STestFiles.cube(1)));
+        assertEquals(12, SAsc.loadAsync(asc.toString(), new SImportOptions()).get().getStats().triangles);
+    }
+
+    @Test
+    void loadsInTheGivenExecutor() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        CompletableFuture<SStl> future = SStl.loadAsync(stl.toString(), packed(null), tasks::add);
+        assertFalse(future.isDone()); //hasta que el executor la lanza
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertTrue(future.isDone());
+        assertArrayEquals(grid, STestFiles.soup(future.get().getMeshes()), 0);
+    }
+
+    @Test
+    void listenerPhases() throws Exception {
+        SPhaseRecorder recorder = new SPhaseRecorder();
+        SStl.loadAsync(stl.toString(), packed(recorder), Runnable::run).get();
+        assertTrue(recorder.events.size() >= 4, recorder.events.toString());
+        assertEquals("+READ", recorder.events.get(0));
+        assertEquals("-READ", recorder.events.get(1));
+        assertEquals("+PARSE", recorder.events.get(2));
+        for (int i = 0; i < recorder.events.size(); i += 2) {
+            String started = recorder.events.get(i);
+            assertTrue(started.startsWith("+"));
+            assertEquals("-" + started.substring(1), recorder.events.get(i + 1));
+        }
+    }
+
+    @Test
+    void listenerCancels() {
+        SLoadListener listener = new SLoadListener() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        CompletableFuture<SStl> future = SStl.loadAsync(stl.toString(), packed(listener), Runnable::run);
+        assertTrue(future.isCompletedExceptionally());
+        assertThrows(CancellationException.class, future::get);
+    }
+
+    @Test
+    void cancelInterruptsTheLoad() {
+        AtomicReference<CompletableFuture<SStl>> reference = new AtomicReference<>();
+        SPhaseRecorder recorder = new SPhaseRecorder() {
+            @Override
+            public void progress(SLoadPhase phase, long done, long total) {
+                if (phase == SLoadPhase.PARSE) {
+                    reference.get().cancel(true);
+                }
+            }
+        };
+        List<Runnable> tasks = new ArrayList<>();
+        reference.set(SStl.loadAsync(stl.toString(), packed(recorder), tasks::add));
+        tasks.get(0).run();
+        assertTrue(reference.get().isCancelled());
+        //la lectura se corta dentro de PARSE, sin terminar la fase
+        assertEquals("+PARSE", recorder.events.get(recorder.events.size() - 1), recorder.events.toString());
+        assertThrows(CancellationException.class, () -> reference.get().get());
+    }
+
+    @Test
+    void cancelledBeforeStarting() {
+        SPhaseRecorder recorder = new SPhaseRecorder();
+        List<Runnable> tasks = new ArrayList<>();
+        CompletableFuture<SStl> future = SStl.loadAsync(stl.toString(), packed(recorder), tasks::add);
+        future.cancel(true);
+        tasks.get(0).run();
+        assertTrue(recorder.events.isEmpty()); //no se llega a abrir el fichero
+    }
+
+    @Test
+    void rejectedByTheExecutor() throws InterruptedException {
+        RejectedExecutionException rejected = new RejectedExecutionException("full");
+        CompletableFuture<SStl> future = SStl.loadAsync(stl.toString(), packed(null), task -> {
+            throw rejected;
+        });
+        ExecutionException ex = assertThrows(ExecutionException.class, future::get);
+        assertSame(rejected, ex.getCause());
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * SBatchImporterTest : Pruebas de la carga de una lista de ficheros. Los
+ * resultados vuelven en el orden de la lista aunque se lancen de mayor a
+ * menor, y los ficheros que no se pueden cargar dan el error original de la
+ * lectura
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SBatchImporterTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sbatchimporter");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    /**
+     * STL binario al que le faltan los ultimos bytes
+     */
+    private Path truncated() throws IOException {
+        Path file = directory.resolve("truncated.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.grid(4), null);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.write("binary".getBytes(StandardCharsets.US_ASCII)); //que no se tome por un ascii
+            raf.setLength(raf.length() - 20);
+        }
+        return file;
+    }
+
+    @Test
+    void resultsInListOrder() throws IOException {
+        List<String> paths = new ArrayList<>();
+        int[] sizes = {2, 12, 5, 8};
+        for (int i = 0; i < sizes.length; i++) {
+            Path file = directory.resolve("grid" + i + ".stl");
+            STestFiles.writeBinaryStl(file, STestFiles.grid(sizes[i]), null);
+            paths.add(file.toString());
+        }
+        Path asc = directory.resolve("cube.asc");
+        STestFiles.writeAsc(asc, Arrays.asList(STestFiles.cube(1)));
+        paths.add(asc.toString());
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("3D/3dmodel.model", STestFiles.getModel("millimeter",
+                "<object id=\"1\" type=\"model\">" + STestFiles.getMeshXml(STestFiles.cube(1), null) + "</object>",
+                "<item objectid=\"1\"/>"));
+        Path threeMf = directory.resolve("cube.3mf");
+        STestFiles.write3mf(threeMf, entries);
+        paths.add(threeMf.toString());
+
+        SBatchImporter importer = new SBatchImporter();
+        importer.options.enablePacked = true;
+        importer.parallelism = 2;
+        ArrayList<SBatchResult> results = importer.load(paths);
+        assertEquals(paths.size(), results.size());
+        for (int i = 0; i < sizes.length; i++) {
+            SBatchResult result = results.get(i);
+            assertEquals(paths.get(i), result.path);
+            assertTrue(result.isLoaded(), result.toString());
+            assertArrayEquals(STestFiles.grid(sizes[i]), STestFiles.soup(result.getStl().getMeshes()), 0);
+        }
+        assertNotNull(results.get(4).getAsc());
+        assertEquals(12, results.get(4).getAsc().getStats().triangles);
+        assertNotNull(results.get(5).get3mf());
+        assertEquals(12, results.get(5).get3mf().getStats().triangles);
+    }
+
+    @Test
+    void failuresKeepTheOriginalError() throws IOException {
+        Path good = directory.resolve("good.stl");
+        STestFiles.writeBinaryStl(good, STestFiles.grid(3), null);
+        List<String> paths = Arrays.asList(directory.resolve("missing.stl").toString(), truncated().toString(),
+                good.toString(), directory.resolve("model.obj").toString(), directory.resolve("missing.asc").toString());
+        ArrayList<SBatchResult> results = new SBatchImporter().load(paths);
+
+        assertTrue(results.get(0).error instanceof FileNotFoundException);
+        assertFalse(results.get(1).isLoaded());
+        assertTrue(results.get(1).error instanceof IOException, String.valueOf(results.get(1).error));
+        assertTrue(results.get(1).error.getMessage().contains("truncated"), results.get(1).error.getMessage());
+        assertTrue(results.get(2).isLoaded());
+        assertTrue(results.get(3).error instanceof IllegalArgumentException);
+        assertTrue(results.get(4).error instanceof FileNotFoundException);
+    }
+
+    @Test
+    void loadAsyncCause() throws IOException {
+        String path = truncated().toString();
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> SStl.loadAsync(path, new SImportOptions()).get());
+        assertTrue(ex.getCause() instanceof UncheckedIOException);
+        assertTrue(ex.getCause().getCause().getMessage().contains("truncated"));
+
+        String missing = directory.resolve("missing.asc").toString();
+        ex = assertThrows(ExecutionException.class, () -> SAsc.loadAsync(missing, new SImportOptions()).get());
+        assertTrue(ex.getCause().getCause() instanceof FileNotFoundException);
+    }
+
+    @Test
+    void schedulerKeepsTheOriginalError() throws IOException {
+        String path = truncated().toString();
+        SLoadScheduler scheduler = new SLoadScheduler(1 << 30);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> scheduler.submit(path).get());
+        assertTrue(ex.getCause() instanceof IOException, String.valueOf(ex.getCause()));
+        assertTrue(ex.getCause().getMessage().contains("truncated"), ex.getCause().getMessage());
+        assertEquals(0, scheduler.getUsedBytes());
+    }
+}
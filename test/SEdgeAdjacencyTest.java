@@ -0,0 +1,138 @@
+/**
+ * SEdgeAdjacencyTest : Pruebas de la adyacencia de aristas. Numero de
+ * vertices y aristas, angulos diedros de aristas interiores, bordes y
+ * aristas no manifold, normales de vertice, y el mismo resultado en sopas e
+ * indexadas y con uno o varios hilos
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class SEdgeAdjacencyTest {
+
+    /**
+     * Angulos diedros ordenados
+     */
+    private static float[] angles(SEdgeAdjacency adjacency) {
+        float[] angles = Arrays.copyOf(adjacency.getEdgeAngles(), adjacency.getEdgesCount());
+        Arrays.sort(angles);
+        return angles;
+    }
+
+    /**
+     * Normal del vertice de cada esquina (9 floats por triangulo), que no
+     * depende de como se numeren los vertices
+     */
+    private static float[] cornerVertexNormals(SEdgeAdjacency adjacency) {
+        float[] normals = adjacency.getVertexNormals();
+        int[] corners = adjacency.getCorners();
+        float[] result = new float[3 * 3 * adjacency.getTrianglesCount()];
+        for (int c = 0; c < 3 * adjacency.getTrianglesCount(); c++) {
+            System.arraycopy(normals, 3 * corners[c], result, 3 * c, 3);
+        }
+        return result;
+    }
+
+    @Test
+    void cube() {
+        float[] cube = STestFiles.cube(2);
+        SEdgeAdjacency adjacency = new SEdgeAdjacency(cube, null, 12, 1);
+        assertEquals(8, adjacency.getVertexsCount());
+        assertEquals(18, adjacency.getEdgesCount()); //12 aristas y 6 diagonales
+        assertEquals(12, adjacency.getEdgesCount(45));
+        assertEquals(18, adjacency.getEdgesCount(-1));
+        float[] angles = angles(adjacency);
+        for (int e = 0; e < 18; e++) {
+            assertEquals(e < 6 ? 0 : 90, angles[e], 1e-3);
+        }
+        //normales de vertice unitarias y hacia fuera
+        float[] normals = cornerVertexNormals(adjacency);
+        for (int c = 0; c < 36; c++) {
+            double length = 0, dot = 0;
+            for (int i = 0; i < 3; i++) {
+                length += normals[3 * c + i] * normals[3 * c + i];
+                dot += normals[3 * c + i] * (cube[3 * c + i] - 1); //centro en (1,1,1)
+            }
+            assertEquals(1, Math.sqrt(length), 1e-5);
+            assertTrue(dot > 0);
+        }
+    }
+
+    @Test
+    void gridBorders() {
+        int n = 12;
+        SEdgeAdjacency adjacency = new SEdgeAdjacency(STestFiles.grid(n), null, 2 * n * n, 1);
+        assertEquals((n + 1) * (n + 1), adjacency.getVertexsCount());
+        assertEquals(3 * n * n + 2 * n, adjacency.getEdgesCount());
+        assertEquals(4 * n, adjacency.getEdgesCount(180)); //solo los bordes
+        assertTrue(adjacency.getEdgesCount(1) > 4 * n);
+    }
+
+    @Test
+    void nonManifoldEdge() {
+        //tres triangulos que comparten la arista (0,0,0)-(1,0,0)
+        float[] fan = {
+            0, 0, 0, 1, 0, 0, 0, 1, 0,
+            1, 0, 0, 0, 0, 0, 0, -1, 0,
+            0, 0, 0, 1, 0, 0, 0, 0, 1};
+        SEdgeAdjacency adjacency = new SEdgeAdjacency(fan, null, 3, 1);
+        assertEquals(5, adjacency.getVertexsCount());
+        assertEquals(7, adjacency.getEdgesCount());
+        int infinite = 0;
+        for (int e = 0; e < adjacency.getEdgesCount(); e++) {
+            infinite += Float.isInfinite(adjacency.getEdgeAngles()[e]) ? 1 : 0;
+        }
+        assertEquals(7, infinite); //6 bordes y la arista no manifold
+    }
+
+    @Test
+    void indexedMatchesSoup() {
+        float[] grid = STestFiles.grid(20);
+        SVertexWelder welder = new SVertexWelder(1e-6, 0);
+        for (int t = 0; t < grid.length / 9; t++) {
+            float[] n = STestFiles.normal(grid, t);
+            int p = 9 * t;
+            welder.addTriangle(n[0], n[1], n[2], grid[p], grid[p + 1], grid[p + 2],
+                    grid[p + 3], grid[p + 4], grid[p + 5], grid[p + 6], grid[p + 7], grid[p + 8]);
+        }
+        SEdgeAdjacency indexed = new SEdgeAdjacency(welder.getMesh(), 1);
+        SEdgeAdjacency soup = new SEdgeAdjacency(grid, null, grid.length / 9, 1);
+        assertEquals(soup.getVertexsCount(), indexed.getVertexsCount());
+        assertEquals(soup.getEdgesCount(), indexed.getEdgesCount());
+        assertArrayEquals(angles(soup), angles(indexed), 1e-4f);
+        assertArrayEquals(cornerVertexNormals(soup), cornerVertexNormals(indexed), 1e-5f);
+    }
+
+    @Test
+    void parallelMatchesSequential() {
+        float[] grid = STestFiles.grid(150);
+        int ntriangles = grid.length / 9;
+        SEdgeAdjacency sequential = new SEdgeAdjacency(grid, null, ntriangles, 1);
+        SEdgeAdjacency parallel = new SEdgeAdjacency(grid, null, ntriangles, 4);
+        assertEquals(sequential.getVertexsCount(), parallel.getVertexsCount());
+        assertEquals(sequential.getEdgesCount(), parallel.getEdgesCount());
+        assertArrayEquals(angles(sequential), angles(parallel), 0);
+        assertArrayEquals(cornerVertexNormals(sequential), cornerVertexNormals(parallel), 1e-6f);
+        assertArrayEquals(sequential.getCornerNormals(30), parallel.getCornerNormals(30), 1e-6f);
+    }
+
+    @Test
+    void similarityKeepsAngles() {
+        SEdgeAdjacency adjacency = new SEdgeAdjacency(STestFiles.grid(8), null, 128, 1);
+        float[] angles = angles(adjacency);
+        float[] normals = adjacency.getFaceNormals().clone();
+        assertTrue(adjacency.transform(new double[]{2, 0, 0, 5, 0, 2, 0, -1, 0, 0, 2, 3}));
+        assertArrayEquals(angles, angles(adjacency), 0);
+        assertArrayEquals(normals, adjacency.getFaceNormals(), 1e-6f);
+        //una escala no uniforme cambia los angulos: hay que recalcular
+        assertFalse(adjacency.transform(new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 3, 0}));
+    }
+}
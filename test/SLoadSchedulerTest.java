@@ -0,0 +1,143 @@
+/**
+ * SLoadSchedulerTest : Pruebas del planificador de cargas con presupuesto de
+ * memoria. Las cargas que no caben esperan en la cola hasta que se cierra
+ * un ticket, se rechazan las que superan el presupuesto o no caben en la
+ * cola y la memoria reservada vuelve al presupuesto al cerrar los tickets
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SLoadSchedulerTest {
+
+    private Path directory;
+    private String[] paths;
+    private long weight; //memoria reservada por cada fichero
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sloadscheduler");
+        paths = new String[4];
+        for (int i = 0; i < paths.length; i++) {
+            Path file = directory.resolve("grid" + i + ".stl");
+            STestFiles.writeBinaryStl(file, STestFiles.grid(10), null);
+            paths[i] = file.toString();
+        }
+        long bytes = new SLoadScheduler(1).estimate(paths[0]);
+        weight = (bytes + 1023) >> 10 << 10;
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    /**
+     * Planificador con sitio para dos ficheros que carga en el hilo que
+     * los admite
+     */
+    private SLoadScheduler scheduler() {
+        SLoadScheduler scheduler = new SLoadScheduler(2 * weight);
+        scheduler.executor = Runnable::run;
+        return scheduler;
+    }
+
+    @Test
+    void rejectsOverBudget() {
+        SLoadScheduler scheduler = new SLoadScheduler(weight - 1024);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> scheduler.submit(paths[0]).get());
+        assertTrue(ex.getCause() instanceof RejectedExecutionException, String.valueOf(ex.getCause()));
+        assertEquals(0, scheduler.getUsedBytes());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> scheduler().submit(directory.resolve("model.obj").toString()).get());
+        assertTrue(ex.getCause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    void queuedUntilReleased() throws Exception {
+        SLoadScheduler scheduler = scheduler();
+        SLoadTicket a = scheduler.submit(paths[0]).get();
+        SLoadTicket b = scheduler.submit(paths[1]).get();
+        assertEquals(2 * weight, scheduler.getUsedBytes());
+        assertEquals(200, a.getStl().getStats().triangles);
+
+        CompletableFuture<SLoadTicket> c = scheduler.submit(paths[2]);
+        assertFalse(c.isDone());
+        assertEquals(1, scheduler.getQueuedCount());
+
+        a.close();
+        assertTrue(a.isReleased());
+        assertNull(a.getModel());
+        assertTrue(c.isDone()); //se ha admitido al devolver la reserva de a
+        assertEquals(0, scheduler.getQueuedCount());
+        assertEquals(2 * weight, scheduler.getUsedBytes());
+
+        b.close();
+        c.get().close();
+        c.get().close(); //cerrar dos veces no devuelve la reserva dos veces
+        assertEquals(0, scheduler.getUsedBytes());
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() throws Exception {
+        SLoadScheduler scheduler = scheduler();
+        scheduler.maxQueued = 1;
+        SLoadTicket a = scheduler.submit(paths[0]).get();
+        SLoadTicket b = scheduler.submit(paths[1]).get();
+        CompletableFuture<SLoadTicket> c = scheduler.submit(paths[2]);
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> scheduler.submit(paths[3]).get());
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, scheduler.getQueuedCount());
+        a.close();
+        b.close();
+        c.get().close();
+        assertEquals(0, scheduler.getUsedBytes());
+    }
+
+    @Test
+    void cancelLeavesTheQueue() throws Exception {
+        SLoadScheduler scheduler = scheduler();
+        SLoadTicket a = scheduler.submit(paths[0]).get();
+        SLoadTicket b = scheduler.submit(paths[1]).get();
+        CompletableFuture<SLoadTicket> c = scheduler.submit(paths[2]);
+        CompletableFuture<SLoadTicket> d = scheduler.submit(paths[3]);
+        assertEquals(2, scheduler.getQueuedCount());
+        c.cancel(true);
+        assertEquals(1, scheduler.getQueuedCount());
+        a.close();
+        assertTrue(d.isDone()); //d pasa delante de la cancelada
+        assertEquals(2 * weight, scheduler.getUsedBytes());
+        b.close();
+        d.get().close();
+        assertEquals(0, scheduler.getUsedBytes());
+    }
+
+    @Test
+    void failedLoadReleasesItsReservation() {
+        SLoadScheduler scheduler = scheduler();
+        scheduler.executor = task -> {
+            throw new RejectedExecutionException("stopped");
+        };
+        assertThrows(ExecutionException.class, () -> scheduler.submit(paths[0]).get());
+        assertEquals(0, scheduler.getUsedBytes());
+    }
+}
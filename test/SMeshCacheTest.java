@@ -0,0 +1,189 @@
+/**
+ * SMeshCacheTest : Pruebas de la cache en disco de mallas compactas. Las
+ * mallas leidas de una entrada deben ser iguales a las guardadas, con sus
+ * colores y su adyacencia de aristas
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SMeshCacheTest {
+
+    private Path directory;
+    private SMeshCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("smeshcache");
+        cache = new SMeshCache(directory.resolve("cache").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private File[] entries() {
+        File[] files = new File(cache.directory).listFiles((dir, name) -> name.endsWith(".smc"));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Una malla indexada (rejilla soldada) y una sopa con colores (cubo)
+     */
+    private List<SPackedMesh3D> meshes() throws IOException {
+        Path grid = directory.resolve("welded.stl");
+        STestFiles.writeBinaryStl(grid, STestFiles.grid(40), null);
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        options.enableWelding = true;
+        List<SPackedMesh3D> meshes = new ArrayList<>(new SStl(grid.toString(), options, null).getMeshes());
+
+        Path cube = directory.resolve("cube.stl");
+        int[] attributes = new int[12];
+        for (int t = 0; t < attributes.length; t++) {
+            attributes[t] = t % 2 == 0 ? 0 : 0x8000 | (t << 10);
+        }
+        STestFiles.writeBinaryStl(cube, STestFiles.cube(3), attributes);
+        options.enableWelding = false;
+        meshes.addAll(new SStl(cube.toString(), options, null).getMeshes());
+        return meshes;
+    }
+
+    private static void assertMesh(SPackedMesh3D expected, SPackedMesh3D mesh) {
+        int nvertexs = expected.getVertexsCount();
+        int ntriangles = expected.getTrianglesCount();
+        assertEquals(nvertexs, mesh.getVertexsCount());
+        assertEquals(ntriangles, mesh.getTrianglesCount());
+        assertEquals(expected.isIndexed(), mesh.isIndexed());
+        assertArrayEquals(Arrays.copyOf(expected.getPositions(), 3 * nvertexs), Arrays.copyOf(mesh.getPositions(), 3 * nvertexs), 0);
+        assertArrayEquals(Arrays.copyOf(expected.getNormals(), 3 * nvertexs), Arrays.copyOf(mesh.getNormals(), 3 * nvertexs), 0);
+        if (expected.isIndexed()) {
+            assertArrayEquals(Arrays.copyOf(expected.getIndices(), 3 * ntriangles), Arrays.copyOf(mesh.getIndices(), 3 * ntriangles));
+        }
+        assertArrayEquals(STestFiles.colors(Arrays.asList(expected)), STestFiles.colors(Arrays.asList(mesh)));
+
+        SEdgeAdjacency a = expected.getEdgeAdjacency(1);
+        SEdgeAdjacency b = mesh.getEdgeAdjacency(1);
+        int nedges = a.getEdgesCount();
+        assertEquals(nedges, b.getEdgesCount());
+        assertEquals(a.getVertexsCount(), b.getVertexsCount());
+        assertArrayEquals(Arrays.copyOf(a.getEdgeVertexs(), 2 * nedges), Arrays.copyOf(b.getEdgeVertexs(), 2 * nedges));
+        assertArrayEquals(Arrays.copyOf(a.getEdgeAngles(), nedges), Arrays.copyOf(b.getEdgeAngles(), nedges), 0);
+        assertArrayEquals(Arrays.copyOf(a.getFaceNormals(), 3 * ntriangles), Arrays.copyOf(b.getFaceNormals(), 3 * ntriangles), 0);
+    }
+
+    @Test
+    void writeAndRead() throws IOException {
+        List<SPackedMesh3D> meshes = meshes();
+        assertTrue(cache.write("entry", meshes, 2));
+        ArrayList<SPackedMesh3D> read = cache.read("entry", 2);
+        assertNotNull(read);
+        assertEquals(meshes.size(), read.size());
+        for (int i = 0; i < meshes.size(); i++) {
+            assertMesh(meshes.get(i), read.get(i));
+        }
+        assertNull(cache.read("missing", 2));
+    }
+
+    @Test
+    void keyDependsOnFileAndOptions() throws IOException {
+        Path file = directory.resolve("cube.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.cube(1), null);
+        SImportOptions options = new SImportOptions();
+        String key = cache.getKey(file.toString(), options);
+        assertEquals(key, cache.getKey(file.toString(), options.getCopy()));
+
+        SImportOptions other = options.getCopy();
+        other.angleLimit = options.angleLimit / 2; //no cambia lo que se guarda
+        assertEquals(key, cache.getKey(file.toString(), other));
+        other.enableWelding = true;
+        assertNotEquals(key, cache.getKey(file.toString(), other));
+
+        STestFiles.writeBinaryStl(file, STestFiles.grid(2), null);
+        assertNotEquals(key, cache.getKey(file.toString(), options));
+    }
+
+    @Test
+    void corruptEntryIsDiscarded() throws IOException {
+        assertTrue(cache.write("entry", meshes(), 1));
+        File entry = entries()[0];
+        try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        assertNull(cache.read("entry", 1));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    void hugeCountsAreRejectedBeforeAllocating() throws IOException {
+        //numero de mallas, de vertices y de triangulos de la primera malla
+        long[] offsets = {8, 16, 20};
+        int[] counts = {Integer.MAX_VALUE, 0x20000000, -1};
+        List<SPackedMesh3D> meshes = meshes();
+        for (int i = 0; i < offsets.length; i++) {
+            assertTrue(cache.write("entry", meshes, 1));
+            File entry = entries()[0];
+            try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+                file.seek(offsets[i]);
+                file.writeInt(Integer.reverseBytes(counts[i])); //little endian
+            }
+            assertNull(cache.read("entry", 1));
+            assertFalse(entry.exists());
+        }
+    }
+
+    @Test
+    void evictLeastRecentlyUsed() throws IOException {
+        List<SPackedMesh3D> meshes = meshes();
+        assertTrue(cache.write("old", meshes, 1));
+        long size = entries()[0].length();
+        assertTrue(new File(cache.directory, "old.smc").setLastModified(System.currentTimeMillis() - 60000));
+        cache.maxBytes = size + size / 2;
+        assertTrue(cache.write("new", meshes, 1));
+        assertNull(cache.read("old", 1));
+        assertNotNull(cache.read("new", 1));
+        cache.clear();
+        assertEquals(0, entries().length);
+    }
+
+    @Test
+    void stlLoadsFromCache() throws IOException {
+        float[] soup = STestFiles.grid(40);
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, soup, null);
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        options.cache = cache;
+        new SStl(file.toString(), options, null);
+        assertEquals(1, entries().length);
+        SStl cached = new SStl(file.toString(), options, null);
+        assertArrayEquals(soup, STestFiles.soup(cached.getMeshes()), 0);
+
+        //con otra entrada para la misma clave la carga no lee el fichero
+        SPackedMesh3D cube = meshes().get(1);
+        assertTrue(cache.write(cache.getKey(file.toString(), options), Arrays.asList(cube), 1));
+        SStl replaced = new SStl(file.toString(), options, null);
+        assertEquals(12, replaced.getStats().triangles);
+        assertEquals(27, replaced.getStats().volume, 1e-9);
+    }
+}
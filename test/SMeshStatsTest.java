@@ -0,0 +1,338 @@
+/**
+ * SMeshStatsTest : Pruebas de las estadisticas de la geometria. Las
+ * estadisticas transformadas de forma analitica (de las que sale getBox)
+ * deben coincidir con las calculadas recorriendo las mallas transformadas,
+ * tambien en las copias transformadas que comparten las mallas
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SMeshStatsTest {
+
+    private static final int STEPS = 7;
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("smeshstats");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    /**
+     * Geometria que se transforma paso a paso
+     */
+    private interface STransformable {
+
+        void translate(double x, double y, double z);
+
+        void scale(double fx, double fy, double fz);
+
+        void rotateX(double rx);
+
+        void rotateZ(double rz);
+
+        void mirror();
+
+        SMeshStats getStats();
+
+        List<SPackedMesh3D> getMeshes();
+    }
+
+    /**
+     * Paso step de la secuencia: traslaciones, escalados uniformes, giros de
+     * 90 grados y espejos se aplican de forma analitica; el giro de 0.3 rad
+     * y el escalado no uniforme obligan a recorrer los vertices
+     */
+    private static void apply(int step, STransformable model) {
+        switch (step) {
+            case 0:
+                model.translate(3, -2, 1);
+                break;
+            case 1:
+                model.scale(2, 2, 2);
+                break;
+            case 2:
+                model.rotateZ(Math.PI / 2);
+                break;
+            case 3:
+                model.mirror();
+                break;
+            case 4:
+                model.rotateX(0.3);
+                break;
+            case 5:
+                model.scale(1, 2, 0.5);
+                break;
+            default:
+                model.translate(-1, 0, 4);
+                break;
+        }
+    }
+
+    private static STransformable of(SStl stl) {
+        return new STransformable() {
+            public void translate(double x, double y, double z) {
+                stl.translate(x, y, z);
+            }
+
+            public void scale(double fx, double fy, double fz) {
+                stl.scale(fx, fy, fz);
+            }
+
+            public void rotateX(double rx) {
+                stl.rotateX(rx);
+            }
+
+            public void rotateZ(double rz) {
+                stl.rotateZ(rz);
+            }
+
+            public void mirror() {
+                stl.scale(-1, 1, 1);
+            }
+
+            public SMeshStats getStats() {
+                return stl.getStats();
+            }
+
+            public List<SPackedMesh3D> getMeshes() {
+                return stl.getMeshes();
+            }
+        };
+    }
+
+    private static STransformable of(SAsc asc) {
+        return new STransformable() {
+            public void translate(double x, double y, double z) {
+                asc.translate(x, y, z);
+            }
+
+            public void scale(double fx, double fy, double fz) {
+                asc.scale(fx, fy, fz);
+            }
+
+            public void rotateX(double rx) {
+                asc.rotateX(rx);
+            }
+
+            public void rotateZ(double rz) {
+                asc.rotateZ(rz);
+            }
+
+            public void mirror() {
+                asc.mirrorY(1);
+            }
+
+            public SMeshStats getStats() {
+                return asc.getStats();
+            }
+
+            public List<SPackedMesh3D> getMeshes() {
+                return asc.getMeshes();
+            }
+        };
+    }
+
+    private static STransformable of(S3mf model) {
+        return new STransformable() {
+            public void translate(double x, double y, double z) {
+                model.translate(x, y, z);
+            }
+
+            public void scale(double fx, double fy, double fz) {
+                model.scale(fx, fy, fz);
+            }
+
+            public void rotateX(double rx) {
+                model.rotateX(rx);
+            }
+
+            public void rotateZ(double rz) {
+                model.rotateZ(rz);
+            }
+
+            public void mirror() {
+                model.mirrorZ(-2);
+            }
+
+            public SMeshStats getStats() {
+                return model.getStats();
+            }
+
+            public List<SPackedMesh3D> getMeshes() {
+                return model.getMeshes();
+            }
+        };
+    }
+
+    private static void assertStats(SMeshStats expected, SMeshStats stats) {
+        double tolerance = 1e-4 * Math.max(1, Math.max(expected.maxX - expected.minX, expected.maxZ - expected.minZ));
+        assertEquals(expected.triangles, stats.triangles);
+        assertEquals(expected.minX, stats.minX, tolerance);
+        assertEquals(expected.minY, stats.minY, tolerance);
+        assertEquals(expected.minZ, stats.minZ, tolerance);
+        assertEquals(expected.maxX, stats.maxX, tolerance);
+        assertEquals(expected.maxY, stats.maxY, tolerance);
+        assertEquals(expected.maxZ, stats.maxZ, tolerance);
+        assertEquals(expected.area, stats.area, 1e-4 * Math.max(1, expected.area));
+        assertEquals(expected.volume, stats.volume, 1e-4 * Math.max(1, Math.abs(expected.volume)));
+    }
+
+    private static void assertConsistent(STransformable model) {
+        assertStats(SMeshStats.of(model.getMeshes()), model.getStats());
+        for (int step = 0; step < STEPS; step++) {
+            apply(step, model);
+            assertStats(SMeshStats.of(model.getMeshes()), model.getStats());
+        }
+    }
+
+    @Test
+    void transformMatrix() {
+        //malla abierta: el volumen con el origen cambia con la traslacion
+        float[] soup = STestFiles.grid(6);
+        double[] m = {0, -2, 0, 3, 2, 0, 0, -1, 0, 0, -2, 5}; //giro, escalado y espejo
+        float[] transformed = new float[soup.length];
+        for (int p = 0; p < soup.length; p += 3) {
+            for (int i = 0; i < 3; i++) {
+                transformed[p + i] = (float) (m[4 * i] * soup[p] + m[4 * i + 1] * soup[p + 1] + m[4 * i + 2] * soup[p + 2] + m[4 * i + 3]);
+            }
+        }
+        //el espejo invierte el orden de los vertices de cada triangulo
+        for (int t = 0; t < transformed.length; t += 9) {
+            for (int i = 0; i < 3; i++) {
+                float swap = transformed[t + 3 + i];
+                transformed[t + 3 + i] = transformed[t + 6 + i];
+                transformed[t + 6 + i] = swap;
+            }
+        }
+        SMeshStats stats = STestFiles.stats(soup);
+        stats.transform(m);
+        assertTrue(stats.isBoxExact());
+        assertStats(STestFiles.stats(transformed), stats);
+
+        stats.transform(new double[]{1, 0.5, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0});
+        assertFalse(stats.isAreaKnown());
+        assertFalse(stats.isBoxExact());
+    }
+
+    @Test
+    void stl() throws IOException {
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.grid(8), null);
+        for (boolean welding : new boolean[]{false, true}) {
+            SImportOptions options = new SImportOptions();
+            options.enablePacked = true;
+            options.enableWelding = welding;
+            assertConsistent(of(new SStl(file.toString(), options, null)));
+        }
+    }
+
+    @Test
+    void stlOffHeap() throws IOException {
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.grid(8), null);
+        SImportOptions options = new SImportOptions();
+        options.enableOffHeap = true;
+        try (SStl stl = new SStl(file.toString(), options, null)) {
+            STransformable model = of(stl);
+            for (int step = 0; step < STEPS; step++) {
+                apply(step, model);
+                assertStats(stl.getOffHeapMesh().getStats(), stl.getStats());
+            }
+        }
+    }
+
+    @Test
+    void asc() throws IOException {
+        Path file = directory.resolve("model.asc");
+        STestFiles.writeAsc(file, Arrays.asList(STestFiles.cube(2), STestFiles.grid(5)));
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        SAsc asc = new SAsc(file.toString(), options, null);
+        assertEquals(2, asc.getMeshes().size());
+        assertConsistent(of(asc));
+    }
+
+    @Test
+    void ascMirrorWithoutMeshes() throws IOException {
+        //sin mallas compactas el espejo se aplica a los objetos 3d y las
+        //estadisticas deben seguir a las de la carga compacta
+        Path file = directory.resolve("model.asc");
+        STestFiles.writeAsc(file, Arrays.asList(STestFiles.cube(2), STestFiles.grid(5)));
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        SAsc packed = new SAsc(file.toString(), options, null);
+        SAsc classic = new SAsc(file.toString(), new SImportOptions(), null);
+        for (SAsc asc : new SAsc[]{packed, classic}) {
+            asc.translate(1, 2, 3);
+            asc.mirrorX(4);
+            asc.mirrorY(-1);
+            asc.mirrorZ(0.5);
+        }
+        assertStats(SMeshStats.of(packed.getMeshes()), classic.getStats());
+    }
+
+    @Test
+    void ascTransformedCopies() throws IOException {
+        //las copias transformadas comparten las mallas hasta leerlas y dan lo
+        //mismo que transformar una copia completa
+        Path file = directory.resolve("model.asc");
+        STestFiles.writeAsc(file, Arrays.asList(STestFiles.cube(2), STestFiles.grid(5)));
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        SAsc asc = new SAsc(file.toString(), options, null);
+        float[] original = STestFiles.soup(asc.getMeshes());
+        SAsc[] copies = {asc.getMirrorX(4), asc.getMirrorY(-1), asc.getMirrorZ(0.5), asc.getTranslation(1, 2, 3)};
+        for (int i = 0; i < copies.length; i++) {
+            SAsc expected = asc.getCopy();
+            if (i == 0) {
+                expected.mirrorX(4);
+            } else if (i == 1) {
+                expected.mirrorY(-1);
+            } else if (i == 2) {
+                expected.mirrorZ(0.5);
+            } else {
+                expected.translate(1, 2, 3);
+            }
+            assertStats(SMeshStats.of(expected.getMeshes()), copies[i].getStats());
+            assertArrayEquals(STestFiles.soup(expected.getMeshes()), STestFiles.soup(copies[i].getMeshes()), 0);
+            assertNotSame(asc.getMeshes(), copies[i].getMeshes());
+        }
+        assertArrayEquals(original, STestFiles.soup(asc.getMeshes()), 0);
+        assertSame(asc.getMeshes(), asc.getSharedCopy().getMeshes()); //sin transformar no se copia
+    }
+
+    @Test
+    void threeMf() throws IOException {
+        String resources = "<object id=\"1\" type=\"model\">" + STestFiles.getMeshXml(STestFiles.cube(1), null) + "</object>\n"
+                + "<object id=\"2\" type=\"model\">" + STestFiles.getMeshXml(STestFiles.grid(4), null) + "</object>\n";
+        String build = "<item objectid=\"1\" transform=\"1 0 0 0 1 0 0 0 1 5 0 0\"/><item objectid=\"2\"/>";
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("3D/3dmodel.model", STestFiles.getModel("millimeter", resources, build));
+        Path file = directory.resolve("model.3mf");
+        STestFiles.write3mf(file, entries);
+        assertConsistent(of(new S3mf(file.toString(), new SImportOptions(), null)));
+    }
+}
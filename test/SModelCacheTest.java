@@ -0,0 +1,136 @@
+/**
+ * SModelCacheTest : Pruebas de la cache en memoria de modelos. Se descartan
+ * los modelos usados hace mas tiempo al superar la memoria maxima, y las
+ * copias ya entregadas siguen siendo validas despues del descarte o de
+ * vaciar la cache, aunque los stl fuera del heap se cierren
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SModelCacheTest {
+
+    private Path directory;
+    private Path[] files;
+    private float[][] soups;
+    private SModelCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("smodelcache");
+        files = new Path[3];
+        soups = new float[3][];
+        for (int i = 0; i < files.length; i++) {
+            soups[i] = STestFiles.grid(6); //mismo tamaño, en otro sitio
+            for (int p = 0; p < soups[i].length; p += 3) {
+                soups[i][p] += 10 * i;
+            }
+            files[i] = directory.resolve("grid" + i + ".stl");
+            STestFiles.writeBinaryStl(files[i], soups[i], null);
+        }
+        //caben los dos primeros ficheros pero no los tres
+        cache = new SModelCache(Files.size(files[0]) + Files.size(files[1]));
+        cache.memoryFactor = 1;
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cache.clear();
+        STestFiles.delete(directory);
+    }
+
+    private static SImportOptions offHeap() {
+        SImportOptions options = new SImportOptions();
+        options.enableOffHeap = true;
+        return options;
+    }
+
+    private static SImportOptions packed() {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        return options;
+    }
+
+    /**
+     * Triangulos de la malla fuera del heap en el formato de STestFiles.soup
+     */
+    private static float[] soup(SStl stl) {
+        return STestFiles.soup(Arrays.asList(stl.getOffHeapMesh().getPackedMesh(false)));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        SStl a = cache.getStl(files[0].toString(), packed());
+        SStl b = cache.getStl(files[1].toString(), packed());
+        assertEquals(2, cache.size());
+        assertEquals(Files.size(files[0]) + Files.size(files[1]), cache.getBytes());
+        SStl again = cache.getStl(files[0].toString(), packed()); //el primero pasa a ser el mas reciente
+        assertSame(a.getMeshes(), again.getMeshes());
+        cache.getStl(files[2].toString(), packed()); //descarta el segundo
+        assertEquals(2, cache.size());
+        assertSame(a.getMeshes(), cache.getStl(files[0].toString(), packed()).getMeshes());
+        SStl reloaded = cache.getStl(files[1].toString(), packed()); //se vuelve a cargar y descarta el tercero
+        assertNotSame(b.getMeshes(), reloaded.getMeshes());
+        assertArrayEquals(soups[1], STestFiles.soup(reloaded.getMeshes()), 0);
+        assertSame(a.getMeshes(), cache.getStl(files[0].toString(), packed()).getMeshes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void evictedOffHeapCopiesStayValid() {
+        SStl a = cache.getStl(files[0].toString(), offHeap());
+        SStl b = cache.getStl(files[0].toString(), offHeap());
+        cache.getStl(files[1].toString(), offHeap());
+        cache.getStl(files[2].toString(), offHeap()); //descarta y cierra el prototipo del primero
+        assertEquals(2, cache.size());
+        assertArrayEquals(soups[0], soup(a), 0);
+        a.close();
+        assertArrayEquals(soups[0], soup(b), 0); //b sigue usando los bloques
+        b.translate(1, 0, 0);
+        assertEquals(soups[0][0] + 1, soup(b)[0], 0);
+        b.close();
+
+        SStl reloaded = cache.getStl(files[0].toString(), offHeap());
+        assertNotSame(a.getOffHeapMesh(), reloaded.getOffHeapMesh());
+        assertArrayEquals(soups[0], soup(reloaded), 0);
+        reloaded.close();
+    }
+
+    @Test
+    void clearClosesPrototypes() {
+        SStl a = cache.getStl(files[0].toString(), offHeap());
+        SStl b = cache.getStl(files[1].toString(), offHeap());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertArrayEquals(soups[0], soup(a), 0);
+        assertArrayEquals(soups[1], soup(b), 0);
+        a.close();
+        b.close();
+        SStl c = cache.getStl(files[0].toString(), offHeap());
+        assertArrayEquals(soups[0], soup(c), 0);
+        c.close();
+    }
+
+    @Test
+    void modelLargerThanCache() {
+        cache.maxBytes = 1;
+        SStl a = cache.getStl(files[0].toString(), offHeap()); //se descarta al cargarlo
+        assertEquals(0, cache.size());
+        assertArrayEquals(soups[0], soup(a), 0);
+        a.close();
+    }
+}
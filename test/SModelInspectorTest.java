@@ -0,0 +1,165 @@
+/**
+ * SModelInspectorTest : Pruebas de la inspeccion previa de ficheros. Se
+ * cuentan los triangulos, vertices y objetos de cada formato sin importarlo
+ * y la memoria estimada depende de las opciones de importacion
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SModelInspectorTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("smodelinspector");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private static SImportOptions packed(boolean compactNormals) {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        options.enableCompactNormals = compactNormals;
+        return options;
+    }
+
+    /**
+     * DXF con las extensiones de la cabecera y entities lineas
+     */
+    private Path dxf(String name, double min, double max, int entities) throws IOException {
+        StringBuilder dxf = new StringBuilder();
+        dxf.append("0\nSECTION\n2\nHEADER\n");
+        dxf.append("9\n$EXTMIN\n10\n").append(min).append("\n20\n").append(min).append("\n30\n0.0\n");
+        dxf.append("9\n$EXTMAX\n10\n").append(max).append("\n20\n").append(max).append("\n30\n0.0\n");
+        dxf.append("0\nENDSEC\n0\nSECTION\n2\nENTITIES\n");
+        for (int i = 0; i < entities; i++) {
+            dxf.append("0\nLINE\n8\n0\n10\n0.0\n20\n0.0\n30\n0.0\n11\n1.0\n21\n").append(i).append(".0\n31\n0.0\n");
+        }
+        dxf.append("0\nENDSEC\n0\nEOF\n");
+        Path file = directory.resolve(name);
+        Files.write(file, dxf.toString().getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    void binaryStl() throws IOException {
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.grid(10), null);
+        SModelInfo info = SModelInspector.inspect(file.toString());
+        assertEquals(SModelFormat.STL_BINARY, info.format);
+        assertEquals(Files.size(file), info.fileSize);
+        assertEquals(200, info.triangles);
+        assertEquals(600, info.vertexs);
+        assertEquals(1, info.objects);
+        assertTrue(info.exact);
+        assertNull(info.box);
+
+        long objects = info.estimatedBytes;
+        long packed = SModelInspector.inspect(file.toString(), packed(false)).estimatedBytes;
+        long compact = SModelInspector.inspect(file.toString(), packed(true)).estimatedBytes;
+        assertTrue(compact < packed && packed < objects, compact + " " + packed + " " + objects);
+        assertTrue(info.fits(objects));
+        assertFalse(info.fits(objects - 1));
+    }
+
+    @Test
+    void truncatedBinaryStl() throws IOException {
+        //la cabecera declara mas triangulos de los que hay
+        Path file = directory.resolve("truncated.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.grid(10), null);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.write("binary".getBytes(StandardCharsets.US_ASCII));
+            raf.setLength(raf.length() - 50 * 20 - 10);
+        }
+        assertEquals(179, SModelInspector.inspect(file.toString()).triangles);
+    }
+
+    @Test
+    void asciiStl() throws IOException {
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeAsciiStl(file, STestFiles.grid(10), 60);
+        SModelInfo info = SModelInspector.inspect(file.toString());
+        assertEquals(SModelFormat.STL_ASCII, info.format);
+        assertEquals(200, info.triangles);
+        assertEquals(600, info.vertexs);
+        assertEquals(4, info.objects); //solidos de 60, 60, 60 y 20 triangulos
+        assertTrue(info.exact);
+    }
+
+    @Test
+    void asc() throws IOException {
+        Path file = directory.resolve("model.asc");
+        STestFiles.writeAsc(file, Arrays.asList(STestFiles.cube(1), STestFiles.grid(3)));
+        SModelInfo info = SModelInspector.inspect(file.toString());
+        assertEquals(SModelFormat.ASC, info.format);
+        assertEquals(2, info.objects);
+        assertEquals(12 + 18, info.triangles);
+        assertTrue(info.estimatedBytes > info.fileSize); //el fichero se lee entero como lineas
+        assertTrue(SModelInspector.inspect(file.toString(), packed(false)).estimatedBytes < info.estimatedBytes);
+    }
+
+    @Test
+    void threeMf() throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("3D/3dmodel.model", STestFiles.getModel("millimeter",
+                "<object id=\"1\" type=\"model\">" + STestFiles.getMeshXml(STestFiles.cube(1), null) + "</object>"
+                + "<object id=\"2\" type=\"model\">" + STestFiles.getMeshXml(STestFiles.grid(2), null) + "</object>",
+                "<item objectid=\"1\"/><item objectid=\"2\"/><item objectid=\"1\"/>"));
+        Path file = directory.resolve("model.3mf");
+        STestFiles.write3mf(file, entries);
+        SModelInfo info = SModelInspector.inspect(file.toString());
+        assertEquals(SModelFormat.THREE_MF, info.format);
+        assertEquals(2, info.objects); //el objeto repetido se cuenta una vez
+        assertEquals(12 + 8, info.triangles);
+        assertTrue(info.vertexs > 0);
+        assertTrue(info.estimatedBytes > 0);
+    }
+
+    @Test
+    void dxfBox() throws IOException {
+        SModelInfo info = SModelInspector.inspect(dxf("lines.dxf", -1, 5, 7).toString());
+        assertEquals(SModelFormat.DXF, info.format);
+        assertEquals(7, info.objects);
+        assertNotNull(info.box);
+        assertTrue(info.estimatedBytes > 0);
+        //extensiones invertidas de un dibujo vacio
+        assertNull(SModelInspector.inspect(dxf("empty.dxf", 1e20, -1e20, 0).toString()).box);
+    }
+
+    @Test
+    void unknownAndMissingFiles() throws IOException {
+        Path file = directory.resolve("model.obj");
+        Files.write(file, new byte[]{1, 2, 3});
+        SModelInfo info = SModelInspector.inspect(file.toString());
+        assertEquals(SModelFormat.UNKNOWN, info.format);
+        assertEquals(3, info.fileSize);
+        assertEquals(-1, info.estimatedBytes);
+        assertFalse(info.fits(Long.MAX_VALUE));
+        assertThrows(FileNotFoundException.class, () -> SModelInspector.inspect(directory.resolve("missing.stl").toString()));
+    }
+}
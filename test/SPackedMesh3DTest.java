@@ -0,0 +1,171 @@
+/**
+ * SPackedMesh3DTest : Pruebas de la malla compacta: union de partes en orden
+ * (con y sin colores, indexadas y sopas), crecimiento geometrico de los
+ * arrays al unir muchas partes y normales codificadas del modo compacto
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class SPackedMesh3DTest {
+
+    /**
+     * Sopa con los triangulos [first, first + count) de soup
+     */
+    private static SPackedMesh3D part(float[] soup, int first, int count, boolean colored) {
+        SPackedMesh3D mesh = new SPackedMesh3D(3 * count, false);
+        for (int t = first; t < first + count; t++) {
+            float[] n = STestFiles.normal(soup, t);
+            int p = 9 * t;
+            mesh.addTriangle(n[0], n[1], n[2], soup[p], soup[p + 1], soup[p + 2],
+                    soup[p + 3], soup[p + 4], soup[p + 5], soup[p + 6], soup[p + 7], soup[p + 8]);
+            if (colored) {
+                mesh.setLastColor(0x10000000 * (t % 7 + 1) | 0xFF);
+            }
+        }
+        return mesh;
+    }
+
+    @Test
+    void addKeepsOrderAndColors() {
+        float[] soup = STestFiles.grid(12);
+        int ntriangles = soup.length / 9;
+        SPackedMesh3D mesh = new SPackedMesh3D(0, false);
+        int[] expected = new int[ntriangles];
+        for (int first = 0, i = 0; first < ntriangles; first += 24, i++) {
+            boolean colored = i % 3 == 1; //partes con y sin colores
+            int count = Math.min(24, ntriangles - first);
+            mesh.add(part(soup, first, count, colored));
+            for (int t = first; t < first + count && colored; t++) {
+                expected[t] = 0x10000000 * (t % 7 + 1) | 0xFF;
+            }
+        }
+        assertEquals(ntriangles, mesh.getTrianglesCount());
+        assertArrayEquals(soup, STestFiles.soup(Arrays.asList(mesh)), 0);
+        assertArrayEquals(expected, STestFiles.colors(Arrays.asList(mesh)));
+    }
+
+    @Test
+    void addIndexed() {
+        SPackedMesh3D a = new SPackedMesh3D(3, true);
+        a.addVertex(0, 0, 0, 0, 0, 1);
+        a.addVertex(1, 0, 0, 0, 0, 1);
+        a.addVertex(0, 1, 0, 0, 0, 1);
+        a.addTriangle(0, 1, 2);
+        SPackedMesh3D b = a.getCopy();
+        b.translate(0, 0, 1);
+        a.add(b);
+        assertEquals(6, a.getVertexsCount());
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, Arrays.copyOf(a.getIndices(), 6));
+        assertEquals(1, a.getPositions()[3 * 3 + 2], 0);
+        assertThrows(IllegalArgumentException.class, () -> a.add(new SPackedMesh3D(3, false)));
+    }
+
+    @Test
+    void addGrowsGeometrically() {
+        float[] soup = STestFiles.grid(32);
+        int ntriangles = soup.length / 9;
+        SPackedMesh3D mesh = new SPackedMesh3D(0, false);
+        float[] positions = mesh.getPositions();
+        int reallocations = 0;
+        for (int first = 0; first < ntriangles; first += 4) {
+            mesh.add(part(soup, first, 4, false));
+            if (mesh.getPositions() != positions) {
+                positions = mesh.getPositions();
+                reallocations++;
+            }
+        }
+        //512 partes: unas 10 copias si el array dobla, no una por parte
+        assertTrue(reallocations <= 12, "reallocations: " + reallocations);
+        assertArrayEquals(soup, STestFiles.soup(Arrays.asList(mesh)), 0);
+    }
+
+    @Test
+    void compactNormalsAdd() {
+        float[] soup = STestFiles.grid(4);
+        SPackedMesh3D mesh = new SPackedMesh3D(0, false);
+        mesh.setCompactNormals(true);
+        mesh.add(part(soup, 0, 16, false));
+        mesh.add(part(soup, 16, 16, false));
+        float[] normal = new float[3];
+        for (int t = 0; t < 32; t++) {
+            float[] expected = STestFiles.normal(soup, t);
+            mesh.getNormal(3 * t, normal);
+            assertArrayEquals(expected, normal, 1e-3f);
+        }
+    }
+
+    @Test
+    void encodedNormalsRoundTrip() {
+        //puntos repartidos por la esfera (espiral de Fibonacci), ejes y diagonales
+        int n = 20000;
+        float[][] normals = new float[n + 14][];
+        for (int i = 0; i < n; i++) {
+            double z = 1 - (2 * i + 1) / (double) n;
+            double r = Math.sqrt(1 - z * z);
+            double a = i * Math.PI * (3 - Math.sqrt(5));
+            normals[i] = new float[]{(float) (r * Math.cos(a)), (float) (r * Math.sin(a)), (float) z};
+        }
+        int k = n;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int sign = -1; sign <= 1; sign += 2) {
+                normals[k] = new float[3];
+                normals[k++][axis] = sign;
+            }
+        }
+        for (int octant = 0; octant < 8; octant++) {
+            float d = (float) (1 / Math.sqrt(3));
+            normals[k++] = new float[]{(octant & 1) == 0 ? d : -d, (octant & 2) == 0 ? d : -d, (octant & 4) == 0 ? d : -d};
+        }
+        float[] decoded = new float[3];
+        double maxError = 0;
+        for (float[] normal : normals) {
+            SPackedMesh3D.decodeNormal(SPackedMesh3D.encodeNormal(normal[0], normal[1], normal[2]), decoded, 0);
+            double ax = normal[0], ay = normal[1], az = normal[2];
+            double bx = decoded[0], by = decoded[1], bz = decoded[2];
+            assertEquals(1, Math.sqrt(bx * bx + by * by + bz * bz), 1e-6);
+            //angulo en double con atan2, acos pierde precision cerca de 0
+            double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+            double angle = Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+            maxError = Math.max(maxError, Math.toDegrees(angle));
+        }
+        assertTrue(maxError < 0.01, "max error: " + maxError + " degrees");
+    }
+
+    @Test
+    void encodedNullNormal() {
+        float[] decoded = {1, 1, 1};
+        SPackedMesh3D.decodeNormal(SPackedMesh3D.encodeNormal(0, 0, 0), decoded, 0);
+        assertArrayEquals(new float[]{0, 0, 0}, decoded, 0);
+        SPackedMesh3D.decodeNormal(SPackedMesh3D.encodeNormal(Float.NaN, 0, 1), decoded, 0);
+        assertArrayEquals(new float[]{0, 0, 0}, decoded, 0);
+    }
+
+    @Test
+    void switchCompactNormals() {
+        float[] soup = STestFiles.grid(6);
+        SPackedMesh3D mesh = part(soup, 0, soup.length / 9, false);
+        float[] normals = Arrays.copyOf(mesh.getNormals(), 3 * mesh.getVertexsCount());
+        float[] positions = mesh.getPositions();
+        mesh.setCompactNormals(true);
+        assertTrue(mesh.isCompactNormals());
+        assertArrayEquals(normals, mesh.getNormals(), 1e-4f);
+        assertArrayEquals(soup, STestFiles.soup(Arrays.asList(mesh)), 0);
+        SPackedMesh3D copy = mesh.getCopy();
+        assertTrue(copy.isCompactNormals());
+        mesh.setCompactNormals(false);
+        assertEquals(false, mesh.isCompactNormals());
+        assertArrayEquals(normals, Arrays.copyOf(mesh.getNormals(), normals.length), 1e-4f);
+        assertSame(positions, mesh.getPositions()); //las posiciones no cambian
+        assertArrayEquals(normals, copy.getNormals(), 1e-4f);
+    }
+}
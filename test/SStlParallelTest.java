@@ -0,0 +1,185 @@
+/**
+ * SStlParallelTest : Pruebas de equivalencia entre la lectura secuencial y en
+ * paralelo de ficheros *.stl binarios y ascii. Los dos caminos deben dar los
+ * mismos triangulos, normales, colores, indices y solidos en el orden del
+ * fichero
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SStlParallelTest {
+
+    private static final int GRID = 314; //197192 triangulos: 3 hojas completas y una incompleta
+    private static final int ASCII_GRID = 160; //mas de 8 MB: al menos dos trozos ascii
+    private Path directory;
+    private float[] soup;
+    private Path binary;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sstlparallel");
+        soup = STestFiles.grid(GRID);
+        int[] attributes = new int[soup.length / 9];
+        for (int t = 0; t < attributes.length; t++) {
+            attributes[t] = t % 5 == 0 ? 0x8000 | (t & 0x7FFF) : 0;
+        }
+        binary = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(binary, soup, attributes);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private static SImportOptions options(boolean packed, boolean parallel) {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = packed;
+        options.enableParallel = parallel;
+        options.parallelism = 4;
+        return options;
+    }
+
+    /**
+     * STL ascii con solidos de 7001 triangulos, de forma que los trozos en
+     * paralelo empiezan en mitad de un solido
+     */
+    private Path ascii() throws IOException {
+        Path file = directory.resolve("ascii.stl");
+        STestFiles.writeAsciiStl(file, STestFiles.grid(ASCII_GRID), 7001);
+        return file;
+    }
+
+    private static float[] normals(List<SPackedMesh3D> meshes) {
+        SPackedMesh3D mesh = meshes.get(0);
+        return Arrays.copyOf(mesh.getNormals(), 3 * mesh.getVertexsCount());
+    }
+
+    private static void assertSameStats(SMeshStats expected, SMeshStats stats) {
+        assertEquals(expected.triangles, stats.triangles);
+        assertEquals(expected.minX, stats.minX, 0);
+        assertEquals(expected.maxX, stats.maxX, 0);
+        assertEquals(expected.minZ, stats.minZ, 0);
+        assertEquals(expected.maxZ, stats.maxZ, 0);
+        assertEquals(expected.area, stats.area, 1e-9 * expected.area); //otro orden de suma
+        assertEquals(expected.volume, stats.volume, 1e-9 * Math.max(1, Math.abs(expected.volume)));
+    }
+
+    @Test
+    void binaryPacked() throws IOException {
+        SStl sequential = new SStl(binary.toString(), options(true, false), null);
+        SStl parallel = new SStl(binary.toString(), options(true, true), null);
+        assertEquals(1, parallel.getMeshes().size());
+        assertArrayEquals(soup, STestFiles.soup(parallel.getMeshes()), 0);
+        assertArrayEquals(STestFiles.soup(sequential.getMeshes()), STestFiles.soup(parallel.getMeshes()), 0);
+        assertArrayEquals(normals(sequential.getMeshes()), normals(parallel.getMeshes()), 0);
+        int[] colors = STestFiles.colors(parallel.getMeshes());
+        assertArrayEquals(STestFiles.colors(sequential.getMeshes()), colors);
+        assertEquals(SStylePalette.getAttributeColor(0x8000 | 65540), colors[65540]); //en la segunda hoja
+        assertEquals(0, colors[65541]);
+        assertSameStats(sequential.getStats(), parallel.getStats());
+    }
+
+    @Test
+    void binaryCompactNormals() throws IOException {
+        SImportOptions options = options(true, false);
+        options.enableCompactNormals = true;
+        SStl sequential = new SStl(binary.toString(), options, null);
+        options.enableParallel = true;
+        SStl parallel = new SStl(binary.toString(), options, null);
+        assertTrue(parallel.getMeshes().get(0).isCompactNormals());
+        assertArrayEquals(normals(sequential.getMeshes()), normals(parallel.getMeshes()), 0);
+        assertArrayEquals(soup, STestFiles.soup(parallel.getMeshes()), 0);
+    }
+
+    @Test
+    void binaryWelded() throws IOException {
+        SImportOptions options = options(true, false);
+        options.enableWelding = true;
+        SStl sequential = new SStl(binary.toString(), options, null);
+        options.enableParallel = true;
+        SStl parallel = new SStl(binary.toString(), options, null);
+        SPackedMesh3D a = sequential.getMeshes().get(0);
+        SPackedMesh3D b = parallel.getMeshes().get(0);
+        assertEquals(a.getVertexsCount(), b.getVertexsCount());
+        assertArrayEquals(Arrays.copyOf(a.getIndices(), 3 * a.getTrianglesCount()), Arrays.copyOf(b.getIndices(), 3 * b.getTrianglesCount()));
+        assertArrayEquals(soup, STestFiles.soup(parallel.getMeshes()), 0);
+    }
+
+    @Test
+    void binaryFaces() throws IOException {
+        SStl sequential = new SStl(binary.toString(), options(false, false), null);
+        SStl parallel = new SStl(binary.toString(), options(false, true), null);
+        assertSameStats(sequential.getStats(), parallel.getStats());
+        Path a = directory.resolve("sequential.stl");
+        Path b = directory.resolve("parallel.stl");
+        assertTrue(sequential.saveStl(a.toString()));
+        assertTrue(parallel.saveStl(b.toString()));
+        assertArrayEquals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+
+    @Test
+    void asciiPacked() throws IOException {
+        Path file = ascii();
+        SStl sequential = new SStl(file.toString(), options(true, false), null);
+        SStl parallel = new SStl(file.toString(), options(true, true), null);
+        List<SPackedMesh3D> a = sequential.getMeshes();
+        List<SPackedMesh3D> b = parallel.getMeshes();
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++) {
+            //cada solido queda en su malla aunque lo corten los trozos
+            assertEquals(a.get(i).getTrianglesCount(), b.get(i).getTrianglesCount());
+        }
+        assertArrayEquals(STestFiles.grid(ASCII_GRID), STestFiles.soup(b), 0);
+        assertArrayEquals(STestFiles.soup(a), STestFiles.soup(b), 0);
+        for (int i = 0; i < a.size(); i++) {
+            assertArrayEquals(normals(a.subList(i, i + 1)), normals(b.subList(i, i + 1)), 0);
+        }
+        assertSameStats(sequential.getStats(), parallel.getStats());
+    }
+
+    @Test
+    void asciiWelded() throws IOException {
+        Path file = ascii();
+        SImportOptions options = options(true, false);
+        options.enableWelding = true;
+        SStl sequential = new SStl(file.toString(), options, null);
+        options.enableParallel = true;
+        SStl parallel = new SStl(file.toString(), options, null);
+        assertEquals(sequential.getMeshes().size(), parallel.getMeshes().size());
+        for (int i = 0; i < sequential.getMeshes().size(); i++) {
+            SPackedMesh3D a = sequential.getMeshes().get(i);
+            SPackedMesh3D b = parallel.getMeshes().get(i);
+            assertEquals(a.getVertexsCount(), b.getVertexsCount());
+            assertArrayEquals(Arrays.copyOf(a.getIndices(), 3 * a.getTrianglesCount()), Arrays.copyOf(b.getIndices(), 3 * b.getTrianglesCount()));
+        }
+        assertArrayEquals(STestFiles.grid(ASCII_GRID), STestFiles.soup(parallel.getMeshes()), 0);
+    }
+
+    @Test
+    void asciiFaces() throws IOException {
+        Path file = ascii();
+        SStl sequential = new SStl(file.toString(), options(false, false), null);
+        SStl parallel = new SStl(file.toString(), options(false, true), null);
+        assertSameStats(sequential.getStats(), parallel.getStats());
+        Path a = directory.resolve("sequential.stl");
+        Path b = directory.resolve("parallel.stl");
+        assertTrue(sequential.saveStl(a.toString()));
+        assertTrue(parallel.saveStl(b.toString()));
+        assertArrayEquals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+}
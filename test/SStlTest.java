@@ -0,0 +1,220 @@
+/**
+ * SStlTest : Pruebas de lectura de ficheros *.stl. Todos los modos de carga
+ * (clasico, compacto, en paralelo, soldado y fuera del heap) deben leer los
+ * mismos triangulos que se han escrito
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SStlTest {
+
+    private static final int GRID = 200; //80000 triangulos, mas de una hoja del arbol paralelo
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sstl");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    private static SImportOptions packed() {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        return options;
+    }
+
+    private static SImportOptions parallel() {
+        SImportOptions options = packed();
+        options.enableParallel = true;
+        options.parallelism = 4;
+        return options;
+    }
+
+    private static void assertStats(SMeshStats expected, SMeshStats stats) {
+        assertEquals(expected.triangles, stats.triangles);
+        assertEquals(expected.minX, stats.minX, 1e-6);
+        assertEquals(expected.minY, stats.minY, 1e-6);
+        assertEquals(expected.minZ, stats.minZ, 1e-6);
+        assertEquals(expected.maxX, stats.maxX, 1e-6);
+        assertEquals(expected.maxY, stats.maxY, 1e-6);
+        assertEquals(expected.maxZ, stats.maxZ, 1e-6);
+        assertEquals(expected.area, stats.area, 1e-6 * Math.max(1, expected.area));
+        assertEquals(expected.volume, stats.volume, 1e-6 * Math.max(1, Math.abs(expected.volume)));
+    }
+
+    @Test
+    void cubeStats() throws IOException {
+        Path file = directory.resolve("cube.stl");
+        STestFiles.writeBinaryStl(file, STestFiles.cube(2), null);
+        SStl stl = new SStl(file.toString(), packed(), null);
+        SMeshStats stats = stl.getStats();
+        assertEquals(12, stats.triangles);
+        assertEquals(24, stats.area, 1e-9);
+        assertEquals(8, stats.volume, 1e-9);
+        assertEquals(2, stats.maxX - stats.minX, 1e-9);
+    }
+
+    @Test
+    void binaryLoadModes() throws IOException {
+        float[] soup = STestFiles.grid(GRID);
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, soup, null);
+        SMeshStats expected = STestFiles.stats(soup);
+
+        SStl classic = new SStl(file.toString(), new SImportOptions(), null);
+        assertStats(expected, classic.getStats());
+
+        for (SImportOptions options : new SImportOptions[]{packed(), parallel()}) {
+            SStl stl = new SStl(file.toString(), options, null);
+            assertNotNull(stl.getMeshes());
+            assertArrayEquals(soup, STestFiles.soup(stl.getMeshes()), 0);
+            assertStats(expected, stl.getStats());
+            assertStats(expected, SMeshStats.of(stl.getMeshes()));
+        }
+
+        SImportOptions options = new SImportOptions();
+        options.enableOffHeap = true;
+        try (SStl stl = new SStl(file.toString(), options, null)) {
+            SOffHeapMesh3D mesh = stl.getOffHeapMesh();
+            assertNotNull(mesh);
+            assertEquals(soup.length / 9, mesh.getTrianglesCount());
+            float[] vertex = new float[3];
+            for (int t = 0; t < mesh.getTrianglesCount(); t++) {
+                for (int k = 0; k < 3; k++) {
+                    mesh.getVertex(t, k, vertex);
+                    assertEquals(soup[9 * t + 3 * k], vertex[0], 0);
+                    assertEquals(soup[9 * t + 3 * k + 1], vertex[1], 0);
+                    assertEquals(soup[9 * t + 3 * k + 2], vertex[2], 0);
+                }
+            }
+            assertStats(expected, stl.getStats());
+        }
+    }
+
+    @Test
+    void weldedGrid() throws IOException {
+        float[] soup = STestFiles.grid(GRID);
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, soup, null);
+        for (SImportOptions options : new SImportOptions[]{packed(), parallel()}) {
+            options.enableWelding = true;
+            SStl stl = new SStl(file.toString(), options, null);
+            assertEquals(1, stl.getMeshes().size());
+            SPackedMesh3D mesh = stl.getMeshes().get(0);
+            assertTrue(mesh.isIndexed());
+            assertEquals((GRID + 1) * (GRID + 1), mesh.getVertexsCount());
+            assertArrayEquals(soup, STestFiles.soup(stl.getMeshes()), 0);
+        }
+    }
+
+    @Test
+    void asciiMatchesBinary() throws IOException {
+        float[] soup = STestFiles.grid(20);
+        Path binary = directory.resolve("binary.stl");
+        Path ascii = directory.resolve("ascii.stl");
+        STestFiles.writeBinaryStl(binary, soup, null);
+        STestFiles.writeAsciiStl(ascii, soup, 300);
+        SStl a = new SStl(ascii.toString(), packed(), null);
+        SStl b = new SStl(binary.toString(), packed(), null);
+        assertEquals(3, a.getMeshes().size()); //un solido cada 300 triangulos
+        assertArrayEquals(STestFiles.soup(b.getMeshes()), STestFiles.soup(a.getMeshes()), 0);
+        assertStats(b.getStats(), a.getStats());
+        assertStats(STestFiles.stats(soup), new SStl(ascii.toString(), new SImportOptions(), null).getStats());
+    }
+
+    @Test
+    void compactNormals() throws IOException {
+        float[] soup = STestFiles.grid(20);
+        Path binary = directory.resolve("binary.stl");
+        Path ascii = directory.resolve("ascii.stl");
+        STestFiles.writeBinaryStl(binary, soup, null);
+        STestFiles.writeAsciiStl(ascii, soup, 300);
+        for (Path file : new Path[]{binary, ascii}) {
+            for (boolean welding : new boolean[]{false, true}) {
+                SImportOptions options = packed();
+                options.enableWelding = welding;
+                SStl full = new SStl(file.toString(), options, null);
+                options.enableCompactNormals = true;
+                SStl compact = new SStl(file.toString(), options, null);
+                assertEquals(full.getMeshes().size(), compact.getMeshes().size());
+                for (int i = 0; i < full.getMeshes().size(); i++) {
+                    SPackedMesh3D a = full.getMeshes().get(i);
+                    SPackedMesh3D b = compact.getMeshes().get(i);
+                    assertTrue(b.isCompactNormals());
+                    assertEquals(a.getVertexsCount(), b.getVertexsCount());
+                    assertArrayEquals(Arrays.copyOf(a.getNormals(), 3 * a.getVertexsCount()), b.getNormals(), 1e-4f);
+                }
+                assertArrayEquals(soup, STestFiles.soup(compact.getMeshes()), 0);
+                assertStats(full.getStats(), compact.getStats());
+            }
+        }
+    }
+
+    @Test
+    void parallelAsciiMatchesSequential() throws IOException {
+        float[] soup = STestFiles.grid(160); //mas de 8 MB, al menos dos trozos en paralelo
+        Path ascii = directory.resolve("ascii.stl");
+        STestFiles.writeAsciiStl(ascii, soup, 5000);
+        SStl sequential = new SStl(ascii.toString(), packed(), null);
+        SStl parallel = new SStl(ascii.toString(), parallel(), null);
+        assertEquals(sequential.getMeshes().size(), parallel.getMeshes().size());
+        assertArrayEquals(soup, STestFiles.soup(sequential.getMeshes()), 0);
+        assertArrayEquals(soup, STestFiles.soup(parallel.getMeshes()), 0);
+    }
+
+    @Test
+    void visitTriangles() throws IOException {
+        float[] soup = STestFiles.grid(10);
+        int[] attributes = new int[soup.length / 9];
+        for (int t = 0; t < attributes.length; t++) {
+            attributes[t] = 0x8000 | t;
+        }
+        Path file = directory.resolve("grid.stl");
+        STestFiles.writeBinaryStl(file, soup, attributes);
+        float[] visited = new float[soup.length];
+        int[] visitedAttributes = new int[attributes.length];
+        int[] count = new int[1];
+        assertTrue(SStl.visitTriangles(file.toString(), (nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attribute) -> {
+            int t = count[0]++;
+            float[] triangle = {x1, y1, z1, x2, y2, z2, x3, y3, z3};
+            System.arraycopy(triangle, 0, visited, 9 * t, 9);
+            visitedAttributes[t] = attribute;
+        }));
+        assertEquals(attributes.length, count[0]);
+        assertArrayEquals(soup, visited, 0);
+        assertArrayEquals(attributes, visitedAttributes);
+    }
+
+    @Test
+    void attributeColors() throws IOException {
+        float[] soup = STestFiles.cube(1);
+        int[] attributes = new int[12];
+        for (int t = 0; t < attributes.length; t++) {
+            attributes[t] = t % 3 == 0 ? 0 : 0x8000 | (t << 10) | (31 - t);
+        }
+        Path file = directory.resolve("cube.stl");
+        STestFiles.writeBinaryStl(file, soup, attributes);
+        SStl stl = new SStl(file.toString(), packed(), null);
+        int[] colors = STestFiles.colors(stl.getMeshes());
+        for (int t = 0; t < attributes.length; t++) {
+            assertEquals(SStylePalette.getAttributeColor(attributes[t]), colors[t]);
+        }
+    }
+}
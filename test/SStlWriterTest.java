@@ -0,0 +1,139 @@
+/**
+ * SStlWriterTest : Pruebas de escritura de ficheros *.stl binarios. Lo que se
+ * guarda desde cada representacion (caras, mallas compactas y mallas fuera
+ * del heap) debe leerse igual, con los colores en el atributo
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SStlWriterTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = STestFiles.createDirectory("sstlwriter");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        STestFiles.delete(directory);
+    }
+
+    /**
+     * Atributos con colores VisCAM validos y caras sin color
+     */
+    private static int[] attributes(int ntriangles) {
+        int[] attributes = new int[ntriangles];
+        for (int t = 0; t < ntriangles; t++) {
+            attributes[t] = t % 4 == 0 ? 0 : 0x8000 | (t & 0x7FFF);
+        }
+        return attributes;
+    }
+
+    /**
+     * Leer los vertices y los atributos de un STL binario
+     */
+    private static float[] read(Path file, int[] attributes) {
+        float[] soup = new float[9 * attributes.length];
+        int[] count = new int[1];
+        assertTrue(SStl.visitTriangles(file.toString(), (nx, ny, nz, x1, y1, z1, x2, y2, z2, x3, y3, z3, attribute) -> {
+            int t = count[0]++;
+            float[] triangle = {x1, y1, z1, x2, y2, z2, x3, y3, z3};
+            System.arraycopy(triangle, 0, soup, 9 * t, 9);
+            attributes[t] = attribute;
+        }));
+        assertEquals(attributes.length, count[0]);
+        return soup;
+    }
+
+    private void assertRoundTrip(SImportOptions options, boolean colors) throws IOException {
+        float[] soup = STestFiles.grid(30);
+        int[] attributes = attributes(soup.length / 9);
+        Path source = directory.resolve("source.stl");
+        Path target = directory.resolve("target.stl");
+        STestFiles.writeBinaryStl(source, soup, attributes);
+        try (SStl stl = new SStl(source.toString(), options, null)) {
+            assertTrue(stl.saveStl(target.toString()));
+        }
+        int[] written = new int[attributes.length];
+        assertArrayEquals(soup, read(target, written), 0);
+        if (!colors) {
+            Arrays.fill(attributes, 0);
+        }
+        assertArrayEquals(attributes, written);
+    }
+
+    @Test
+    void facesRoundTrip() throws IOException {
+        assertRoundTrip(new SImportOptions(), true);
+    }
+
+    @Test
+    void packedRoundTrip() throws IOException {
+        SImportOptions options = new SImportOptions();
+        options.enablePacked = true;
+        assertRoundTrip(options, true);
+        options.enableWelding = true;
+        assertRoundTrip(options, true);
+        options.enableColors = false;
+        assertRoundTrip(options, false);
+    }
+
+    @Test
+    void offHeapRoundTrip() throws IOException {
+        SImportOptions options = new SImportOptions();
+        options.enableOffHeap = true;
+        assertRoundTrip(options, true);
+    }
+
+    @Test
+    void offHeapCopiesRecords() throws IOException {
+        float[] soup = STestFiles.grid(120); //varias veces el buffer del writer
+        Path source = directory.resolve("source.stl");
+        Path target = directory.resolve("target.stl");
+        STestFiles.writeBinaryStl(source, soup, attributes(soup.length / 9));
+        SImportOptions options = new SImportOptions();
+        options.enableOffHeap = true;
+        try (SStl stl = new SStl(source.toString(), options, null)) {
+            assertTrue(stl.saveStl(target.toString()));
+        }
+        byte[] expected = Files.readAllBytes(source);
+        byte[] actual = Files.readAllBytes(target);
+        assertEquals(expected.length, actual.length);
+        //la cabecera de 80 bytes es la del writer, el resto se copia tal cual
+        assertArrayEquals(Arrays.copyOfRange(expected, 80, expected.length), Arrays.copyOfRange(actual, 80, actual.length));
+    }
+
+    @Test
+    void writeMesh() throws IOException {
+        SPackedMesh3D mesh = new SPackedMesh3D(4, true);
+        int a = mesh.addVertex(0, 0, 0, 0, 0, 1);
+        int b = mesh.addVertex(1, 0, 0, 0, 0, 1);
+        int c = mesh.addVertex(1, 1, 0, 0, 0, 1);
+        int d = mesh.addVertex(0, 1, 0, 0, 0, 1);
+        mesh.addTriangle(a, b, c);
+        mesh.setLastColor(255, 0, 0, 255);
+        mesh.addTriangle(a, c, d);
+        Path target = directory.resolve("mesh.stl");
+        SStlWriter writer = new SStlWriter();
+        assertTrue(writer.write(target.toString(), mesh));
+        assertEquals(84 + 2 * 50, Files.size(target));
+        int[] attributes = new int[2];
+        assertArrayEquals(new float[]{0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 0, 1, 1, 0, 0, 1, 0}, read(target, attributes), 0);
+        assertArrayEquals(new int[]{SStylePalette.getColorAttribute(0xFF0000FF), 0}, attributes);
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * STestFiles : Utilidades de las pruebas para generar geometrias y ficheros
+ * (STL binario y ascii, ASC y 3MF) en un directorio temporal.
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+final class STestFiles {
+
+    private STestFiles() {
+    }
+
+    /**
+     * Crear un directorio temporal para una prueba
+     */
+    static Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Borrar un directorio temporal con su contenido
+     */
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sopa de triangulos (9 floats por triangulo) de una rejilla de n x n
+     * celdas de lado 1 con alturas distintas, 2 triangulos por celda
+     */
+    static float[] grid(int n) {
+        float[] soup = new float[18 * n * n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                float[] a = {i, j, height(i, j)};
+                float[] b = {i + 1, j, height(i + 1, j)};
+                float[] c = {i, j + 1, height(i, j + 1)};
+                float[] d = {i + 1, j + 1, height(i + 1, j + 1)};
+                for (float[] p : new float[][]{a, b, d, a, d, c}) {
+                    soup[k++] = p[0];
+                    soup[k++] = p[1];
+                    soup[k++] = p[2];
+                }
+            }
+        }
+        return soup;
+    }
+
+    private static float height(int i, int j) {
+        return (float) (0.25 * Math.sin(0.7 * i) * Math.cos(0.3 * j));
+    }
+
+    /**
+     * Sopa de triangulos de un cubo cerrado de lado size con las caras hacia
+     * fuera (area 6 size^2, volumen size^3)
+     */
+    static float[] cube(float size) {
+        int[][] faces = {{0, 2, 3}, {0, 3, 1}, {4, 5, 7}, {4, 7, 6}, {0, 1, 5}, {0, 5, 4},
+        {2, 6, 7}, {2, 7, 3}, {0, 4, 6}, {0, 6, 2}, {1, 3, 7}, {1, 7, 5}};
+        float[] soup = new float[9 * faces.length];
+        int k = 0;
+        for (int[] face : faces) {
+            for (int v : face) {
+                soup[k++] = (v & 1) * size;
+                soup[k++] = ((v >> 1) & 1) * size;
+                soup[k++] = ((v >> 2) & 1) * size;
+            }
+        }
+        return soup;
+    }
+
+    /**
+     * Normal unitaria del triangulo t de una sopa
+     */
+    static float[] normal(float[] soup, int t) {
+        int p = 9 * t;
+        float ux = soup[p + 3] - soup[p], uy = soup[p + 4] - soup[p + 1], uz = soup[p + 5] - soup[p + 2];
+        float vx = soup[p + 6] - soup[p], vy = soup[p + 7] - soup[p + 1], vz = soup[p + 8] - soup[p + 2];
+        float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        float d = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        return d > 0 ? new float[]{nx / d, ny / d, nz / d} : new float[3];
+    }
+
+    /**
+     * Guardar una sopa como STL binario con el atributo de cada triangulo
+     * (attributes puede ser null)
+     */
+    static void writeBinaryStl(Path path, float[] soup, int[] attributes) throws IOException {
+        int ntriangles = soup.length / 9;
+        ByteBuffer buffer = ByteBuffer.allocate(84 + 50 * ntriangles).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] header = "solid test".getBytes(StandardCharsets.US_ASCII); //cabecera que empieza como un ascii
+        buffer.put(header).position(80);
+        buffer.putInt(ntriangles);
+        for (int t = 0; t < ntriangles; t++) {
+            for (float value : normal(soup, t)) {
+                buffer.putFloat(value);
+            }
+            for (int i = 0; i < 9; i++) {
+                buffer.putFloat(soup[9 * t + i]);
+            }
+            buffer.putShort((short) (attributes != null ? attributes[t] : 0));
+        }
+        Files.write(path, buffer.array());
+    }
+
+    /**
+     * Guardar una sopa como STL ascii con un solido por cada solidSize
+     * triangulos. Los floats se escriben con Float.toString para leerlos
+     * exactamente
+     */
+    static void writeAsciiStl(Path path, float[] soup, int solidSize) throws IOException {
+        int ntriangles = soup.length / 9;
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            for (int t = 0; t < ntriangles; t++) {
+                if (t % solidSize == 0) {
+                    out.write("solid part" + t / solidSize + "\n");
+                }
+                float[] n = normal(soup, t);
+                out.write("  facet normal " + n[0] + " " + n[1] + " " + n[2] + "\n    outer loop\n");
+                for (int k = 0; k < 3; k++) {
+                    int p = 9 * t + 3 * k;
+                    out.write("      vertex " + soup[p] + " " + soup[p + 1] + " " + soup[p + 2] + "\n");
+                }
+                out.write("    endloop\n  endfacet\n");
+                if (t % solidSize == solidSize - 1 || t == ntriangles - 1) {
+                    out.write("endsolid part" + t / solidSize + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Estadisticas de una sopa calculadas directamente
+     */
+    static SMeshStats stats(float[] soup) {
+        SMeshStats stats = new SMeshStats();
+        for (int p = 0; p < soup.length; p += 9) {
+            stats.add(soup[p], soup[p + 1], soup[p + 2], soup[p + 3], soup[p + 4], soup[p + 5],
+                    soup[p + 6], soup[p + 7], soup[p + 8]);
+        }
+        return stats;
+    }
+
+    /**
+     * Sopa de triangulos de unas mallas compactas (indexadas o no), en orden
+     */
+    static float[] soup(List<SPackedMesh3D> meshes) {
+        int ntriangles = 0;
+        for (SPackedMesh3D mesh : meshes) {
+            ntriangles += mesh.getTrianglesCount();
+        }
+        float[] soup = new float[9 * ntriangles];
+        int k = 0;
+        for (SPackedMesh3D mesh : meshes) {
+            float[] positions = mesh.getPositions();
+            for (int t = 0; t < mesh.getTrianglesCount(); t++) {
+                for (int c = 0; c < 3; c++) {
+                    int v = 3 * mesh.getVertexIndex(t, c);
+                    soup[k++] = positions[v];
+                    soup[k++] = positions[v + 1];
+                    soup[k++] = positions[v + 2];
+                }
+            }
+        }
+        return soup;
+    }
+
+    /**
+     * Colores rgba por triangulo de unas mallas compactas (0 sin color)
+     */
+    static int[] colors(List<SPackedMesh3D> meshes) {
+        int ntriangles = 0;
+        for (SPackedMesh3D mesh : meshes) {
+            ntriangles += mesh.getTrianglesCount();
+        }
+        int[] colors = new int[ntriangles];
+        int k = 0;
+        for (SPackedMesh3D mesh : meshes) {
+            int[] meshColors = mesh.getColors();
+            for (int t = 0; t < mesh.getTrianglesCount(); t++) {
+                colors[k++] = meshColors != null ? meshColors[t] : 0;
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Guardar un 3MF con las partes de entries (nombre de la entrada del zip
+     * y contenido). Si no hay _rels/.rels se añade uno que apunta a
+     * 3D/3dmodel.model
+     */
+    static void write3mf(Path path, Map<String, String> entries) throws IOException {
+        try (OutputStream file = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(file)) {
+            if (!entries.containsKey("_rels/.rels")) {
+                putEntry(zip, "_rels/.rels", getRelationships("/3D/3dmodel.model"));
+            }
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                putEntry(zip, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /**
+     * Contenido de _rels/.rels con la parte del modelo principal
+     */
+    static String getRelationships(String target) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Target=\"" + target + "\" Id=\"rel0\" "
+                + "Type=\"http://schemas.microsoft.com/3dmanufacturing/2013/01/3dmodel\"/></Relationships>";
+    }
+
+    /**
+     * Parte de un modelo 3MF con los recursos y las instancias dados
+     */
+    static String getModel(String unit, String resources, String build) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<model unit=\"" + unit + "\" xmlns=\"http://schemas.microsoft.com/3dmanufacturing/core/2015/02\" "
+                + "xmlns:m=\"http://schemas.microsoft.com/3dmanufacturing/material/2015/02\" "
+                + "xmlns:p=\"" + S3mfParser.PRODUCTION_NS + "\">\n"
+                + "<resources>\n" + resources + "</resources>\n<build>" + build + "</build>\n</model>\n";
+    }
+
+    /**
+     * Elemento <mesh> de 3MF con la sopa soldada de forma exacta. Si
+     * triangleAttributes no es null se añade a cada triangulo (por ejemplo
+     * pid="1" p1="0")
+     */
+    static String getMeshXml(float[] soup, String[] triangleAttributes) {
+        StringBuilder vertices = new StringBuilder();
+        StringBuilder triangles = new StringBuilder();
+        Map<String, Integer> indices = new HashMap<>();
+        for (int t = 0; t < soup.length / 9; t++) {
+            int[] v = new int[3];
+            for (int k = 0; k < 3; k++) {
+                int p = 9 * t + 3 * k;
+                String vertex = "x=\"" + soup[p] + "\" y=\"" + soup[p + 1] + "\" z=\"" + soup[p + 2] + "\"";
+                Integer index = indices.get(vertex);
+                if (index == null) {
+                    index = indices.size();
+                    indices.put(vertex, index);
+                    vertices.append("<vertex ").append(vertex).append("/>\n");
+                }
+                v[k] = index;
+            }
+            triangles.append("<triangle v1=\"").append(v[0]).append("\" v2=\"").append(v[1]).append("\" v3=\"").append(v[2]).append('"');
+            if (triangleAttributes != null && triangleAttributes[t] != null) {
+                triangles.append(' ').append(triangleAttributes[t]);
+            }
+            triangles.append("/>\n");
+        }
+        return "<mesh><vertices>\n" + vertices + "</vertices><triangles>\n" + triangles + "</triangles></mesh>";
+    }
+
+    /**
+     * Guardar unas sopas como *.asc de 3D Studio (un objeto por sopa, con
+     * los vertices soldados de forma exacta y caras rojas). El fichero
+     * termina con la ultima cara, como los que exporta 3D Studio
+     */
+    static void writeAsc(Path path, List<float[]> soups) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.US_ASCII)) {
+            out.write("Ambient light color: Red=0.3 Green=0.3 Blue=0.3\n\n");
+            for (int o = 0; o < soups.size(); o++) {
+                float[] soup = soups.get(o);
+                Map<String, Integer> indices = new HashMap<>();
+                StringBuilder vertices = new StringBuilder();
+                StringBuilder faces = new StringBuilder();
+                for (int t = 0; t < soup.length / 9; t++) {
+                    int[] v = new int[3];
+                    for (int k = 0; k < 3; k++) {
+                        int p = 9 * t + 3 * k;
+                        String vertex = "X: " + soup[p] + "     Y: " + soup[p + 1] + "     Z: " + soup[p + 2];
+                        Integer index = indices.get(vertex);
+                        if (index == null) {
+                            index = indices.size();
+                            indices.put(vertex, index);
+                            vertices.append("Vertex ").append(index).append(":  ").append(vertex).append('\n');
+                        }
+                        v[k] = index;
+                    }
+                    faces.append("Face ").append(t).append(":    A:").append(v[0]).append(" B:").append(v[1])
+                            .append(" C:").append(v[2]).append(" AB:1 BC:1 CA:1\n")
+                            .append("Material:\"r255g0b0a0\"\nSmoothing:  1\n");
+                }
+                if (o > 0) {
+                    out.write("\n");
+                }
+                out.write("Named object: \"Object" + o + "\"\n");
+                out.write("Tri-mesh, Vertices: " + indices.size() + "     Faces: " + soup.length / 9 + "\n");
+                out.write("Vertex list:\n" + vertices + "Face list:\n" + faces);
+            }
+        }
+    }
+}
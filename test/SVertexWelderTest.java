@@ -0,0 +1,99 @@
+/**
+ * SVertexWelderTest : Pruebas de la soldadura de vertices. Los vertices
+ * repetidos (o en la misma celda de la tolerancia) se sueldan en uno, los
+ * triangulos degenerados se descartan con su color y la malla indexada
+ * reproduce la sopa original
+ *
+ * @author: Jon Martinez Garcia (www.jonmartinezgarcia.neositios.com)(samylabs)
+ */
+package samy.cad; //Computer Aided design
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class SVertexWelderTest {
+
+    /**
+     * Sopa compacta con los triangulos de soup
+     */
+    private static SPackedMesh3D soup(float[] soup) {
+        SPackedMesh3D mesh = new SPackedMesh3D(soup.length / 3, false);
+        for (int t = 0; t < soup.length / 9; t++) {
+            float[] n = STestFiles.normal(soup, t);
+            int p = 9 * t;
+            mesh.addTriangle(n[0], n[1], n[2], soup[p], soup[p + 1], soup[p + 2],
+                    soup[p + 3], soup[p + 4], soup[p + 5], soup[p + 6], soup[p + 7], soup[p + 8]);
+        }
+        return mesh;
+    }
+
+    @Test
+    void cube() {
+        float[] cube = STestFiles.cube(2);
+        SVertexWelder welder = new SVertexWelder(1e-4, 8);
+        welder.add(soup(cube));
+        SPackedMesh3D mesh = welder.getMesh();
+        assertTrue(mesh.isIndexed());
+        assertEquals(8, welder.getVertexsCount());
+        assertEquals(8, mesh.getVertexsCount());
+        assertEquals(12, mesh.getTrianglesCount());
+        assertArrayEquals(cube, STestFiles.soup(Arrays.asList(mesh)), 0);
+        float[] normals = mesh.getNormals();
+        for (int v = 0; v < 8; v++) {
+            double length = Math.sqrt(normals[3 * v] * normals[3 * v] + normals[3 * v + 1] * normals[3 * v + 1] + normals[3 * v + 2] * normals[3 * v + 2]);
+            assertEquals(1, length, 1e-6);
+        }
+    }
+
+    @Test
+    void gridGrowsTable() {
+        //la tabla se pide para 1 vertice y se duplica varias veces
+        int n = 40;
+        float[] grid = STestFiles.grid(n);
+        SVertexWelder welder = new SVertexWelder(1e-4, 1);
+        welder.add(soup(grid));
+        SPackedMesh3D mesh = welder.getMesh();
+        assertEquals((n + 1) * (n + 1), mesh.getVertexsCount());
+        assertEquals(2 * n * n, mesh.getTrianglesCount());
+        assertArrayEquals(grid, STestFiles.soup(Arrays.asList(mesh)), 0);
+    }
+
+    @Test
+    void toleranceMergesAndDropsDegenerate() {
+        SVertexWelder welder = new SVertexWelder(0.1, 4);
+        int a = welder.addVertex(0, 0, 0, 0, 0, 1);
+        assertEquals(a, welder.addVertex(0.02f, -0.03f, 0.01f, 0, 0, 1)); //misma celda
+        int b = welder.addVertex(1, 0, 0, 0, 0, 1);
+        assertTrue(a != b);
+        assertEquals(2, welder.getVertexsCount());
+
+        welder.addTriangle(0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 0);
+        welder.addTriangle(0, 0, 1, 0, 0, 0, 1, 0, 0, 0.01f, 0.02f, 0); //dos vertices soldados: degenerado
+        SPackedMesh3D mesh = welder.getMesh();
+        assertEquals(3, mesh.getVertexsCount());
+        assertEquals(1, mesh.getTrianglesCount());
+    }
+
+    @Test
+    void colorsFollowKeptTriangles() {
+        float[] triangles = {
+            0, 0, 0, 1, 0, 0, 0, 1, 0,
+            0, 0, 0, 1e-6f, 0, 0, 0, 1, 0, //degenerado al soldar
+            1, 0, 0, 1, 1, 0, 0, 1, 0};
+        SPackedMesh3D soup = soup(triangles);
+        soup.palette = new SStylePalette();
+        soup.setColor(0, 0x11111111);
+        soup.setColor(1, 0x22222222);
+        soup.setColor(2, 0x33333333);
+        SVertexWelder welder = new SVertexWelder(1e-3, 4);
+        welder.add(soup);
+        SPackedMesh3D mesh = welder.getMesh();
+        assertEquals(2, mesh.getTrianglesCount());
+        assertEquals(4, mesh.getVertexsCount());
+        assertArrayEquals(new int[]{0x11111111, 0x33333333}, STestFiles.colors(Arrays.asList(mesh)));
+    }
+}